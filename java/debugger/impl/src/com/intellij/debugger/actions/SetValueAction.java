@@ -19,6 +19,7 @@ import com.intellij.debugger.DebuggerBundle;
 import com.intellij.debugger.DebuggerInvocationUtil;
 import com.intellij.debugger.DebuggerManagerEx;
 import com.intellij.debugger.engine.ContextUtil;
+import com.intellij.debugger.engine.DebugProcessImpl;
 import com.intellij.debugger.engine.evaluation.*;
 import com.intellij.debugger.engine.evaluation.expression.*;
 import com.intellij.debugger.engine.events.DebuggerContextCommandImpl;
@@ -67,6 +68,10 @@ public class SetValueAction extends DebuggerAction {
   }
 
   private void update(final DebuggerContextImpl context) {
+    final DebugProcessImpl debugProcess = context.getDebugProcess();
+    if (debugProcess != null) {
+      debugProcess.getVirtualMachineProxy().clearValueCache();
+    }
     DebuggerInvocationUtil.swingInvokeLater(context.getProject(), new Runnable() {
       public void run() {
         final DebuggerSession session = context.getDebuggerSession();
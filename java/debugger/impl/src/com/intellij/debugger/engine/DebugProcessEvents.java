@@ -42,6 +42,7 @@ import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.registry.Registry;
 import com.intellij.xdebugger.impl.XDebugSessionImpl;
 import com.sun.jdi.InternalException;
+import com.sun.jdi.ReferenceType;
 import com.sun.jdi.ThreadReference;
 import com.sun.jdi.VMDisconnectedException;
 import com.sun.jdi.VirtualMachine;
@@ -172,6 +173,25 @@ public class DebugProcessEvents extends DebugProcessImpl {
                   }
                 });
               }
+              else if (myVmProxy.isClassIndexRequest(event.request())) {
+                processed++;
+                if (event instanceof ClassPrepareEvent) {
+                  final ReferenceType type = ((ClassPrepareEvent)event).referenceType();
+                  getManagerThread().schedule(new DebuggerCommandImpl() {
+                    protected void action() throws Exception {
+                      getVirtualMachineProxy().classPrepared(type);
+                    }
+                  });
+                }
+                else if (event instanceof ClassUnloadEvent) {
+                  final String className = ((ClassUnloadEvent)event).className();
+                  getManagerThread().schedule(new DebuggerCommandImpl() {
+                    protected void action() throws Exception {
+                      getVirtualMachineProxy().classUnloaded(className);
+                    }
+                  });
+                }
+              }
             }
             
             if (processed == eventSet.size()) {
@@ -148,6 +148,10 @@ public abstract class SuspendContextImpl implements SuspendContext {
     return myResumedThreads != null ? myResumedThreads.contains(thread) : false;
   }
 
+  public boolean hasResumedThreads() {
+    return myResumedThreads != null && !myResumedThreads.isEmpty();
+  }
+
   public boolean suspends(ThreadReferenceProxyImpl thread) {
     assertNotResumed();
     if(isEvaluating()) {
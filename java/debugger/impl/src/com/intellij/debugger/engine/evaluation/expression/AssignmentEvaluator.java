@@ -51,6 +51,7 @@ public class AssignmentEvaluator implements Evaluator{
     }
     try {
       modifier.setValue(((Value)right));
+      context.getDebugProcess().getVirtualMachineProxy().clearValueCache();
     }
     catch (ClassNotLoadedException e) {
       if (!context.isAutoLoadClasses()) {
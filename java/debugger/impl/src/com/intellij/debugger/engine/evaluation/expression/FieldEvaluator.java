@@ -164,7 +164,7 @@ public class FieldEvaluator implements Evaluator {
       }
       myEvaluatedQualifier = field.isStatic()? (Object)refType : (Object)objRef;
       myEvaluatedField = field;
-      return field.isStatic()? refType.getValue(field) : objRef.getValue(field);
+      return field.isStatic()? refType.getValue(field) : context.getDebugProcess().getVirtualMachineProxy().getFieldValue(context.getSuspendContext(), objRef, field);
     }
 
     if(object == null) {
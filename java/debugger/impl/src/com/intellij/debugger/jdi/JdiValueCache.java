@@ -0,0 +1,120 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.debugger.jdi;
+
+import com.sun.jdi.ArrayReference;
+import com.sun.jdi.Field;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.Value;
+import gnu.trove.TIntObjectHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Field values and array elements read in bulk to save round-trips to remote VMs. The values are kept for the owner they were
+ * read for, i.e. a suspend context in which nothing can change them, and are dropped once they are requested for another one.
+ * Without an owner the values are read one by one and not kept.
+ */
+class JdiValueCache {
+  static final int ARRAY_PAGE_SIZE = 100;
+
+  private Object myOwner;
+  private final Map<ObjectReference, Map<Field, Value>> myFieldValues = new HashMap<ObjectReference, Map<Field, Value>>();
+  private final Map<ArrayReference, TIntObjectHashMap<List<Value>>> myArrayPages =
+    new HashMap<ArrayReference, TIntObjectHashMap<List<Value>>>();
+
+  void clear() {
+    myOwner = null;
+    myFieldValues.clear();
+    myArrayPages.clear();
+  }
+
+  void prefetchFieldValues(@Nullable Object owner, @NotNull ObjectReference object, @NotNull List<Field> fields) {
+    if (!use(owner)) return;
+    Map<Field, Value> values = myFieldValues.get(object);
+    final List<Field> toFetch = new ArrayList<Field>(fields.size());
+    for (Field field : fields) {
+      if (values == null || !values.containsKey(field)) {
+        toFetch.add(field);
+      }
+    }
+    if (toFetch.isEmpty()) {
+      return;
+    }
+    if (values == null) {
+      values = new HashMap<Field, Value>();
+      myFieldValues.put(object, values);
+    }
+    values.putAll(object.getValues(toFetch));
+  }
+
+  Value getFieldValue(@Nullable Object owner, @NotNull ObjectReference object, @NotNull Field field) {
+    if (!use(owner)) {
+      return object.getValue(field);
+    }
+    Map<Field, Value> values = myFieldValues.get(object);
+    if (values != null && values.containsKey(field)) {
+      return values.get(field);
+    }
+    final Value value = object.getValue(field);
+    if (values == null) {
+      values = new HashMap<Field, Value>();
+      myFieldValues.put(object, values);
+    }
+    values.put(field, value);
+    return value;
+  }
+
+  Value getArrayElement(@Nullable Object owner, @NotNull ArrayReference array, int index) {
+    if (!use(owner)) {
+      return array.getValue(index);
+    }
+    TIntObjectHashMap<List<Value>> pages = myArrayPages.get(array);
+    if (pages == null) {
+      pages = new TIntObjectHashMap<List<Value>>();
+      myArrayPages.put(array, pages);
+    }
+    final int pageIndex = index / ARRAY_PAGE_SIZE;
+    List<Value> page = pages.get(pageIndex);
+    if (page == null) {
+      final int pageStart = pageIndex * ARRAY_PAGE_SIZE;
+      final int length = array.length();
+      if (index < 0 || index >= length) {
+        // let JDI report the wrong index
+        return array.getValue(index);
+      }
+      page = array.getValues(pageStart, Math.min(ARRAY_PAGE_SIZE, length - pageStart));
+      pages.put(pageIndex, page);
+    }
+    return page.get(index % ARRAY_PAGE_SIZE);
+  }
+
+  private boolean use(@Nullable Object owner) {
+    if (owner == null) {
+      return false;
+    }
+    if (owner != myOwner) {
+      clear();
+      myOwner = owner;
+    }
+    return true;
+  }
+}
@@ -23,6 +23,7 @@ import com.intellij.debugger.DebuggerBundle;
 import com.intellij.debugger.engine.DebugProcess;
 import com.intellij.debugger.engine.DebugProcessImpl;
 import com.intellij.debugger.engine.DebuggerManagerThreadImpl;
+import com.intellij.debugger.engine.SuspendContextImpl;
 import com.intellij.debugger.engine.evaluation.EvaluateException;
 import com.intellij.debugger.engine.evaluation.EvaluateExceptionUtil;
 import com.intellij.debugger.engine.jdi.VirtualMachineProxy;
@@ -31,9 +32,13 @@ import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.containers.HashMap;
 import com.sun.jdi.*;
 import com.sun.jdi.event.EventQueue;
+import com.sun.jdi.request.ClassPrepareRequest;
+import com.sun.jdi.request.ClassUnloadRequest;
+import com.sun.jdi.request.EventRequest;
 import com.sun.jdi.request.EventRequestManager;
 import com.sun.tools.jdi.VoidValueImpl;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
@@ -54,6 +59,10 @@ public class VirtualMachineProxyImpl implements JdiTimer, VirtualMachineProxy {
   private boolean myAllThreadsDirty = true;
   private List<ReferenceType> myAllClasses;
   private Map<ReferenceType, List<ReferenceType>> myNestedClassesCache = new HashMap<ReferenceType, List<ReferenceType>>();
+  private Map<String, List<ReferenceType>> myClassesByName;
+  private ClassPrepareRequest myClassIndexPrepareRequest;
+  private ClassUnloadRequest myClassIndexUnloadRequest;
+  private final JdiValueCache myValueCache = new JdiValueCache();
 
   public Throwable mySuspendLogger = new Throwable();
   private final boolean myVersionHigher_15;
@@ -82,7 +91,78 @@ public class VirtualMachineProxyImpl implements JdiTimer, VirtualMachineProxy {
   }
 
   public List<ReferenceType> classesByName(String s) {
-    return myVirtualMachine.classesByName(s);
+    if (isJ2ME() || s.endsWith("]")) {
+      // array types are created without prepare events
+      return myVirtualMachine.classesByName(s);
+    }
+    final List<ReferenceType> classes = getClassesByName().get(s);
+    return classes == null ? Collections.<ReferenceType>emptyList() : Collections.unmodifiableList(classes);
+  }
+
+  /**
+   * Loaded classes by name, built from the list of all classes once and then updated from class prepare and unload events,
+   * so lookups don't scan all classes of the VM
+   */
+  private Map<String, List<ReferenceType>> getClassesByName() {
+    Map<String, List<ReferenceType>> classesByName = myClassesByName;
+    if (classesByName == null) {
+      // listen first, so that classes loaded meanwhile aren't missed
+      final EventRequestManager requestManager = eventRequestManager();
+      final ClassPrepareRequest prepareRequest = requestManager.createClassPrepareRequest();
+      prepareRequest.setSuspendPolicy(EventRequest.SUSPEND_NONE);
+      prepareRequest.enable();
+      final ClassUnloadRequest unloadRequest = requestManager.createClassUnloadRequest();
+      unloadRequest.setSuspendPolicy(EventRequest.SUSPEND_NONE);
+      unloadRequest.enable();
+      myClassIndexPrepareRequest = prepareRequest;
+      myClassIndexUnloadRequest = unloadRequest;
+
+      classesByName = new HashMap<String, List<ReferenceType>>();
+      for (ReferenceType type : myVirtualMachine.allClasses()) {
+        if (!(type instanceof ArrayType)) {
+          addClass(classesByName, type);
+        }
+      }
+      myClassesByName = classesByName;
+    }
+    return classesByName;
+  }
+
+  private static void addClass(Map<String, List<ReferenceType>> classesByName, ReferenceType type) {
+    final String name = type.name();
+    List<ReferenceType> classes = classesByName.get(name);
+    if (classes == null) {
+      classes = new ArrayList<ReferenceType>(1);
+      classesByName.put(name, classes);
+    }
+    if (!classes.contains(type)) {
+      classes.add(type);
+    }
+  }
+
+  public boolean isClassIndexRequest(EventRequest request) {
+    return request != null && (request == myClassIndexPrepareRequest || request == myClassIndexUnloadRequest);
+  }
+
+  public void classPrepared(ReferenceType type) {
+    DebuggerManagerThreadImpl.assertIsManagerThread();
+    if (myClassesByName != null) {
+      addClass(myClassesByName, type);
+    }
+  }
+
+  public void classUnloaded(String className) {
+    DebuggerManagerThreadImpl.assertIsManagerThread();
+    if (myClassesByName != null && myClassesByName.containsKey(className)) {
+      // the unloaded type can't be told apart from types with the same name loaded by other class loaders
+      final List<ReferenceType> classes = myVirtualMachine.classesByName(className);
+      if (classes.isEmpty()) {
+        myClassesByName.remove(className);
+      }
+      else {
+        myClassesByName.put(className, new ArrayList<ReferenceType>(classes));
+      }
+    }
   }
 
   public List<ReferenceType> nestedTypes(ReferenceType refType) {
@@ -613,9 +693,51 @@ public class VirtualMachineProxyImpl implements JdiTimer, VirtualMachineProxy {
       myNestedClassesCache = new HashMap<ReferenceType, List<ReferenceType>>(myNestedClassesCache.size());
     }
     //myAllThreadsDirty = true;
+    clearValueCache();
     myTimeStamp++;
   }
 
+  /**
+   * Should be called after values in the VM have been changed without resuming it
+   */
+  public void clearValueCache() {
+    myValueCache.clear();
+  }
+
+  /**
+   * Reads values of the fields with a single request and keeps them while nothing can change them in the suspend context
+   */
+  public void prefetchFieldValues(@Nullable SuspendContextImpl suspendContext, @NotNull ObjectReference object, @NotNull List<Field> fields) {
+    DebuggerManagerThreadImpl.assertIsManagerThread();
+    myValueCache.prefetchFieldValues(getValueCacheOwner(suspendContext), object, fields);
+  }
+
+  public Value getFieldValue(@Nullable SuspendContextImpl suspendContext, @NotNull ObjectReference object, @NotNull Field field) {
+    DebuggerManagerThreadImpl.assertIsManagerThread();
+    return myValueCache.getFieldValue(getValueCacheOwner(suspendContext), object, field);
+  }
+
+  /**
+   * Reads array elements by pages and keeps them while nothing can change them in the suspend context
+   */
+  public Value getArrayElement(@Nullable SuspendContextImpl suspendContext, @NotNull ArrayReference array, int index) {
+    DebuggerManagerThreadImpl.assertIsManagerThread();
+    return myValueCache.getArrayElement(getValueCacheOwner(suspendContext), array, index);
+  }
+
+  /**
+   * Values may be kept only while all threads are suspended: under other policies, or with some threads resumed,
+   * running threads may change them at any time
+   */
+  @Nullable
+  private static SuspendContextImpl getValueCacheOwner(@Nullable SuspendContextImpl suspendContext) {
+    if (suspendContext == null || suspendContext.isResumed() || suspendContext.isEvaluating() ||
+        suspendContext.getSuspendPolicy() != EventRequest.SUSPEND_ALL || suspendContext.hasResumedThreads()) {
+      return null;
+    }
+    return suspendContext;
+  }
+
   public int getCurrentTime() {
     return myTimeStamp;
   }
@@ -247,6 +247,12 @@ public abstract class BreakpointWithHighlighter extends Breakpoint {
         buf.append("&nbsp;<br>&nbsp;");
         buf.append(DebuggerBundle.message("breakpoint.property.name.condition")).append(": ");
         buf.append(XmlStringUtil.escapeString(getCondition().getText()));
+        final int evaluationCount = getConditionEvaluationCount();
+        if (evaluationCount > 0) {
+          buf.append("&nbsp;<br>&nbsp;");
+          buf.append(DebuggerBundle.message("breakpoint.property.name.condition.timing", evaluationCount,
+                                            String.format("%.3f", getAverageConditionEvaluationTime())));
+        }
       }
       if (COUNT_FILTER_ENABLED) {
         buf.append("&nbsp;<br>&nbsp;");
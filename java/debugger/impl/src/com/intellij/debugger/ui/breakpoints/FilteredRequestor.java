@@ -34,6 +34,7 @@ import com.intellij.openapi.util.*;
 import com.intellij.psi.PsiElement;
 import com.intellij.ui.classFilter.ClassFilter;
 import com.sun.jdi.BooleanValue;
+import com.sun.jdi.Location;
 import com.sun.jdi.ObjectReference;
 import com.sun.jdi.VMDisconnectedException;
 import com.sun.jdi.Value;
@@ -55,6 +56,11 @@ public abstract class FilteredRequestor implements LocatableEventRequestor, JDOM
 
   public boolean CONDITION_ENABLED        = false;
   private TextWithImports myCondition;
+  private ExpressionEvaluator myConditionEvaluator;
+  private Location myConditionEvaluatorLocation;
+  // updated on the manager thread only
+  private volatile int myConditionEvaluationCount;
+  private volatile long myConditionEvaluationTime;
 
   public boolean CLASS_FILTERS_ENABLED    = false;
   private ClassFilter[] myClassFilters          = ClassFilter.EMPTY_ARRAY;
@@ -175,21 +181,9 @@ public abstract class FilteredRequestor implements LocatableEventRequestor, JDOM
     }
 
     if (CONDITION_ENABLED && getCondition() != null && !"".equals(getCondition().getText())) {
+      final long start = System.nanoTime();
       try {
-        ExpressionEvaluator evaluator = DebuggerInvocationUtil.commitAndRunReadAction(context.getProject(), new EvaluatingComputable<ExpressionEvaluator>() {
-          public ExpressionEvaluator compute() throws EvaluateException {
-            final SourcePosition contextSourcePosition = ContextUtil.getSourcePosition(context);
-            // IMPORTANT: calculate context psi element basing on the location where the exception
-            // has been hit, not on the location where it was set. (For line breakpoints these locations are the same, however, 
-            // for method, exception and field breakpoints these locations differ)
-            PsiElement contextPsiElement = ContextUtil.getContextElement(contextSourcePosition);
-            if (contextPsiElement == null) {
-              contextPsiElement = getEvaluationElement(); // as a last resort
-            }
-            return EvaluatorBuilderImpl.build(getCondition(), contextPsiElement, contextSourcePosition);
-          }
-        });
-        final Value value = evaluator.evaluate(context);
+        final Value value = getConditionEvaluator(context, event).evaluate(context);
         if (!(value instanceof BooleanValue)) {
           throw EvaluateExceptionUtil.createEvaluateException(DebuggerBundle.message("evaluation.error.boolean.expected"));
         }
@@ -198,6 +192,7 @@ public abstract class FilteredRequestor implements LocatableEventRequestor, JDOM
         }
       }
       catch (EvaluateException ex) {
+        myConditionEvaluator = null;
         if(ex.getCause() instanceof VMDisconnectedException) {
           return false;
         }
@@ -205,12 +200,59 @@ public abstract class FilteredRequestor implements LocatableEventRequestor, JDOM
           DebuggerBundle.message("error.failed.evaluating.breakpoint.condition", getCondition(), ex.getMessage())
         );
       }
+      finally {
+        myConditionEvaluationCount++;
+        myConditionEvaluationTime += System.nanoTime() - start;
+      }
       return true;
     }
 
     return true;
   }
 
+  /**
+   * The evaluator is built from the source once per location of the breakpoint and then reused on next hits,
+   * so a hit doesn't need to look up the source position and to parse the condition again
+   */
+  private ExpressionEvaluator getConditionEvaluator(final EvaluationContextImpl context, LocatableEvent event) throws EvaluateException {
+    final Location location = event.location();
+    final ExpressionEvaluator cached = myConditionEvaluator;
+    if (cached != null && location.equals(myConditionEvaluatorLocation)) {
+      return cached;
+    }
+    final ExpressionEvaluator evaluator = DebuggerInvocationUtil.commitAndRunReadAction(context.getProject(), new EvaluatingComputable<ExpressionEvaluator>() {
+      public ExpressionEvaluator compute() throws EvaluateException {
+        final SourcePosition contextSourcePosition = ContextUtil.getSourcePosition(context);
+        // IMPORTANT: calculate context psi element basing on the location where the exception
+        // has been hit, not on the location where it was set. (For line breakpoints these locations are the same, however, 
+        // for method, exception and field breakpoints these locations differ)
+        PsiElement contextPsiElement = ContextUtil.getContextElement(contextSourcePosition);
+        if (contextPsiElement == null) {
+          contextPsiElement = getEvaluationElement(); // as a last resort
+        }
+        return EvaluatorBuilderImpl.build(getCondition(), contextPsiElement, contextSourcePosition);
+      }
+    });
+    myConditionEvaluatorLocation = location;
+    myConditionEvaluator = evaluator;
+    return evaluator;
+  }
+
+  /**
+   * @return how many times the condition has been evaluated since it was set
+   */
+  public int getConditionEvaluationCount() {
+    return myConditionEvaluationCount;
+  }
+
+  /**
+   * @return average time of the condition evaluation in milliseconds
+   */
+  public double getAverageConditionEvaluationTime() {
+    final int count = myConditionEvaluationCount;
+    return count == 0 ? 0 : myConditionEvaluationTime / 1000000.0 / count;
+  }
+
   public abstract PsiElement getEvaluationElement();
 
   public TextWithImports getCondition() {
@@ -219,6 +261,9 @@ public abstract class FilteredRequestor implements LocatableEventRequestor, JDOM
 
   public void setCondition(TextWithImports condition) {
     myCondition = condition;
+    myConditionEvaluator = null;
+    myConditionEvaluationCount = 0;
+    myConditionEvaluationTime = 0;
   }
 
   public Project getProject() {
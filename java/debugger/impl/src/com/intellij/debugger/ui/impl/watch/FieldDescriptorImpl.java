@@ -127,7 +127,9 @@ public class FieldDescriptorImpl extends ValueDescriptorImpl implements FieldDes
   public Value calcValue(EvaluationContextImpl evaluationContext) throws EvaluateException {
     DebuggerManagerThreadImpl.assertIsManagerThread();
     try {
-      return (myObject != null) ? myObject.getValue(myField) : myField.declaringType().getValue(myField);
+      return (myObject != null)
+             ? evaluationContext.getDebugProcess().getVirtualMachineProxy().getFieldValue(evaluationContext.getSuspendContext(), myObject, myField)
+             : myField.declaringType().getValue(myField);
     }
     catch (ObjectCollectedException e) {
       throw EvaluateExceptionUtil.OBJECT_WAS_COLLECTED;
@@ -17,8 +17,10 @@ package com.intellij.debugger.ui.tree.render;
 
 import com.intellij.debugger.DebuggerBundle;
 import com.intellij.debugger.DebuggerContext;
+import com.intellij.debugger.engine.DebugProcessImpl;
 import com.intellij.debugger.engine.DebuggerManagerThreadImpl;
 import com.intellij.debugger.engine.DebuggerUtils;
+import com.intellij.debugger.engine.SuspendContextImpl;
 import com.intellij.debugger.engine.evaluation.EvaluateException;
 import com.intellij.debugger.engine.evaluation.EvaluationContext;
 import com.intellij.debugger.engine.jdi.StackFrameProxy;
@@ -162,10 +164,14 @@ public class ClassRenderer extends NodeRendererImpl{
       // default ObjectReference processing
       final List<Field> fields = refType.allFields();
       if (fields.size() > 0) {
+        final List<Field> fieldsToDisplay = new ArrayList<Field>(fields.size());
         for (final Field field : fields) {
-          if (!shouldDisplay(evaluationContext, objRef, field)) {
-            continue;
+          if (shouldDisplay(evaluationContext, objRef, field)) {
+            fieldsToDisplay.add(field);
           }
+        }
+        prefetchValues(evaluationContext, objRef, fieldsToDisplay);
+        for (final Field field : fieldsToDisplay) {
           children.add(nodeManager.createNode(nodeDescriptorFactory.getFieldDescriptor(parentDescriptor, objRef, field), evaluationContext));
         }
 
@@ -180,6 +186,17 @@ public class ClassRenderer extends NodeRendererImpl{
     builder.setChildren(children);
   }
 
+  private static void prefetchValues(EvaluationContext context, ObjectReference objRef, List<Field> fields) {
+    if (fields.isEmpty()) return;
+    try {
+      ((DebugProcessImpl)context.getDebugProcess()).getVirtualMachineProxy()
+        .prefetchFieldValues((SuspendContextImpl)context.getSuspendContext(), objRef, fields);
+    }
+    catch (ObjectCollectedException ignored) {
+      // will be reported by the field nodes
+    }
+  }
+
   private boolean shouldDisplay(EvaluationContext context, @NotNull ObjectReference objInstance, @NotNull Field field) {
     final boolean isSynthetic = DebuggerUtils.isSynthetic(field);
     if (!SHOW_SYNTHETICS && isSynthetic) {
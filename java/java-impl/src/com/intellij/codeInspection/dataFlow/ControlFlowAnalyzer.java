@@ -1254,7 +1254,8 @@ class ControlFlowAnalyzer extends JavaElementVisitor {
       }
 
       MethodCallInstruction callInstruction = new MethodCallInstruction(expression, createChainedVariableValue(expression));
-      if (!DfaValueFactory.isEffectivelyUnqualified(methodExpression)) {
+      if (!DfaValueFactory.isEffectivelyUnqualified(methodExpression) ||
+          method instanceof PsiMethod && MethodSummaryIndex.isPure((PsiMethod)method)) {
         callInstruction.setShouldFlushFields(false);
       }
       addInstruction(callInstruction);
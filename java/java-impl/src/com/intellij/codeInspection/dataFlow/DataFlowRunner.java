@@ -116,7 +116,11 @@ public class DataFlowRunner {
         return RunnerResult.TOO_COMPLEX;
       }
 
-      final ArrayList<DfaInstructionState> queue = new ArrayList<DfaInstructionState>();
+      // closure states are captured at arbitrary instructions, so variables can't be flushed at join points for them
+      final LiveVariablesAnalyzer liveVariables = visitor instanceof EnvironmentalInstructionVisitor
+                                                  ? null : new LiveVariablesAnalyzer(myInstructions);
+
+      final Queue<DfaInstructionState> queue = new ArrayDeque<DfaInstructionState>();
       for (final DfaMemoryState initialState : initialStates) {
         queue.add(new DfaInstructionState(myInstructions[0], initialState));
       }
@@ -133,7 +137,7 @@ public class DataFlowRunner {
         }
         ProgressManager.checkCanceled();
 
-        DfaInstructionState instructionState = queue.remove(0);
+        DfaInstructionState instructionState = queue.remove();
         if (LOG.isDebugEnabled()) {
           LOG.debug(instructionState.toString());
         }
@@ -141,7 +145,11 @@ public class DataFlowRunner {
         Instruction instruction = instructionState.getInstruction();
         long distance = instructionState.getDistanceFromStart();
 
-        if (instruction instanceof BranchingInstruction) {
+        if (isMemoizedAt(instruction, liveVariables)) {
+          if (liveVariables != null && instruction.isMemoryStateProcessed(instructionState.getMemoryState())) {
+            // an equal state was queued earlier and has been processed already
+            continue;
+          }
           if (!instruction.setMemoryStateProcessed(instructionState.getMemoryState().createCopy())) {
             LOG.debug("Too complex because too many different possible states");
             return RunnerResult.TOO_COMPLEX; // Too complex :(
@@ -156,7 +164,10 @@ public class DataFlowRunner {
         if (after != null) {
           for (DfaInstructionState state : after) {
             Instruction nextInstruction = state.getInstruction();
-            if ((!(nextInstruction instanceof BranchingInstruction) || !nextInstruction.isMemoryStateProcessed(state.getMemoryState())) && instruction.getIndex() < endOffset) {
+            if (liveVariables != null && liveVariables.isJoinPoint(nextInstruction.getIndex())) {
+              mergeWithEqualStates(state, after, liveVariables);
+            }
+            if ((!isMemoizedAt(nextInstruction, liveVariables) || !nextInstruction.isMemoryStateProcessed(state.getMemoryState())) && instruction.getIndex() < endOffset) {
               state.setDistanceFromStart(distance + 1);
               queue.add(state);
             }
@@ -182,6 +193,26 @@ public class DataFlowRunner {
     }
   }
 
+  private static boolean isMemoizedAt(Instruction instruction, @Nullable LiveVariablesAnalyzer liveVariables) {
+    return instruction instanceof BranchingInstruction || liveVariables != null && liveVariables.isJoinPoint(instruction.getIndex());
+  }
+
+  /**
+   * Flushes variables which are not read after the join point, so that states which differ only in such variables
+   * become equal and are processed once
+   */
+  private static void mergeWithEqualStates(DfaInstructionState state, DfaInstructionState[] siblings, LiveVariablesAnalyzer liveVariables) {
+    final DfaMemoryState memoryState = state.getMemoryState();
+    if (!(memoryState instanceof DfaMemoryStateImpl)) return;
+    for (DfaInstructionState sibling : siblings) {
+      if (sibling != state && sibling.getMemoryState() == memoryState) {
+        // the state is shared with another successor which may need the variables
+        return;
+      }
+    }
+    ((DfaMemoryStateImpl)memoryState).flushDeadVariables(liveVariables.getLiveVariables(state.getInstruction().getIndex()));
+  }
+
   protected ControlFlowAnalyzer createControlFlowAnalyzer() {
     return new ControlFlowAnalyzer(myValueFactory);
   }
@@ -32,7 +32,6 @@ import com.intellij.psi.JavaTokenType;
 import com.intellij.psi.PsiPrimitiveType;
 import com.intellij.psi.PsiType;
 import com.intellij.psi.util.TypeConversionUtil;
-import com.intellij.util.ArrayUtil;
 import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.containers.Stack;
 import gnu.trove.*;
@@ -46,12 +45,22 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
   private static final Logger LOG = Logger.getInstance("#com.intellij.codeInspection.dataFlow.DfaMemoryStateImpl");
   private final DfaValueFactory myFactory;
 
-  private final ArrayList<SortedIntSet> myEqClasses = new ArrayList<SortedIntSet>();
+  /*
+   * Equivalence classes, distinct pairs and variable states are shared between a state and its copies
+   * and are copied on first modification, so that branching doesn't copy anything the branches don't change.
+   * Shared collections and their elements must only be modified through the *ForWrite() methods.
+   */
+  private ArrayList<SortedIntSet> myEqClasses = new ArrayList<SortedIntSet>();
+  private boolean myEqClassesShared;
+  private final BitSet myOwnEqClasses = new BitSet();
   private int myStateSize = 0;
   private final Stack<DfaValue> myStack = new Stack<DfaValue>();
   private TIntStack myOffsetStack = new TIntStack(1);
-  private final TLongHashSet myDistinctClasses = new TLongHashSet();
-  private final THashMap<DfaVariableValue,DfaVariableState> myVariableStates = new THashMap<DfaVariableValue, DfaVariableState>();
+  private TLongHashSet myDistinctClasses = new TLongHashSet();
+  private boolean myDistinctClassesShared;
+  private THashMap<DfaVariableValue,DfaVariableState> myVariableStates = new THashMap<DfaVariableValue, DfaVariableState>();
+  private boolean myVariableStatesShared;
+  private final Set<DfaVariableValue> myOwnVariableStates = new THashSet<DfaVariableValue>();
 
   public DfaMemoryStateImpl(final DfaValueFactory factory) {
     myFactory = factory;
@@ -70,19 +79,58 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
 
     //noinspection unchecked
     newState.myStack.addAll(myStack);
-    newState.myDistinctClasses.addAll(myDistinctClasses.toArray());
     newState.myStateSize = myStateSize;
     newState.myOffsetStack = new TIntStack(myOffsetStack);
 
-    for (int i = 0; i < myEqClasses.size(); i++) {
-      SortedIntSet aClass = myEqClasses.get(i);
-      newState.myEqClasses.add(aClass != null ? new SortedIntSet(aClass.toNativeArray()) : null);
+    newState.myEqClasses = myEqClasses;
+    newState.myDistinctClasses = myDistinctClasses;
+    newState.myVariableStates = myVariableStates;
+    newState.myEqClassesShared = myEqClassesShared = true;
+    newState.myDistinctClassesShared = myDistinctClassesShared = true;
+    newState.myVariableStatesShared = myVariableStatesShared = true;
+    myOwnEqClasses.clear();
+    myOwnVariableStates.clear();
+    return newState;
+  }
+
+  private ArrayList<SortedIntSet> getEqClassesForWrite() {
+    if (myEqClassesShared) {
+      myEqClasses = new ArrayList<SortedIntSet>(myEqClasses);
+      myEqClassesShared = false;
     }
+    return myEqClasses;
+  }
 
-    for (DfaVariableValue dfaVariableValue : myVariableStates.keySet()) {
-      newState.myVariableStates.put(dfaVariableValue, myVariableStates.get(dfaVariableValue).clone());
+  private SortedIntSet getEqClassForWrite(int index) {
+    SortedIntSet aClass = getEqClassesForWrite().get(index);
+    if (aClass != null && !myOwnEqClasses.get(index)) {
+      aClass = new SortedIntSet(aClass.toNativeArray());
+      myEqClasses.set(index, aClass);
+      myOwnEqClasses.set(index);
     }
-    return newState;
+    return aClass;
+  }
+
+  private void removeEqClass(int index) {
+    getEqClassesForWrite().set(index, null);
+    myOwnEqClasses.clear(index);
+    myStateSize--;
+  }
+
+  private TLongHashSet getDistinctClassesForWrite() {
+    if (myDistinctClassesShared) {
+      myDistinctClasses = (TLongHashSet)myDistinctClasses.clone();
+      myDistinctClassesShared = false;
+    }
+    return myDistinctClasses;
+  }
+
+  private THashMap<DfaVariableValue, DfaVariableState> getVariableStatesForWrite() {
+    if (myVariableStatesShared) {
+      myVariableStates = new THashMap<DfaVariableValue, DfaVariableState>((Map<DfaVariableValue, DfaVariableState>)myVariableStates);
+      myVariableStatesShared = false;
+    }
+    return myVariableStates;
   }
 
   public boolean equals(Object obj) {
@@ -95,7 +143,8 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
 
     if (!myStack.equals(that.myStack)) return false;
     if (!myOffsetStack.equals(that.myOffsetStack)) return false;
-    if (!myVariableStates.equals(that.myVariableStates)) return false;
+    if (myVariableStates != that.myVariableStates && !myVariableStates.equals(that.myVariableStates)) return false;
+    if (myEqClasses == that.myEqClasses && myDistinctClasses == that.myDistinctClasses) return true;
 
     int[] permutation = getPermutationToSortedState();
     int[] thatPermutation = that.getPermutationToSortedState();
@@ -120,45 +169,42 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
   }
 
   private long[] getSortedDistinctClasses(int[] permutation) {
+    int[] inverse = new int[permutation.length];
+    for (int i = 0; i < permutation.length; i++) {
+      inverse[permutation[i]] = i;
+    }
     long[] pairs = myDistinctClasses.toArray();
     for (int i = 0; i < pairs.length; i++) {
-      pairs[i] = convert(pairs[i], permutation);
+      pairs[i] = convert(pairs[i], inverse);
     }
     Arrays.sort(pairs);
     return pairs;
   }
 
-  private long convert(long pair, int[] permutation) {
+  private long convert(long pair, int[] inversePermutation) {
     if (myEqClasses.get(low(pair)) == null || myEqClasses.get(high(pair)) == null) {
       return -1L;
     }
-    return createPair(inversePermutation(permutation, low(pair)), inversePermutation(permutation, high(pair)));
-  }
-
-  private static int inversePermutation(int[] permutation, int idx) {
-    for (int i = 0; i < permutation.length; i++) {
-      if (idx == permutation[i]) return i;
-    }
-    return -1;
+    return createPair(inversePermutation[low(pair)], inversePermutation[high(pair)]);
   }
 
   private int[] getPermutationToSortedState() {
     int size = myEqClasses.size();
-    int[] permutation = ArrayUtil.newIntArray(size);
+    Integer[] indices = new Integer[size];
     for (int i = 0; i < size; i++) {
-      permutation[i] = i;
+      indices[i] = i;
     }
-
-    for (int i = 0; i < permutation.length; i++) {
-      for (int j = i + 1; j < permutation.length; j++) {
-        if (compare(permutation[i], permutation[j]) > 0) {
-          int t = permutation[i];
-          permutation[i] = permutation[j];
-          permutation[j] = t;
-        }
+    Arrays.sort(indices, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer i1, Integer i2) {
+        return DfaMemoryStateImpl.this.compare(i1, i2);
       }
-    }
+    });
 
+    int[] permutation = new int[size];
+    for (int i = 0; i < size; i++) {
+      permutation[i] = indices[i];
+    }
     return permutation;
   }
 
@@ -171,9 +217,22 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
     return s1.compareTo(s2);
   }
 
+  /**
+   * Computed over the canonical (sorted) form of equivalence classes, so equal states have equal hashes
+   * regardless of the order their classes were created in
+   */
   public int hashCode() {
-    return 0;
-    //return myEqClasses.hashCode() + myStack.hashCode() + myVariableStates.hashCode();
+    int hash = myStateSize;
+    hash = 31 * hash + myStack.hashCode();
+    hash = 31 * hash + myVariableStates.hashCode();
+
+    int[] permutation = getPermutationToSortedState();
+    for (int i = 0; i < myStateSize; i++) {
+      SortedIntSet aClass = myEqClasses.get(permutation[i]);
+      if (aClass == null) break;
+      hash = 31 * hash + Arrays.hashCode(aClass.toNativeArray());
+    }
+    return 31 * hash + Arrays.hashCode(getSortedDistinctClasses(permutation));
   }
 
   private void appendClass(StringBuffer buf, int aClassIndex) {
@@ -253,11 +312,11 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
 
     flushVariable(var);
     if (value instanceof DfaUnknownValue) {
-      getVariableState(var).setNullable(false);
+      getVariableStateForWrite(var).setNullable(false);
       return;
     }
 
-    getVariableState(var).setValue(value);
+    getVariableStateForWrite(var).setValue(value);
     if (value instanceof DfaNotNullValue) {
       DfaTypeValue dfaType = myFactory.getTypeFactory().create(((DfaNotNullValue)value).getType());
       DfaRelationValue dfaInstanceof = myFactory.getRelationFactory().createRelation(var, dfaType, JavaTokenType.INSTANCEOF_KEYWORD, false);
@@ -265,7 +324,7 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
       applyCondition(compareToNull(var, true));
     }
     else if (value instanceof DfaTypeValue) {
-      getVariableState(var).setNullable(((DfaTypeValue)value).isNullable());
+      getVariableStateForWrite(var).setNullable(((DfaTypeValue)value).isNullable());
       DfaRelationValue dfaInstanceof = myFactory.getRelationFactory().createRelation(var, value, JavaTokenType.INSTANCEOF_KEYWORD, false);
       applyInstanceofOrNull(dfaInstanceof);
     }
@@ -275,7 +334,8 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
       applyCondition(dfaEqual);
 
       if (value instanceof DfaVariableValue) {
-        myVariableStates.put(var, getVariableState((DfaVariableValue)value).clone());
+        getVariableStatesForWrite().put(var, getVariableState((DfaVariableValue)value).clone());
+        myOwnVariableStates.add(var);
       }
     }
 
@@ -293,7 +353,8 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
     }
     SortedIntSet aClass = new SortedIntSet();
     aClass.add(dfaValue.getID());
-    myEqClasses.add(aClass);
+    getEqClassesForWrite().add(aClass);
+    myOwnEqClasses.set(myEqClasses.size() - 1);
     myStateSize++;
 
     return myEqClasses.size() - 1;
@@ -443,6 +504,7 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
       }
     }
 
+    c1 = getEqClassForWrite(c1Index);
     for (int i = 0; i < c2.size(); i++) {
       int c = c2.get(i);
       c1.add(c);
@@ -450,11 +512,10 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
 
     for (int i = 0; i < c2Pairs.size(); i++) {
       long c = c2Pairs.get(i);
-      myDistinctClasses.remove(c);
+      getDistinctClassesForWrite().remove(c);
       myDistinctClasses.add(createPair(c1Index, low(c) == c2Index ? high(c) : low(c)));
     }
-    myEqClasses.set(c2Index, null);
-    myStateSize--;
+    removeEqClass(c2Index);
 
     return true;
   }
@@ -483,7 +544,7 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
   }
 
   private void makeClassesDistinct(int c1Index, int c2Index) {
-    myDistinctClasses.add(createPair(c1Index, c2Index));
+    getDistinctClassesForWrite().add(createPair(c1Index, c2Index));
   }
 
   public boolean isNull(DfaValue dfaValue) {
@@ -537,8 +598,7 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
     DfaVariableValue dfaVar = (DfaVariableValue)left;
     DfaTypeValue dfaType = (DfaTypeValue)dfaCond.getRightOperand();
 
-    final DfaVariableState varState = getVariableState(dfaVar);
-    return isNull(dfaVar) || varState.setInstanceofValue(dfaType);
+    return isNull(dfaVar) || getVariableStateForWrite(dfaVar).setInstanceofValue(dfaType);
   }
 
   public boolean applyCondition(DfaValue dfaCond) {
@@ -579,7 +639,7 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
 
     if (dfaRight instanceof DfaTypeValue) {
       if (dfaLeft instanceof DfaVariableValue) {
-        DfaVariableState varState = getVariableState((DfaVariableValue)dfaLeft);
+        DfaVariableState varState = getVariableStateForWrite((DfaVariableValue)dfaLeft);
         DfaVariableValue dfaVar = (DfaVariableValue)dfaLeft;
         if (isNegated) {
           return varState.addNotInstanceofValue((DfaTypeValue)dfaRight) || applyCondition(compareToNull(dfaVar, false));
@@ -618,7 +678,7 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
       if (isNotNull(dfaVar)) {
         return true;
       }
-      getVariableState(dfaVar).setNullable(true);
+      getVariableStateForWrite(dfaVar).setNullable(true);
     }
     return false;
   }
@@ -745,12 +805,16 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
     return myFactory.getRelationFactory().createRelation(dfaVar, dfaNull, JavaTokenType.EQEQ, negated);
   }
 
+  /**
+   * @return state of the variable, which may be shared with copies of this memory state and so must not be modified,
+   * use {@link #getVariableStateForWrite(DfaVariableValue)} to modify it
+   */
   public DfaVariableState getVariableState(DfaVariableValue dfaVar) {
     DfaVariableState state = myVariableStates.get(dfaVar);
-
     if (state == null) {
       state = createVariableState(dfaVar);
-      myVariableStates.put(dfaVar, state);
+      getVariableStatesForWrite().put(dfaVar, state);
+      myOwnVariableStates.add(dfaVar);
       PsiType type = dfaVar.getVariableType();
       if (type != null) {
         state.setInstanceofValue(myFactory.getTypeFactory().create(type));
@@ -760,6 +824,22 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
     return state;
   }
 
+  /**
+   * @return state of the variable owned by this memory state, so it may be modified by the caller
+   */
+  public DfaVariableState getVariableStateForWrite(DfaVariableValue dfaVar) {
+    DfaVariableState state = getVariableState(dfaVar);
+    if (!myOwnVariableStates.contains(dfaVar)) {
+      state = state.clone();
+      getVariableStatesForWrite().put(dfaVar, state);
+      myOwnVariableStates.add(dfaVar);
+    }
+    return state;
+  }
+
+  /**
+   * @return read-only view of variable states, use {@link #getVariableStateForWrite(DfaVariableValue)} to modify them
+   */
   protected Map<DfaVariableValue, DfaVariableState> getVariableStates() {
     return myVariableStates;
   }
@@ -773,12 +853,46 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
       if (myVariableStates.containsKey(field) || getEqClassIndex(field) >= 0) {
         if (!DfaUtil.isFinalField(field.getPsiVariable())) {
           flushVariable(field);
-          getVariableState(field).setNullable(false);
+          getVariableStateForWrite(field).setNullable(false);
         }
       }
     }
   }
 
+  /**
+   * Flushes all variables except the given ones, see {@link LiveVariablesAnalyzer}
+   * @param liveVariables ids of non-negated variables to keep
+   */
+  void flushDeadVariables(@NotNull BitSet liveVariables) {
+    if (!myStack.isEmpty()) {
+      // values on the stack may refer to any variable
+      return;
+    }
+    Set<DfaVariableValue> deadVariables = new THashSet<DfaVariableValue>();
+    for (DfaVariableValue variable : myVariableStates.keySet()) {
+      addIfDead(variable, liveVariables, deadVariables);
+    }
+    for (SortedIntSet aClass : myEqClasses) {
+      if (aClass == null) continue;
+      for (int i = 0; i < aClass.size(); i++) {
+        DfaVariableValue variable = LiveVariablesAnalyzer.getReferencedVariable(myFactory.getValue(aClass.get(i)));
+        if (variable != null) {
+          addIfDead(variable, liveVariables, deadVariables);
+        }
+      }
+    }
+    for (DfaVariableValue variable : deadVariables) {
+      flushVariable(variable);
+    }
+  }
+
+  private static void addIfDead(DfaVariableValue variable, BitSet liveVariables, Set<DfaVariableValue> deadVariables) {
+    DfaVariableValue plain = LiveVariablesAnalyzer.getPlainVariable(variable);
+    if (!liveVariables.get(plain.getID())) {
+      deadVariables.add(plain);
+    }
+  }
+
   public void flushVariable(@NotNull DfaVariableValue variable) {
     doFlush(variable);
     flushDependencies(variable);
@@ -804,7 +918,7 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
     int size = myEqClasses.size();
     int interruptCount = 0;
     for (int varClassIndex = 0; varClassIndex < size; varClassIndex++) {
-      final SortedIntSet varClass = myEqClasses.get(varClassIndex);
+      SortedIntSet varClass = myEqClasses.get(varClassIndex);
       if (varClass == null) continue;
 
       for (int i = 0; i < varClass.size(); i++) {
@@ -814,18 +928,18 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
         int cl = varClass.get(i);
         DfaValue value = myFactory.getValue(cl);
         if (mine(idPlain, value) || mine(idNegated, value)) {
+          varClass = getEqClassForWrite(varClassIndex);
           varClass.remove(i);
           break;
         }
       }
 
       if (varClass.isEmpty()) {
-        myEqClasses.set(varClassIndex, null);
-        myStateSize--;
+        removeEqClass(varClassIndex);
         long[] pairs = myDistinctClasses.toArray();
         for (long pair : pairs) {
           if (low(pair) == varClassIndex || high(pair) == varClassIndex) {
-            myDistinctClasses.remove(pair);
+            getDistinctClassesForWrite().remove(pair);
           }
         }
       }
@@ -833,14 +947,18 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
         for (long pair : myDistinctClasses.toArray()) {
           if (low(pair) == varClassIndex && containsConstantsOnly(high(pair)) ||
               high(pair) == varClassIndex && containsConstantsOnly(low(pair))) {
-            myDistinctClasses.remove(pair);
+            getDistinctClassesForWrite().remove(pair);
           }
         }
       }
     }
 
-    myVariableStates.remove(varPlain);
-    myVariableStates.remove(varNegated);
+    if (myVariableStates.containsKey(varPlain) || myVariableStates.containsKey(varNegated)) {
+      getVariableStatesForWrite().remove(varPlain);
+      getVariableStatesForWrite().remove(varNegated);
+      myOwnVariableStates.remove(varPlain);
+      myOwnVariableStates.remove(varNegated);
+    }
   }
 
   private boolean containsConstantsOnly(int id) {
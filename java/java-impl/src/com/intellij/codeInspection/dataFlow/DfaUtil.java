@@ -351,7 +351,7 @@ public class DfaUtil {
         final PsiExpression prevValue = ((ValuableDataFlowRunner.ValuableDfaVariableState)((ValuableDataFlowRunner.MyDfaMemoryState)memState).getVariableState(var)).myExpression;
         memState.setVarValue(var, dfaSource);
         // state may have been changed so re-retrieve it
-        final ValuableDataFlowRunner.ValuableDfaVariableState curState = (ValuableDataFlowRunner.ValuableDfaVariableState)((ValuableDataFlowRunner.MyDfaMemoryState)memState).getVariableState(var);
+        final ValuableDataFlowRunner.ValuableDfaVariableState curState = (ValuableDataFlowRunner.ValuableDfaVariableState)((ValuableDataFlowRunner.MyDfaMemoryState)memState).getVariableStateForWrite(var);
         final PsiExpression curValue = curState.myExpression;
         final PsiExpression nextValue;
         if (type == JavaTokenType.PLUSEQ && prevValue != null) {
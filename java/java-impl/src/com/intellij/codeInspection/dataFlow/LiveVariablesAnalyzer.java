@@ -0,0 +1,158 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInspection.dataFlow;
+
+import com.intellij.codeInspection.dataFlow.instructions.*;
+import com.intellij.codeInspection.dataFlow.value.DfaBoxedValue;
+import com.intellij.codeInspection.dataFlow.value.DfaUnboxedValue;
+import com.intellij.codeInspection.dataFlow.value.DfaValue;
+import com.intellij.codeInspection.dataFlow.value.DfaVariableValue;
+import com.intellij.util.ArrayUtil;
+import gnu.trove.TIntArrayList;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.BitSet;
+
+/**
+ * Computes which variables may be read at or after each instruction of a control flow. States coming to a join point
+ * are normalized by flushing all other variables, so states which differ only in variables irrelevant for the rest
+ * of the method become equal and are merged by the per-instruction memoization of processed states.
+ */
+class LiveVariablesAnalyzer {
+  private final Instruction[] myInstructions;
+  private final BitSet[] myLiveVariables;
+  private final boolean[] myJoinPoints;
+
+  LiveVariablesAnalyzer(Instruction[] instructions) {
+    myInstructions = instructions;
+    myLiveVariables = new BitSet[instructions.length];
+    myJoinPoints = new boolean[instructions.length];
+    analyze();
+  }
+
+  private void analyze() {
+    final int count = myInstructions.length;
+    final TIntArrayList returnPoints = new TIntArrayList();
+    for (Instruction instruction : myInstructions) {
+      if (instruction instanceof GosubInstruction) {
+        returnPoints.add(instruction.getIndex() + 1);
+      }
+    }
+
+    final int[][] successors = new int[count][];
+    final int[] predecessorsCount = new int[count];
+    final BitSet[] reads = new BitSet[count];
+    for (int i = 0; i < count; i++) {
+      successors[i] = getSuccessors(myInstructions[i], returnPoints);
+      for (int successor : successors[i]) {
+        predecessorsCount[successor]++;
+      }
+      reads[i] = getReadVariables(myInstructions[i]);
+      myLiveVariables[i] = new BitSet();
+    }
+    for (int i = 0; i < count; i++) {
+      myJoinPoints[i] = predecessorsCount[i] > 1;
+    }
+
+    // backward analysis: live(i) = reads(i) + live(successors of i)
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int i = count - 1; i >= 0; i--) {
+        final BitSet live = (BitSet)reads[i].clone();
+        for (int successor : successors[i]) {
+          live.or(myLiveVariables[successor]);
+        }
+        if (!live.equals(myLiveVariables[i])) {
+          myLiveVariables[i] = live;
+          changed = true;
+        }
+      }
+    }
+  }
+
+  private int[] getSuccessors(Instruction instruction, TIntArrayList returnPoints) {
+    final int next = instruction.getIndex() + 1;
+    final TIntArrayList result = new TIntArrayList(2);
+    if (instruction instanceof GotoInstruction) {
+      result.add(((GotoInstruction)instruction).getOffset());
+    }
+    else if (instruction instanceof ConditionalGotoInstruction) {
+      result.add(((ConditionalGotoInstruction)instruction).getOffset());
+      result.add(next);
+    }
+    else if (instruction instanceof GosubInstruction) {
+      result.add(((GosubInstruction)instruction).getSubprogramOffset());
+    }
+    else if (instruction instanceof ReturnFromSubInstruction) {
+      result.add(returnPoints.toNativeArray());
+    }
+    else if (!(instruction instanceof ReturnInstruction)) {
+      result.add(next);
+    }
+
+    final TIntArrayList valid = new TIntArrayList(result.size());
+    for (int i = 0; i < result.size(); i++) {
+      final int successor = result.get(i);
+      if (successor >= 0 && successor < myInstructions.length) {
+        valid.add(successor);
+      }
+    }
+    return valid.isEmpty() ? ArrayUtil.EMPTY_INT_ARRAY : valid.toNativeArray();
+  }
+
+  private static BitSet getReadVariables(Instruction instruction) {
+    final BitSet result = new BitSet();
+    if (instruction instanceof PushInstruction) {
+      DfaVariableValue variable = getReferencedVariable(((PushInstruction)instruction).getValue());
+      while (variable != null) {
+        // a qualified variable is flushed together with its qualifier, so the qualifier is read too
+        result.set(getPlainVariable(variable).getID());
+        variable = variable.getQualifier();
+      }
+    }
+    return result;
+  }
+
+  @Nullable
+  static DfaVariableValue getReferencedVariable(@Nullable DfaValue value) {
+    if (value instanceof DfaVariableValue) {
+      return (DfaVariableValue)value;
+    }
+    if (value instanceof DfaBoxedValue) {
+      return getReferencedVariable(((DfaBoxedValue)value).getWrappedValue());
+    }
+    if (value instanceof DfaUnboxedValue) {
+      return ((DfaUnboxedValue)value).getVariable();
+    }
+    return null;
+  }
+
+  static DfaVariableValue getPlainVariable(DfaVariableValue variable) {
+    return variable.isNegated() ? variable.createNegated() : variable;
+  }
+
+  boolean isJoinPoint(int index) {
+    return index < myJoinPoints.length && myJoinPoints[index];
+  }
+
+  /**
+   * @return ids of (non-negated) variables which may be read at or after the instruction
+   */
+  BitSet getLiveVariables(int index) {
+    return myLiveVariables[index];
+  }
+}
@@ -0,0 +1,562 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInspection.dataFlow;
+
+import com.intellij.lang.LighterAST;
+import com.intellij.lang.LighterASTNode;
+import com.intellij.lexer.JavaLexer;
+import com.intellij.openapi.fileTypes.StdFileTypes;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.vfs.JarFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.pom.java.LanguageLevel;
+import com.intellij.psi.*;
+import com.intellij.psi.impl.cache.TypeInfo;
+import com.intellij.psi.impl.java.stubs.JavaStubElementTypes;
+import com.intellij.psi.impl.java.stubs.PsiParameterStub;
+import com.intellij.psi.impl.source.tree.ElementType;
+import com.intellij.psi.impl.source.tree.JavaElementType;
+import com.intellij.psi.impl.source.tree.LightTreeUtil;
+import com.intellij.psi.impl.source.tree.SourceUtil;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.stubs.LightStubBuilder;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.ILightStubFileElementType;
+import com.intellij.psi.tree.TokenSet;
+import com.intellij.psi.util.PsiUtil;
+import com.intellij.psi.util.TypeConversionUtil;
+import com.intellij.util.indexing.*;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorIntegerDescriptor;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import gnu.trove.THashSet;
+import gnu.trove.TIntArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Nullness of results and purity of source methods which can't be overridden, keyed by {@link #getMethodKey(PsiMethod)}.
+ * Summaries are computed from the light tree of the file and the tokens of method bodies, without building PSI or resolving
+ * anything, so they're kept up-to-date by reindexing of the changed file and may be used at call sites instead of analyzing
+ * the callee again. Looking a summary up only needs the stub of the callee.
+ * <p/>
+ * Nothing is indexed or looked up unless the {@code java.dfa.method.summaries} registry key is on.
+ */
+public class MethodSummaryIndex extends FileBasedIndexExtension<String, Integer> {
+  public static final ID<String, Integer> INDEX_ID = ID.create("java.method.summary");
+  private static final String ENABLED_KEY = "java.dfa.method.summaries";
+
+  private static final int NULLABLE_RESULT = 0x1;
+  private static final int NOT_NULL_RESULT = 0x2;
+  private static final int PURE = 0x4;
+
+  private static final TokenSet ASSIGNMENT_OPERATIONS = TokenSet.create(
+    JavaTokenType.EQ, JavaTokenType.PLUSEQ, JavaTokenType.MINUSEQ, JavaTokenType.ASTERISKEQ, JavaTokenType.DIVEQ, JavaTokenType.PERCEQ,
+    JavaTokenType.ANDEQ, JavaTokenType.OREQ, JavaTokenType.XOREQ, JavaTokenType.LTLTEQ, JavaTokenType.GTGTEQ, JavaTokenType.GTGTGTEQ);
+  private static final TokenSet NOT_NULL_LITERALS = TokenSet.create(
+    JavaTokenType.STRING_LITERAL, JavaTokenType.CHARACTER_LITERAL, JavaTokenType.INTEGER_LITERAL, JavaTokenType.LONG_LITERAL,
+    JavaTokenType.FLOAT_LITERAL, JavaTokenType.DOUBLE_LITERAL, JavaTokenType.TRUE_KEYWORD, JavaTokenType.FALSE_KEYWORD,
+    JavaTokenType.THIS_KEYWORD);
+  // tokens an operand may end with, so that a following plus is a binary one
+  private static final TokenSet OPERAND_ENDS = TokenSet.orSet(NOT_NULL_LITERALS, TokenSet.create(
+    JavaTokenType.IDENTIFIER, JavaTokenType.RPARENTH, JavaTokenType.RBRACKET, JavaTokenType.CLASS_KEYWORD, JavaTokenType.NULL_KEYWORD,
+    JavaTokenType.PLUSPLUS, JavaTokenType.MINUSMINUS));
+
+  public static boolean isEnabled() {
+    return Registry.is(ENABLED_KEY);
+  }
+
+  @NotNull
+  public static Nullness getResultNullness(@NotNull PsiMethod method) {
+    final int summary = getSummary(method);
+    if ((summary & NULLABLE_RESULT) != 0) return Nullness.NULLABLE;
+    if ((summary & NOT_NULL_RESULT) != 0) return Nullness.NOT_NULL;
+    return Nullness.UNKNOWN;
+  }
+
+  /**
+   * @return true if the method doesn't modify fields, arrays or anything else visible outside of it
+   */
+  public static boolean isPure(@NotNull PsiMethod method) {
+    return (getSummary(method) & PURE) != 0;
+  }
+
+  private static int getSummary(@NotNull PsiMethod method) {
+    if (!isEnabled()) return 0;
+    // only modifiers and names are checked here, they're in the stub, so the callee's file is not parsed
+    if (method instanceof PsiCompiledElement || method.isConstructor() || PsiUtil.canBeOverriden(method)) return 0;
+    final PsiFile file = method.getContainingFile();
+    final VirtualFile virtualFile = file == null ? null : file.getVirtualFile();
+    if (virtualFile == null || DumbService.isDumb(file.getProject())) return 0;
+    final String key = getMethodKey(method);
+    if (key == null) return 0;
+
+    final List<Integer> values =
+      FileBasedIndex.getInstance().getValues(INDEX_ID, key, GlobalSearchScope.fileScope(file.getProject(), virtualFile));
+    return values.size() == 1 ? values.get(0) : 0;
+  }
+
+  /**
+   * @return qualified class name, method name and parameter types as written in the source,
+   * or null for methods of local and anonymous classes
+   */
+  @Nullable
+  static String getMethodKey(@NotNull PsiMethod method) {
+    final PsiClass aClass = method.getContainingClass();
+    final String className = aClass == null ? null : aClass.getQualifiedName();
+    if (className == null) return null;
+
+    final List<String> parameterTypes = new ArrayList<String>();
+    for (PsiParameter parameter : method.getParameterList().getParameters()) {
+      final String typeText = getTypeText(parameter);
+      if (typeText == null) return null;
+      parameterTypes.add(typeText);
+    }
+    return getMethodKey(className, method.getName(), parameterTypes);
+  }
+
+  private static String getMethodKey(@NotNull String className, @NotNull String methodName, @NotNull List<String> parameterTypes) {
+    final StringBuilder key = new StringBuilder(className).append('#').append(methodName).append('(');
+    for (int i = 0; i < parameterTypes.size(); i++) {
+      if (i > 0) key.append(',');
+      key.append(parameterTypes.get(i).replaceAll("\\s", ""));
+    }
+    return key.append(')').toString();
+  }
+
+  /**
+   * @return the parameter type as {@link TypeInfo} presents it, from the stub if the file is not parsed
+   */
+  @Nullable
+  private static String getTypeText(@NotNull PsiParameter parameter) {
+    if (parameter instanceof StubBasedPsiElement) {
+      final Object stub = ((StubBasedPsiElement)parameter).getStub();
+      if (stub instanceof PsiParameterStub) {
+        return TypeInfo.createTypeText(((PsiParameterStub)stub).getType(false));
+      }
+    }
+    final PsiTypeElement typeElement = parameter.getTypeElement();
+    if (typeElement == null) return null;
+    final StringBuilder text = new StringBuilder(typeElement.getText());
+    // C-style array dimensions after the name
+    for (int i = typeElement.getType().getArrayDimensions(); i < parameter.getType().getArrayDimensions(); i++) {
+      text.append("[]");
+    }
+    return text.toString();
+  }
+
+  @NotNull
+  @Override
+  public ID<String, Integer> getName() {
+    return INDEX_ID;
+  }
+
+  @NotNull
+  @Override
+  public DataIndexer<String, Integer, FileContent> getIndexer() {
+    return new DataIndexer<String, Integer, FileContent>() {
+      @NotNull
+      @Override
+      public Map<String, Integer> map(FileContent inputData) {
+        final PsiFile file = inputData.getPsiFile();
+        if (!(file instanceof PsiJavaFile)) return Collections.emptyMap();
+        final LighterAST tree = LightStubBuilder.buildLighterAST(file, (ILightStubFileElementType<?>)JavaStubElementTypes.JAVA_FILE);
+
+        String packageName = "";
+        final LighterASTNode packageStatement = LightTreeUtil.firstChildOfType(tree, tree.getRoot(), JavaElementType.PACKAGE_STATEMENT);
+        if (packageStatement != null) {
+          final LighterASTNode reference = LightTreeUtil.firstChildOfType(tree, packageStatement, JavaElementType.JAVA_CODE_REFERENCE);
+          if (reference != null) {
+            packageName = SourceUtil.getReferenceText(tree, reference);
+          }
+        }
+
+        final Map<String, Integer> result = new HashMap<String, Integer>();
+        final Set<String> duplicates = new THashSet<String>();
+        for (LighterASTNode aClass : LightTreeUtil.getChildrenOfType(tree, tree.getRoot(), JavaElementType.CLASS)) {
+          indexClass(tree, aClass, packageName, result, duplicates);
+        }
+        // several methods with the same key in one file means the code is red, don't trust any of them
+        for (String key : duplicates) {
+          result.remove(key);
+        }
+        return result;
+      }
+    };
+  }
+
+  private static void indexClass(@NotNull LighterAST tree, @NotNull LighterASTNode aClass, @NotNull String prefix,
+                                 @NotNull Map<String, Integer> result, @NotNull Set<String> duplicates) {
+    final LighterASTNode name = LightTreeUtil.firstChildOfType(tree, aClass, JavaTokenType.IDENTIFIER);
+    if (name == null) return;
+    final String className = prefix.isEmpty() ? getText(tree, name) : prefix + "." + getText(tree, name);
+    final boolean isFinal = hasModifier(tree, aClass, JavaTokenType.FINAL_KEYWORD);
+
+    for (LighterASTNode member : tree.getChildren(aClass)) {
+      if (member.getTokenType() == JavaElementType.CLASS) {
+        indexClass(tree, member, className, result, duplicates);
+      }
+      else if (member.getTokenType() == JavaElementType.METHOD) {
+        final boolean canBeOverridden = !isFinal &&
+                                        !hasModifier(tree, member, JavaTokenType.STATIC_KEYWORD) &&
+                                        !hasModifier(tree, member, JavaTokenType.FINAL_KEYWORD) &&
+                                        !hasModifier(tree, member, JavaTokenType.PRIVATE_KEYWORD);
+        if (!canBeOverridden) {
+          indexMethod(tree, member, className, result, duplicates);
+        }
+      }
+    }
+  }
+
+  private static void indexMethod(@NotNull LighterAST tree, @NotNull LighterASTNode method, @NotNull String className,
+                                  @NotNull Map<String, Integer> result, @NotNull Set<String> duplicates) {
+    final LighterASTNode name = LightTreeUtil.firstChildOfType(tree, method, JavaTokenType.IDENTIFIER);
+    final LighterASTNode body = LightTreeUtil.firstChildOfType(tree, method, JavaElementType.CODE_BLOCK);
+    final LighterASTNode parameterList = LightTreeUtil.firstChildOfType(tree, method, JavaElementType.PARAMETER_LIST);
+    // constructors have no return type
+    if (name == null || body == null || parameterList == null ||
+        LightTreeUtil.firstChildOfType(tree, method, JavaElementType.TYPE) == null) {
+      return;
+    }
+
+    final List<String> parameterTypes = new ArrayList<String>();
+    final Set<String> parameterNames = new THashSet<String>();
+    for (LighterASTNode parameter : LightTreeUtil.getChildrenOfType(tree, parameterList, JavaElementType.PARAMETER)) {
+      final String typeText = TypeInfo.createTypeText(TypeInfo.create(tree, parameter, null));
+      final LighterASTNode parameterName = LightTreeUtil.firstChildOfType(tree, parameter, JavaTokenType.IDENTIFIER);
+      if (typeText == null || parameterName == null) return;
+      parameterTypes.add(typeText);
+      parameterNames.add(getText(tree, parameterName));
+    }
+
+    final String returnType = TypeInfo.createTypeText(TypeInfo.create(tree, method, null));
+    final boolean referenceResult = returnType != null && !TypeConversionUtil.isPrimitive(returnType);
+    final int summary = new BodySummary(LightTreeUtil.toFilteredString(tree, body, null), parameterNames).compute(referenceResult);
+
+    final String key = getMethodKey(className, getText(tree, name), parameterTypes);
+    if (result.containsKey(key) || duplicates.contains(key)) {
+      duplicates.add(key);
+    }
+    else if (summary != 0) {
+      result.put(key, summary);
+    }
+  }
+
+  private static boolean hasModifier(@NotNull LighterAST tree, @NotNull LighterASTNode owner, @NotNull IElementType modifier) {
+    final LighterASTNode modifierList = LightTreeUtil.firstChildOfType(tree, owner, JavaElementType.MODIFIER_LIST);
+    return modifierList != null && LightTreeUtil.firstChildOfType(tree, modifierList, modifier) != null;
+  }
+
+  private static String getText(@NotNull LighterAST tree, @NotNull LighterASTNode node) {
+    return LightTreeUtil.toFilteredString(tree, node, null);
+  }
+
+  /**
+   * Summary of a method body by its tokens. Anything not recognized makes the method impure or its result unknown.
+   */
+  private static class BodySummary {
+    private final List<IElementType> myTypes = new ArrayList<IElementType>();
+    private final List<String> myTexts = new ArrayList<String>();
+    private final Set<String> myParameterNames;
+    private boolean myHasReturns;
+    private boolean myReturnsNull;
+    private boolean myReturnsNotNullOnly = true;
+
+    private BodySummary(@NotNull CharSequence body, @NotNull Set<String> parameterNames) {
+      final JavaLexer lexer = new JavaLexer(LanguageLevel.HIGHEST);
+      lexer.start(body);
+      while (lexer.getTokenType() != null) {
+        if (!ElementType.JAVA_COMMENT_OR_WHITESPACE_BIT_SET.contains(lexer.getTokenType())) {
+          myTypes.add(lexer.getTokenType());
+          myTexts.add(lexer.getTokenText());
+        }
+        lexer.advance();
+      }
+      myParameterNames = parameterNames;
+    }
+
+    private int compute(boolean referenceResult) {
+      // returns of local and anonymous classes and lambdas don't belong to the method, creating them makes it impure anyway
+      if (declaresClassOrLambda()) return 0;
+
+      int summary = isPure() ? PURE : 0;
+      if (referenceResult) {
+        visitReturns();
+        if (myReturnsNull) {
+          summary |= NULLABLE_RESULT;
+        }
+        else if (myReturnsNotNullOnly && myHasReturns) {
+          summary |= NOT_NULL_RESULT;
+        }
+      }
+      return summary;
+    }
+
+    private boolean declaresClassOrLambda() {
+      for (int i = 0; i < myTypes.size(); i++) {
+        final IElementType type = myTypes.get(i);
+        if (type == JavaTokenType.ARROW || type == JavaTokenType.DOUBLE_COLON) return true;
+        if ((type == JavaTokenType.CLASS_KEYWORD || type == JavaTokenType.INTERFACE_KEYWORD || type == JavaTokenType.ENUM_KEYWORD) &&
+            (i == 0 || myTypes.get(i - 1) != JavaTokenType.DOT)) {
+          return true;
+        }
+        if (type == JavaTokenType.NEW_KEYWORD) {
+          final int arguments = findFirst(i + 1, myTypes.size(), TokenSet.create(JavaTokenType.LPARENTH, JavaTokenType.LBRACKET));
+          if (arguments >= 0 && myTypes.get(arguments) == JavaTokenType.LPARENTH) {
+            final int end = findClosing(arguments);
+            if (end < 0 || end + 1 < myTypes.size() && myTypes.get(end + 1) == JavaTokenType.LBRACE) return true;
+          }
+        }
+      }
+      return false;
+    }
+
+    private boolean isPure() {
+      // local variables with the brace depth they're declared at
+      final List<String> locals = new ArrayList<String>(myParameterNames);
+      final TIntArrayList localDepths = new TIntArrayList(new int[locals.size()]);
+      int depth = 0;
+
+      for (int i = 0; i < myTypes.size(); i++) {
+        final IElementType type = myTypes.get(i);
+        if (type == JavaTokenType.LBRACE) {
+          depth++;
+        }
+        else if (type == JavaTokenType.RBRACE) {
+          depth--;
+          while (!localDepths.isEmpty() && localDepths.get(localDepths.size() - 1) > depth) {
+            localDepths.remove(localDepths.size() - 1);
+            locals.remove(locals.size() - 1);
+          }
+        }
+        else if (type == JavaTokenType.IDENTIFIER) {
+          if (isDeclaration(i)) {
+            locals.add(myTexts.get(i));
+            localDepths.add(depth);
+          }
+          else if (i + 1 < myTypes.size() && myTypes.get(i + 1) == JavaTokenType.LPARENTH) {
+            // method call
+            return false;
+          }
+        }
+        else if (type == JavaTokenType.NEW_KEYWORD) {
+          final int arguments = findFirst(i + 1, myTypes.size(), TokenSet.create(JavaTokenType.LPARENTH, JavaTokenType.LBRACKET));
+          // object creation, arrays are fine
+          if (arguments < 0 || myTypes.get(arguments) == JavaTokenType.LPARENTH) return false;
+        }
+        else if (ASSIGNMENT_OPERATIONS.contains(type)) {
+          if (!isLocal(i - 1, locals)) return false;
+        }
+        else if (type == JavaTokenType.PLUSPLUS || type == JavaTokenType.MINUSMINUS) {
+          final boolean prefixOfLocal = isLocal(i + 1, locals) &&
+                                        (i + 2 >= myTypes.size() ||
+                                         myTypes.get(i + 2) != JavaTokenType.DOT && myTypes.get(i + 2) != JavaTokenType.LBRACKET);
+          if (!isLocal(i - 1, locals) && !prefixOfLocal) return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * @return true if the identifier is a name of a declared variable: follows a type and is followed by an initializer
+     * or the end of the declaration
+     */
+    private boolean isDeclaration(int i) {
+      if (i == 0 || i + 1 >= myTypes.size()) return false;
+      final IElementType previous = myTypes.get(i - 1);
+      final IElementType next = myTypes.get(i + 1);
+      return (previous == JavaTokenType.IDENTIFIER || previous == JavaTokenType.RBRACKET ||
+              ElementType.PRIMITIVE_TYPE_BIT_SET.contains(previous)) &&
+             (next == JavaTokenType.EQ || next == JavaTokenType.SEMICOLON || next == JavaTokenType.COMMA ||
+              next == JavaTokenType.COLON || next == JavaTokenType.RPARENTH);
+    }
+
+    /**
+     * @return true if the token is an unqualified reference to a local variable
+     */
+    private boolean isLocal(int i, @NotNull List<String> locals) {
+      return i >= 0 && i < myTypes.size() &&
+             myTypes.get(i) == JavaTokenType.IDENTIFIER &&
+             locals.contains(myTexts.get(i)) &&
+             (i == 0 || myTypes.get(i - 1) != JavaTokenType.DOT);
+    }
+
+    private void visitReturns() {
+      for (int i = 0; i < myTypes.size(); i++) {
+        if (myTypes.get(i) != JavaTokenType.RETURN_KEYWORD) continue;
+        final int end = findFirst(i + 1, myTypes.size(), TokenSet.create(JavaTokenType.SEMICOLON));
+        if (end < 0) {
+          myReturnsNotNullOnly = false;
+        }
+        else if (end > i + 1) {
+          myHasReturns = true;
+          visitReturnValue(i + 1, end);
+        }
+      }
+    }
+
+    private void visitReturnValue(int from, int to) {
+      if (from >= to) {
+        myReturnsNotNullOnly = false;
+        return;
+      }
+      while (myTypes.get(from) == JavaTokenType.LPARENTH && findClosing(from) == to - 1 && to - from > 2) {
+        from++;
+        to--;
+      }
+      if (to - from == 1 && myTypes.get(from) == JavaTokenType.NULL_KEYWORD) {
+        myReturnsNull = true;
+        return;
+      }
+      if (findFirst(from, to, ASSIGNMENT_OPERATIONS) >= 0) {
+        myReturnsNotNullOnly = false;
+        return;
+      }
+
+      final int question = findFirst(from, to, TokenSet.create(JavaTokenType.QUEST));
+      if (question >= 0) {
+        final int colon = findConditionalColon(question, to);
+        if (colon < 0) {
+          myReturnsNotNullOnly = false;
+        }
+        else {
+          visitReturnValue(question + 1, colon);
+          visitReturnValue(colon + 1, to);
+        }
+        return;
+      }
+
+      if (!isNotNull(from, to)) {
+        myReturnsNotNullOnly = false;
+      }
+    }
+
+    private boolean isNotNull(int from, int to) {
+      if (to - from == 1 && NOT_NULL_LITERALS.contains(myTypes.get(from))) return true;
+
+      if (myTypes.get(from) == JavaTokenType.NEW_KEYWORD) {
+        int i = findFirst(from + 1, to, TokenSet.create(JavaTokenType.LPARENTH, JavaTokenType.LBRACKET));
+        if (i < 0) return false;
+        if (myTypes.get(i) == JavaTokenType.LPARENTH) return findClosing(i) == to - 1;
+        // array dimensions and initializer
+        while (i < to && (myTypes.get(i) == JavaTokenType.LBRACKET || myTypes.get(i) == JavaTokenType.LBRACE)) {
+          i = findClosing(i);
+          if (i < 0) return false;
+          i++;
+        }
+        return i == to;
+      }
+
+      // class literal
+      if (to - from >= 3 && myTypes.get(to - 1) == JavaTokenType.CLASS_KEYWORD && myTypes.get(to - 2) == JavaTokenType.DOT) {
+        return findFirst(from, to - 2, TokenSet.create(JavaTokenType.LPARENTH)) < 0;
+      }
+
+      // the result of a reference-typed binary plus is a concatenated string or a boxed number
+      for (int i = from + 1; i < to; i = skipGroup(i) + 1) {
+        if (myTypes.get(i) == JavaTokenType.PLUS && OPERAND_ENDS.contains(myTypes.get(i - 1))) return true;
+      }
+      return false;
+    }
+
+    /**
+     * @return index of the first token of the given types outside of parentheses, brackets and braces, or -1
+     */
+    private int findFirst(int from, int to, @NotNull TokenSet types) {
+      for (int i = from; i < to; i = skipGroup(i) + 1) {
+        if (types.contains(myTypes.get(i))) return i;
+      }
+      return -1;
+    }
+
+    /**
+     * @return index of the closing token if the token opens a group, the token itself otherwise, -1 if the group is not closed
+     */
+    private int skipGroup(int i) {
+      final IElementType type = myTypes.get(i);
+      if (type == JavaTokenType.LPARENTH || type == JavaTokenType.LBRACKET || type == JavaTokenType.LBRACE) {
+        final int closing = findClosing(i);
+        return closing < 0 ? myTypes.size() : closing;
+      }
+      return i;
+    }
+
+    private int findClosing(int open) {
+      int depth = 0;
+      for (int i = open; i < myTypes.size(); i++) {
+        final IElementType type = myTypes.get(i);
+        if (type == JavaTokenType.LPARENTH || type == JavaTokenType.LBRACKET || type == JavaTokenType.LBRACE) {
+          depth++;
+        }
+        else if (type == JavaTokenType.RPARENTH || type == JavaTokenType.RBRACKET || type == JavaTokenType.RBRACE) {
+          depth--;
+          if (depth == 0) return i;
+        }
+      }
+      return -1;
+    }
+
+    private int findConditionalColon(int question, int to) {
+      int nested = 0;
+      for (int i = question + 1; i < to; i = skipGroup(i) + 1) {
+        final IElementType type = myTypes.get(i);
+        if (type == JavaTokenType.QUEST) {
+          nested++;
+        }
+        else if (type == JavaTokenType.COLON) {
+          if (nested == 0) return i;
+          nested--;
+        }
+      }
+      return -1;
+    }
+  }
+
+  @Override
+  public KeyDescriptor<String> getKeyDescriptor() {
+    return new EnumeratorStringDescriptor();
+  }
+
+  @Override
+  public DataExternalizer<Integer> getValueExternalizer() {
+    return EnumeratorIntegerDescriptor.INSTANCE;
+  }
+
+  @Override
+  public FileBasedIndex.InputFilter getInputFilter() {
+    return new FileBasedIndex.InputFilter() {
+      @Override
+      public boolean acceptInput(VirtualFile file) {
+        return isEnabled() && file.getFileType() == StdFileTypes.JAVA && file.getFileSystem() != JarFileSystem.getInstance();
+      }
+    };
+  }
+
+  @Override
+  public boolean dependsOnFileContent() {
+    return true;
+  }
+
+  @Override
+  public int getVersion() {
+    // nothing was indexed while the summaries were off, so turning them on rebuilds the index
+    return isEnabled() ? 3 : 1003;
+  }
+}
@@ -55,7 +55,13 @@ public class StandardInstructionVisitor extends InstructionVisitor {
         return Nullness.NOT_NULL;
       }
 
-      return callExpression != null ? DfaUtil.getElementNullability(key.getResultType(), callExpression.resolveMethod()) : null;
+      if (callExpression == null) return null;
+      final PsiMethod method = callExpression.resolveMethod();
+      final Nullness nullness = DfaUtil.getElementNullability(key.getResultType(), method);
+      if (nullness == Nullness.UNKNOWN && method != null) {
+        return MethodSummaryIndex.getResultNullness(method);
+      }
+      return nullness;
     }
   };
 
@@ -30,6 +30,10 @@ public class GosubInstruction extends Instruction {
     mySubprogramOffset = subprogramOffset;
   }
 
+  public int getSubprogramOffset() {
+    return mySubprogramOffset;
+  }
+
   @Override
   public DfaInstructionState[] accept(DataFlowRunner runner, DfaMemoryState stateBefore, InstructionVisitor visitor) {
     final int returnIndex = getIndex() + 1;
@@ -47,6 +47,10 @@ public class GotoInstruction extends Instruction {
     return "GOTO: " + myOffset;
   }
 
+  public int getOffset() {
+    return myOffset;
+  }
+
   public void setOffset(int offset) {
     myOffset = offset;
   }
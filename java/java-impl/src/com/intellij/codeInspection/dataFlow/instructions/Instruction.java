@@ -30,14 +30,19 @@ import com.intellij.codeInspection.dataFlow.DfaMemoryState;
 import com.intellij.codeInspection.dataFlow.InstructionVisitor;
 import com.intellij.openapi.progress.ProgressManager;
 
+import gnu.trove.TIntObjectHashMap;
+
 import java.util.ArrayList;
+import java.util.List;
 
 public abstract class Instruction {
   private int myIndex;
-  private final ArrayList<DfaMemoryState> myProcessedStates;
+  // processed states grouped by their hash codes, so a state is compared only with states having the same hash
+  private final TIntObjectHashMap<List<DfaMemoryState>> myProcessedStates;
+  private int myProcessedStatesCount;
 
   protected Instruction() {
-    myProcessedStates = new ArrayList<DfaMemoryState>();
+    myProcessedStates = new TIntObjectHashMap<List<DfaMemoryState>>();
   }
 
   protected final DfaInstructionState[] nextInstruction(DataFlowRunner runner, DfaMemoryState stateBefore) {
@@ -47,10 +52,13 @@ public abstract class Instruction {
   public abstract DfaInstructionState[] accept(DataFlowRunner runner, DfaMemoryState stateBefore, InstructionVisitor visitor);
 
   public boolean isMemoryStateProcessed(DfaMemoryState dfaMemState) {
-    for (DfaMemoryState state : myProcessedStates) {
-      ProgressManager.checkCanceled();
-      if (dfaMemState.equals(state)) {
-        return true;
+    final List<DfaMemoryState> states = myProcessedStates.get(dfaMemState.hashCode());
+    if (states != null) {
+      for (DfaMemoryState state : states) {
+        ProgressManager.checkCanceled();
+        if (dfaMemState.equals(state)) {
+          return true;
+        }
       }
     }
 
@@ -58,8 +66,15 @@ public abstract class Instruction {
   }
 
   public boolean setMemoryStateProcessed(DfaMemoryState dfaMemState) {
-    if (myProcessedStates.size() > DataFlowRunner.MAX_STATES_PER_BRANCH) return false;
-    myProcessedStates.add(dfaMemState);
+    if (myProcessedStatesCount > DataFlowRunner.MAX_STATES_PER_BRANCH) return false;
+    final int hash = dfaMemState.hashCode();
+    List<DfaMemoryState> states = myProcessedStates.get(hash);
+    if (states == null) {
+      states = new ArrayList<DfaMemoryState>(1);
+      myProcessedStates.put(hash, states);
+    }
+    states.add(dfaMemState);
+    myProcessedStatesCount++;
     return true;
   }
 
@@ -29,6 +29,7 @@ public class JavaCodeBlockModificationListener implements PsiTreeChangePreproces
 
   public JavaCodeBlockModificationListener(final PsiModificationTracker modificationTracker) {
     myModificationTracker = (PsiModificationTrackerImpl) modificationTracker;
+    myModificationTracker.setCodeBlockChangesTracked();
   }
 
   @Override
@@ -48,16 +48,20 @@ public class DuplicateMap {
       @Override
       public SliceNode compute() {
         SliceUsage usage = node.getValue();
-        SliceNode eq = myDuplicates.get(usage);
-        if (eq == null) {
-          myDuplicates.put(usage, node);
+        synchronized (myDuplicates) {
+          SliceNode eq = myDuplicates.get(usage);
+          if (eq == null) {
+            myDuplicates.put(usage, node);
+          }
+          return eq;
         }
-        return eq;
       }
     });
   }
 
   public void clear() {
-    myDuplicates.clear();
+    synchronized (myDuplicates) {
+      myDuplicates.clear();
+    }
   }
 }
@@ -152,6 +152,7 @@ public class SliceLeafAnalyzer {
     ProgressManager.getInstance().run(new Task.Backgroundable(root.getProject(), "Expanding all nodes... (may very well take the whole day)", true) {
       @Override
       public void run(@NotNull final ProgressIndicator indicator) {
+        new SliceParallelExpander(treeStructure).expand(root, indicator);
         Collection<PsiElement> l = calcLeafExpressions(root, treeStructure, map);
         leafExpressions.set(l);
       }
@@ -133,6 +133,32 @@ public class SliceNode extends AbstractTreeNode<SliceUsage> implements Duplicate
     return children;
   }
 
+  /**
+   * Computes and caches children like {@link #getChildrenUnderProgress(ProgressIndicator)} does, but checks only the given
+   * indicator for cancellation and leaves the cancellation state of {@link SliceManager} and the indicator alone, so that
+   * several nodes can be computed concurrently. Nothing is cached if the computation is canceled.
+   */
+  void cacheChildren(@NotNull final ProgressIndicator progress) {
+    if (isUpToDate()) return;
+    final List<SliceNode> children = new ArrayList<SliceNode>();
+    getValue().processChildren(new Processor<SliceUsage>() {
+      @Override
+      public boolean process(SliceUsage sliceUsage) {
+        progress.checkCanceled();
+        SliceNode node = new SliceNode(myProject, sliceUsage, targetEqualUsages);
+        synchronized (children) {
+          node.index = children.size();
+          children.add(node);
+        }
+        return true;
+      }
+    });
+
+    synchronized (children) {
+      myCachedChildren = children;
+    }
+  }
+
   private boolean isUpToDate() {
     if (myCachedChildren != null || !isValid()/* || getTreeBuilder().splitByLeafExpressions*/) {
       return true;
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.slicer;
+
+import com.intellij.concurrency.JobLauncher;
+import com.intellij.ide.util.treeView.AbstractTreeStructure;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.util.ProgressIndicatorBase;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.util.PsiModificationTracker;
+import com.intellij.util.Processor;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes children of slice nodes level by level, expanding all nodes of a level concurrently, so that a subsequent
+ * sequential walk over the tree (e.g. grouping by leaf values) finds them already cached.
+ * Nodes for the same usage (in terms of {@link DuplicateMap}) are expanded once, and the expansion stops after the node budget
+ * is exhausted, leaving the rest of the tree to be computed lazily.
+ * <p/>
+ * Each expansion is canceled on its own: when the given indicator is canceled or PSI changes, the expansion stops without
+ * touching the indicator or the cancellation state of {@link SliceManager}, and the nodes being expanded are left uncached.
+ */
+public class SliceParallelExpander {
+  private final AbstractTreeStructure myTreeStructure;
+  private final int myNodeBudget;
+  private final DuplicateMap myExpandedUsages = new DuplicateMap();
+  private final AtomicInteger myNodeCount = new AtomicInteger();
+
+  SliceParallelExpander(@NotNull AbstractTreeStructure treeStructure) {
+    this(treeStructure, Registry.intValue("ide.slicer.parallel.expansion.node.budget"));
+  }
+
+  public SliceParallelExpander(@NotNull AbstractTreeStructure treeStructure, int nodeBudget) {
+    myTreeStructure = treeStructure;
+    myNodeBudget = nodeBudget;
+  }
+
+  /**
+   * @return the number of nodes created
+   */
+  public int expand(@NotNull SliceNode root, @NotNull final ProgressIndicator indicator) {
+    final ProgressIndicator expansionIndicator = new ExpansionIndicator(root.getProject(), indicator);
+    List<SliceNode> frontier = new ArrayList<SliceNode>();
+    frontier.add(root);
+    try {
+      while (!frontier.isEmpty() && myNodeCount.get() < myNodeBudget) {
+        final List<SliceNode> nextFrontier = new ArrayList<SliceNode>();
+        JobLauncher.getInstance().invokeConcurrentlyUnderProgress(frontier, expansionIndicator, false, new Processor<SliceNode>() {
+          @Override
+          public boolean process(SliceNode node) {
+            if (myNodeCount.get() >= myNodeBudget || node.getValue() instanceof SliceTooComplexDFAUsage ||
+                myExpandedUsages.putNodeCheckDupe(node) != null) {
+              return true;
+            }
+            node.cacheChildren(expansionIndicator);
+            // the tree structure sets parents of the children
+            final Object[] children = myTreeStructure.getChildElements(node);
+            final int count = myNodeCount.addAndGet(children.length);
+            indicator.setText2(count + " nodes");
+            synchronized (nextFrontier) {
+              for (Object child : children) {
+                if (child instanceof SliceNode) {
+                  nextFrontier.add((SliceNode)child);
+                }
+              }
+            }
+            return true;
+          }
+        });
+        frontier = nextFrontier;
+      }
+    }
+    catch (ProcessCanceledException e) {
+      // the nodes which were not expanded completely are computed during the walk, if it takes place at all
+    }
+    return myNodeCount.get();
+  }
+
+  private static class ExpansionIndicator extends ProgressIndicatorBase {
+    private final ProgressIndicator myIndicator;
+    private final PsiModificationTracker myModificationTracker;
+    private final long myModificationCount;
+
+    private ExpansionIndicator(@NotNull Project project, @NotNull ProgressIndicator indicator) {
+      myIndicator = indicator;
+      myModificationTracker = PsiManager.getInstance(project).getModificationTracker();
+      myModificationCount = myModificationTracker.getModificationCount();
+    }
+
+    @Override
+    public boolean isCanceled() {
+      return super.isCanceled() || myIndicator.isCanceled() || myModificationTracker.getModificationCount() != myModificationCount;
+    }
+  }
+}
@@ -25,6 +25,7 @@ import com.intellij.psi.impl.cache.TypeInfo;
 import com.intellij.psi.impl.java.stubs.JavaStubElementTypes;
 import com.intellij.psi.impl.java.stubs.PsiFieldStub;
 import com.intellij.psi.impl.source.SourceTreeToPsiMap;
+import com.intellij.psi.impl.source.resolve.JavaResolveCache;
 import com.intellij.psi.impl.source.tree.TreeElement;
 import com.intellij.psi.search.SearchScope;
 import com.intellij.ui.RowIcon;
@@ -33,6 +34,7 @@ import com.intellij.util.PlatformIcons;
 import gnu.trove.THashSet;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
 import java.util.Set;
@@ -115,6 +117,23 @@ public class ClsFieldImpl extends ClsMemberImpl<PsiFieldStub> implements PsiFiel
   @Override
   public Object computeConstantValue(Set<PsiVariable> visitedVars) {
     if (!hasModifierProperty(PsiModifier.FINAL)) return null;
+    // the value read from the class file is stored in the stub, so it is not evaluated again after a restart
+    final Object value = getStub().getConstantValue();
+    if (value != null) return value;
+    return JavaResolveCache.getInstance(getProject()).computeConstantValueWithCaching(this, OurConstValueComputer.INSTANCE, visitedVars);
+  }
+
+  private static class OurConstValueComputer implements JavaResolveCache.ConstValueComputer {
+    private static final OurConstValueComputer INSTANCE = new OurConstValueComputer();
+
+    @Override
+    public Object execute(PsiVariable variable, Set<PsiVariable> visitedVars) {
+      return ((ClsFieldImpl)variable)._computeConstantValue(visitedVars);
+    }
+  }
+
+  @Nullable
+  private Object _computeConstantValue(Set<PsiVariable> visitedVars) {
     PsiExpression initializer = getInitializer();
     if (initializer == null) return null;
 
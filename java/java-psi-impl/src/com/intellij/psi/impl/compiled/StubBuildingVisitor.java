@@ -342,7 +342,8 @@ public class StubBuildingVisitor<T> extends ClassVisitor {
     byte flags = PsiFieldStubImpl.packFlags((access & Opcodes.ACC_ENUM) != 0, (access & Opcodes.ACC_DEPRECATED) != 0, false);
     TypeInfo type = fieldType(desc, signature);
     String initializer = constToString(value, "boolean".equals(type.text.getString()));
-    PsiFieldStub stub = new PsiFieldStubImpl(myResult, name, type, initializer, flags);
+    Object constantValue = initializer != null && (access & Opcodes.ACC_FINAL) != 0 ? constantValue(value, desc) : null;
+    PsiFieldStub stub = new PsiFieldStubImpl(myResult, name, type, initializer, flags, constantValue);
     PsiModifierListStub modList = new PsiModifierListStubImpl(stub, packFieldFlags(access));
     return new AnnotationCollectingVisitor(modList);
   }
@@ -694,6 +695,29 @@ public class StubBuildingVisitor<T> extends ClassVisitor {
     }
   }
 
+  /**
+   * Converts the value of the ConstantValue attribute to the type of the field, the same way the initializer is evaluated.
+   */
+  @Nullable
+  private static Object constantValue(@NotNull Object value, @NotNull String desc) {
+    if (value instanceof Integer) {
+      final int i = ((Integer)value).intValue();
+      switch (desc.charAt(0)) {
+        case 'Z': return i == 0 ? Boolean.FALSE : i == 1 ? Boolean.TRUE : null;
+        case 'C': return Character.valueOf((char)i);
+        case 'B': return Byte.valueOf((byte)i);
+        case 'S': return Short.valueOf((short)i);
+        case 'I': return value;
+        default: return null;
+      }
+    }
+    if (value instanceof Long) return "J".equals(desc) ? value : null;
+    if (value instanceof Float) return "F".equals(desc) ? value : null;
+    if (value instanceof Double) return "D".equals(desc) ? value : null;
+    if (value instanceof String) return "Ljava/lang/String;".equals(desc) ? value : null;
+    return null;
+  }
+
   @Nullable
   private static String constToString(@Nullable Object value, boolean isBoolean) {
     if (value == null) return null;
@@ -48,6 +48,16 @@ import java.io.IOException;
 public abstract class JavaFieldStubElementType extends JavaStubElementType<PsiFieldStub, PsiField> {
   private static final int INITIALIZER_LENGTH_LIMIT = 1000;
 
+  private static final byte BOOLEAN_VALUE = 0;
+  private static final byte CHAR_VALUE = 1;
+  private static final byte BYTE_VALUE = 2;
+  private static final byte SHORT_VALUE = 3;
+  private static final byte INT_VALUE = 4;
+  private static final byte LONG_VALUE = 5;
+  private static final byte FLOAT_VALUE = 6;
+  private static final byte DOUBLE_VALUE = 7;
+  private static final byte STRING_VALUE = 8;
+
   public JavaFieldStubElementType(@NotNull @NonNls final String id) {
     super(id);
   }
@@ -122,6 +132,10 @@ public abstract class JavaFieldStubElementType extends JavaStubElementType<PsiFi
     TypeInfo.writeTYPE(dataStream, stub.getType(false));
     dataStream.writeName(stub.getInitializerText());
     dataStream.writeByte(((PsiFieldStubImpl)stub).getFlags());
+    final Object constantValue = stub.getConstantValue();
+    if (constantValue != null) {
+      writeConstantValue(dataStream, constantValue);
+    }
   }
 
   @Override
@@ -130,7 +144,66 @@ public abstract class JavaFieldStubElementType extends JavaStubElementType<PsiFi
     final TypeInfo type = TypeInfo.readTYPE(dataStream);
     final StringRef initializerText = dataStream.readName();
     final byte flags = dataStream.readByte();
-    return new PsiFieldStubImpl(parentStub, name, type, initializerText, flags);
+    final Object constantValue = PsiFieldStubImpl.hasConstantValue(flags) ? readConstantValue(dataStream) : null;
+    return new PsiFieldStubImpl(parentStub, name, type, initializerText, flags, constantValue);
+  }
+
+  private static void writeConstantValue(final StubOutputStream dataStream, final Object value) throws IOException {
+    if (value instanceof Boolean) {
+      dataStream.writeByte(BOOLEAN_VALUE);
+      dataStream.writeBoolean(((Boolean)value).booleanValue());
+    }
+    else if (value instanceof Character) {
+      dataStream.writeByte(CHAR_VALUE);
+      dataStream.writeChar(((Character)value).charValue());
+    }
+    else if (value instanceof Byte) {
+      dataStream.writeByte(BYTE_VALUE);
+      dataStream.writeByte(((Byte)value).byteValue());
+    }
+    else if (value instanceof Short) {
+      dataStream.writeByte(SHORT_VALUE);
+      dataStream.writeShort(((Short)value).shortValue());
+    }
+    else if (value instanceof Integer) {
+      dataStream.writeByte(INT_VALUE);
+      dataStream.writeInt(((Integer)value).intValue());
+    }
+    else if (value instanceof Long) {
+      dataStream.writeByte(LONG_VALUE);
+      dataStream.writeLong(((Long)value).longValue());
+    }
+    else if (value instanceof Float) {
+      dataStream.writeByte(FLOAT_VALUE);
+      dataStream.writeFloat(((Float)value).floatValue());
+    }
+    else if (value instanceof Double) {
+      dataStream.writeByte(DOUBLE_VALUE);
+      dataStream.writeDouble(((Double)value).doubleValue());
+    }
+    else if (value instanceof String) {
+      dataStream.writeByte(STRING_VALUE);
+      dataStream.writeUTFFast((String)value);
+    }
+    else {
+      throw new IOException("Unexpected constant value: " + value.getClass());
+    }
+  }
+
+  private static Object readConstantValue(final StubInputStream dataStream) throws IOException {
+    final byte kind = dataStream.readByte();
+    switch (kind) {
+      case BOOLEAN_VALUE: return Boolean.valueOf(dataStream.readBoolean());
+      case CHAR_VALUE: return Character.valueOf(dataStream.readChar());
+      case BYTE_VALUE: return Byte.valueOf(dataStream.readByte());
+      case SHORT_VALUE: return Short.valueOf(dataStream.readShort());
+      case INT_VALUE: return Integer.valueOf(dataStream.readInt());
+      case LONG_VALUE: return Long.valueOf(dataStream.readLong());
+      case FLOAT_VALUE: return Float.valueOf(dataStream.readFloat());
+      case DOUBLE_VALUE: return Double.valueOf(dataStream.readDouble());
+      case STRING_VALUE: return dataStream.readUTFFast();
+      default: throw new IOException("Unexpected constant value kind: " + kind);
+    }
   }
 
   @Override
@@ -24,6 +24,7 @@ import com.intellij.psi.impl.cache.TypeInfo;
 import com.intellij.psi.stubs.NamedStub;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public interface PsiFieldStub extends NamedStub<PsiField> {
   @NonNls String INITIALIZER_TOO_LONG = ";INITIALIZER_TOO_LONG;";
@@ -34,4 +35,10 @@ public interface PsiFieldStub extends NamedStub<PsiField> {
   boolean isEnumConstant();
   boolean isDeprecated();
   boolean hasDeprecatedAnnotation();
+
+  /**
+   * @return value of a constant field of a compiled class, taken from the class file, or null
+   */
+  @Nullable
+  Object getConstantValue();
 }
@@ -33,21 +33,38 @@ public class PsiFieldStubImpl extends StubBase<PsiField> implements PsiFieldStub
   private final TypeInfo myType;
   private final StringRef myInitializer;
   private final byte myFlags;
+  private final Object myConstantValue;
 
   private static final int ENUM_CONST = 0x01;
   private static final int DEPRECATED = 0x02;
   private static final int DEPRECATED_ANNOTATION = 0x04;
+  private static final int CONSTANT_VALUE = 0x08;
 
   public PsiFieldStubImpl(StubElement parent, String name, @NotNull TypeInfo type, @Nullable String initializer, byte flags) {
-    this(parent, StringRef.fromString(name), type, StringRef.fromString(initializer), flags);
+    this(parent, name, type, initializer, flags, null);
   }
 
-  public PsiFieldStubImpl(StubElement parent, StringRef name, @NotNull TypeInfo type, @Nullable StringRef initializer, byte flags) {
+  public PsiFieldStubImpl(StubElement parent,
+                          String name,
+                          @NotNull TypeInfo type,
+                          @Nullable String initializer,
+                          byte flags,
+                          @Nullable Object constantValue) {
+    this(parent, StringRef.fromString(name), type, StringRef.fromString(initializer), flags, constantValue);
+  }
+
+  public PsiFieldStubImpl(StubElement parent,
+                          StringRef name,
+                          @NotNull TypeInfo type,
+                          @Nullable StringRef initializer,
+                          byte flags,
+                          @Nullable Object constantValue) {
     super(parent, isEnumConst(flags) ? JavaStubElementTypes.ENUM_CONSTANT : JavaStubElementTypes.FIELD);
     myName = name;
     myType = type;
     myInitializer = initializer;
-    myFlags = flags;
+    myFlags = constantValue != null ? (byte)(flags | CONSTANT_VALUE) : (byte)(flags & ~CONSTANT_VALUE);
+    myConstantValue = constantValue;
   }
 
   @Override
@@ -65,6 +82,15 @@ public class PsiFieldStubImpl extends StubBase<PsiField> implements PsiFieldStub
     return myFlags;
   }
 
+  @Override
+  public Object getConstantValue() {
+    return myConstantValue;
+  }
+
+  public static boolean hasConstantValue(final byte flags) {
+    return (flags & CONSTANT_VALUE) != 0;
+  }
+
   @Override
   public boolean isEnumConstant() {
     return isEnumConst(myFlags);
@@ -37,7 +37,7 @@ import java.io.IOException;
  * @author max
  */
 public class JavaFileElementType extends ILightStubFileElementType<PsiJavaFileStub> {
-  public static final int STUB_VERSION = 16;
+  public static final int STUB_VERSION = 17;
 
   public JavaFileElementType() {
     super("java.FILE", JavaLanguage.INSTANCE);
@@ -0,0 +1,39 @@
+public class Foo {
+  private String myField;
+
+  private static String find(boolean flag) {
+    if (flag) {
+      return "found";
+    }
+    return <warning descr="'null' is returned by the method which isn't declared as @Nullable">null</warning>;
+  }
+
+  private static String create() {
+    return "created";
+  }
+
+  private static int twice(int i) {
+    return i * 2;
+  }
+
+  void nullableResult(boolean flag) {
+    String s = find(flag);
+    System.out.println(<warning descr="Method invocation 's.length()' may produce 'java.lang.NullPointerException'">s.length()</warning>);
+  }
+
+  void notNullResult() {
+    String s = create();
+    if (<warning descr="Condition 's == null' is always 'false'">s == null</warning>) {
+      System.out.println();
+    }
+  }
+
+  void pureCallDoesntFlushFields() {
+    if (myField == null) {
+      twice(1);
+      if (<warning descr="Condition 'myField == null' is always 'true'">myField == null</warning>) {
+        System.out.println();
+      }
+    }
+  }
+}
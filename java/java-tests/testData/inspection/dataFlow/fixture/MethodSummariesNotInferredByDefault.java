@@ -0,0 +1,39 @@
+public class Foo {
+  private String myField;
+
+  private static String find(boolean flag) {
+    if (flag) {
+      return "found";
+    }
+    return <warning descr="'null' is returned by the method which isn't declared as @Nullable">null</warning>;
+  }
+
+  private static String create() {
+    return "created";
+  }
+
+  private static int twice(int i) {
+    return i * 2;
+  }
+
+  void nullableResult(boolean flag) {
+    String s = find(flag);
+    System.out.println(s.length());
+  }
+
+  void notNullResult() {
+    String s = create();
+    if (s == null) {
+      System.out.println();
+    }
+  }
+
+  void pureCallFlushesFields() {
+    if (myField == null) {
+      twice(1);
+      if (myField == null) {
+        System.out.println();
+      }
+    }
+  }
+}
@@ -0,0 +1,33 @@
+class Foo extends Util {
+  private String myField;
+
+  void nullableResult(boolean flag) {
+    String s = Util.find(flag);
+    System.out.println(<warning descr="Method invocation 's.length()' may produce 'java.lang.NullPointerException'">s.length()</warning>);
+  }
+
+  void notNullResult(String[] args) {
+    String s = Util.create(args);
+    if (<warning descr="Condition 's == null' is always 'false'">s == null</warning>) {
+      System.out.println();
+    }
+  }
+
+  void pureCallDoesntFlushFields() {
+    if (myField == null) {
+      twice(1);
+      if (<warning descr="Condition 'myField == null' is always 'true'">myField == null</warning>) {
+        System.out.println();
+      }
+    }
+  }
+
+  void impureCallFlushesFields() {
+    if (myField == null) {
+      count();
+      if (myField == null) {
+        System.out.println();
+      }
+    }
+  }
+}
@@ -0,0 +1,103 @@
+public class Foo {
+  public void process(boolean b1, boolean b2, boolean b3, boolean b4, boolean b5, boolean b6, boolean b7, boolean b8, boolean b9, boolean b10, boolean b11, boolean b12, boolean b13, boolean b14, boolean b15, boolean b16, boolean b17, boolean b18, boolean b19, boolean b20, boolean b21, boolean b22, boolean b23, boolean b24) {
+    String s1 = b1 ? "1" : null;
+    if (s1 != null) {
+      consume(s1.length());
+    }
+    String s2 = b2 ? "2" : null;
+    if (s2 != null) {
+      consume(s2.length());
+    }
+    String s3 = b3 ? "3" : null;
+    if (s3 != null) {
+      consume(s3.length());
+    }
+    String s4 = b4 ? "4" : null;
+    if (s4 != null) {
+      consume(s4.length());
+    }
+    String s5 = b5 ? "5" : null;
+    if (s5 != null) {
+      consume(s5.length());
+    }
+    String s6 = b6 ? "6" : null;
+    if (s6 != null) {
+      consume(s6.length());
+    }
+    String s7 = b7 ? "7" : null;
+    if (s7 != null) {
+      consume(s7.length());
+    }
+    String s8 = b8 ? "8" : null;
+    if (s8 != null) {
+      consume(s8.length());
+    }
+    String s9 = b9 ? "9" : null;
+    if (s9 != null) {
+      consume(s9.length());
+    }
+    String s10 = b10 ? "10" : null;
+    if (s10 != null) {
+      consume(s10.length());
+    }
+    String s11 = b11 ? "11" : null;
+    if (s11 != null) {
+      consume(s11.length());
+    }
+    String s12 = b12 ? "12" : null;
+    if (s12 != null) {
+      consume(s12.length());
+    }
+    String s13 = b13 ? "13" : null;
+    if (s13 != null) {
+      consume(s13.length());
+    }
+    String s14 = b14 ? "14" : null;
+    if (s14 != null) {
+      consume(s14.length());
+    }
+    String s15 = b15 ? "15" : null;
+    if (s15 != null) {
+      consume(s15.length());
+    }
+    String s16 = b16 ? "16" : null;
+    if (s16 != null) {
+      consume(s16.length());
+    }
+    String s17 = b17 ? "17" : null;
+    if (s17 != null) {
+      consume(s17.length());
+    }
+    String s18 = b18 ? "18" : null;
+    if (s18 != null) {
+      consume(s18.length());
+    }
+    String s19 = b19 ? "19" : null;
+    if (s19 != null) {
+      consume(s19.length());
+    }
+    String s20 = b20 ? "20" : null;
+    if (s20 != null) {
+      consume(s20.length());
+    }
+    String s21 = b21 ? "21" : null;
+    if (s21 != null) {
+      consume(s21.length());
+    }
+    String s22 = b22 ? "22" : null;
+    if (s22 != null) {
+      consume(s22.length());
+    }
+    String s23 = b23 ? "23" : null;
+    if (s23 != null) {
+      consume(s23.length());
+    }
+    String s24 = b24 ? "24" : null;
+    if (s24 != null) {
+      consume(s24.length());
+    }
+  }
+
+  private static void consume(int i) {
+  }
+}
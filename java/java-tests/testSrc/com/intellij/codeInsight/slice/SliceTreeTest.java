@@ -6,6 +6,7 @@ import com.intellij.codeInsight.daemon.LightDaemonAnalyzerTestCase;
 import com.intellij.codeInsight.daemon.impl.HighlightInfo;
 import com.intellij.ide.util.treeView.AbstractTreeNode;
 import com.intellij.lang.annotation.HighlightSeverity;
+import com.intellij.openapi.progress.util.ProgressIndicatorBase;
 import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.wm.impl.ToolWindowHeadlessManagerImpl;
@@ -118,6 +119,57 @@ public class SliceTreeTest extends LightDaemonAnalyzerTestCase {
     assertTrue(element instanceof PsiLiteralExpression);
     assertEquals(1111111111, ((PsiLiteral)element).getValue());
   }
+  public void testParallelExpansionIsSameAsSequential() throws Exception {
+    checkParallelExpansion("DupSlice", 1000);
+  }
+  public void testParallelExpansionOfInfinitelyExpandingTree() throws Exception {
+    checkParallelExpansion("Tuple", 10);
+  }
+  public void testParallelExpansionWithDuplicatesIsSameAsSequential() throws Exception {
+    checkParallelExpansion("Duplicate", 1000);
+  }
+  public void testPartialParallelExpansionIsSameAsSequential() throws Exception {
+    checkParallelExpansion("Duplicate", 2);
+  }
+
+  private void checkParallelExpansion(@NonNls String name, int nodeBudget) throws Exception {
+    SliceTreeStructure sequentialStructure = configureTree(name);
+    SliceNode sequentialRoot = (SliceNode)sequentialStructure.getRootElement();
+    Collection<PsiElement> expectedLeaves = SliceLeafAnalyzer.calcLeafExpressions(sequentialRoot, sequentialStructure, SliceLeafAnalyzer.createMap());
+    String expectedTree = dumpWalkedTree(sequentialRoot, "");
+    List<String> expectedLeafTexts = texts(expectedLeaves);
+
+    SliceTreeStructure treeStructure = configureTree(name);
+    SliceNode root = (SliceNode)treeStructure.getRootElement();
+    ProgressIndicatorBase indicator = new ProgressIndicatorBase();
+    new SliceParallelExpander(treeStructure, nodeBudget).expand(root, indicator);
+    assertFalse(indicator.isCanceled());
+    Collection<PsiElement> leaves = SliceLeafAnalyzer.calcLeafExpressions(root, treeStructure, SliceLeafAnalyzer.createMap());
+
+    assertEquals(expectedLeafTexts, texts(leaves));
+    assertEquals(expectedTree, dumpWalkedTree(root, ""));
+  }
+
+  // nodes as they were visited by the leaf analyzer, which doesn't go into duplicates
+  private static String dumpWalkedTree(SliceNode node, String indent) {
+    StringBuilder result = new StringBuilder(indent).append(node).append(node.getDuplicate() == null ? "" : " (dup)").append('\n');
+    if (node.getDuplicate() == null) {
+      for (AbstractTreeNode child : node.getChildren()) {
+        result.append(dumpWalkedTree((SliceNode)child, indent + "  "));
+      }
+    }
+    return result.toString();
+  }
+
+  private static List<String> texts(Collection<PsiElement> elements) {
+    List<String> result = new ArrayList<String>();
+    for (PsiElement element : elements) {
+      result.add(element.getText());
+    }
+    Collections.sort(result);
+    return result;
+  }
+
   public void testLeafExpressionsMoreComplex() throws Exception {
     SliceTreeStructure treeStructure = configureTree("Duplicate");
     SliceNode root = (SliceNode)treeStructure.getRootElement();
@@ -20,8 +20,11 @@ import com.intellij.codeInsight.*;
 import com.intellij.codeInspection.dataFlow.DataFlowInspection;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.util.registry.RegistryValue;
 import com.intellij.psi.PsiClass;
 import com.intellij.psi.PsiMethod;
+import com.intellij.psi.impl.source.PsiFileImpl;
 import com.intellij.testFramework.fixtures.LightCodeInsightFixtureTestCase;
 import org.jetbrains.annotations.*;
 
@@ -61,6 +64,7 @@ public class DataFlowInspectionTest extends LightCodeInsightFixtureTestCase {
   public void testBuildRegexpNotComplex() throws Throwable { doTest(); }
   public void testTernaryInWhileNotComplex() throws Throwable { doTest(); }
   public void testTryCatchInForNotComplex() throws Throwable { doTest(); }
+  public void testSequentialIndependentBranchesNotComplex() throws Throwable { doTest(); }
   public void testFieldChangedBetweenSynchronizedBlocks() throws Throwable { doTest(); }
 
   public void testGeneratedEquals() throws Throwable { doTest(); }
@@ -130,6 +134,46 @@ public class DataFlowInspectionTest extends LightCodeInsightFixtureTestCase {
     });
   }
 
+  public void testMethodSummaries() throws Throwable {
+    enableMethodSummaries();
+    doTestWithNullableSuggestions();
+  }
+
+  public void testMethodSummariesNotInferredByDefault() throws Throwable { doTest(); }
+
+  public void testMethodSummariesOfOtherClass() throws Throwable {
+    enableMethodSummaries();
+    // fields are only flushed by unqualified calls, so the methods are inherited and called unqualified
+    PsiClass util = myFixture.addClass("public class Util {\n" +
+                                       "  private static int ourCount;\n" +
+                                       "  public static String find(boolean flag) { return flag ? \"found\" : null; }\n" +
+                                       "  public static String create(String... args) { return new String(\"created\"); }\n" +
+                                       "  public static int twice(int i) { int result = i; result *= 2; return result; }\n" +
+                                       "  public static void count() { ourCount++; }\n" +
+                                       "}");
+    doTestWithNullableSuggestions();
+    // summaries are taken from the index, the callee is not parsed
+    assertNull(((PsiFileImpl)util.getContainingFile()).getTreeElement());
+  }
+
+  private void enableMethodSummaries() {
+    final RegistryValue value = Registry.get("java.dfa.method.summaries");
+    value.setValue(true);
+    Disposer.register(myTestRootDisposable, new Disposable() {
+      @Override
+      public void dispose() {
+        value.resetToDefault();
+      }
+    });
+  }
+
+  private void doTestWithNullableSuggestions() {
+    final DataFlowInspection inspection = new DataFlowInspection();
+    inspection.SUGGEST_NULLABLE_ANNOTATIONS = true;
+    myFixture.enableInspections(inspection);
+    myFixture.testHighlighting(true, false, true, getTestName(false) + ".java");
+  }
+
   public void testSkipAssertions() {
     final DataFlowInspection inspection = new DataFlowInspection();
     inspection.DONT_REPORT_TRUE_ASSERT_STATEMENTS = true;
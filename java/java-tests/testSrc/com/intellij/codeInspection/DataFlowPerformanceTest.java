@@ -0,0 +1,72 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInspection;
+
+import com.intellij.JavaTestUtil;
+import com.intellij.codeInspection.dataFlow.RunnerResult;
+import com.intellij.codeInspection.dataFlow.StandardDataFlowRunner;
+import com.intellij.codeInspection.dataFlow.StandardInstructionVisitor;
+import com.intellij.psi.PsiCodeBlock;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.testFramework.fixtures.LightCodeInsightFixtureTestCase;
+import com.intellij.util.ThrowableRunnable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs data flow analysis over the biggest methods of {@link DataFlowInspectionTest} test data
+ */
+public class DataFlowPerformanceTest extends LightCodeInsightFixtureTestCase {
+  private static final String[] TEST_FILES = {
+    "BigMethodNotComplex.java",
+    "BuildRegexpNotComplex.java",
+    "TernaryInWhileNotComplex.java",
+    "TryCatchInForNotComplex.java",
+    "SequentialIndependentBranchesNotComplex.java"
+  };
+
+  @Override
+  protected String getTestDataPath() {
+    return JavaTestUtil.getJavaTestDataPath() + "/inspection/dataFlow/fixture/";
+  }
+
+  public void testRepresentativeMethods() {
+    final List<PsiCodeBlock> bodies = new ArrayList<PsiCodeBlock>();
+    for (String file : TEST_FILES) {
+      myFixture.configureByFile(file);
+      for (PsiMethod method : PsiTreeUtil.findChildrenOfType(myFixture.getFile(), PsiMethod.class)) {
+        if (method.getBody() != null) {
+          bodies.add(method.getBody());
+        }
+      }
+    }
+
+    PlatformTestUtil.startPerformanceTest(getTestName(false), 3000, new ThrowableRunnable() {
+      @Override
+      public void run() throws Exception {
+        for (int i = 0; i < 10; i++) {
+          for (PsiCodeBlock body : bodies) {
+            StandardDataFlowRunner runner = new StandardDataFlowRunner(true);
+            assertEquals(body.getText(), RunnerResult.OK, runner.analyzeMethod(body, new StandardInstructionVisitor()));
+          }
+        }
+      }
+    }).cpuBound().assertTiming();
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.debugger.jdi;
+
+import com.sun.jdi.*;
+import junit.framework.TestCase;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+public class JdiValueCacheTest extends TestCase {
+  private static final int ARRAY_LENGTH = 250;
+
+  private final JdiValueCache myCache = new JdiValueCache();
+  private final Map<String, Integer> myRequests = new HashMap<String, Integer>();
+  private final Map<Field, Integer> myFieldValues = new HashMap<Field, Integer>();
+  private final Object mySuspendContext = new Object();
+  private ObjectReference myObject;
+  private ArrayReference myArray;
+  private Field myField1;
+  private Field myField2;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myField1 = mock(Field.class, "field1", null);
+    myField2 = mock(Field.class, "field2", null);
+    myFieldValues.put(myField1, 1);
+    myFieldValues.put(myField2, 2);
+    myObject = mock(ObjectReference.class, "object", new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        if (method.getName().equals("getValue")) {
+          return value(myFieldValues.get((Field)args[0]));
+        }
+        if (method.getName().equals("getValues")) {
+          final Map<Field, Value> result = new HashMap<Field, Value>();
+          for (Object field : (List)args[0]) {
+            result.put((Field)field, value(myFieldValues.get((Field)field)));
+          }
+          return result;
+        }
+        throw new UnsupportedOperationException(method.getName());
+      }
+    });
+    myArray = mock(ArrayReference.class, "array", new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        if (method.getName().equals("length")) {
+          return ARRAY_LENGTH;
+        }
+        if (method.getName().equals("getValue")) {
+          final int index = (Integer)args[0];
+          if (index < 0 || index >= ARRAY_LENGTH) throw new IndexOutOfBoundsException(String.valueOf(index));
+          return value(index);
+        }
+        if (method.getName().equals("getValues")) {
+          final int start = (Integer)args[0];
+          final int length = (Integer)args[1];
+          assertTrue(start + length <= ARRAY_LENGTH);
+          final List<Value> result = new ArrayList<Value>();
+          for (int i = start; i < start + length; i++) {
+            result.add(value(i));
+          }
+          return result;
+        }
+        throw new UnsupportedOperationException(method.getName());
+      }
+    });
+  }
+
+  public void testFieldValuesAreKeptInSuspendContext() {
+    assertEquals(1, intValue(myCache.getFieldValue(mySuspendContext, myObject, myField1)));
+    myFieldValues.put(myField1, 10);
+    assertEquals(1, intValue(myCache.getFieldValue(mySuspendContext, myObject, myField1)));
+    assertRequests("object.getValue", 1);
+  }
+
+  public void testFieldValuesAreNotKeptWithoutSuspendContext() {
+    assertEquals(1, intValue(myCache.getFieldValue(null, myObject, myField1)));
+    myFieldValues.put(myField1, 10);
+    assertEquals(10, intValue(myCache.getFieldValue(null, myObject, myField1)));
+    assertRequests("object.getValue", 2);
+  }
+
+  public void testFieldValuesOfAnotherSuspendContextAreDropped() {
+    assertEquals(1, intValue(myCache.getFieldValue(mySuspendContext, myObject, myField1)));
+    myFieldValues.put(myField1, 10);
+    assertEquals(10, intValue(myCache.getFieldValue(new Object(), myObject, myField1)));
+    assertRequests("object.getValue", 2);
+  }
+
+  public void testClear() {
+    assertEquals(1, intValue(myCache.getFieldValue(mySuspendContext, myObject, myField1)));
+    myFieldValues.put(myField1, 10);
+    myCache.clear();
+    assertEquals(10, intValue(myCache.getFieldValue(mySuspendContext, myObject, myField1)));
+  }
+
+  public void testPrefetchedFieldValues() {
+    myCache.prefetchFieldValues(mySuspendContext, myObject, Arrays.asList(myField1, myField2));
+    assertEquals(1, intValue(myCache.getFieldValue(mySuspendContext, myObject, myField1)));
+    assertEquals(2, intValue(myCache.getFieldValue(mySuspendContext, myObject, myField2)));
+    myCache.prefetchFieldValues(mySuspendContext, myObject, Arrays.asList(myField1, myField2));
+    assertRequests("object.getValues", 1);
+    assertRequests("object.getValue", 0);
+  }
+
+  public void testNothingIsPrefetchedWithoutSuspendContext() {
+    myCache.prefetchFieldValues(null, myObject, Arrays.asList(myField1, myField2));
+    assertRequests("object.getValues", 0);
+  }
+
+  public void testArrayElementsAreReadByPages() {
+    for (int i = 0; i < ARRAY_LENGTH; i++) {
+      assertEquals(i, intValue(myCache.getArrayElement(mySuspendContext, myArray, i)));
+    }
+    assertRequests("array.getValues", (ARRAY_LENGTH + JdiValueCache.ARRAY_PAGE_SIZE - 1) / JdiValueCache.ARRAY_PAGE_SIZE);
+    assertRequests("array.getValue", 0);
+  }
+
+  public void testArrayElementsAreReadOneByOneWithoutSuspendContext() {
+    for (int i = 0; i < ARRAY_LENGTH; i++) {
+      assertEquals(i, intValue(myCache.getArrayElement(null, myArray, i)));
+    }
+    assertRequests("array.getValues", 0);
+    assertRequests("array.getValue", ARRAY_LENGTH);
+  }
+
+  public void testWrongArrayIndexIsReportedByJdi() {
+    try {
+      myCache.getArrayElement(mySuspendContext, myArray, ARRAY_LENGTH);
+      fail();
+    }
+    catch (IndexOutOfBoundsException ignored) {
+    }
+  }
+
+  private void assertRequests(String request, int expected) {
+    final Integer count = myRequests.get(request);
+    assertEquals(request, expected, count == null ? 0 : count.intValue());
+  }
+
+  private static int intValue(Value value) {
+    return ((IntegerValue)value).value();
+  }
+
+  private static Value value(final int i) {
+    return mock(IntegerValue.class, "value", new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        if (method.getName().equals("value")) return i;
+        throw new UnsupportedOperationException(method.getName());
+      }
+    }, null);
+  }
+
+  private <T> T mock(Class<T> aClass, String name, InvocationHandler handler) {
+    return mock(aClass, name, handler, myRequests);
+  }
+
+  // identity based equality, calls other than equals/hashCode/toString are counted and passed to the handler
+  private static <T> T mock(Class<T> aClass, final String name, final InvocationHandler handler, final Map<String, Integer> requests) {
+    return aClass.cast(Proxy.newProxyInstance(JdiValueCacheTest.class.getClassLoader(), new Class[]{aClass}, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getName().equals("equals")) return proxy == args[0];
+        if (method.getName().equals("hashCode")) return System.identityHashCode(proxy);
+        if (method.getName().equals("toString")) return name;
+        if (requests != null) {
+          final String request = name + "." + method.getName();
+          final Integer count = requests.get(request);
+          requests.put(request, count == null ? 1 : count + 1);
+        }
+        if (handler == null) throw new UnsupportedOperationException(method.getName());
+        return handler.invoke(proxy, method, args);
+      }
+    }));
+  }
+}
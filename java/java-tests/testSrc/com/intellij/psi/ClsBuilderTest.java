@@ -7,8 +7,10 @@ import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.impl.compiled.DefaultClsStubBuilderFactory;
+import com.intellij.psi.impl.java.stubs.PsiFieldStub;
 import com.intellij.psi.stubs.PsiFileStub;
 import com.intellij.psi.stubs.StubBase;
+import com.intellij.psi.stubs.StubElement;
 import com.intellij.testFramework.LightIdeaTestCase;
 import com.intellij.util.cls.ClsFormatException;
 
@@ -68,6 +70,32 @@ public class ClsBuilderTest extends LightIdeaTestCase {
     doTest(clsFile, getTestName(false) + ".txt");
   }
 
+  public void testConstantValues() throws Exception {
+    assertEquals(Integer.MAX_VALUE, constantValue("java/lang/Integer.class", "MAX_VALUE"));
+    assertEquals(Long.MIN_VALUE, constantValue("java/lang/Long.class", "MIN_VALUE"));
+    assertEquals(Character.MAX_VALUE, constantValue("java/lang/Character.class", "MAX_VALUE"));
+    assertEquals(Byte.MAX_VALUE, constantValue("java/lang/Byte.class", "MAX_VALUE"));
+    assertEquals(Float.NaN, constantValue("java/lang/Float.class", "NaN"));
+    assertEquals("META-INF/MANIFEST.MF", constantValue("java/util/jar/JarFile.class", "MANIFEST_NAME"));
+    assertNull(constantValue("java/lang/Boolean.class", "TRUE"));
+  }
+
+  private Object constantValue(String className, String fieldName) throws ClsFormatException, IOException {
+    final VirtualFile clsFile = findFile(className);
+    final PsiFileStub stub = (new DefaultClsStubBuilderFactory()).buildFileStub(clsFile, clsFile.contentsToByteArray());
+    assert stub != null : clsFile;
+    for (Object classStub : stub.getChildrenStubs()) {
+      for (Object child : ((StubElement)classStub).getChildrenStubs()) {
+        if (child instanceof PsiFieldStub && fieldName.equals(((PsiFieldStub)child).getName())) {
+          return ((PsiFieldStub)child).getConstantValue();
+        }
+      }
+    }
+
+    fail("Cannot find field " + fieldName + " in " + className);
+    return null;
+  }
+
   private void doTestFromTestData() throws ClsFormatException, IOException {
     final String clsFilePath = JavaTestUtil.getJavaTestDataPath() + "/psi/cls/stubBuilder/" + getTestName(false) + ".class";
     final VirtualFile clsFile = LocalFileSystem.getInstance().findFileByPath(clsFilePath);
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.resolve;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.editor.Document;
+import com.intellij.psi.*;
+import com.intellij.psi.impl.source.resolve.ResolveCache;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.testFramework.fixtures.LightCodeInsightFixtureTestCase;
+
+public class ResolveCacheInvalidationTest extends LightCodeInsightFixtureTestCase {
+  private PsiFile myFileA;
+  private PsiJavaCodeReferenceElement myReferenceInB;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myFileA = myFixture.addFileToProject("A.java", "class A { void foo() { int x = 1; } }");
+    PsiFile fileB = myFixture.addFileToProject("B.java", "class B { void bar() { new A(); } }");
+    myReferenceInB = PsiTreeUtil.findChildOfType(fileB, PsiNewExpression.class).getClassReference();
+    assertNotNull(myReferenceInB.resolve());
+    assertTrue(isCached(myReferenceInB));
+  }
+
+  public void testChangeInsideCodeBlockOfOtherFileKeepsResults() {
+    changeText(myFileA, "int x = 1;", "int x = 2;");
+    assertTrue(isCached(myReferenceInB));
+  }
+
+  public void testChangeOutsideCodeBlockDropsResults() {
+    changeText(myFileA, "void foo()", "void baz() {} void foo()");
+    assertFalse(isCached(myReferenceInB));
+  }
+
+  public void testChangeInsideCodeBlockOfSameFileDropsResults() {
+    PsiFile fileB = myReferenceInB.getContainingFile();
+    changeText(fileB, "new A();", "new A(); int y = 0;");
+    assertFalse(isCached(PsiTreeUtil.findChildOfType(fileB, PsiNewExpression.class).getClassReference()));
+  }
+
+  private void changeText(final PsiFile file, final String oldText, final String newText) {
+    ApplicationManager.getApplication().runWriteAction(new Runnable() {
+      @Override
+      public void run() {
+        Document document = PsiDocumentManager.getInstance(getProject()).getDocument(file);
+        assertNotNull(document);
+        int offset = document.getText().indexOf(oldText);
+        document.replaceString(offset, offset + oldText.length(), newText);
+        PsiDocumentManager.getInstance(getProject()).commitAllDocuments();
+      }
+    });
+  }
+
+  private boolean isCached(PsiJavaCodeReferenceElement reference) {
+    return ResolveCache.getInstance(getProject()).isCached(reference, true, false, true);
+  }
+}
@@ -22,9 +22,15 @@ package org.jetbrains.jps.api;
 public interface GlobalOptions {
   String USE_MEMORY_TEMP_CACHE_OPTION = "use.memory.temp.cache";
   String USE_EXTERNAL_JAVAC_OPTION = "use.external.javac.process";
+  String EXTERNAL_JAVAC_POOL_SIZE_OPTION = "external.javac.pool.size";
+  String EXTERNAL_JAVAC_HEAP_BUDGET_OPTION = "external.javac.heap.budget";
   String GENERATE_CLASSPATH_INDEX_OPTION = "generate.classpath.index";
   String COMPILE_PARALLEL_OPTION = "compile.parallel";
   String COMPILE_PARALLEL_MAX_THREADS_OPTION = "compile.parallel.max.threads";
+  String COMPILE_PARALLEL_PIPELINED_OPTION = "compile.parallel.pipelined";
+  String INCREMENTAL_JARS_OPTION = "artifacts.incremental.jars";
+  String MAPPED_DEPENDENCY_STORAGE_OPTION = "mapped.dependency.storage";
+  String CONTENT_HASH_CHECK_OPTION = "content.hash.check";
   String REBUILD_ON_DEPENDENCY_CHANGE_OPTION = "rebuild.on.dependency.change";
   String LOG_DIR_OPTION = "log.dir";
 }
@@ -0,0 +1,547 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.builders.java.dependencyView;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.ByteBufferWrapper;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TIntObjectProcedure;
+
+import java.io.*;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Int-to-ints multimap stored in a memory-mapped file as a sequence of segments, each of three int columns: sorted keys,
+ * offsets of value ranges and values. Modifications are kept in memory and appended as a new segment on flush, a key stored
+ * in a later segment overrides its values in the earlier ones, and an empty range means the key is removed. Lookups never
+ * deserialize anything but the requested values and a batch of keys may be looked up in a single pass over each keys column.
+ * The file is compacted into a new generation when too much of it is overridden or there are too many segments to look in.
+ */
+class IntIntMappedMultiMaplet extends IntIntMultiMaplet {
+  private static final int VERSION = 2;
+  private static final int SEGMENT_HEADER_SIZE = 3; // keys count, values count, garbage size
+  private static final int MAX_PENDING_VALUES = 1 << 16;
+  private static final int MAX_SEGMENTS = 32;
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private final File myBaseFile;
+  private int myGeneration;
+  private final List<ByteBufferWrapper> myBuffers = new ArrayList<ByteBufferWrapper>();
+  /**
+   * From the oldest to the newest one
+   */
+  private final List<Segment> mySegments = new ArrayList<Segment>();
+  // in ints
+  private long myFileSize;
+  // ints of the file which are overridden by later segments, they are dropped by compaction
+  private long myGarbageSize;
+  /**
+   * Complete values of keys modified since the last flush; an empty set means the key is removed
+   */
+  private final TIntObjectHashMap<TIntHashSet> myPending = new TIntObjectHashMap<TIntHashSet>();
+  private int myPendingValuesCount;
+
+  public IntIntMappedMultiMaplet(final File baseFile) throws IOException {
+    myBaseFile = baseFile;
+    myGeneration = findLatestGeneration();
+    load();
+  }
+
+  private int findLatestGeneration() {
+    int latest = 0;
+    final String prefix = myBaseFile.getName() + ".";
+    final File[] files = myBaseFile.getParentFile().listFiles();
+    if (files != null) {
+      for (File file : files) {
+        final String name = file.getName();
+        if (name.startsWith(prefix)) {
+          try {
+            latest = Math.max(latest, Integer.parseInt(name.substring(prefix.length())));
+          }
+          catch (NumberFormatException ignored) {
+          }
+        }
+      }
+      // remove temp files of an interrupted compaction and previous generations which couldn't be deleted
+      for (File file : files) {
+        final String name = file.getName();
+        if (name.startsWith(prefix) && !name.equals(prefix + latest)) {
+          FileUtil.delete(file);
+        }
+      }
+    }
+    return latest;
+  }
+
+  private File getGenerationFile(final int generation) {
+    return new File(myBaseFile.getPath() + "." + generation);
+  }
+
+  private void load() throws IOException {
+    final File file = getGenerationFile(myGeneration);
+    myFileSize = file.length() / 4;
+    myGarbageSize = 0;
+    if (myFileSize == 0) {
+      return;
+    }
+    final IntBuffer data = map(file, 0);
+    if (data.get(0) != VERSION) {
+      throw new IOException("Unsupported format of " + file.getPath());
+    }
+    int position = 1;
+    while (position < data.limit()) {
+      if (position + SEGMENT_HEADER_SIZE > data.limit()) {
+        throw new IOException("Corrupted " + file.getPath());
+      }
+      final long size = Segment.getSize(data.get(position), data.get(position + 1));
+      if (position + size > data.limit()) {
+        throw new IOException("Corrupted " + file.getPath());
+      }
+      data.position(position);
+      data.limit(position + (int)size);
+      addSegment(data.slice());
+      data.clear();
+      position += size;
+    }
+  }
+
+  private IntBuffer map(final File file, final long position) throws IOException {
+    final ByteBufferWrapper buffer = ByteBufferWrapper.readOnly(file, (int)position);
+    myBuffers.add(buffer);
+    return buffer.getBuffer().asIntBuffer();
+  }
+
+  private void addSegment(final IntBuffer data) {
+    final Segment segment = new Segment(data);
+    mySegments.add(segment);
+    myGarbageSize = segment.getGarbageSize();
+  }
+
+  private void unmap() {
+    // otherwise the file stays mapped until the buffers are collected, and it can't be deleted on Windows
+    for (ByteBufferWrapper buffer : myBuffers) {
+      buffer.unmap();
+    }
+    myBuffers.clear();
+    mySegments.clear();
+  }
+
+  private static class Segment {
+    private final IntBuffer myData;
+    private final int myKeyCount;
+
+    private Segment(final IntBuffer data) {
+      myData = data;
+      myKeyCount = data.get(0);
+    }
+
+    static long getSize(final int keyCount, final int valueCount) {
+      return SEGMENT_HEADER_SIZE + 2L * keyCount + 1 + valueCount;
+    }
+
+    long getGarbageSize() {
+      return myData.get(2) & 0xFFFFFFFFL;
+    }
+
+    int getKeyAt(final int index) {
+      return myData.get(SEGMENT_HEADER_SIZE + index);
+    }
+
+    private int getOffsetAt(final int index) {
+      return myData.get(SEGMENT_HEADER_SIZE + myKeyCount + index);
+    }
+
+    boolean isRemoved(final int index) {
+      return getOffsetAt(index) == getOffsetAt(index + 1);
+    }
+
+    /**
+     * @return ints taken by the key, its offset and its values
+     */
+    int getEntrySize(final int index) {
+      return 2 + getOffsetAt(index + 1) - getOffsetAt(index);
+    }
+
+    /**
+     * @return index of the key in the keys column, or a negative value if the key isn't stored
+     */
+    int findKeyIndex(final int key, final int fromIndex) {
+      int low = fromIndex;
+      int high = myKeyCount - 1;
+      while (low <= high) {
+        final int mid = (low + high) >>> 1;
+        final int midKey = getKeyAt(mid);
+        if (midKey < key) {
+          low = mid + 1;
+        }
+        else if (midKey > key) {
+          high = mid - 1;
+        }
+        else {
+          return mid;
+        }
+      }
+      return -(low + 1);
+    }
+
+    void readValues(final int index, final TIntHashSet acc) {
+      final int valuesStart = SEGMENT_HEADER_SIZE + 2 * myKeyCount + 1;
+      final int end = getOffsetAt(index + 1);
+      for (int i = getOffsetAt(index); i < end; i++) {
+        acc.add(myData.get(valuesStart + i));
+      }
+    }
+
+    void readValues(final int index, final TIntArrayList acc) {
+      final int valuesStart = SEGMENT_HEADER_SIZE + 2 * myKeyCount + 1;
+      final int end = getOffsetAt(index + 1);
+      for (int i = getOffsetAt(index); i < end; i++) {
+        acc.add(myData.get(valuesStart + i));
+      }
+    }
+  }
+
+  /**
+   * @return the newest segment which stores the key, with the index of the key in it, or null if no segment does
+   */
+  private int[] findStored(final int key) {
+    for (int i = mySegments.size() - 1; i >= 0; i--) {
+      final int index = mySegments.get(i).findKeyIndex(key, 0);
+      if (index >= 0) {
+        return new int[]{i, index};
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return whether the stored values of the key are not empty
+   */
+  private boolean readStoredValues(final int key, final TIntHashSet acc) {
+    final int[] stored = findStored(key);
+    if (stored == null) {
+      return false;
+    }
+    final Segment segment = mySegments.get(stored[0]);
+    if (acc != null) {
+      segment.readValues(stored[1], acc);
+    }
+    return !segment.isRemoved(stored[1]);
+  }
+
+  private TIntHashSet getForUpdate(final int key) {
+    TIntHashSet values = myPending.get(key);
+    if (values == null) {
+      values = new TIntHashSet();
+      readStoredValues(key, values);
+      myPending.put(key, values);
+    }
+    return values;
+  }
+
+  @Override
+  public boolean containsKey(final int key) {
+    final TIntHashSet pending = myPending.get(key);
+    if (pending != null) {
+      return !pending.isEmpty();
+    }
+    return readStoredValues(key, null);
+  }
+
+  @Override
+  public TIntHashSet get(final int key) {
+    final TIntHashSet pending = myPending.get(key);
+    if (pending != null) {
+      return pending.isEmpty() ? null : pending;
+    }
+    final TIntHashSet values = new TIntHashSet();
+    return readStoredValues(key, values) ? values : null;
+  }
+
+  @Override
+  void collectValues(final TIntHashSet keys, final TIntHashSet acc) {
+    final int[] sortedKeys = keys.toArray();
+    Arrays.sort(sortedKeys);
+    // keys are sorted, so each search in a segment continues from the position where the previous one stopped
+    final int[] from = new int[mySegments.size()];
+    for (int key : sortedKeys) {
+      final TIntHashSet pending = myPending.get(key);
+      if (pending != null) {
+        acc.addAll(pending.toArray());
+        continue;
+      }
+      for (int i = mySegments.size() - 1; i >= 0; i--) {
+        final Segment segment = mySegments.get(i);
+        if (from[i] >= segment.myKeyCount) {
+          continue;
+        }
+        final int index = segment.findKeyIndex(key, from[i]);
+        if (index >= 0) {
+          segment.readValues(index, acc);
+          from[i] = index + 1;
+          break;
+        }
+        from[i] = -index - 1;
+      }
+    }
+  }
+
+  @Override
+  public void put(final int key, final int value) {
+    if (getForUpdate(key).add(value)) {
+      myPendingValuesCount++;
+    }
+  }
+
+  @Override
+  public void put(final int key, final TIntHashSet value) {
+    if (getForUpdate(key).addAll(value.toArray())) {
+      myPendingValuesCount += value.size();
+    }
+  }
+
+  @Override
+  public void replace(final int key, final TIntHashSet value) {
+    if (value == null || value.isEmpty()) {
+      myPending.put(key, new TIntHashSet());
+    }
+    else {
+      myPending.put(key, new TIntHashSet(value.toArray()));
+      myPendingValuesCount += value.size();
+    }
+  }
+
+  @Override
+  public void putAll(final IntIntMultiMaplet m) {
+    m.forEachEntry(new TIntObjectProcedure<TIntHashSet>() {
+      @Override
+      public boolean execute(int key, TIntHashSet value) {
+        put(key, value);
+        return true;
+      }
+    });
+  }
+
+  @Override
+  public void replaceAll(final IntIntMultiMaplet m) {
+    m.forEachEntry(new TIntObjectProcedure<TIntHashSet>() {
+      @Override
+      public boolean execute(int key, TIntHashSet value) {
+        replace(key, value);
+        return true;
+      }
+    });
+  }
+
+  @Override
+  public void remove(final int key) {
+    myPending.put(key, new TIntHashSet());
+  }
+
+  @Override
+  public void removeFrom(final int key, final int value) {
+    if (containsKey(key)) {
+      getForUpdate(key).remove(value);
+    }
+  }
+
+  @Override
+  public void removeAll(final int key, final TIntHashSet values) {
+    if (containsKey(key)) {
+      getForUpdate(key).removeAll(values.toArray());
+    }
+  }
+
+  @Override
+  public void forEachEntry(final TIntObjectProcedure<TIntHashSet> procedure) {
+    final TIntHashSet visited = new TIntHashSet(myPending.keys());
+    for (int i = mySegments.size() - 1; i >= 0; i--) {
+      final Segment segment = mySegments.get(i);
+      for (int index = 0; index < segment.myKeyCount; index++) {
+        final int key = segment.getKeyAt(index);
+        if (!visited.add(key) || segment.isRemoved(index)) {
+          continue;
+        }
+        final TIntHashSet values = new TIntHashSet();
+        segment.readValues(index, values);
+        if (!procedure.execute(key, values)) {
+          return;
+        }
+      }
+    }
+    myPending.forEachEntry(new TIntObjectProcedure<TIntHashSet>() {
+      @Override
+      public boolean execute(int key, TIntHashSet values) {
+        return values.isEmpty() || procedure.execute(key, values);
+      }
+    });
+  }
+
+  @Override
+  public void flush(final boolean memoryCachesOnly) {
+    // pending modifications are the memory cache of this storage, so they are appended when they become too large
+    if (!myPending.isEmpty() && (!memoryCachesOnly || myPendingValuesCount > MAX_PENDING_VALUES)) {
+      try {
+        append();
+        if (myGarbageSize * 2 > myFileSize || mySegments.size() > MAX_SEGMENTS) {
+          compact();
+        }
+      }
+      catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    flush(false);
+    unmap();
+  }
+
+  private void append() throws IOException {
+    final int[] pendingKeys = myPending.keys();
+    Arrays.sort(pendingKeys);
+
+    final TIntArrayList keys = new TIntArrayList(pendingKeys.length);
+    final TIntArrayList offsets = new TIntArrayList(pendingKeys.length + 1);
+    final TIntArrayList values = new TIntArrayList(myPendingValuesCount);
+    long garbageSize = myGarbageSize;
+    offsets.add(0);
+    for (int key : pendingKeys) {
+      final int[] pendingValues = myPending.get(key).toArray();
+      final int[] stored = findStored(key);
+      // a stored removal is already counted as garbage
+      final boolean storedValues = stored != null && !mySegments.get(stored[0]).isRemoved(stored[1]);
+      if (pendingValues.length == 0) {
+        if (!storedValues) {
+          continue;
+        }
+        // the removal itself is dropped by compaction
+        garbageSize += 2;
+      }
+      if (storedValues) {
+        garbageSize += mySegments.get(stored[0]).getEntrySize(stored[1]);
+      }
+      Arrays.sort(pendingValues);
+      keys.add(key);
+      values.add(pendingValues);
+      offsets.add(values.size());
+    }
+    myPending.clear();
+    myPendingValuesCount = 0;
+    if (keys.isEmpty()) {
+      return;
+    }
+
+    final File file = getGenerationFile(myGeneration);
+    final boolean created = myFileSize == 0;
+    final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, !created)));
+    try {
+      if (created) {
+        output.writeInt(VERSION);
+        myFileSize = 1;
+      }
+      writeSegment(output, keys, offsets, values, garbageSize);
+    }
+    finally {
+      output.close();
+    }
+    addSegment(map(file, myFileSize * 4));
+    myFileSize += Segment.getSize(keys.size(), values.size());
+  }
+
+  /**
+   * Writes the entries which are not overridden into a single segment of a new generation of the file.
+   */
+  private void compact() throws IOException {
+    final int segmentCount = mySegments.size();
+    final int[] positions = new int[segmentCount];
+    final TIntArrayList keys = new TIntArrayList();
+    final TIntArrayList offsets = new TIntArrayList();
+    final TIntArrayList values = new TIntArrayList();
+    offsets.add(0);
+    while (true) {
+      // the smallest of the keys the segments are positioned at, the newest segment storing it has its values
+      int newest = -1;
+      int key = Integer.MAX_VALUE;
+      for (int i = segmentCount - 1; i >= 0; i--) {
+        final Segment segment = mySegments.get(i);
+        if (positions[i] < segment.myKeyCount && (newest < 0 || segment.getKeyAt(positions[i]) < key)) {
+          newest = i;
+          key = segment.getKeyAt(positions[i]);
+        }
+      }
+      if (newest < 0) {
+        break;
+      }
+      final Segment segment = mySegments.get(newest);
+      if (!segment.isRemoved(positions[newest])) {
+        keys.add(key);
+        segment.readValues(positions[newest], values);
+        offsets.add(values.size());
+      }
+      for (int i = 0; i < segmentCount; i++) {
+        final Segment each = mySegments.get(i);
+        if (positions[i] < each.myKeyCount && each.getKeyAt(positions[i]) == key) {
+          positions[i]++;
+        }
+      }
+    }
+
+    final File tempFile = new File(myBaseFile.getPath() + TEMP_SUFFIX);
+    final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+    try {
+      output.writeInt(VERSION);
+      writeSegment(output, keys, offsets, values, 0);
+    }
+    finally {
+      output.close();
+    }
+
+    final File previous = getGenerationFile(myGeneration);
+    unmap();
+    FileUtil.rename(tempFile, getGenerationFile(myGeneration + 1));
+    myGeneration++;
+    load();
+    // if it's still mapped after all, it's deleted on next opening
+    FileUtil.delete(previous);
+  }
+
+  private static void writeSegment(final DataOutputStream output,
+                                   final TIntArrayList keys,
+                                   final TIntArrayList offsets,
+                                   final TIntArrayList values,
+                                   final long garbageSize) throws IOException {
+    output.writeInt(keys.size());
+    output.writeInt(values.size());
+    output.writeInt((int)garbageSize);
+    writeColumn(output, keys);
+    writeColumn(output, offsets);
+    writeColumn(output, values);
+  }
+
+  private static void writeColumn(final DataOutputStream output, final TIntArrayList column) throws IOException {
+    for (int i = 0; i < column.size(); i++) {
+      output.writeInt(column.getQuick(i));
+    }
+  }
+}
@@ -55,6 +55,22 @@ abstract class IntIntMultiMaplet implements Streamable {
 
   abstract void flush(boolean memoryCachesOnly);
 
+  /**
+   * Adds values of all the given keys to the accumulator. Storages may override it to look up the whole batch of keys at once.
+   */
+  void collectValues(final TIntHashSet keys, final TIntHashSet acc) {
+    keys.forEach(new TIntProcedure() {
+      @Override
+      public boolean execute(int key) {
+        final TIntHashSet values = get(key);
+        if (values != null) {
+          acc.addAll(values.toArray());
+        }
+        return true;
+      }
+    });
+  }
+
   public void toStream(final DependencyContext context, final PrintStream stream) {
     final OrderProvider op = new OrderProvider(context);
 
@@ -25,6 +25,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.asm4.ClassReader;
 import org.jetbrains.asm4.Opcodes;
+import org.jetbrains.jps.api.GlobalOptions;
 import org.jetbrains.jps.incremental.storage.FileKeyDescriptor;
 
 import java.io.File;
@@ -47,6 +48,10 @@ public class Mappings {
   private final static String CLASS_TO_CLASS = "classToClass.tab";
   private final static String SOURCE_TO_CLASS = "sourceToClass.tab";
   private final static String CLASS_TO_SOURCE = "classToSource.tab";
+  /**
+   * Store class-to-class relations in memory-mapped columnar tables instead of persistent hash maps
+   */
+  public static final boolean USE_MAPPED_STORAGE = Boolean.parseBoolean(System.getProperty(GlobalOptions.MAPPED_DEPENDENCY_STORAGE_OPTION, "false"));
   private static final IntInlineKeyDescriptor INT_KEY_DESCRIPTOR = new IntInlineKeyDescriptor();
   private static final int DEFAULT_SET_CAPACITY = 32;
   private static final float DEFAULT_SET_LOAD_FACTOR = 0.98f;
@@ -138,8 +143,8 @@ public class Mappings {
       if (myIsDelta) {
         myRootDir.mkdirs();
       }
-      myClassToSubclasses = new IntIntPersistentMultiMaplet(DependencyContext.getTableFile(myRootDir, CLASS_TO_SUBCLASSES), INT_KEY_DESCRIPTOR);
-      myClassToClassDependency = new IntIntPersistentMultiMaplet(DependencyContext.getTableFile(myRootDir, CLASS_TO_CLASS), INT_KEY_DESCRIPTOR);
+      myClassToSubclasses = createIntIntMaplet(CLASS_TO_SUBCLASSES);
+      myClassToClassDependency = createIntIntMaplet(CLASS_TO_CLASS);
       mySourceFileToClasses = new ObjectObjectPersistentMultiMaplet<File, ClassRepr>(
         DependencyContext.getTableFile(myRootDir, SOURCE_TO_CLASS), new FileKeyDescriptor(), ClassRepr.externalizer(myContext),
         ourClassSetConstructor
@@ -148,6 +153,14 @@ public class Mappings {
     }
   }
 
+  private IntIntMultiMaplet createIntIntMaplet(final String tableName) throws IOException {
+    if (USE_MAPPED_STORAGE) {
+      myRootDir.mkdirs();
+      return new IntIntMappedMultiMaplet(new File(myRootDir, tableName));
+    }
+    return new IntIntPersistentMultiMaplet(DependencyContext.getTableFile(myRootDir, tableName), INT_KEY_DESCRIPTOR);
+  }
+
   public Mappings createDelta() {
     synchronized (myLock) {
       try {
@@ -576,13 +589,10 @@ public class Mappings {
     void affectFieldUsages(final FieldRepr field, final TIntHashSet classes, final UsageRepr.Usage rootUsage, final Set<UsageRepr.Usage> affectedUsages, final TIntHashSet dependents) {
       affectedUsages.add(rootUsage);
 
+      myClassToClassDependency.collectValues(classes, dependents);
       classes.forEach(new TIntProcedure() {
         @Override
         public boolean execute(int p) {
-          final TIntHashSet deps = myClassToClassDependency.get(p);
-          if (deps != null) {
-            addAll(dependents, deps);
-          }
           debug("Affect field usage referenced of class ", p);
           affectedUsages.add(rootUsage instanceof UsageRepr.FieldAssignUsage ? field.createAssignUsage(myContext, p) : field.createUsage(myContext, p));
           return true;
@@ -593,14 +603,10 @@ public class Mappings {
     void affectMethodUsages(final MethodRepr method, final TIntHashSet subclasses, final UsageRepr.Usage rootUsage, final Set<UsageRepr.Usage> affectedUsages, final TIntHashSet dependents) {
       affectedUsages.add(rootUsage);
       if (subclasses != null) {
+        myClassToClassDependency.collectValues(subclasses, dependents);
         subclasses.forEach(new TIntProcedure() {
           @Override
           public boolean execute(int p) {
-            final TIntHashSet deps = myClassToClassDependency.get(p);
-            if (deps != null) {
-              addAll(dependents, deps);
-            }
-
             debug("Affect method usage referenced of class ", p);
 
             final UsageRepr.Usage usage =
@@ -710,20 +716,26 @@ public class Mappings {
   }
 
   private TIntHashSet addAllSubclasses(final int root, final TIntHashSet acc) {
-    final TIntHashSet directSubclasses = myClassToSubclasses.get(root);
-
     acc.add(root);
 
-    if (directSubclasses != null) {
+    // the hierarchy is traversed level by level, so that direct subclasses of all classes on a level are looked up in one batch
+    TIntHashSet level = new TIntHashSet();
+    level.add(root);
+    while (!level.isEmpty()) {
+      final TIntHashSet directSubclasses = new TIntHashSet();
+      myClassToSubclasses.collectValues(level, directSubclasses);
+
+      final TIntHashSet nextLevel = new TIntHashSet();
       directSubclasses.forEach(new TIntProcedure() {
         @Override
         public boolean execute(int s) {
-          if (!acc.contains(s)) {
-            addAllSubclasses(s, acc);
+          if (acc.add(s)) {
+            nextLevel.add(s);
           }
           return true;
         }
       });
+      level = nextLevel;
     }
     return acc;
   }
@@ -87,6 +87,8 @@ public class BuildRunner {
       dataManager = new BuildDataManager(dataPaths, targetsState, STORE_TEMP_CACHES_IN_MEMORY);
       if (dataManager.versionDiffers()) {
         myForceCleanCaches = true;
+        // stored timestamps may have incompatible format and won't be needed since all sources will be recompiled
+        projectTimestamps.clean();
         msgHandler.processMessage(new CompilerMessage("build", BuildMessage.Kind.INFO, "Dependency data format has changed, project rebuild required"));
       }
     }
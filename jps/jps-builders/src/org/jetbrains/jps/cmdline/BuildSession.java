@@ -19,7 +19,6 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
-import com.intellij.openapi.util.io.FileSystemUtil;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.concurrency.SequentialTaskExecutor;
@@ -335,14 +334,9 @@ final class BuildSession implements Runnable, CanceledStatus {
         if (LOG.isDebugEnabled()) {
           LOG.debug("Applying dirty path from fs event: " + changed);
         }
-        long fileStamp = -1L;
         for (BuildRootDescriptor descriptor : descriptors) {
           if (!descriptor.isGenerated()) { // ignore generates sources as they are processed at the time of generation
-            if (fileStamp == -1L) {
-              fileStamp = FileSystemUtil.lastModified(file); // lazy init
-            }
-            final long stamp = timestamps.getStamp(file, descriptor.getTarget());
-            if (stamp != fileStamp) {
+            if (!pd.fsState.updateUnchangedStampsAndGetModifiedFiles(descriptor, Collections.singletonList(file), timestamps).isEmpty()) {
               if (!cacheCleared) {
                 pd.getFSCache().clear();
                 cacheCleared = true;
@@ -351,7 +345,7 @@ final class BuildSession implements Runnable, CanceledStatus {
             }
             else {
               if (LOG.isDebugEnabled()) {
-                LOG.debug(descriptor.getTarget() + ": Path considered up-to-date: " + changed + "; timestamp= " + stamp);
+                LOG.debug(descriptor.getTarget() + ": Path considered up-to-date: " + changed + "; timestamp= " + timestamps.getStamp(file, descriptor.getTarget()));
               }
             }
           }
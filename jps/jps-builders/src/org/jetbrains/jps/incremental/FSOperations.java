@@ -15,7 +15,6 @@
  */
 package org.jetbrains.jps.incremental;
 
-import com.intellij.openapi.util.io.FileSystemUtil;
 import com.intellij.openapi.util.io.FileUtil;
 import gnu.trove.THashSet;
 import org.jetbrains.annotations.NotNull;
@@ -29,6 +28,7 @@ import org.jetbrains.jps.builders.impl.BuildTargetChunk;
 import org.jetbrains.jps.builders.java.JavaBuilderUtil;
 import org.jetbrains.jps.builders.java.JavaSourceRootDescriptor;
 import org.jetbrains.jps.cmdline.ProjectDescriptor;
+import org.jetbrains.jps.incremental.fs.BuildFSState;
 import org.jetbrains.jps.incremental.storage.Timestamps;
 import org.jetbrains.jps.model.java.JpsJavaClasspathKind;
 import org.jetbrains.jps.model.java.JpsJavaExtensionService;
@@ -37,7 +37,9 @@ import org.jetbrains.jps.model.module.JpsModule;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -152,36 +154,48 @@ public class FSOperations {
         context.getProjectDescriptor().fsState.clearRecompile(rd);
       }
       final FSCache fsCache = rd.canUseFileCache() ? context.getProjectDescriptor().getFSCache() : FSCache.NO_CACHE;
-      traverseRecursively(context, rd, rd.getRootFile(), timestamps, forceMarkDirty, currentFiles, filter, fsCache);
+      final List<File> filesToCheck = new ArrayList<File>();
+      traverseRecursively(context, rd, rd.getRootFile(), timestamps, forceMarkDirty, currentFiles, filter, fsCache, filesToCheck);
+      if (!filesToCheck.isEmpty()) {
+        final BuildFSState fsState = context.getProjectDescriptor().fsState;
+        for (File file : fsState.updateUnchangedStampsAndGetModifiedFiles(rd, filesToCheck, timestamps)) {
+          markFileDirty(context, rd, file, timestamps);
+        }
+      }
     }
   }
 
+  private static void markFileDirty(CompileContext context, BuildRootDescriptor rd, File file, Timestamps tsStorage) throws IOException {
+    // if it is full project rebuild, all storages are already completely cleared;
+    // so passing null because there is no need to access the storage to clear non-existing data
+    final Timestamps marker = context.isProjectRebuild() ? null : tsStorage;
+    context.getProjectDescriptor().fsState.markDirty(context, file, rd, marker, false);
+  }
+
   private static void traverseRecursively(CompileContext context,
                                           final BuildRootDescriptor rd,
                                           final File file,
                                           @NotNull final Timestamps tsStorage,
                                           final boolean forceDirty,
-                                          @Nullable Set<File> currentFiles, @Nullable FileFilter filter, @NotNull FSCache fsCache) throws IOException {
+                                          @Nullable Set<File> currentFiles, @Nullable FileFilter filter, @NotNull FSCache fsCache,
+                                          @NotNull List<File> filesToCheck) throws IOException {
     BuildRootIndex rootIndex = context.getProjectDescriptor().getBuildRootIndex();
     final File[] children = fsCache.getChildren(file);
     if (children != null) { // is directory
       if (children.length > 0 && rootIndex.isDirectoryAccepted(file, rd)) {
         for (File child : children) {
-          traverseRecursively(context, rd, child, tsStorage, forceDirty, currentFiles, filter, fsCache);
+          traverseRecursively(context, rd, child, tsStorage, forceDirty, currentFiles, filter, fsCache, filesToCheck);
         }
       }
     }
     else { // is file
       if (rootIndex.isFileAccepted(file, rd) && (filter == null || filter.accept(file))) {
-        boolean markDirty = forceDirty;
-        if (!markDirty) {
-          markDirty = tsStorage.getStamp(file, rd.getTarget()) != FileSystemUtil.lastModified(file);
+        if (forceDirty) {
+          markFileDirty(context, rd, file, tsStorage);
         }
-        if (markDirty) {
-          // if it is full project rebuild, all storages are already completely cleared;
-          // so passing null because there is no need to access the storage to clear non-existing data
-          final Timestamps marker = context.isProjectRebuild() ? null : tsStorage;
-          context.getProjectDescriptor().fsState.markDirty(context, file, rd, marker, false);
+        else {
+          // timestamps (and content hashes, if enabled) are checked for all files of the root at once
+          filesToCheck.add(file);
         }
         if (currentFiles != null) {
           currentFiles.add(file);
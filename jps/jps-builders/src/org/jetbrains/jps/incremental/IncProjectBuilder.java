@@ -16,6 +16,7 @@
 package org.jetbrains.jps.incremental;
 
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.LowMemoryWatcher;
 import com.intellij.openapi.util.UserDataHolder;
 import com.intellij.openapi.util.UserDataHolderBase;
@@ -35,7 +36,6 @@ import org.jetbrains.annotations.Nullable;
 import org.jetbrains.jps.ModuleChunk;
 import org.jetbrains.jps.api.CanceledStatus;
 import org.jetbrains.jps.api.GlobalOptions;
-import org.jetbrains.jps.api.RequestFuture;
 import org.jetbrains.jps.builders.*;
 import org.jetbrains.jps.builders.impl.BuildTargetChunk;
 import org.jetbrains.jps.builders.impl.DirtyFilesHolderBase;
@@ -47,9 +47,10 @@ import org.jetbrains.jps.builders.storage.SourceToOutputMapping;
 import org.jetbrains.jps.cmdline.BuildRunner;
 import org.jetbrains.jps.cmdline.ProjectDescriptor;
 import org.jetbrains.jps.incremental.fs.BuildFSState;
-import org.jetbrains.jps.incremental.java.ExternalJavacDescriptor;
+import org.jetbrains.jps.incremental.java.ExternalJavacPool;
 import org.jetbrains.jps.incremental.messages.*;
 import org.jetbrains.jps.incremental.storage.BuildTargetConfiguration;
+import org.jetbrains.jps.incremental.storage.BuildTargetsTimings;
 import org.jetbrains.jps.incremental.storage.OneToManyPathsMapping;
 import org.jetbrains.jps.indices.ModuleExcludeIndex;
 import org.jetbrains.jps.model.java.JpsJavaExtensionService;
@@ -90,6 +91,14 @@ public class IncProjectBuilder {
     }
     MAX_BUILDER_THREADS = maxThreads;
   }
+  /**
+   * In pipelined mode a chunk depending only on module targets is started as soon as module-level builders of its dependencies
+   * are done, without waiting for their generated file events and the up-to-date marks of their targets; ready chunks lying on the longest path of the build are started first
+   */
+  private static final boolean PIPELINED_BUILD_ENABLED =
+    BuildRunner.PARALLEL_BUILD_ENABLED && Boolean.parseBoolean(System.getProperty(GlobalOptions.COMPILE_PARALLEL_PIPELINED_OPTION, "false"));
+  private static final Key<Runnable> CLASSES_READY_CALLBACK_KEY = Key.create("_chunk_classes_ready_callback_");
+  private static final long DEFAULT_TARGET_COST_MS = 1000L;
 
   private final ProjectDescriptor myProjectDescriptor;
   private final BuilderRegistry myBuilderRegistry;
@@ -285,17 +294,10 @@ public class IncProjectBuilder {
       pd.timestamps.getStorage().force();
       pd.dataManager.flush(false);
     }
-    final ExternalJavacDescriptor descriptor = ExternalJavacDescriptor.KEY.get(context);
-    if (descriptor != null) {
-      try {
-        final RequestFuture future = descriptor.client.sendShutdownRequest();
-        future.waitFor(500L, TimeUnit.MILLISECONDS);
-      }
-      finally {
-        // ensure process is not running
-        descriptor.process.destroyProcess();
-      }
-      ExternalJavacDescriptor.KEY.set(context, null);
+    final ExternalJavacPool javacPool = ExternalJavacPool.KEY.get(context);
+    if (javacPool != null) {
+      javacPool.shutdown();
+      ExternalJavacPool.KEY.set(context, null);
     }
   }
 
@@ -307,7 +309,9 @@ public class IncProjectBuilder {
              "; isMake:" +
              context.isMake() +
              " parallel compilation:" +
-             BuildRunner.PARALLEL_BUILD_ENABLED);
+             BuildRunner.PARALLEL_BUILD_ENABLED +
+             " pipelined:" +
+             PIPELINED_BUILD_ENABLED);
 
     context.addBuildListener(new ChainedTargetsBuildListener(context));
 
@@ -339,6 +343,10 @@ public class IncProjectBuilder {
       for (ModuleLevelBuilder builder : myBuilderRegistry.getModuleLevelBuilders()) {
         builder.buildFinished(context);
       }
+      final int unchangedContentFiles = context.getProjectDescriptor().fsState.getUnchangedContentFilesCount();
+      if (unchangedContentFiles > 0) {
+        LOG.info(unchangedContentFiles + " files with changed timestamps were considered up-to-date because their content didn't change");
+      }
       context.processMessage(new ProgressMessage("Finished, saving caches..."));
     }
 
@@ -579,13 +587,29 @@ public class IncProjectBuilder {
     }
   }
 
-  private static class BuildChunkTask {
+  static class BuildChunkTask {
+    static final Comparator<BuildChunkTask> CRITICAL_PATH_FIRST = new Comparator<BuildChunkTask>() {
+      @Override
+      public int compare(BuildChunkTask o1, BuildChunkTask o2) {
+        return o1.myCriticalPathCost < o2.myCriticalPathCost ? 1 : o1.myCriticalPathCost == o2.myCriticalPathCost ? 0 : -1;
+      }
+    };
     private final BuildTargetChunk myChunk;
+    private final boolean myDependsOnClassesOnly;
     private final Set<BuildChunkTask> myNotBuiltDependencies = new THashSet<BuildChunkTask>();
     private final List<BuildChunkTask> myTasksDependsOnThis = new ArrayList<BuildChunkTask>();
+    private long myCriticalPathCost;
 
-    private BuildChunkTask(BuildTargetChunk chunk) {
+    BuildChunkTask(BuildTargetChunk chunk) {
       myChunk = chunk;
+      boolean moduleTargetsOnly = true;
+      for (BuildTarget<?> target : chunk.getTargets()) {
+        if (!(target instanceof ModuleBuildTarget)) {
+          moduleTargetsOnly = false;
+          break;
+        }
+      }
+      myDependsOnClassesOnly = moduleTargetsOnly;
     }
 
     public BuildTargetChunk getChunk() {
@@ -596,6 +620,10 @@ public class IncProjectBuilder {
       return myNotBuiltDependencies.isEmpty();
     }
 
+    public long getCriticalPathCost() {
+      return myCriticalPathCost;
+    }
+
     public void addDependency(BuildChunkTask dependency) {
       if (myNotBuiltDependencies.add(dependency)) {
         dependency.myTasksDependsOnThis.add(this);
@@ -603,8 +631,25 @@ public class IncProjectBuilder {
     }
 
     public List<BuildChunkTask> markAsFinishedAndGetNextReadyTasks() {
+      return releaseDependentTasks(false);
+    }
+
+    /**
+     * Called when module-level builders of this chunk are done and will not change its classes any more.
+     * Only tasks which use nothing but compiled classes of their dependencies are released at this point.
+     */
+    public List<BuildChunkTask> markClassesReadyAndGetNextReadyTasks() {
+      return releaseDependentTasks(true);
+    }
+
+    private List<BuildChunkTask> releaseDependentTasks(boolean classesConsumersOnly) {
       List<BuildChunkTask> nextTasks = new SmartList<BuildChunkTask>();
-      for (BuildChunkTask task : myTasksDependsOnThis) {
+      for (Iterator<BuildChunkTask> iterator = myTasksDependsOnThis.iterator(); iterator.hasNext(); ) {
+        final BuildChunkTask task = iterator.next();
+        if (classesConsumersOnly && !task.myDependsOnClassesOnly) {
+          continue;
+        }
+        iterator.remove();
         final boolean removed = task.myNotBuiltDependencies.remove(this);
         LOG.assertTrue(removed, task.getChunk().toString() + " didn't have " + getChunk().toString());
 
@@ -616,6 +661,33 @@ public class IncProjectBuilder {
     }
   }
 
+  /**
+   * @param sortedTasks tasks sorted so that dependencies go first
+   */
+  static void computeCriticalPathCosts(List<BuildChunkTask> sortedTasks, CompileScope scope, BuildTargetsTimings timings) {
+    // walking the tasks backwards visits all dependent tasks before the task itself
+    for (int i = sortedTasks.size() - 1; i >= 0; i--) {
+      final BuildChunkTask task = sortedTasks.get(i);
+      long dependentsCost = 0L;
+      for (BuildChunkTask dependent : task.myTasksDependsOnThis) {
+        dependentsCost = Math.max(dependentsCost, dependent.myCriticalPathCost);
+      }
+      task.myCriticalPathCost = estimateCost(task.getChunk(), scope, timings) + dependentsCost;
+    }
+  }
+
+  private static long estimateCost(BuildTargetChunk chunk, CompileScope scope, BuildTargetsTimings timings) {
+    if (!isAffected(scope, chunk)) {
+      return 0L;
+    }
+    long cost = 0L;
+    for (BuildTarget<?> target : chunk.getTargets()) {
+      final long timing = timings.getTiming(target);
+      cost += timing >= 0L ? timing : DEFAULT_TARGET_COST_MS;
+    }
+    return cost;
+  }
+
   private class BuildParallelizer {
     private final BoundedTaskExecutor myParallelBuildExecutor =
       new BoundedTaskExecutor(SharedThreadPool.getInstance(),
@@ -625,6 +697,8 @@ public class IncProjectBuilder {
     private final Object myQueueLock = new Object();
     private final CountDownLatch myTasksCountDown;
     private final List<BuildChunkTask> myTasks;
+    private final Queue<BuildChunkTask> myReadyTasks = new PriorityQueue<BuildChunkTask>(11, BuildChunkTask.CRITICAL_PATH_FIRST);
+    @Nullable private final BuildTargetsTimings myTimings;
 
     private BuildParallelizer(CompileContext context) {
       myContext = context;
@@ -653,6 +727,14 @@ public class IncProjectBuilder {
         }
       }
 
+      if (PIPELINED_BUILD_ENABLED) {
+        myTimings = new BuildTargetsTimings(pd.dataManager.getDataPaths().getDataStorageRoot());
+        computeCriticalPathCosts(myTasks, myContext.getScope(), myTimings);
+      }
+      else {
+        myTimings = null;
+      }
+
       myTasksCountDown = new CountDownLatch(myTasks.size());
     }
 
@@ -671,6 +753,9 @@ public class IncProjectBuilder {
       catch (InterruptedException e) {
         LOG.info(e);
       }
+      if (myTimings != null) {
+        myTimings.save();
+      }
 
       final Throwable throwable = myException.get();
       if (throwable instanceof ProjectBuildException) {
@@ -705,39 +790,85 @@ public class IncProjectBuilder {
     }
 
     private void queueTask(final BuildChunkTask task) {
-      final CompileContext chunkLocalContext = createContextWrapper(myContext);
+      if (!PIPELINED_BUILD_ENABLED) {
+        myParallelBuildExecutor.execute(new Runnable() {
+          @Override
+          public void run() {
+            runTask(task);
+          }
+        });
+        return;
+      }
+      synchronized (myQueueLock) {
+        myReadyTasks.offer(task);
+      }
+      // every queued task has its own runnable, so the queue is never empty here; the runnable takes the most expensive ready task
       myParallelBuildExecutor.execute(new Runnable() {
         @Override
         public void run() {
-          try {
-            try {
-              if (myException.get() == null) {
-                buildChunkIfAffected(chunkLocalContext, myContext.getScope(), task.getChunk());
-              }
-            }
-            finally {
-              myContext.updateCompilationStartStamp();
-              myProjectDescriptor.dataManager.closeSourceToOutputStorages(Collections.singletonList(task.getChunk()));
-              myProjectDescriptor.dataManager.flush(true);
-            }
+          final BuildChunkTask next;
+          synchronized (myQueueLock) {
+            next = myReadyTasks.poll();
           }
-          catch (Throwable e) {
-            myException.compareAndSet(null, e);
-            LOG.info(e);
+          if (next != null) {
+            runTask(next);
           }
-          finally {
-            LOG.debug("Finished compilation of " + task.getChunk().toString());
-            myTasksCountDown.countDown();
+        }
+      });
+    }
+
+    private void runTask(final BuildChunkTask task) {
+      final CompileContext chunkLocalContext = createContextWrapper(myContext);
+      if (PIPELINED_BUILD_ENABLED) {
+        CLASSES_READY_CALLBACK_KEY.set(chunkLocalContext, new Runnable() {
+          @Override
+          public void run() {
             List<BuildChunkTask> nextTasks;
             synchronized (myQueueLock) {
-              nextTasks = task.markAsFinishedAndGetNextReadyTasks();
+              nextTasks = task.markClassesReadyAndGetNextReadyTasks();
             }
             if (!nextTasks.isEmpty()) {
+              LOG.debug("Classes of " + task.getChunk().toString() + " are ready");
               queueTasks(nextTasks);
             }
           }
+        });
+      }
+      try {
+        try {
+          if (myException.get() == null) {
+            final long start = System.currentTimeMillis();
+            buildChunkIfAffected(chunkLocalContext, myContext.getScope(), task.getChunk());
+            if (myTimings != null && myContext.isProjectRebuild() && isAffected(myContext.getScope(), task.getChunk())) {
+              final Set<? extends BuildTarget<?>> targets = task.getChunk().getTargets();
+              final long perTarget = (System.currentTimeMillis() - start) / targets.size();
+              for (BuildTarget<?> target : targets) {
+                myTimings.setTiming(target, perTarget);
+              }
+            }
+          }
         }
-      });
+        finally {
+          myContext.updateCompilationStartStamp();
+          myProjectDescriptor.dataManager.closeSourceToOutputStorages(Collections.singletonList(task.getChunk()));
+          myProjectDescriptor.dataManager.flush(true);
+        }
+      }
+      catch (Throwable e) {
+        myException.compareAndSet(null, e);
+        LOG.info(e);
+      }
+      finally {
+        LOG.debug("Finished compilation of " + task.getChunk().toString());
+        myTasksCountDown.countDown();
+        List<BuildChunkTask> nextTasks;
+        synchronized (myQueueLock) {
+          nextTasks = task.markAsFinishedAndGetNextReadyTasks();
+        }
+        if (!nextTasks.isEmpty()) {
+          queueTasks(nextTasks);
+        }
+      }
     }
   }
 
@@ -1082,6 +1213,9 @@ public class IncProjectBuilder {
         }
       }
       while (nextPassRequired);
+
+      // any builder up to the post-processors of the last pass may still change the classes or request another pass
+      notifyClassesReady(context, outputConsumer);
     }
     finally {
       for (CompiledClass compiledClass : outputConsumer.getCompiledClasses().values()) {
@@ -1101,6 +1235,20 @@ public class IncProjectBuilder {
     return doneSomething;
   }
 
+  private static void notifyClassesReady(CompileContext context, ChunkBuildOutputConsumerImpl outputConsumer) throws IOException {
+    final Runnable callback = CLASSES_READY_CALLBACK_KEY.get(context);
+    if (callback == null || Utils.errorsDetected(context)) {
+      return;
+    }
+    // dependent chunks must compile against the final classes
+    for (CompiledClass compiledClass : outputConsumer.getCompiledClasses().values()) {
+      if (compiledClass.isDirty()) {
+        compiledClass.save();
+      }
+    }
+    callback.run();
+  }
+
   private static void onChunkBuildComplete(CompileContext context, @NotNull BuildTargetChunk chunk) throws IOException {
     final ProjectDescriptor pd = context.getProjectDescriptor();
     final BuildFSState fsState = pd.fsState;
@@ -19,6 +19,7 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.containers.MultiMap;
+import gnu.trove.THashMap;
 import gnu.trove.THashSet;
 import gnu.trove.TIntObjectHashMap;
 import org.jetbrains.annotations.NotNull;
@@ -129,6 +130,9 @@ public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, Ar
         }
       });
 
+      final Map<String, File> previousJars = JarsBuilder.INCREMENTAL_MODE
+                                             ? stashPreviousJars(target, context, filesToDelete.keySet())
+                                             : Collections.<String, File>emptyMap();
       BuildOperations.cleanOutputsCorrespondingToChangedFiles(context, holder);
       for (String outputPath : changedOutputPaths) {
         outSrcMapping.remove(outputPath);
@@ -171,8 +175,15 @@ public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, Ar
       }
       context.checkCanceled();
 
-      JarsBuilder builder = new JarsBuilder(changedJars, context, outputConsumer, outSrcMapping);
-      builder.buildJars();
+      JarsBuilder builder = new JarsBuilder(changedJars, context, outputConsumer, outSrcMapping, previousJars);
+      try {
+        builder.buildJars();
+      }
+      finally {
+        if (!previousJars.isEmpty()) {
+          FileUtil.delete(getPreviousJarsDir(target, context));
+        }
+      }
       runArtifactTasks(context, artifact, ArtifactBuildTaskProvider.ArtifactBuildPhase.POST_PROCESSING);
     }
     catch (IOException e) {
@@ -180,6 +191,36 @@ public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, Ar
     }
   }
 
+  /**
+   * Moves archives which are going to be rebuilt out of the output directory so that {@link JarsBuilder} can reuse their content
+   */
+  private static Map<String, File> stashPreviousJars(ArtifactBuildTarget target, CompileContext context, Collection<String> outputsToDelete) {
+    final Set<String> jarPaths = new THashSet<String>(FileUtil.PATH_HASHING_STRATEGY);
+    for (ArtifactRootDescriptor descriptor : context.getProjectDescriptor().getBuildRootIndex().getTargetRoots(target, context)) {
+      final DestinationInfo destination = descriptor.getDestinationInfo();
+      if (destination instanceof JarDestinationInfo) {
+        jarPaths.add(destination.getOutputFilePath());
+      }
+    }
+    final File stashDir = getPreviousJarsDir(target, context);
+    FileUtil.delete(stashDir);
+    final Map<String, File> stashed = new THashMap<String, File>(FileUtil.PATH_HASHING_STRATEGY);
+    for (String outputPath : outputsToDelete) {
+      if (jarPaths.contains(outputPath)) {
+        final File jarFile = new File(outputPath);
+        final File stashedFile = new File(stashDir, stashed.size() + ".jar");
+        if (jarFile.isFile() && FileUtil.createParentDirs(stashedFile) && jarFile.renameTo(stashedFile)) {
+          stashed.put(outputPath, stashedFile);
+        }
+      }
+    }
+    return stashed;
+  }
+
+  private static File getPreviousJarsDir(ArtifactBuildTarget target, CompileContext context) {
+    return new File(context.getProjectDescriptor().dataManager.getDataPaths().getTargetDataRoot(target), "previous-jars");
+  }
+
   private static void runArtifactTasks(CompileContext context, JpsArtifact artifact, ArtifactBuildTaskProvider.ArtifactBuildPhase phase)
     throws ProjectBuildException {
     for (ArtifactBuildTaskProvider provider : JpsServiceManager.getInstance().getExtensions(ArtifactBuildTaskProvider.class)) {
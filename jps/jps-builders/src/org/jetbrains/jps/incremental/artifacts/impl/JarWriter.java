@@ -0,0 +1,253 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.artifacts.impl;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.io.zip.JBZipEntry;
+import com.intellij.util.io.zip.JBZipFile;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes entries of an archive built by {@link JarsBuilder}. Callers are responsible for skipping duplicated paths.
+ */
+abstract class JarWriter {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.artifacts.impl.JarWriter");
+
+  public abstract void addDirectory(@NonNls @NotNull String relativePath) throws IOException;
+
+  public abstract void addFile(@NotNull String relativePath, @NotNull File file) throws IOException;
+
+  public abstract void addEntry(@NotNull String relativePath, @NotNull InputStream input, @NotNull ZipEntry sourceEntry, long timestamp)
+    throws IOException;
+
+  public abstract void close() throws IOException;
+
+  public static JarWriter create(@NotNull File jarFile, @Nullable Manifest manifest) throws IOException {
+    final BufferedOutputStream outputStream = new BufferedOutputStream(new FileOutputStream(jarFile));
+    return new StreamJarWriter(manifest != null ? new JarOutputStream(outputStream, manifest) : new JarOutputStream(outputStream));
+  }
+
+  /**
+   * Creates a writer which copies compressed data of entries whose content didn't change from {@code previousJarFile}
+   * instead of compressing them again.
+   */
+  public static JarWriter createIncremental(@NotNull File jarFile, @Nullable Manifest manifest, @Nullable File previousJarFile)
+    throws IOException {
+    JBZipFile previousJar = null;
+    if (previousJarFile != null && previousJarFile.isFile()) {
+      try {
+        previousJar = new JBZipFile(previousJarFile);
+      }
+      catch (IOException e) {
+        LOG.info("Cannot read previous version of " + jarFile.getName() + ", it will be packed from scratch: " + e.getMessage());
+      }
+    }
+    return new IncrementalJarWriter(new JBZipFile(jarFile), manifest, previousJar);
+  }
+
+  private static class StreamJarWriter extends JarWriter {
+    private final JarOutputStream myOutputStream;
+
+    private StreamJarWriter(JarOutputStream outputStream) {
+      myOutputStream = outputStream;
+    }
+
+    @Override
+    public void addDirectory(@NotNull String relativePath) throws IOException {
+      ZipEntry e = new ZipEntry(relativePath);
+      e.setMethod(ZipEntry.STORED);
+      e.setSize(0);
+      e.setCrc(0);
+      myOutputStream.putNextEntry(e);
+      myOutputStream.closeEntry();
+    }
+
+    @Override
+    public void addFile(@NotNull String relativePath, @NotNull File file) throws IOException {
+      final long size = file.length();
+      ZipEntry e = new ZipEntry(relativePath);
+      e.setTime(file.lastModified());
+      if (size == 0) {
+        e.setMethod(ZipEntry.STORED);
+        e.setSize(0);
+        e.setCrc(0);
+      }
+      myOutputStream.putNextEntry(e);
+      final InputStream input = new BufferedInputStream(new FileInputStream(file));
+      try {
+        FileUtil.copy(input, myOutputStream);
+      }
+      finally {
+        input.close();
+      }
+      myOutputStream.closeEntry();
+    }
+
+    @Override
+    public void addEntry(@NotNull String relativePath, @NotNull InputStream input, @NotNull ZipEntry sourceEntry, long timestamp)
+      throws IOException {
+      ZipEntry newEntry = new ZipEntry(relativePath);
+      newEntry.setTime(timestamp);
+      if (sourceEntry.getMethod() == ZipEntry.STORED) {
+        newEntry.setMethod(ZipEntry.STORED);
+        newEntry.setSize(sourceEntry.getSize());
+        newEntry.setCrc(sourceEntry.getCrc());
+      }
+      myOutputStream.putNextEntry(newEntry);
+      FileUtil.copy(input, myOutputStream);
+      myOutputStream.closeEntry();
+    }
+
+    @Override
+    public void close() throws IOException {
+      myOutputStream.close();
+    }
+  }
+
+  private static class IncrementalJarWriter extends JarWriter {
+    private final JBZipFile myJar;
+    @Nullable private final JBZipFile myPreviousJar;
+    private int myCopiedCount;
+    private int myCompressedCount;
+
+    private IncrementalJarWriter(JBZipFile jar, @Nullable Manifest manifest, @Nullable JBZipFile previousJar) throws IOException {
+      myJar = jar;
+      myPreviousJar = previousJar;
+      if (manifest != null) {
+        final BufferExposingByteArrayOutputStream out = new BufferExposingByteArrayOutputStream();
+        manifest.write(out);
+        final CRC32 crc = new CRC32();
+        crc.update(out.getInternalBuffer(), 0, out.size());
+        final InputStream input = new ByteArrayInputStream(out.getInternalBuffer(), 0, out.size());
+        writeEntry(JarFile.MANIFEST_NAME, input, out.size(), crc.getValue(), System.currentTimeMillis(), ZipEntry.DEFLATED);
+      }
+    }
+
+    @Override
+    public void addDirectory(@NotNull String relativePath) throws IOException {
+      final JBZipEntry entry = myJar.getOrCreateEntry(relativePath);
+      entry.setMethod(ZipEntry.STORED);
+      entry.setData(ArrayUtil.EMPTY_BYTE_ARRAY, System.currentTimeMillis());
+    }
+
+    @Override
+    public void addFile(@NotNull String relativePath, @NotNull File file) throws IOException {
+      final long size = file.length();
+      final int method = size == 0 ? ZipEntry.STORED : ZipEntry.DEFLATED;
+      final JBZipEntry entry = myJar.getOrCreateEntry(relativePath);
+      entry.setTime(file.lastModified());
+      final JBZipEntry previous = findPreviousEntry(relativePath, size, method);
+      // computing a checksum is much cheaper than deflating the content again
+      if (previous != null && previous.getCrc() == computeCrc(file)) {
+        copyPreviousEntry(entry, previous);
+        return;
+      }
+
+      final InputStream input = new BufferedInputStream(new FileInputStream(file));
+      try {
+        compressEntry(entry, input, file.lastModified(), method);
+      }
+      finally {
+        input.close();
+      }
+    }
+
+    @Override
+    public void addEntry(@NotNull String relativePath, @NotNull InputStream input, @NotNull ZipEntry sourceEntry, long timestamp)
+      throws IOException {
+      final int method = sourceEntry.getMethod() == ZipEntry.STORED ? ZipEntry.STORED : ZipEntry.DEFLATED;
+      writeEntry(relativePath, input, sourceEntry.getSize(), sourceEntry.getCrc(), timestamp, method);
+    }
+
+    /**
+     * @param size size of the content or -1 if it is unknown
+     * @param crc  checksum of the content or -1 if it is unknown
+     */
+    private void writeEntry(String relativePath, InputStream input, long size, long crc, long timestamp, int method) throws IOException {
+      final JBZipEntry entry = myJar.getOrCreateEntry(relativePath);
+      entry.setTime(timestamp);
+      if (size != -1 && crc != -1) {
+        final JBZipEntry previous = findPreviousEntry(relativePath, size, method);
+        if (previous != null && previous.getCrc() == crc) {
+          copyPreviousEntry(entry, previous);
+          return;
+        }
+      }
+      compressEntry(entry, input, timestamp, method);
+    }
+
+    @Nullable
+    private JBZipEntry findPreviousEntry(String relativePath, long size, int method) {
+      if (myPreviousJar == null) return null;
+      final JBZipEntry previous = myPreviousJar.getEntry(relativePath);
+      return previous != null && previous.getMethod() == method && previous.getSize() == size ? previous : null;
+    }
+
+    private void copyPreviousEntry(JBZipEntry entry, JBZipEntry previous) throws IOException {
+      entry.setDataFrom(previous);
+      myCopiedCount++;
+    }
+
+    private void compressEntry(JBZipEntry entry, InputStream input, long timestamp, int method) throws IOException {
+      entry.setMethod(method);
+      entry.setData(input, timestamp);
+      myCompressedCount++;
+    }
+
+    private static long computeCrc(File file) throws IOException {
+      final CRC32 crc = new CRC32();
+      final InputStream input = new FileInputStream(file);
+      try {
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) > 0) {
+          crc.update(buffer, 0, read);
+        }
+      }
+      finally {
+        input.close();
+      }
+      return crc.getValue();
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        myJar.close();
+      }
+      finally {
+        if (myPreviousJar != null) {
+          myPreviousJar.close();
+        }
+      }
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Archive packed incrementally: " + myCopiedCount + " entries copied, " + myCompressedCount + " entries compressed");
+      }
+    }
+  }
+}
@@ -23,14 +23,15 @@ import com.intellij.openapi.util.io.FileSystemUtil;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.ArrayUtil;
+import com.intellij.util.concurrency.BoundedTaskExecutor;
 import com.intellij.util.graph.CachingSemiGraph;
 import com.intellij.util.graph.DFSTBuilder;
 import com.intellij.util.graph.GraphGenerator;
-import com.intellij.util.io.ZipUtil;
 import gnu.trove.THashSet;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.api.GlobalOptions;
 import org.jetbrains.jps.builders.BuildOutputConsumer;
 import org.jetbrains.jps.builders.logging.ProjectBuilderLogger;
 import org.jetbrains.jps.incremental.CompileContext;
@@ -41,30 +42,46 @@ import org.jetbrains.jps.incremental.artifacts.instructions.*;
 import org.jetbrains.jps.incremental.messages.BuildMessage;
 import org.jetbrains.jps.incremental.messages.CompilerMessage;
 import org.jetbrains.jps.incremental.messages.ProgressMessage;
+import org.jetbrains.jps.service.SharedThreadPool;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.jar.JarFile;
-import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 /**
  * @author nik
  */
 public class JarsBuilder {
   private static final Logger LOG = Logger.getInstance("#com.intellij.compiler.impl.packagingCompiler.JarsBuilder");
+  /**
+   * In incremental mode compressed data of unchanged entries is copied from the previous version of an archive,
+   * and archives which don't include each other are built in parallel
+   */
+  public static final boolean INCREMENTAL_MODE = Boolean.parseBoolean(System.getProperty(GlobalOptions.INCREMENTAL_JARS_OPTION, "false"));
   private final Set<JarInfo> myJarsToBuild;
   private final CompileContext myContext;
   private Map<JarInfo, File> myBuiltJars;
   private final BuildOutputConsumer myOutputConsumer;
   private final ArtifactOutputToSourceMapping myOutSrcMapping;
+  private final Map<String, File> myPreviousJars;
 
   public JarsBuilder(Set<JarInfo> jarsToBuild, CompileContext context, BuildOutputConsumer outputConsumer,
                      ArtifactOutputToSourceMapping outSrcMapping) {
+    this(jarsToBuild, context, outputConsumer, outSrcMapping, Collections.<String, File>emptyMap());
+  }
+
+  /**
+   * @param previousJars previous versions of the archives to be rebuilt, keyed by output path; used in {@link #INCREMENTAL_MODE} only
+   */
+  public JarsBuilder(Set<JarInfo> jarsToBuild, CompileContext context, BuildOutputConsumer outputConsumer,
+                     ArtifactOutputToSourceMapping outSrcMapping, Map<String, File> previousJars) {
     myOutputConsumer = outputConsumer;
     myOutSrcMapping = outSrcMapping;
+    myPreviousJars = previousJars;
     DependentJarsEvaluator evaluator = new DependentJarsEvaluator();
     for (JarInfo jarInfo : jarsToBuild) {
       evaluator.addJarWithDependencies(jarInfo);
@@ -81,11 +98,16 @@ public class JarsBuilder {
       return false;
     }
 
-    myBuiltJars = new HashMap<JarInfo, File>();
+    myBuiltJars = Collections.synchronizedMap(new HashMap<JarInfo, File>());
     try {
-      for (JarInfo jar : sortedJars) {
-        myContext.checkCanceled();
-        buildJar(jar);
+      if (INCREMENTAL_MODE) {
+        buildJarsInParallel(sortedJars);
+      }
+      else {
+        for (JarInfo jar : sortedJars) {
+          myContext.checkCanceled();
+          buildJar(jar);
+        }
       }
 
       myContext.processMessage(new ProgressMessage("Copying archives..."));
@@ -99,6 +121,64 @@ public class JarsBuilder {
     return true;
   }
 
+  private void buildJarsInParallel(JarInfo[] sortedJars) throws IOException, ProjectBuildException {
+    // a jar may be built only after all jars nested into it, so jars are processed by levels of nesting
+    final Map<JarInfo, Integer> levels = new HashMap<JarInfo, Integer>();
+    final List<List<JarInfo>> jarsByLevel = new ArrayList<List<JarInfo>>();
+    for (JarInfo jar : sortedJars) {
+      int level = 0;
+      for (Pair<String, Object> pair : jar.getContent()) {
+        final Integer nestedLevel = levels.get(pair.getSecond());
+        if (nestedLevel != null) {
+          level = Math.max(level, nestedLevel + 1);
+        }
+      }
+      levels.put(jar, level);
+      while (jarsByLevel.size() <= level) {
+        jarsByLevel.add(new ArrayList<JarInfo>());
+      }
+      jarsByLevel.get(level).add(jar);
+    }
+
+    final BoundedTaskExecutor executor = new BoundedTaskExecutor(SharedThreadPool.getInstance(), Runtime.getRuntime().availableProcessors());
+    for (List<JarInfo> jars : jarsByLevel) {
+      myContext.checkCanceled();
+      if (jars.size() == 1) {
+        buildJar(jars.get(0));
+        continue;
+      }
+      final List<Future<?>> futures = new ArrayList<Future<?>>(jars.size());
+      for (final JarInfo jar : jars) {
+        futures.add(executor.submit(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              buildJar(jar);
+            }
+            catch (IOException e) {
+              throw new RuntimeException(e);
+            }
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        }
+        catch (InterruptedException e) {
+          throw new ProjectBuildException(e);
+        }
+        catch (ExecutionException e) {
+          final Throwable cause = e.getCause();
+          if (cause instanceof RuntimeException && cause.getCause() instanceof IOException) {
+            throw (IOException)cause.getCause();
+          }
+          throw new ProjectBuildException(cause);
+        }
+      }
+    }
+  }
+
   private void deleteTemporaryJars() {
     for (File file : myBuiltJars.values()) {
       FileUtil.delete(file);
@@ -149,7 +229,14 @@ public class JarsBuilder {
     final String targetJarPath = jar.getDestination().getOutputFilePath();
     List<String> packedFilePaths = new ArrayList<String>();
     Manifest manifest = loadManifest(jar, packedFilePaths);
-    final JarOutputStream jarOutputStream = createJarOutputStream(jarFile, manifest);
+    final JarWriter jarOutputStream;
+    if (INCREMENTAL_MODE) {
+      final File previousJar = jar.getDestination() instanceof ExplodedDestinationInfo ? myPreviousJars.get(targetJarPath) : null;
+      jarOutputStream = JarWriter.createIncremental(jarFile, manifest, previousJar);
+    }
+    else {
+      jarOutputStream = JarWriter.create(jarFile, manifest);
+    }
 
     final THashSet<String> writtenPaths = new THashSet<String>();
     try {
@@ -192,10 +279,15 @@ public class JarsBuilder {
       }
 
       final ProjectBuilderLogger logger = myContext.getLoggingManager().getProjectBuilderLogger();
-      if (logger.isEnabled()) {
-        logger.logCompiledPaths(packedFilePaths, IncArtifactBuilder.BUILDER_NAME, "Packing files:");
+      //noinspection SynchronizationOnLocalVariableOrMethodParameter
+      synchronized (logger) {
+        if (logger.isEnabled()) {
+          logger.logCompiledPaths(packedFilePaths, IncArtifactBuilder.BUILDER_NAME, "Packing files:");
+        }
+      }
+      synchronized (myOutputConsumer) {
+        myOutputConsumer.registerOutputFile(new File(targetJarPath), packedFilePaths);
       }
-      myOutputConsumer.registerOutputFile(new File(targetJarPath), packedFilePaths);
 
     }
     finally {
@@ -214,14 +306,6 @@ public class JarsBuilder {
     }
   }
 
-  private static JarOutputStream createJarOutputStream(File jarFile, @Nullable Manifest manifest) throws IOException {
-    final BufferedOutputStream outputStream = new BufferedOutputStream(new FileOutputStream(jarFile));
-    if (manifest != null) {
-      return new JarOutputStream(outputStream, manifest);
-    }
-    return new JarOutputStream(outputStream);
-  }
-
   @Nullable
   private Manifest loadManifest(JarInfo jar, List<String> packedFilePaths) throws IOException {
     for (Pair<String, Object> pair : jar.getContent()) {
@@ -278,7 +362,7 @@ public class JarsBuilder {
     }
   }
 
-  private static void extractFileAndAddToJar(final JarOutputStream jarOutputStream, final JarBasedArtifactRootDescriptor root,
+  private static void extractFileAndAddToJar(final JarWriter jarOutputStream, final JarBasedArtifactRootDescriptor root,
                                              final String relativeOutputPath, final Set<String> writtenPaths)
     throws IOException {
     final long timestamp = FileSystemUtil.lastModified(root.getRootFile());
@@ -292,23 +376,14 @@ public class JarsBuilder {
           addDirectoryEntry(jarOutputStream, pathInJar + "/", writtenPaths);
         }
         else if (writtenPaths.add(pathInJar)) {
-          ZipEntry newEntry = new ZipEntry(pathInJar);
-          newEntry.setTime(timestamp);
-          if (entry.getMethod() == ZipEntry.STORED) {
-            newEntry.setMethod(ZipEntry.STORED);
-            newEntry.setSize(entry.getSize());
-            newEntry.setCrc(entry.getCrc());
-          }
-          jarOutputStream.putNextEntry(newEntry);
-          FileUtil.copy(inputStream, jarOutputStream);
-          jarOutputStream.closeEntry();
+          jarOutputStream.addEntry(pathInJar, inputStream, entry, timestamp);
         }
       }
     });
 
   }
 
-  private void addFileToJar(final @NotNull JarOutputStream jarOutputStream, final @NotNull File jarFile, @NotNull File file,
+  private void addFileToJar(final @NotNull JarWriter jarOutputStream, final @NotNull File jarFile, @NotNull File file,
                             SourceFileFilter filter, @NotNull String relativePath, String targetJarPath,
                             final @NotNull Set<String> writtenPaths, List<String> packedFilePaths, final int rootIndex) throws IOException {
     if (!file.exists() || FileUtil.isAncestor(file, jarFile, false)) {
@@ -319,7 +394,7 @@ public class JarsBuilder {
     addFileOrDirRecursively(jarOutputStream, file, filter, relativePath, targetJarPath, writtenPaths, packedFilePaths, rootIndex);
   }
 
-  private void addFileOrDirRecursively(@NotNull ZipOutputStream jarOutputStream,
+  private void addFileOrDirRecursively(@NotNull JarWriter jarOutputStream,
                                        @NotNull File file,
                                        SourceFileFilter filter,
                                        @NotNull String relativePath,
@@ -347,7 +422,16 @@ public class JarsBuilder {
       return;
     }
 
-    final boolean added = ZipUtil.addFileToZip(jarOutputStream, file, relativePath, writtenItemRelativePaths, null);
+    while (StringUtil.startsWithChar(relativePath, '/')) {
+      relativePath = relativePath.substring(1);
+    }
+    final boolean added = writtenItemRelativePaths.add(relativePath);
+    if (added) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Add " + file + " as " + relativePath);
+      }
+      jarOutputStream.addFile(relativePath, file);
+    }
     if (rootIndex != -1) {
       myOutSrcMapping.appendData(targetJarPath, rootIndex, filePath);
       if (added) {
@@ -357,7 +441,7 @@ public class JarsBuilder {
   }
 
 
-  private static String addParentDirectories(JarOutputStream jarOutputStream, Set<String> writtenPaths, String relativePath) throws IOException {
+  private static String addParentDirectories(JarWriter jarOutputStream, Set<String> writtenPaths, String relativePath) throws IOException {
     while (StringUtil.startsWithChar(relativePath, '/')) {
       relativePath = relativePath.substring(1);
     }
@@ -372,15 +456,10 @@ public class JarsBuilder {
     return relativePath;
   }
 
-  private static void addDirectoryEntry(final ZipOutputStream output, @NonNls final String relativePath, Set<String> writtenPaths) throws IOException {
+  private static void addDirectoryEntry(final JarWriter output, @NonNls final String relativePath, Set<String> writtenPaths) throws IOException {
     if (!writtenPaths.add(relativePath)) return;
 
-    ZipEntry e = new ZipEntry(relativePath);
-    e.setMethod(ZipEntry.STORED);
-    e.setSize(0);
-    e.setCrc(0);
-    output.putNextEntry(e);
-    output.closeEntry();
+    output.addDirectory(relativePath);
   }
 
   private class JarsGraph implements GraphGenerator.SemiGraph<JarInfo> {
@@ -18,6 +18,8 @@ package org.jetbrains.jps.incremental.fs;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.io.FileSystemUtil;
+import com.intellij.openapi.util.io.FileUtil;
+import gnu.trove.TObjectLongHashMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.jps.ModuleChunk;
@@ -29,13 +31,13 @@ import org.jetbrains.jps.incremental.CompileContext;
 import org.jetbrains.jps.incremental.CompileScope;
 import org.jetbrains.jps.incremental.ModuleBuildTarget;
 import org.jetbrains.jps.incremental.Utils;
+import org.jetbrains.jps.incremental.storage.FileContentHashes;
 import org.jetbrains.jps.incremental.storage.Timestamps;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Collections;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Eugene Zhuravlev
@@ -50,6 +52,7 @@ public class BuildFSState extends FSState {
   // when true, will always determine dirty files by scanning FS and comparing timestamps
   // alternatively, when false, after first scan will rely on external notifications about changes
   private final boolean myAlwaysScanFS;
+  private final AtomicInteger myUnchangedContentFilesCount = new AtomicInteger();
 
   public BuildFSState(boolean alwaysScanFS) {
     myAlwaysScanFS = alwaysScanFS;
@@ -112,6 +115,51 @@ public class BuildFSState extends FSState {
     return marked;
   }
 
+  /**
+   * Selects files which were modified since they were compiled for the target of the root last time.
+   * If content hashes are enabled, files whose timestamp has changed but content hasn't are considered up-to-date
+   * and their current timestamps are saved to the storage.
+   */
+  @NotNull
+  public List<File> updateUnchangedStampsAndGetModifiedFiles(final BuildRootDescriptor rd, Collection<File> files, @NotNull Timestamps stamps) throws IOException {
+    final BuildTarget<?> target = rd.getTarget();
+    final List<File> modified = new ArrayList<File>();
+    final TObjectLongHashMap<File> currentStamps = new TObjectLongHashMap<File>(FileUtil.FILE_HASHING_STRATEGY);
+    final List<File> filesToHash = new ArrayList<File>();
+    for (File file : files) {
+      final long currentStamp = FileSystemUtil.lastModified(file);
+      if (stamps.getStamp(file, target) != currentStamp) {
+        modified.add(file);
+        currentStamps.put(file, currentStamp);
+        if (FileContentHashes.ENABLED && stamps.getContentHash(file, target) != FileContentHashes.NO_HASH) {
+          filesToHash.add(file);
+        }
+      }
+    }
+    if (filesToHash.isEmpty()) {
+      return modified;
+    }
+
+    final TObjectLongHashMap<File> hashes = FileContentHashes.computeHashes(filesToHash);
+    for (Iterator<File> iterator = modified.iterator(); iterator.hasNext(); ) {
+      final File file = iterator.next();
+      final long savedHash = stamps.getContentHash(file, target);
+      if (savedHash != FileContentHashes.NO_HASH && savedHash == hashes.get(file)) {
+        stamps.saveStamp(file, target, currentStamps.get(file), savedHash);
+        myUnchangedContentFilesCount.incrementAndGet();
+        iterator.remove();
+      }
+    }
+    return modified;
+  }
+
+  /**
+   * @return number of files considered up-to-date despite of changed timestamp because their content didn't change
+   */
+  public int getUnchangedContentFilesCount() {
+    return myUnchangedContentFilesCount.get();
+  }
+
   public void clearAll() {
     clearContextRoundData(null);
     clearContextChunk(null);
@@ -164,6 +212,8 @@ public class BuildFSState extends FSState {
     final FilesDelta delta = getDelta(rd.getTarget());
     final Set<File> files = delta.clearRecompile(rd);
     if (files != null) {
+      // hashes are computed before timestamps are checked, so modifications made during hashing are detected by timestamps
+      final TObjectLongHashMap<File> hashes = FileContentHashes.ENABLED ? FileContentHashes.computeHashes(files) : null;
       CompileScope scope = context.getScope();
       final long compilationStartStamp = context.getCompilationStartStamp();
       for (File file : files) {
@@ -179,7 +229,7 @@ public class BuildFSState extends FSState {
           }
           else {
             marked = true;
-            stamps.saveStamp(file, rd.getTarget(), currentFileStamp);
+            stamps.saveStamp(file, rd.getTarget(), currentFileStamp, hashes != null ? hashes.get(file) : FileContentHashes.NO_HASH);
           }
         }
         else {
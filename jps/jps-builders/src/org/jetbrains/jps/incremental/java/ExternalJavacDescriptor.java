@@ -16,7 +16,6 @@
 package org.jetbrains.jps.incremental.java;
 
 import com.intellij.execution.process.BaseOSProcessHandler;
-import org.jetbrains.jps.incremental.GlobalContextKey;
 import org.jetbrains.jps.javac.JavacServerClient;
 
 /**
@@ -24,8 +23,6 @@ import org.jetbrains.jps.javac.JavacServerClient;
  *         Date: 1/24/12
  */
 public class ExternalJavacDescriptor {
-  public static final GlobalContextKey<ExternalJavacDescriptor> KEY = GlobalContextKey.create("_external_javac_descriptor_");
-
   public final BaseOSProcessHandler process;
   public final JavacServerClient client;
 
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.java;
+
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.jps.api.GlobalOptions;
+import org.jetbrains.jps.api.RequestFuture;
+import org.jetbrains.jps.cmdline.BuildRunner;
+import org.jetbrains.jps.incremental.CompileContext;
+import org.jetbrains.jps.incremental.GlobalContextKey;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pool of external javac processes shared by all chunks compiled during a build session.
+ * Workers are launched lazily up to the configured pool size and stay alive until the build finishes,
+ * so a chunk compiled in a worker reuses the warmed-up JVM and javac classes loaded by previous chunks.
+ */
+public class ExternalJavacPool {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.java.ExternalJavacPool");
+  public static final GlobalContextKey<ExternalJavacPool> KEY = GlobalContextKey.create("_external_javac_pool_");
+  private static final int DEFAULT_POOL_SIZE = BuildRunner.PARALLEL_BUILD_ENABLED ? 2 : 1;
+  private static final int MIN_WORKER_HEAP_SIZE_MB = 64;
+
+  private final int myMaxSize;
+  private final List<Worker> myWorkers = new ArrayList<Worker>();
+  private final Deque<Worker> myIdleWorkers = new ArrayDeque<Worker>();
+  private int myLaunchingCount;
+  private int myLaunchedCount;
+
+  public interface WorkerLauncher {
+    @NotNull
+    ExternalJavacDescriptor launch() throws Exception;
+  }
+
+  public static final class Worker {
+    private final ExternalJavacDescriptor myDescriptor;
+    private final int myIndex;
+    private final long myStartTime;
+    private long myAcquireTime;
+    private long myBusyTime;
+    private int myRequestsCount;
+
+    private Worker(ExternalJavacDescriptor descriptor, int index, long startTime) {
+      myDescriptor = descriptor;
+      myIndex = index;
+      myStartTime = startTime;
+    }
+
+    @NotNull
+    public ExternalJavacDescriptor getDescriptor() {
+      return myDescriptor;
+    }
+  }
+
+  public ExternalJavacPool(int maxSize) {
+    myMaxSize = Math.max(1, maxSize);
+  }
+
+  public int getMaxSize() {
+    return myMaxSize;
+  }
+
+  public static int getConfiguredPoolSize() {
+    try {
+      return Math.max(1, Integer.parseInt(System.getProperty(GlobalOptions.EXTERNAL_JAVAC_POOL_SIZE_OPTION, Integer.toString(DEFAULT_POOL_SIZE))));
+    }
+    catch (NumberFormatException ignored) {
+      return DEFAULT_POOL_SIZE;
+    }
+  }
+
+  /**
+   * Each worker gets the configured javac heap, so that a chunk is compiled by it the same way as by a single javac process,
+   * unless all workers of the pool together would exceed the heap budget, then the budget is split between them.
+   */
+  public int getWorkerHeapSize(int configuredHeapSize) {
+    return getWorkerHeapSize(myMaxSize, configuredHeapSize, getHeapBudget());
+  }
+
+  static int getWorkerHeapSize(int poolSize, int configuredHeapSize, int heapBudget) {
+    if (heapBudget <= 0 || (long)configuredHeapSize * poolSize <= heapBudget) {
+      return configuredHeapSize;
+    }
+    return Math.max(MIN_WORKER_HEAP_SIZE_MB, heapBudget / poolSize);
+  }
+
+  /**
+   * @return megabytes which all workers may take together, or 0 if there is no limit
+   */
+  private static int getHeapBudget() {
+    final String budget = System.getProperty(GlobalOptions.EXTERNAL_JAVAC_HEAP_BUDGET_OPTION);
+    if (budget != null) {
+      try {
+        return Math.max(0, Integer.parseInt(budget));
+      }
+      catch (NumberFormatException ignored) {
+      }
+    }
+    final OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+    if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+      // the other half is left for the build process, the IDE and the rest of the system
+      return (int)(((com.sun.management.OperatingSystemMXBean)bean).getTotalPhysicalMemorySize() / 2 / (1024 * 1024));
+    }
+    return 0;
+  }
+
+  /**
+   * Returns an idle worker, launching a new one if the pool is not full yet, or waits until some worker is released.
+   * The most recently released worker is preferred since its JVM is the warmest one.
+   */
+  @NotNull
+  public Worker acquire(CompileContext context, WorkerLauncher launcher) throws Exception {
+    synchronized (this) {
+      while (true) {
+        final Worker idle = myIdleWorkers.pollLast();
+        if (idle != null) {
+          idle.myAcquireTime = System.currentTimeMillis();
+          return idle;
+        }
+        if (myWorkers.size() + myLaunchingCount < myMaxSize) {
+          myLaunchingCount++;
+          break;
+        }
+        context.checkCanceled();
+        wait(100L);
+      }
+    }
+
+    final ExternalJavacDescriptor descriptor;
+    try {
+      descriptor = launcher.launch();
+    }
+    finally {
+      synchronized (this) {
+        myLaunchingCount--;
+        notifyAll();
+      }
+    }
+
+    final long now = System.currentTimeMillis();
+    synchronized (this) {
+      final Worker worker = new Worker(descriptor, ++myLaunchedCount, now);
+      worker.myAcquireTime = now;
+      myWorkers.add(worker);
+      return worker;
+    }
+  }
+
+  public synchronized void release(@NotNull Worker worker) {
+    worker.myBusyTime += System.currentTimeMillis() - worker.myAcquireTime;
+    worker.myRequestsCount++;
+    if (worker.myDescriptor.process.isProcessTerminated()) {
+      LOG.info("External javac worker #" + worker.myIndex + " terminated unexpectedly, removing it from the pool");
+      myWorkers.remove(worker);
+    }
+    else {
+      myIdleWorkers.addLast(worker);
+    }
+    notifyAll();
+  }
+
+  /**
+   * Stops all workers and reports their utilization into the build log
+   */
+  public void shutdown() {
+    final List<Worker> workers;
+    synchronized (this) {
+      workers = new ArrayList<Worker>(myWorkers);
+      myWorkers.clear();
+      myIdleWorkers.clear();
+    }
+    final long now = System.currentTimeMillis();
+    for (Worker worker : workers) {
+      final long lifetime = Math.max(1L, now - worker.myStartTime);
+      LOG.info("External javac worker #" + worker.myIndex + ": " + worker.myRequestsCount + " compilation requests, busy " +
+               worker.myBusyTime + " ms of " + lifetime + " ms (" + (worker.myBusyTime * 100 / lifetime) + "% utilization)");
+      final ExternalJavacDescriptor descriptor = worker.myDescriptor;
+      try {
+        final RequestFuture future = descriptor.client.sendShutdownRequest();
+        future.waitFor(500L, TimeUnit.MILLISECONDS);
+      }
+      catch (Throwable e) {
+        // the other workers must be stopped anyway
+        LOG.info("Failed to send shutdown request to external javac worker #" + worker.myIndex, e);
+      }
+      finally {
+        // ensure process is not running
+        descriptor.process.destroyProcess();
+      }
+    }
+  }
+
+  public static ExternalJavacPool getOrCreate(CompileContext context) {
+    synchronized (KEY) {
+      ExternalJavacPool pool = KEY.get(context);
+      if (pool == null) {
+        pool = new ExternalJavacPool(getConfiguredPoolSize());
+        KEY.set(context, pool);
+      }
+      return pool;
+    }
+  }
+}
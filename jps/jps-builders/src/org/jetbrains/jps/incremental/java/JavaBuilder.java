@@ -80,6 +80,7 @@ public class JavaBuilder extends ModuleLevelBuilder {
   private static final Key<Integer> JAVA_COMPILER_VERSION_KEY = Key.create("_java_compiler_version_");
   public static final Key<Boolean> IS_ENABLED = Key.create("_java_compiler_enabled_");
   private static final Key<AtomicReference<String>> COMPILER_VERSION_INFO = Key.create("_java_compiler_version_info_");
+  private static final Object JAVAC_SERVER_LAUNCH_LOCK = new Object();
 
   private static final Set<String> FILTERED_OPTIONS = new HashSet<String>(Arrays.<String>asList(
     "-target"
@@ -366,16 +367,29 @@ public class JavaBuilder extends ModuleLevelBuilder {
         );
       }
       else {
-        final JavacServerClient client = ensureJavacServerLaunched(context);
-        final RequestFuture<JavacServerResponseHandler> future = client.sendCompileRequest(
-          options, files, classpath, platformCp, sourcePath, outs, diagnosticSink, classesConsumer
-        );
-        while (!future.waitFor(100L, TimeUnit.MILLISECONDS)) {
-          if (context.getCancelStatus().isCanceled()) {
-            future.cancel(false);
+        final ExternalJavacPool pool = ExternalJavacPool.getOrCreate(context);
+        final ExternalJavacPool.Worker worker = pool.acquire(context, new ExternalJavacPool.WorkerLauncher() {
+          @NotNull
+          @Override
+          public ExternalJavacDescriptor launch() throws Exception {
+            return launchJavacServer(context, pool);
+          }
+        });
+        try {
+          final JavacServerClient client = worker.getDescriptor().client;
+          final RequestFuture<JavacServerResponseHandler> future = client.sendCompileRequest(
+            options, files, classpath, platformCp, sourcePath, outs, diagnosticSink, classesConsumer
+          );
+          while (!future.waitFor(100L, TimeUnit.MILLISECONDS)) {
+            if (context.getCancelStatus().isCanceled()) {
+              future.cancel(false);
+            }
           }
+          rc = future.getMessageHandler().isTerminatedSuccessfully();
+        }
+        finally {
+          pool.release(worker);
         }
-        rc = future.getMessageHandler().isTerminatedSuccessfully();
       }
       return rc;
     }
@@ -412,21 +426,23 @@ public class JavaBuilder extends ModuleLevelBuilder {
     });
   }
 
-  private static synchronized JavacServerClient ensureJavacServerLaunched(CompileContext context) throws Exception {
-    final ExternalJavacDescriptor descriptor = ExternalJavacDescriptor.KEY.get(context);
-    if (descriptor != null) {
-      return descriptor.client;
-    }
+  private static ExternalJavacDescriptor launchJavacServer(CompileContext context, ExternalJavacPool pool) throws Exception {
     // start server here
-    final int port = findFreePort();
-    final int heapSize = getJavacServerHeapSize(context);
+    final int heapSize = pool.getWorkerHeapSize(getJavacServerHeapSize(context));
 
     // use the same jdk that used to run the build process
     final String javaHome = SystemProperties.getJavaHome();
 
-    final BaseOSProcessHandler processHandler = JavacServerBootstrap.launchJavacServer(
-      javaHome, heapSize, port, Utils.getSystemRoot(), getCompilationVMOptions(context), useEclipseCompiler(context)
-    );
+    // the found port stays free only until some process binds it, so another worker of the pool may look for a port
+    // only after this one has started and bound it
+    final int port;
+    final BaseOSProcessHandler processHandler;
+    synchronized (JAVAC_SERVER_LAUNCH_LOCK) {
+      port = findFreePort();
+      processHandler = JavacServerBootstrap.launchJavacServer(
+        javaHome, heapSize, port, Utils.getSystemRoot(), getCompilationVMOptions(context), useEclipseCompiler(context)
+      );
+    }
     final JavacServerClient client = new JavacServerClient();
     try {
       client.connect("127.0.0.1", port);
@@ -435,8 +451,7 @@ public class JavaBuilder extends ModuleLevelBuilder {
       processHandler.destroyProcess();
       throw new Exception("Failed to connect to external javac process: ", ex);
     }
-    ExternalJavacDescriptor.KEY.set(context, new ExternalJavacDescriptor(processHandler, client));
-    return client;
+    return new ExternalJavacDescriptor(processHandler, client);
   }
 
   private static int convertToNumber(String ver) {
@@ -37,7 +37,7 @@ import java.util.Map;
  *         Date: 10/7/11
  */
 public class BuildDataManager implements StorageOwner {
-  private static final int VERSION = 19;
+  private static final int VERSION = 22;
   private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.storage.BuildDataManager");
   private static final String SRC_TO_FORM_STORAGE = "src-form";
   private static final String MAPPINGS_STORAGE = "mappings";
@@ -295,7 +295,7 @@ public class BuildDataManager implements StorageOwner {
     try {
       final DataInputStream is = new DataInputStream(new FileInputStream(myVersionFile));
       try {
-        final boolean diff = is.readInt() != VERSION;
+        final boolean diff = is.readInt() != VERSION || is.readBoolean() != Mappings.USE_MAPPED_STORAGE;
         myVersionDiffers = diff;
         return diff;
       }
@@ -320,6 +320,8 @@ public class BuildDataManager implements StorageOwner {
         final DataOutputStream os = new DataOutputStream(new FileOutputStream(myVersionFile));
         try {
           os.writeInt(VERSION);
+          // dependency data has to be rebuilt when switching between storage formats
+          os.writeBoolean(Mappings.USE_MAPPED_STORAGE);
           myVersionDiffers = Boolean.FALSE;
         }
         finally {
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.storage;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.IOUtil;
+import gnu.trove.TObjectLongHashMap;
+import gnu.trove.TObjectLongProcedure;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.jps.builders.BuildTarget;
+
+import java.io.*;
+
+/**
+ * Remembers how long targets took to build during the last full rebuild. The data is used as a cost estimate
+ * by the parallel build scheduler and is deliberately kept outside of the storages wiped on rebuild.
+ */
+public class BuildTargetsTimings {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.storage.BuildTargetsTimings");
+  private static final String TIMINGS_FILE_NAME = "targets-timings.dat";
+  private static final int VERSION = 1;
+  private final File myFile;
+  private final TObjectLongHashMap<String> myTimings = new TObjectLongHashMap<String>();
+  private boolean myChanged;
+
+  public BuildTargetsTimings(File dataStorageRoot) {
+    myFile = new File(dataStorageRoot, TIMINGS_FILE_NAME);
+    load();
+  }
+
+  private void load() {
+    if (!myFile.exists()) {
+      return;
+    }
+    try {
+      final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(myFile)));
+      try {
+        if (input.readInt() != VERSION) {
+          return;
+        }
+        int size = input.readInt();
+        while (size-- > 0) {
+          final String id = IOUtil.readString(input);
+          myTimings.put(id, input.readLong());
+        }
+      }
+      finally {
+        input.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot load build targets timings: " + e.getMessage(), e);
+      myTimings.clear();
+    }
+  }
+
+  /**
+   * @return build time in milliseconds recorded for the target, or -1 if the target has never been built
+   */
+  public synchronized long getTiming(@NotNull BuildTarget<?> target) {
+    final String id = getKey(target);
+    return myTimings.containsKey(id) ? myTimings.get(id) : -1L;
+  }
+
+  public synchronized void setTiming(@NotNull BuildTarget<?> target, long millis) {
+    myTimings.put(getKey(target), millis);
+    myChanged = true;
+  }
+
+  public synchronized void save() {
+    if (!myChanged) {
+      return;
+    }
+    try {
+      FileUtil.createParentDirs(myFile);
+      final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myFile)));
+      try {
+        output.writeInt(VERSION);
+        output.writeInt(myTimings.size());
+        final IOException[] ex = new IOException[1];
+        myTimings.forEachEntry(new TObjectLongProcedure<String>() {
+          @Override
+          public boolean execute(String id, long millis) {
+            try {
+              IOUtil.writeString(id, output);
+              output.writeLong(millis);
+              return true;
+            }
+            catch (IOException e) {
+              ex[0] = e;
+              return false;
+            }
+          }
+        });
+        if (ex[0] != null) {
+          throw ex[0];
+        }
+        myChanged = false;
+      }
+      finally {
+        output.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot save build targets timings: " + e.getMessage(), e);
+      FileUtil.delete(myFile);
+    }
+  }
+
+  private static String getKey(BuildTarget<?> target) {
+    return target.getTargetType().getTypeId() + ":" + target.getId();
+  }
+}
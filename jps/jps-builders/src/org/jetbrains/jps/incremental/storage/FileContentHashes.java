@@ -0,0 +1,140 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.storage;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.concurrency.BoundedTaskExecutor;
+import gnu.trove.THashMap;
+import gnu.trove.TObjectLongHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.jps.api.GlobalOptions;
+import org.jetbrains.jps.service.SharedThreadPool;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Hashes of source files content saved together with their timestamps. When enabled, a file whose timestamp has changed
+ * but whose content is the same as at the moment of its last compilation is considered up-to-date.
+ */
+public class FileContentHashes {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.storage.FileContentHashes");
+  public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty(GlobalOptions.CONTENT_HASH_CHECK_OPTION, "false"));
+  public static final long NO_HASH = 0L;
+  private static final int MIN_FILES_TO_HASH_IN_PARALLEL = 8;
+
+  private FileContentHashes() {
+  }
+
+  /**
+   * @return 64-bit hash of the file content, never equal to {@link #NO_HASH}
+   */
+  public static long computeHash(@NotNull File file) throws IOException {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("MD5");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IOException(e.getMessage());
+    }
+    final byte[] buffer = new byte[8192];
+    final InputStream input = new FileInputStream(file);
+    try {
+      int read;
+      while ((read = input.read(buffer)) > 0) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    finally {
+      input.close();
+    }
+    final byte[] bytes = digest.digest();
+    long hash = 0;
+    for (int i = 0; i < 8; i++) {
+      hash = (hash << 8) | (bytes[i] & 0xFF);
+    }
+    return hash == NO_HASH ? 1L : hash;
+  }
+
+  /**
+   * Computes hashes of the files on the shared thread pool. Files which cannot be read are mapped to {@link #NO_HASH},
+   * as are all the files not hashed yet when the calling thread is interrupted.
+   */
+  @NotNull
+  public static TObjectLongHashMap<File> computeHashes(@NotNull Collection<File> files) {
+    final TObjectLongHashMap<File> result = new TObjectLongHashMap<File>(FileUtil.FILE_HASHING_STRATEGY);
+    if (files.size() < MIN_FILES_TO_HASH_IN_PARALLEL) {
+      for (File file : files) {
+        result.put(file, computeHashSafe(file));
+      }
+      return result;
+    }
+
+    final BoundedTaskExecutor executor = new BoundedTaskExecutor(SharedThreadPool.getInstance(), Runtime.getRuntime().availableProcessors());
+    final Map<File, Future<Long>> futures = new THashMap<File, Future<Long>>(FileUtil.FILE_HASHING_STRATEGY);
+    for (final File file : files) {
+      futures.put(file, executor.submit(new Callable<Long>() {
+        @Override
+        public Long call() {
+          return computeHashSafe(file);
+        }
+      }));
+    }
+    boolean interrupted = false;
+    for (Map.Entry<File, Future<Long>> entry : futures.entrySet()) {
+      long hash = NO_HASH;
+      if (interrupted) {
+        entry.getValue().cancel(false);
+      }
+      else {
+        try {
+          hash = entry.getValue().get();
+        }
+        catch (InterruptedException e) {
+          // files left without hashes are treated as modified
+          Thread.currentThread().interrupt();
+          interrupted = true;
+          entry.getValue().cancel(false);
+        }
+        catch (ExecutionException e) {
+          LOG.info(e);
+        }
+      }
+      result.put(entry.getKey(), hash);
+    }
+    return result;
+  }
+
+  private static long computeHashSafe(File file) {
+    try {
+      return computeHash(file);
+    }
+    catch (IOException e) {
+      LOG.debug(e);
+      return NO_HASH;
+    }
+  }
+}
@@ -18,6 +18,7 @@ package org.jetbrains.jps.incremental.storage;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.io.DataExternalizer;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.jps.builders.BuildTarget;
 
 import java.io.DataInput;
@@ -49,27 +50,44 @@ public class TimestampStorage extends AbstractStateStorage<File, TimestampStorag
 
   @Override
   public long getStamp(File file, BuildTarget<?> target) throws IOException {
+    final TimestampPerTarget timestampPerTarget = findTargetState(file, target);
+    return timestampPerTarget != null ? timestampPerTarget.timestamp : -1L;
+  }
+
+  @Override
+  public long getContentHash(File file, BuildTarget<?> target) throws IOException {
+    final TimestampPerTarget timestampPerTarget = findTargetState(file, target);
+    return timestampPerTarget != null ? timestampPerTarget.contentHash : FileContentHashes.NO_HASH;
+  }
+
+  @Nullable
+  private TimestampPerTarget findTargetState(File file, BuildTarget<?> target) throws IOException {
     final TimestampPerTarget[] state = getState(file);
     if (state != null) {
       int targetId = myTargetsState.getBuildTargetId(target);
       for (TimestampPerTarget timestampPerTarget : state) {
         if (timestampPerTarget.targetId == targetId) {
-          return timestampPerTarget.timestamp;
+          return timestampPerTarget;
         }
       }
     }
-    return -1L;
+    return null;
   }
 
   @Override
   public void saveStamp(File file, BuildTarget<?> buildTarget, long timestamp) throws IOException {
+    saveStamp(file, buildTarget, timestamp, FileContentHashes.NO_HASH);
+  }
+
+  @Override
+  public void saveStamp(File file, BuildTarget<?> buildTarget, long timestamp, long contentHash) throws IOException {
     int targetId = myTargetsState.getBuildTargetId(buildTarget);
-    update(file, updateTimestamp(getState(file), targetId, timestamp));
+    update(file, updateTimestamp(getState(file), targetId, timestamp, contentHash));
   }
 
   @NotNull
-  private static TimestampPerTarget[] updateTimestamp(TimestampPerTarget[] oldState, final int targetId, long timestamp) {
-    final TimestampPerTarget newItem = new TimestampPerTarget(targetId, timestamp);
+  private static TimestampPerTarget[] updateTimestamp(TimestampPerTarget[] oldState, final int targetId, long timestamp, long contentHash) {
+    final TimestampPerTarget newItem = new TimestampPerTarget(targetId, timestamp, contentHash);
     if (oldState == null) {
       return new TimestampPerTarget[]{newItem};
     }
@@ -105,29 +123,54 @@ public class TimestampStorage extends AbstractStateStorage<File, TimestampStorag
   public static class TimestampPerTarget {
     public final int targetId;
     public final long timestamp;
+    public final long contentHash;
 
     public TimestampPerTarget(int targetId, long timestamp) {
+      this(targetId, timestamp, FileContentHashes.NO_HASH);
+    }
+
+    public TimestampPerTarget(int targetId, long timestamp, long contentHash) {
       this.targetId = targetId;
       this.timestamp = timestamp;
+      this.contentHash = contentHash;
     }
   }
 
-  private static class StateExternalizer implements DataExternalizer<TimestampPerTarget[]> {
+  /**
+   * Content hashes are written only for records which have them; such records are marked by the inverted size,
+   * so the storage doesn't grow unless content hashes are enabled.
+   */
+  static class StateExternalizer implements DataExternalizer<TimestampPerTarget[]> {
     public void save(DataOutput out, TimestampPerTarget[] value) throws IOException {
-      out.writeInt(value.length);
+      boolean withHashes = false;
+      for (TimestampPerTarget target : value) {
+        if (target.contentHash != FileContentHashes.NO_HASH) {
+          withHashes = true;
+          break;
+        }
+      }
+      out.writeInt(withHashes ? ~value.length : value.length);
       for (TimestampPerTarget target : value) {
         out.writeInt(target.targetId);
         out.writeLong(target.timestamp);
+        if (withHashes) {
+          out.writeLong(target.contentHash);
+        }
       }
     }
 
     public TimestampPerTarget[] read(DataInput in) throws IOException {
       int size = in.readInt();
+      final boolean withHashes = size < 0;
+      if (withHashes) {
+        size = ~size;
+      }
       TimestampPerTarget[] targets = new TimestampPerTarget[size];
       for (int i = 0; i < size; i++) {
         int id = in.readInt();
         long timestamp = in.readLong();
-        targets[i] = new TimestampPerTarget(id, timestamp);
+        long contentHash = withHashes ? in.readLong() : FileContentHashes.NO_HASH;
+        targets[i] = new TimestampPerTarget(id, timestamp, contentHash);
       }
       return targets;
     }
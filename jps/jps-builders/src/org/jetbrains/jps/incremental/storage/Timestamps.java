@@ -29,9 +29,16 @@ public interface Timestamps {
 
   void saveStamp(File file, BuildTarget<?> buildTarget, long timestamp) throws IOException;
 
+  void saveStamp(File file, BuildTarget<?> buildTarget, long timestamp, long contentHash) throws IOException;
+
   void removeStamp(File file, BuildTarget<?> buildTarget) throws IOException;
 
   void clean() throws IOException;
 
   long getStamp(File file, BuildTarget<?> target) throws IOException;
+
+  /**
+   * @return hash of the file content saved together with its timestamp, or {@link FileContentHashes#NO_HASH}
+   */
+  long getContentHash(File file, BuildTarget<?> target) throws IOException;
 }
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.builders.java.dependencyView;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
+import com.intellij.util.io.IntInlineKeyDescriptor;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntObjectProcedure;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * The lookup performance test checks the memory-mapped class-to-class storage against the hash-based one. By default the data
+ * is generated, to run it on build data of a real project pass -Djps.mappings.benchmark.dir=&lt;system&gt;/compile-server/&lt;project&gt;/mappings
+ */
+public class IntIntMappedMultiMapletTest extends TestCase {
+  private static final String DATA_DIR_PROPERTY = "jps.mappings.benchmark.dir";
+  private static final int CLASSES_COUNT = 20000;
+  private static final int AVERAGE_DEPENDENCIES_COUNT = 20;
+  private static final int LOOKUP_ROUNDS = 20;
+  private File myTempDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myTempDir = FileUtil.createTempDirectory("mappings-benchmark", null);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myTempDir);
+    super.tearDown();
+  }
+
+  public void testLookupsPerformance() throws IOException {
+    final IntIntPersistentMultiMaplet persistent = createPersistentMaplet();
+    final IntIntMappedMultiMaplet mapped = new IntIntMappedMultiMaplet(new File(myTempDir, "classToClass.mapped"));
+    try {
+      mapped.putAll(persistent);
+      mapped.flush(false);
+
+      final TIntHashSet keys = new TIntHashSet();
+      persistent.forEachEntry(new TIntObjectProcedure<TIntHashSet>() {
+        @Override
+        public boolean execute(int key, TIntHashSet values) {
+          keys.add(key);
+          return true;
+        }
+      });
+      // a widely used class affects about a tenth of the project
+      final TIntHashSet batch = new TIntHashSet();
+      final Random random = new Random(0);
+      final int[] allKeys = keys.toArray();
+      for (int i = 0; i < allKeys.length / 10; i++) {
+        batch.add(allKeys[random.nextInt(allKeys.length)]);
+      }
+
+      final TIntHashSet expected = new TIntHashSet();
+      persistent.collectValues(batch, expected);
+
+      final TIntHashSet actual = new TIntHashSet();
+      PlatformTestUtil.startPerformanceTest("Mapped class-to-class lookups", 300, new ThrowableRunnable() {
+        @Override
+        public void run() throws Throwable {
+          for (int i = 0; i < LOOKUP_ROUNDS; i++) {
+            actual.clear();
+            mapped.collectValues(batch, actual);
+          }
+        }
+      }).cpuBound().assertTiming();
+      assertEquals(expected, actual);
+    }
+    finally {
+      mapped.close();
+      persistent.close();
+    }
+  }
+
+  public void testModificationsAreMerged() throws IOException {
+    final File file = new File(myTempDir, "maplet");
+    IntIntMappedMultiMaplet maplet = new IntIntMappedMultiMaplet(file);
+    maplet.put(1, 10);
+    maplet.put(1, 11);
+    maplet.put(2, 20);
+    maplet.put(3, 30);
+    maplet.close();
+
+    maplet = new IntIntMappedMultiMaplet(file);
+    maplet.removeFrom(1, 10);
+    maplet.remove(2);
+    maplet.put(0, 5);
+    assertEquals(new TIntHashSet(new int[]{11}), maplet.get(1));
+    assertFalse(maplet.containsKey(2));
+    maplet.flush(false);
+    maplet.close();
+
+    maplet = new IntIntMappedMultiMaplet(file);
+    try {
+      assertEquals(new TIntHashSet(new int[]{5}), maplet.get(0));
+      assertEquals(new TIntHashSet(new int[]{11}), maplet.get(1));
+      assertNull(maplet.get(2));
+      assertEquals(new TIntHashSet(new int[]{30}), maplet.get(3));
+      final TIntHashSet values = new TIntHashSet();
+      maplet.collectValues(new TIntHashSet(new int[]{3, 0, 2, 7}), values);
+      assertEquals(new TIntHashSet(new int[]{5, 30}), values);
+    }
+    finally {
+      maplet.close();
+    }
+  }
+
+  public void testOverriddenSegmentsAreCompacted() throws IOException {
+    final File file = new File(myTempDir, "maplet");
+    IntIntMappedMultiMaplet maplet = new IntIntMappedMultiMaplet(file);
+    // each flush appends a segment which overrides the previous values of the same keys
+    for (int round = 0; round < 10; round++) {
+      for (int key = 0; key < 100; key++) {
+        maplet.replace(key, new TIntHashSet(new int[]{round, key}));
+      }
+      maplet.flush(false);
+      // a round takes 100 keys, offsets and pairs of values, the overridden ones are compacted before they take as much as the rest
+      final long size = getStoredSize(file);
+      assertTrue(size + " bytes after round " + round, size < 3 * 100 * 4 * 4);
+    }
+    maplet.remove(0);
+    maplet.flush(false);
+    maplet.close();
+
+    maplet = new IntIntMappedMultiMaplet(file);
+    try {
+      assertNull(maplet.get(0));
+      assertEquals(new TIntHashSet(new int[]{9, 1}), maplet.get(1));
+      assertEquals(new TIntHashSet(new int[]{9, 99}), maplet.get(99));
+      final int[] count = new int[1];
+      maplet.forEachEntry(new TIntObjectProcedure<TIntHashSet>() {
+        @Override
+        public boolean execute(int key, TIntHashSet values) {
+          count[0]++;
+          return true;
+        }
+      });
+      assertEquals(99, count[0]);
+    }
+    finally {
+      maplet.close();
+    }
+    // previous generations are deleted once they are unmapped
+    assertEquals(1, myTempDir.listFiles().length);
+  }
+
+  public void testManySegmentsAreCompacted() throws IOException {
+    final File file = new File(myTempDir, "maplet");
+    final IntIntMappedMultiMaplet maplet = new IntIntMappedMultiMaplet(file);
+    try {
+      // nothing is overridden, so only the number of segments to look in triggers compaction
+      for (int key = 0; key < 100; key++) {
+        maplet.put(key, key * 2);
+        maplet.flush(false);
+      }
+      final TIntHashSet values = new TIntHashSet();
+      maplet.collectValues(new TIntHashSet(new int[]{0, 33, 65, 99, 100}), values);
+      assertEquals(new TIntHashSet(new int[]{0, 66, 130, 198}), values);
+      assertEquals(new TIntHashSet(new int[]{42}), maplet.get(21));
+    }
+    finally {
+      maplet.close();
+    }
+  }
+
+  private static long getStoredSize(File file) {
+    long size = 0;
+    for (File each : file.getParentFile().listFiles()) {
+      if (each.getName().startsWith(file.getName() + ".")) {
+        size += each.length();
+      }
+    }
+    return size;
+  }
+
+  private IntIntPersistentMultiMaplet createPersistentMaplet() throws IOException {
+    final String dataDir = System.getProperty(DATA_DIR_PROPERTY);
+    if (dataDir != null) {
+      final File copy = new File(myTempDir, "mappings");
+      FileUtil.copyDir(new File(dataDir), copy);
+      return new IntIntPersistentMultiMaplet(new File(copy, "classToClass.tab"), new IntInlineKeyDescriptor());
+    }
+
+    final IntIntPersistentMultiMaplet maplet = new IntIntPersistentMultiMaplet(new File(myTempDir, "classToClass.tab"), new IntInlineKeyDescriptor());
+    final Random random = new Random(0);
+    for (int key = 0; key < CLASSES_COUNT; key++) {
+      final TIntHashSet dependents = new TIntHashSet();
+      final int count = random.nextInt(2 * AVERAGE_DEPENDENCIES_COUNT);
+      for (int i = 0; i < count; i++) {
+        dependents.add(random.nextInt(CLASSES_COUNT));
+      }
+      if (!dependents.isEmpty()) {
+        maplet.put(key, dependents);
+      }
+    }
+    maplet.flush(false);
+    return maplet;
+  }
+}
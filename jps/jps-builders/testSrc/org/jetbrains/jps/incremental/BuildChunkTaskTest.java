@@ -0,0 +1,232 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.builders.*;
+import org.jetbrains.jps.builders.impl.BuildTargetChunk;
+import org.jetbrains.jps.builders.java.JavaModuleBuildTargetType;
+import org.jetbrains.jps.builders.storage.BuildDataPaths;
+import org.jetbrains.jps.incremental.storage.BuildTargetsTimings;
+import org.jetbrains.jps.indices.IgnoredFileIndex;
+import org.jetbrains.jps.indices.ModuleExcludeIndex;
+import org.jetbrains.jps.model.JpsJavaModelTestCase;
+import org.jetbrains.jps.model.JpsModel;
+
+import java.io.File;
+import java.util.*;
+
+public class BuildChunkTaskTest extends JpsJavaModelTestCase {
+  private File myDataStorageRoot;
+  private BuildTargetsTimings myTimings;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    myDataStorageRoot = FileUtil.createTempDirectory("timings", null);
+    myTimings = new BuildTargetsTimings(myDataStorageRoot);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myDataStorageRoot);
+    super.tearDown();
+  }
+
+  public void testModuleChunkIsReleasedOnceClassesAreReady() {
+    IncProjectBuilder.BuildChunkTask a = moduleTask("a");
+    IncProjectBuilder.BuildChunkTask b = moduleTask("b");
+    IncProjectBuilder.BuildChunkTask artifact = otherTask("artifact");
+    b.addDependency(a);
+    artifact.addDependency(a);
+
+    assertSameElements(a.markClassesReadyAndGetNextReadyTasks(), b);
+    assertTrue(b.isReady());
+    assertFalse(artifact.isReady());
+    assertSameElements(a.markAsFinishedAndGetNextReadyTasks(), artifact);
+    assertTrue(artifact.isReady());
+  }
+
+  public void testChunkWaitsForAllDependencies() {
+    IncProjectBuilder.BuildChunkTask a1 = moduleTask("a1");
+    IncProjectBuilder.BuildChunkTask a2 = moduleTask("a2");
+    IncProjectBuilder.BuildChunkTask b = moduleTask("b");
+    b.addDependency(a1);
+    b.addDependency(a2);
+
+    assertEmpty(a1.markClassesReadyAndGetNextReadyTasks());
+    assertEmpty(a1.markAsFinishedAndGetNextReadyTasks());
+    assertFalse(b.isReady());
+    assertSameElements(a2.markClassesReadyAndGetNextReadyTasks(), b);
+    // released tasks are never returned twice
+    assertEmpty(a2.markAsFinishedAndGetNextReadyTasks());
+  }
+
+  public void testChunkOfModuleAndOtherTargetWaitsForFullCompletion() {
+    IncProjectBuilder.BuildChunkTask a = moduleTask("a");
+    IncProjectBuilder.BuildChunkTask mixed = task(moduleTarget("b"), new TestTarget("other"));
+    mixed.addDependency(a);
+
+    assertEmpty(a.markClassesReadyAndGetNextReadyTasks());
+    assertSameElements(a.markAsFinishedAndGetNextReadyTasks(), mixed);
+  }
+
+  public void testCriticalPathCosts() {
+    ModuleBuildTarget aTarget = moduleTarget("a");
+    ModuleBuildTarget bTarget = moduleTarget("b");
+    ModuleBuildTarget cTarget = moduleTarget("c");
+    ModuleBuildTarget dTarget = moduleTarget("d");
+    IncProjectBuilder.BuildChunkTask a = task(aTarget);
+    IncProjectBuilder.BuildChunkTask b = task(bTarget);
+    IncProjectBuilder.BuildChunkTask c = task(cTarget);
+    IncProjectBuilder.BuildChunkTask d = task(dTarget);
+    b.addDependency(a);
+    c.addDependency(b);
+    myTimings.setTiming(aTarget, 100);
+    myTimings.setTiming(bTarget, 200);
+    myTimings.setTiming(cTarget, 300);
+    myTimings.setTiming(dTarget, 500);
+
+    IncProjectBuilder.computeCriticalPathCosts(Arrays.asList(a, d, b, c), scope(aTarget, bTarget, cTarget, dTarget), myTimings);
+    assertEquals(600, a.getCriticalPathCost());
+    assertEquals(500, b.getCriticalPathCost());
+    assertEquals(300, c.getCriticalPathCost());
+    assertEquals(500, d.getCriticalPathCost());
+
+    // 'a' starts first although 'd' alone takes longer
+    PriorityQueue<IncProjectBuilder.BuildChunkTask> queue =
+      new PriorityQueue<IncProjectBuilder.BuildChunkTask>(11, IncProjectBuilder.BuildChunkTask.CRITICAL_PATH_FIRST);
+    queue.add(d);
+    queue.add(a);
+    assertSame(a, queue.poll());
+    assertSame(d, queue.poll());
+  }
+
+  public void testTargetsOutOfScopeCostNothing() {
+    ModuleBuildTarget aTarget = moduleTarget("a");
+    ModuleBuildTarget bTarget = moduleTarget("b");
+    IncProjectBuilder.BuildChunkTask a = task(aTarget);
+    IncProjectBuilder.BuildChunkTask b = task(bTarget);
+    b.addDependency(a);
+    myTimings.setTiming(aTarget, 100);
+    myTimings.setTiming(bTarget, 200);
+
+    IncProjectBuilder.computeCriticalPathCosts(Arrays.asList(a, b), scope(bTarget), myTimings);
+    assertEquals(200, a.getCriticalPathCost());
+    assertEquals(200, b.getCriticalPathCost());
+  }
+
+  public void testTargetsWithoutTimingsAreEstimated() {
+    ModuleBuildTarget aTarget = moduleTarget("a");
+    ModuleBuildTarget bTarget = moduleTarget("b");
+    IncProjectBuilder.BuildChunkTask a = task(aTarget);
+    IncProjectBuilder.BuildChunkTask b = task(bTarget);
+    b.addDependency(a);
+
+    IncProjectBuilder.computeCriticalPathCosts(Arrays.asList(a, b), scope(aTarget, bTarget), myTimings);
+    assertTrue(b.getCriticalPathCost() > 0);
+    assertEquals(2 * b.getCriticalPathCost(), a.getCriticalPathCost());
+  }
+
+  private ModuleBuildTarget moduleTarget(String name) {
+    return new ModuleBuildTarget(addModule(name), JavaModuleBuildTargetType.PRODUCTION);
+  }
+
+  private IncProjectBuilder.BuildChunkTask moduleTask(String name) {
+    return task(moduleTarget(name));
+  }
+
+  private static IncProjectBuilder.BuildChunkTask otherTask(String name) {
+    return task(new TestTarget(name));
+  }
+
+  private static IncProjectBuilder.BuildChunkTask task(BuildTarget<?>... targets) {
+    return new IncProjectBuilder.BuildChunkTask(new BuildTargetChunk(new LinkedHashSet<BuildTarget<?>>(Arrays.asList(targets))));
+  }
+
+  private static CompileScope scope(BuildTarget<?>... affected) {
+    return new CompileScopeImpl(Collections.<BuildTargetType<?>>emptyList(), Collections.<BuildTargetType<?>>emptyList(),
+                                Arrays.<BuildTarget<?>>asList(affected), Collections.<BuildTarget<?>, Set<File>>emptyMap());
+  }
+
+  private static class TestTargetType extends BuildTargetType<TestTarget> {
+    private static final TestTargetType INSTANCE = new TestTargetType();
+
+    private TestTargetType() {
+      super("test-target");
+    }
+
+    @NotNull
+    @Override
+    public List<TestTarget> computeAllTargets(@NotNull JpsModel model) {
+      return Collections.emptyList();
+    }
+
+    @NotNull
+    @Override
+    public BuildTargetLoader<TestTarget> createLoader(@NotNull JpsModel model) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private static class TestTarget extends BuildTarget<BuildRootDescriptor> {
+    private final String myName;
+
+    private TestTarget(String name) {
+      super(TestTargetType.INSTANCE);
+      myName = name;
+    }
+
+    @Override
+    public String getId() {
+      return myName;
+    }
+
+    @Override
+    public Collection<BuildTarget<?>> computeDependencies(BuildTargetRegistry targetRegistry, TargetOutputIndex outputIndex) {
+      return Collections.emptyList();
+    }
+
+    @NotNull
+    @Override
+    public List<BuildRootDescriptor> computeRootDescriptors(JpsModel model,
+                                                            ModuleExcludeIndex index,
+                                                            IgnoredFileIndex ignoredFileIndex,
+                                                            BuildDataPaths dataPaths) {
+      return Collections.emptyList();
+    }
+
+    @Nullable
+    @Override
+    public BuildRootDescriptor findRootDescriptor(String rootId, BuildRootIndex rootIndex) {
+      return null;
+    }
+
+    @NotNull
+    @Override
+    public String getPresentableName() {
+      return myName;
+    }
+
+    @NotNull
+    @Override
+    public Collection<File> getOutputRoots(CompileContext context) {
+      return Collections.emptyList();
+    }
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.artifacts.impl;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class JarWriterTest extends TestCase {
+  private File myDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("jar", "writer");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myDir);
+    super.tearDown();
+  }
+
+  public void testPackFromScratch() throws IOException {
+    final byte[] content = createContent(100000, 0);
+    final File file = createFile("a.txt", content);
+    final File empty = createFile("empty.txt", new byte[0]);
+
+    final File jar = new File(myDir, "out.jar");
+    final JarWriter writer = JarWriter.createIncremental(jar, createManifest(), null);
+    writer.addDirectory("dir/");
+    writer.addFile("dir/a.txt", file);
+    writer.addFile("empty.txt", empty);
+    writer.addEntry("b.txt", new ByteArrayInputStream(content), sourceEntry(content, ZipEntry.DEFLATED), 0);
+    writer.close();
+
+    final ZipFile zip = new ZipFile(jar);
+    try {
+      assertNotNull(zip.getEntry("dir/"));
+      assertContent(zip, "dir/a.txt", content);
+      assertContent(zip, "empty.txt", new byte[0]);
+      assertContent(zip, "b.txt", content);
+      assertTrue(zip.getEntry("dir/a.txt").getCompressedSize() < content.length);
+      assertEquals("1.0", new Manifest(zip.getInputStream(zip.getEntry(JarFile.MANIFEST_NAME))).getMainAttributes()
+        .getValue(Attributes.Name.MANIFEST_VERSION));
+    }
+    finally {
+      zip.close();
+    }
+  }
+
+  public void testUnchangedEntriesAreCopied() throws IOException {
+    final byte[] unchanged = createContent(50000, 0);
+    final byte[] changed = createContent(50000, 1);
+    final File previousJar = new File(myDir, "previous.jar");
+    // the entries of the previous jar are not compressed at all, so they are easy to tell from the entries compressed again
+    final ZipOutputStream output = new ZipOutputStream(new FileOutputStream(previousJar));
+    try {
+      output.setLevel(Deflater.NO_COMPRESSION);
+      for (String name : Arrays.asList("file.txt", "changed.txt", "entry.txt")) {
+        output.putNextEntry(new ZipEntry(name));
+        output.write(unchanged);
+        output.closeEntry();
+      }
+    }
+    finally {
+      output.close();
+    }
+
+    final File jar = new File(myDir, "out.jar");
+    final JarWriter writer = JarWriter.createIncremental(jar, null, previousJar);
+    writer.addFile("file.txt", createFile("file.txt", unchanged));
+    writer.addFile("changed.txt", createFile("changed.txt", changed));
+    writer.addEntry("entry.txt", new ByteArrayInputStream(unchanged), sourceEntry(unchanged, ZipEntry.DEFLATED), 0);
+    writer.close();
+
+    final ZipFile zip = new ZipFile(jar);
+    try {
+      assertContent(zip, "file.txt", unchanged);
+      assertContent(zip, "changed.txt", changed);
+      assertContent(zip, "entry.txt", unchanged);
+      assertTrue(zip.getEntry("file.txt").getCompressedSize() > unchanged.length);
+      assertTrue(zip.getEntry("entry.txt").getCompressedSize() > unchanged.length);
+      assertTrue(zip.getEntry("changed.txt").getCompressedSize() < changed.length);
+    }
+    finally {
+      zip.close();
+    }
+  }
+
+  public void testEntryOfUnknownSizeIsCompressed() throws IOException {
+    final byte[] content = createContent(50000, 0);
+    final File previousJar = new File(myDir, "previous.jar");
+    final JarWriter previous = JarWriter.createIncremental(previousJar, null, null);
+    previous.addFile("entry.txt", createFile("entry.txt", content));
+    previous.close();
+
+    final File jar = new File(myDir, "out.jar");
+    final JarWriter writer = JarWriter.createIncremental(jar, null, previousJar);
+    writer.addEntry("entry.txt", new ByteArrayInputStream(content), new ZipEntry("entry.txt"), 0);
+    writer.close();
+
+    final ZipFile zip = new ZipFile(jar);
+    try {
+      assertContent(zip, "entry.txt", content);
+    }
+    finally {
+      zip.close();
+    }
+  }
+
+  private File createFile(String name, byte[] content) throws IOException {
+    final File file = new File(myDir, name);
+    FileUtil.writeToFile(file, content);
+    return file;
+  }
+
+  private static Manifest createManifest() {
+    final Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    return manifest;
+  }
+
+  private static ZipEntry sourceEntry(byte[] content, int method) {
+    final ZipEntry entry = new ZipEntry("source");
+    entry.setMethod(method);
+    entry.setSize(content.length);
+    entry.setCrc(crc(content));
+    return entry;
+  }
+
+  private static byte[] createContent(int length, int seed) {
+    final byte[] content = new byte[length];
+    for (int i = 0; i < length; i++) {
+      content[i] = (byte)('a' + (i + seed) % 7 + i / 1000 % 5);
+    }
+    return content;
+  }
+
+  private static long crc(byte[] content) {
+    final CRC32 crc = new CRC32();
+    crc.update(content);
+    return crc.getValue();
+  }
+
+  private static void assertContent(ZipFile zip, String name, byte[] content) throws IOException {
+    final ZipEntry entry = zip.getEntry(name);
+    assertNotNull(name, entry);
+    assertEquals(content.length, entry.getSize());
+    assertEquals(crc(content), entry.getCrc());
+    assertTrue(name, Arrays.equals(content, FileUtil.loadBytes(zip.getInputStream(entry))));
+  }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.java;
+
+import com.intellij.execution.process.BaseOSProcessHandler;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.jps.api.RequestFuture;
+import org.jetbrains.jps.incremental.CompileContext;
+import org.jetbrains.jps.incremental.ProjectBuildException;
+import org.jetbrains.jps.javac.JavacServerClient;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ExternalJavacPoolTest extends TestCase {
+  private final List<TestProcessHandler> myLaunched = new ArrayList<TestProcessHandler>();
+  private volatile boolean myCanceled;
+  private CompileContext myContext;
+  private ExternalJavacPool.WorkerLauncher myLauncher;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myContext = (CompileContext)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{CompileContext.class}, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getName().equals("checkCanceled")) {
+          if (myCanceled) throw new ProjectBuildException("canceled");
+          return null;
+        }
+        throw new UnsupportedOperationException(method.getName());
+      }
+    });
+    myLauncher = new ExternalJavacPool.WorkerLauncher() {
+      @NotNull
+      @Override
+      public ExternalJavacDescriptor launch() {
+        return launchWorker(false);
+      }
+    };
+  }
+
+  public void testWorkersAreLaunchedLazily() throws Exception {
+    ExternalJavacPool pool = new ExternalJavacPool(2);
+    ExternalJavacPool.Worker first = pool.acquire(myContext, myLauncher);
+    assertEquals(1, myLaunched.size());
+    ExternalJavacPool.Worker second = pool.acquire(myContext, myLauncher);
+    assertEquals(2, myLaunched.size());
+    assertNotSame(first, second);
+  }
+
+  public void testWorkersGetConfiguredHeapWithinBudget() {
+    assertEquals(700, ExternalJavacPool.getWorkerHeapSize(2, 700, 0));
+    assertEquals(700, ExternalJavacPool.getWorkerHeapSize(2, 700, 1400));
+    assertEquals(500, ExternalJavacPool.getWorkerHeapSize(2, 700, 1000));
+    assertEquals(64, ExternalJavacPool.getWorkerHeapSize(4, 700, 100));
+  }
+
+  public void testLastReleasedWorkerIsReused() throws Exception {
+    ExternalJavacPool pool = new ExternalJavacPool(2);
+    ExternalJavacPool.Worker first = pool.acquire(myContext, myLauncher);
+    ExternalJavacPool.Worker second = pool.acquire(myContext, myLauncher);
+    pool.release(second);
+    pool.release(first);
+    assertSame(first, pool.acquire(myContext, myLauncher));
+    assertSame(second, pool.acquire(myContext, myLauncher));
+    assertEquals(2, myLaunched.size());
+  }
+
+  public void testAcquireWaitsForReleasedWorker() throws Exception {
+    final ExternalJavacPool pool = new ExternalJavacPool(1);
+    final ExternalJavacPool.Worker worker = pool.acquire(myContext, myLauncher);
+    final AtomicReference<ExternalJavacPool.Worker> acquired = new AtomicReference<ExternalJavacPool.Worker>();
+    final CountDownLatch done = new CountDownLatch(1);
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          acquired.set(pool.acquire(myContext, myLauncher));
+        }
+        catch (Exception ignored) {
+        }
+        finally {
+          done.countDown();
+        }
+      }
+    }).start();
+    assertFalse(done.await(300, TimeUnit.MILLISECONDS));
+    pool.release(worker);
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertSame(worker, acquired.get());
+    assertEquals(1, myLaunched.size());
+  }
+
+  public void testWaitingIsCanceled() throws Exception {
+    ExternalJavacPool pool = new ExternalJavacPool(1);
+    pool.acquire(myContext, myLauncher);
+    myCanceled = true;
+    try {
+      pool.acquire(myContext, myLauncher);
+      fail();
+    }
+    catch (ProjectBuildException ignored) {
+    }
+  }
+
+  public void testFailedLaunchFreesSlot() throws Exception {
+    ExternalJavacPool pool = new ExternalJavacPool(1);
+    try {
+      pool.acquire(myContext, new ExternalJavacPool.WorkerLauncher() {
+        @NotNull
+        @Override
+        public ExternalJavacDescriptor launch() throws Exception {
+          throw new Exception("cannot launch");
+        }
+      });
+      fail();
+    }
+    catch (Exception e) {
+      assertEquals("cannot launch", e.getMessage());
+    }
+    pool.acquire(myContext, myLauncher);
+    assertEquals(1, myLaunched.size());
+  }
+
+  public void testTerminatedWorkerIsRemoved() throws Exception {
+    ExternalJavacPool pool = new ExternalJavacPool(1);
+    ExternalJavacPool.Worker worker = pool.acquire(myContext, myLauncher);
+    myLaunched.get(0).terminate();
+    pool.release(worker);
+    assertNotSame(worker, pool.acquire(myContext, myLauncher));
+    assertEquals(2, myLaunched.size());
+  }
+
+  public void testShutdownStopsAllWorkers() throws Exception {
+    ExternalJavacPool pool = new ExternalJavacPool(3);
+    pool.acquire(myContext, new ExternalJavacPool.WorkerLauncher() {
+      @NotNull
+      @Override
+      public ExternalJavacDescriptor launch() {
+        return launchWorker(true);
+      }
+    });
+    pool.release(pool.acquire(myContext, myLauncher));
+    pool.acquire(myContext, myLauncher);
+    pool.acquire(myContext, myLauncher);
+    assertEquals(3, myLaunched.size());
+
+    pool.shutdown();
+    for (TestProcessHandler handler : myLaunched) {
+      assertTrue(handler.myDestroyed);
+    }
+  }
+
+  private ExternalJavacDescriptor launchWorker(final boolean failOnShutdown) {
+    TestProcessHandler handler = new TestProcessHandler();
+    myLaunched.add(handler);
+    return new ExternalJavacDescriptor(handler, new JavacServerClient() {
+      @Override
+      public RequestFuture sendShutdownRequest() {
+        if (failOnShutdown) {
+          throw new IllegalStateException("connection lost");
+        }
+        return super.sendShutdownRequest();
+      }
+    });
+  }
+
+  private static class TestProcessHandler extends BaseOSProcessHandler {
+    private volatile boolean myTerminated;
+    private volatile boolean myDestroyed;
+
+    private TestProcessHandler() {
+      super(new TestProcess(), null, null);
+    }
+
+    private void terminate() {
+      myTerminated = true;
+    }
+
+    @Override
+    public boolean isProcessTerminated() {
+      return myTerminated;
+    }
+
+    @Override
+    public void destroyProcess() {
+      myDestroyed = true;
+    }
+  }
+
+  private static class TestProcess extends Process {
+    private final CountDownLatch myDestroyed = new CountDownLatch(1);
+
+    @Override
+    public OutputStream getOutputStream() {
+      return new ByteArrayOutputStream();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override
+    public int waitFor() throws InterruptedException {
+      myDestroyed.await();
+      return 0;
+    }
+
+    @Override
+    public int exitValue() {
+      throw new IllegalThreadStateException();
+    }
+
+    @Override
+    public void destroy() {
+      myDestroyed.countDown();
+    }
+  }
+}
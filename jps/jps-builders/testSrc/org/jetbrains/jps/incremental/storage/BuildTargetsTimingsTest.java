@@ -0,0 +1,101 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.storage;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.jps.builders.java.JavaModuleBuildTargetType;
+import org.jetbrains.jps.incremental.ModuleBuildTarget;
+import org.jetbrains.jps.model.JpsJavaModelTestCase;
+import org.jetbrains.jps.model.module.JpsModule;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class BuildTargetsTimingsTest extends JpsJavaModelTestCase {
+  private File myDataStorageRoot;
+  private ModuleBuildTarget myProduction;
+  private ModuleBuildTarget myTests;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    myDataStorageRoot = FileUtil.createTempDirectory("timings", null);
+    JpsModule module = addModule();
+    myProduction = new ModuleBuildTarget(module, JavaModuleBuildTargetType.PRODUCTION);
+    myTests = new ModuleBuildTarget(module, JavaModuleBuildTargetType.TEST);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myDataStorageRoot);
+    super.tearDown();
+  }
+
+  public void testTimingsAreSaved() {
+    BuildTargetsTimings timings = new BuildTargetsTimings(myDataStorageRoot);
+    assertEquals(-1, timings.getTiming(myProduction));
+    timings.setTiming(myProduction, 1500);
+    timings.setTiming(myTests, 0);
+    timings.save();
+
+    timings = new BuildTargetsTimings(myDataStorageRoot);
+    assertEquals(1500, timings.getTiming(myProduction));
+    assertEquals(0, timings.getTiming(myTests));
+  }
+
+  public void testTimingIsOverwritten() {
+    BuildTargetsTimings timings = new BuildTargetsTimings(myDataStorageRoot);
+    timings.setTiming(myProduction, 1500);
+    timings.save();
+    timings.setTiming(myProduction, 700);
+    timings.save();
+    assertEquals(700, new BuildTargetsTimings(myDataStorageRoot).getTiming(myProduction));
+  }
+
+  public void testNothingIsWrittenWithoutChanges() {
+    new BuildTargetsTimings(myDataStorageRoot).save();
+    assertEmpty(myDataStorageRoot.list());
+  }
+
+  public void testTimingsOfOtherVersionAreIgnored() throws IOException {
+    DataOutputStream output = new DataOutputStream(new FileOutputStream(new File(myDataStorageRoot, "targets-timings.dat")));
+    try {
+      output.writeInt(Integer.MAX_VALUE);
+      output.writeInt(1);
+    }
+    finally {
+      output.close();
+    }
+    assertEquals(-1, new BuildTargetsTimings(myDataStorageRoot).getTiming(myProduction));
+  }
+
+  public void testCorruptedTimingsAreIgnored() throws IOException {
+    BuildTargetsTimings timings = new BuildTargetsTimings(myDataStorageRoot);
+    timings.setTiming(myProduction, 1500);
+    timings.setTiming(myTests, 2500);
+    timings.save();
+    File file = new File(myDataStorageRoot, "targets-timings.dat");
+    assertTrue(file.length() > 12);
+    byte[] content = FileUtil.loadFileBytes(file);
+    FileUtil.writeToFile(file, content, 0, content.length - 4);
+
+    timings = new BuildTargetsTimings(myDataStorageRoot);
+    assertEquals(-1, timings.getTiming(myProduction));
+    assertEquals(-1, timings.getTiming(myTests));
+  }
+}
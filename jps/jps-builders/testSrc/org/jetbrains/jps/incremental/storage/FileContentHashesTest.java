@@ -0,0 +1,101 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.storage;
+
+import com.intellij.openapi.util.io.FileUtil;
+import gnu.trove.TObjectLongHashMap;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class FileContentHashesTest extends TestCase {
+  private File myDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("hashes", null);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myDir);
+    super.tearDown();
+  }
+
+  public void testHashDependsOnContentOnly() throws IOException {
+    File a = createFile("a.txt", "class A {}");
+    File b = createFile("b.txt", "class A {}");
+    File c = createFile("c.txt", "class A { }");
+    long hash = FileContentHashes.computeHash(a);
+    assertTrue(hash != FileContentHashes.NO_HASH);
+    assertEquals(hash, FileContentHashes.computeHash(b));
+    assertFalse(hash == FileContentHashes.computeHash(c));
+    assertTrue(a.setLastModified(a.lastModified() + 10000));
+    assertEquals(hash, FileContentHashes.computeHash(a));
+  }
+
+  public void testMissingFileHasNoHash() {
+    TObjectLongHashMap<File> hashes = FileContentHashes.computeHashes(Collections.singletonList(new File(myDir, "missing.txt")));
+    assertEquals(FileContentHashes.NO_HASH, hashes.get(new File(myDir, "missing.txt")));
+  }
+
+  public void testHashesInParallel() throws IOException {
+    List<File> files = createFiles(50);
+    files.add(new File(myDir, "missing.txt"));
+    TObjectLongHashMap<File> hashes = FileContentHashes.computeHashes(files);
+    assertEquals(files.size(), hashes.size());
+    for (File file : files) {
+      assertEquals(file.exists() ? FileContentHashes.computeHash(file) : FileContentHashes.NO_HASH, hashes.get(file));
+    }
+  }
+
+  public void testInterruptionIsKept() throws IOException {
+    List<File> files = createFiles(50);
+    Thread.currentThread().interrupt();
+    TObjectLongHashMap<File> hashes;
+    try {
+      hashes = FileContentHashes.computeHashes(files);
+    }
+    finally {
+      assertTrue(Thread.interrupted());
+    }
+    assertEquals(files.size(), hashes.size());
+    for (File file : files) {
+      // some files may be hashed before the interruption is noticed
+      long hash = hashes.get(file);
+      assertTrue(hash == FileContentHashes.NO_HASH || hash == FileContentHashes.computeHash(file));
+    }
+  }
+
+  private List<File> createFiles(int count) throws IOException {
+    List<File> files = new ArrayList<File>();
+    for (int i = 0; i < count; i++) {
+      files.add(createFile("f" + i + ".txt", "content " + i));
+    }
+    return files;
+  }
+
+  private File createFile(String name, String content) throws IOException {
+    File file = new File(myDir, name);
+    FileUtil.writeToFile(file, content);
+    return file;
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.storage;
+
+import junit.framework.TestCase;
+
+import java.io.*;
+
+public class TimestampStorageTest extends TestCase {
+  private final TimestampStorage.StateExternalizer myExternalizer = new TimestampStorage.StateExternalizer();
+
+  public void testStateWithoutHashesHasNoOverhead() throws IOException {
+    byte[] bytes = save(new TimestampStorage.TimestampPerTarget(1, 100L), new TimestampStorage.TimestampPerTarget(2, 200L));
+    assertEquals(4 + 2 * (4 + 8), bytes.length);
+
+    TimestampStorage.TimestampPerTarget[] state = read(bytes);
+    assertEquals(2, state.length);
+    assertState(state[0], 1, 100L, FileContentHashes.NO_HASH);
+    assertState(state[1], 2, 200L, FileContentHashes.NO_HASH);
+  }
+
+  public void testStateWithHashes() throws IOException {
+    byte[] bytes = save(new TimestampStorage.TimestampPerTarget(1, 100L, 12345L), new TimestampStorage.TimestampPerTarget(2, 200L));
+    assertEquals(4 + 2 * (4 + 8 + 8), bytes.length);
+
+    TimestampStorage.TimestampPerTarget[] state = read(bytes);
+    assertEquals(2, state.length);
+    assertState(state[0], 1, 100L, 12345L);
+    assertState(state[1], 2, 200L, FileContentHashes.NO_HASH);
+  }
+
+  private byte[] save(TimestampStorage.TimestampPerTarget... state) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(bytes);
+    myExternalizer.save(output, state);
+    output.close();
+    return bytes.toByteArray();
+  }
+
+  private TimestampStorage.TimestampPerTarget[] read(byte[] bytes) throws IOException {
+    DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+    TimestampStorage.TimestampPerTarget[] state = myExternalizer.read(input);
+    assertEquals(0, input.available());
+    return state;
+  }
+
+  private static void assertState(TimestampStorage.TimestampPerTarget state, int targetId, long timestamp, long contentHash) {
+    assertEquals(targetId, state.targetId);
+    assertEquals(timestamp, state.timestamp);
+    assertEquals(contentHash, state.contentHash);
+  }
+}
@@ -55,21 +55,24 @@ public class LightStubBuilder implements StubBuilder {
       return null;
     }
 
+    final LighterAST tree = buildLighterAST(file, (ILightStubFileElementType)contentType);
+    final StubElement rootStub = createStubForFile(file, tree);
+    buildStubTree(tree, tree.getRoot(), rootStub);
+    return rootStub;
+  }
+
+  /**
+   * @return light tree of the file, which is parsed without building AST if it's not loaded yet
+   */
+  @NotNull
+  public static LighterAST buildLighterAST(@NotNull PsiFile file, @NotNull ILightStubFileElementType<?> type) {
     final FileASTNode node = file.getNode();
     assert node != null : file;
 
-    final LighterAST tree;
     if (!node.isParsed()) {
-      final ILightStubFileElementType<?> type = (ILightStubFileElementType)contentType;
-      tree = new FCTSBackedLighterAST(node.getCharTable(), type.parseContentsLight(node));
-    }
-    else {
-      tree = new TreeBackedLighterAST(node);
+      return new FCTSBackedLighterAST(node.getCharTable(), type.parseContentsLight(node));
     }
-
-    final StubElement rootStub = createStubForFile(file, tree);
-    buildStubTree(tree, tree.getRoot(), rootStub);
-    return rootStub;
+    return new TreeBackedLighterAST(node);
   }
 
   @NotNull
@@ -70,6 +70,12 @@ public class PsiManagerImpl extends PsiManagerEx {
   private static final Key<PsiFile> CACHED_PSI_FILE_COPY_IN_FILECONTENT = Key.create("CACHED_PSI_FILE_COPY_IN_FILECONTENT");
   public static final Topic<AnyPsiChangeListener> ANY_PSI_CHANGE_TOPIC =
     Topic.create("ANY_PSI_CHANGE_TOPIC", AnyPsiChangeListener.class, Topic.BroadcastDirection.TO_PARENT);
+  /**
+   * Published right before {@link #ANY_PSI_CHANGE_TOPIC} when the change is a modification of a file's PSI tree
+   * rather than an external event invalidating all PSI-dependent caches
+   */
+  public static final Topic<PsiTreeChangeStartListener> PSI_TREE_CHANGE_START_TOPIC =
+    Topic.create("PSI_TREE_CHANGE_START_TOPIC", PsiTreeChangeStartListener.class, Topic.BroadcastDirection.TO_PARENT);
 
   public PsiManagerImpl(Project project,
                         FileDocumentManager fileDocumentManager,
@@ -248,7 +254,7 @@ public class PsiManagerImpl extends PsiManagerEx {
 
   @Override
   public void beforeChildAddition(@NotNull PsiTreeChangeEventImpl event) {
-    beforeChange(true);
+    beforeTreeChange(event);
     event.setCode(PsiTreeChangeEventImpl.PsiEventType.BEFORE_CHILD_ADDITION);
     if (LOG.isDebugEnabled()) {
       LOG.debug(
@@ -260,7 +266,7 @@ public class PsiManagerImpl extends PsiManagerEx {
 
   @Override
   public void beforeChildRemoval(@NotNull PsiTreeChangeEventImpl event) {
-    beforeChange(true);
+    beforeTreeChange(event);
     event.setCode(PsiTreeChangeEventImpl.PsiEventType.BEFORE_CHILD_REMOVAL);
     if (LOG.isDebugEnabled()) {
       LOG.debug(
@@ -273,7 +279,7 @@ public class PsiManagerImpl extends PsiManagerEx {
 
   @Override
   public void beforeChildReplacement(@NotNull PsiTreeChangeEventImpl event) {
-    beforeChange(true);
+    beforeTreeChange(event);
     event.setCode(PsiTreeChangeEventImpl.PsiEventType.BEFORE_CHILD_REPLACEMENT);
     if (LOG.isDebugEnabled()) {
       LOG.debug(
@@ -285,7 +291,7 @@ public class PsiManagerImpl extends PsiManagerEx {
   }
 
   public void beforeChildrenChange(PsiTreeChangeEventImpl event) {
-    beforeChange(true);
+    beforeTreeChange(event);
     event.setCode(PsiTreeChangeEventImpl.PsiEventType.BEFORE_CHILDREN_CHANGE);
     if (LOG.isDebugEnabled()) {
       LOG.debug("beforeChildrenChange: parent = " + event.getParent());
@@ -294,7 +300,7 @@ public class PsiManagerImpl extends PsiManagerEx {
   }
 
   public void beforeChildMovement(PsiTreeChangeEventImpl event) {
-    beforeChange(true);
+    beforeTreeChange(event);
     event.setCode(PsiTreeChangeEventImpl.PsiEventType.BEFORE_CHILD_MOVEMENT);
     if (LOG.isDebugEnabled()) {
       LOG.debug(
@@ -307,7 +313,7 @@ public class PsiManagerImpl extends PsiManagerEx {
   }
 
   public void beforePropertyChange(PsiTreeChangeEventImpl event) {
-    beforeChange(true);
+    beforeTreeChange(event);
     event.setCode(PsiTreeChangeEventImpl.PsiEventType.BEFORE_PROPERTY_CHANGE);
     if (LOG.isDebugEnabled()) {
       LOG.debug(
@@ -520,6 +526,11 @@ public class PsiManagerImpl extends PsiManagerEx {
     });
   }
 
+  private void beforeTreeChange(@NotNull PsiTreeChangeEventImpl event) {
+    myMessageBus.syncPublisher(PSI_TREE_CHANGE_START_TOPIC).beforePsiTreeChanged(event);
+    beforeChange(true);
+  }
+
   @Override
   public void beforeChange(boolean isPhysical) {
     myMessageBus.syncPublisher(ANY_PSI_CHANGE_TOPIC).beforePsiChanged(isPhysical);
@@ -33,6 +33,7 @@ public class PsiModificationTrackerImpl implements PsiModificationTracker, PsiTr
   private final AtomicLong myModificationCount = new AtomicLong(0);
   private final AtomicLong myOutOfCodeBlockModificationCount = new AtomicLong(0);
   private final AtomicLong myJavaStructureModificationCount = new AtomicLong(0);
+  private volatile boolean myCodeBlockChangesTracked;
   private final Listener myPublisher;
 
   public PsiModificationTrackerImpl(Project project) {
@@ -68,6 +69,18 @@ public class PsiModificationTrackerImpl implements PsiModificationTracker, PsiTr
     myPublisher.modificationCountChanged();
   }
 
+  /**
+   * Called by tree change preprocessors which increment the out-of-code-block counter for every change that may affect
+   * other files, so that caches may survive changes inside code blocks of files they don't depend on
+   */
+  public void setCodeBlockChangesTracked() {
+    myCodeBlockChangesTracked = true;
+  }
+
+  public boolean areCodeBlockChangesTracked() {
+    return myCodeBlockChangesTracked;
+  }
+
   @Override
   public void treeChanged(@NotNull PsiTreeChangeEventImpl event) {
     myModificationCount.getAndIncrement();
@@ -25,6 +25,10 @@ import com.intellij.openapi.util.*;
 import com.intellij.psi.*;
 import com.intellij.psi.impl.AnyPsiChangeListener;
 import com.intellij.psi.impl.PsiManagerImpl;
+import com.intellij.psi.impl.PsiModificationTrackerImpl;
+import com.intellij.psi.impl.PsiTreeChangeEventImpl;
+import com.intellij.psi.impl.PsiTreeChangeStartListener;
+import com.intellij.psi.util.PsiModificationTracker;
 import com.intellij.reference.SoftReference;
 import com.intellij.util.ConcurrencyUtil;
 import com.intellij.util.containers.ConcurrentWeakHashMap;
@@ -36,10 +40,25 @@ import org.jetbrains.annotations.Nullable;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 
+/**
+ * When the modification tracker reports changes outside of code blocks (see {@link PsiModificationTrackerImpl#areCodeBlockChangesTracked()}),
+ * physical PSI changes don't wipe the cache: results of physical references are tagged with the modification stamp of their file,
+ * so a change inside a code block invalidates only resolve results of the changed file, and the whole cache is dropped
+ * when the out-of-code-block modification counter changes.
+ */
 public class ResolveCache {
   private static final Logger LOG = Logger.getInstance("#com.intellij.psi.impl.source.resolve.ResolveCache");
   private final ConcurrentMap[] myMaps = new ConcurrentMap[2*2*2]; //boolean physical, boolean incompleteCode, boolean isPoly
   private final RecursionGuard myGuard = RecursionManager.createGuard("resolveCache");
+  @Nullable private final PsiModificationTrackerImpl myModificationTracker;
+  private volatile long myLastOutOfCodeBlockModificationCount = -1;
+  private boolean myTreeChangeStarted;
+
+  // approximate statistics, updated without synchronization
+  private volatile long myHits;
+  private volatile long myMisses;
+  private volatile long myFileInvalidations;
+  private volatile long myClears;
 
   public static ResolveCache getInstance(Project project) {
     ProgressIndicatorProvider.checkCanceled(); // We hope this method is being called often enough to cancel daemon processes smoothly
@@ -59,13 +78,33 @@ public class ResolveCache {
   }
 
   public ResolveCache(@NotNull MessageBus messageBus) {
+    this(messageBus, null);
+  }
+
+  public ResolveCache(@NotNull MessageBus messageBus, @Nullable PsiModificationTracker modificationTracker) {
+    myModificationTracker = modificationTracker instanceof PsiModificationTrackerImpl ? (PsiModificationTrackerImpl)modificationTracker : null;
     for (int i = 0; i < myMaps.length; i++) {
       myMaps[i] = createWeakMap();
     }
+    messageBus.connect().subscribe(PsiManagerImpl.PSI_TREE_CHANGE_START_TOPIC, new PsiTreeChangeStartListener() {
+      @Override
+      public void beforePsiTreeChanged(@NotNull PsiTreeChangeEventImpl event) {
+        myTreeChangeStarted = true;
+      }
+    });
     messageBus.connect().subscribe(PsiManagerImpl.ANY_PSI_CHANGE_TOPIC, new AnyPsiChangeListener() {
       @Override
       public void beforePsiChanged(boolean isPhysical) {
-        clearCache(isPhysical);
+        boolean treeChange = myTreeChangeStarted;
+        myTreeChangeStarted = false;
+        if (isPhysical && treeChange && isScopedInvalidationEnabled()) {
+          // physical results are checked against file stamps and the out-of-code-block counter on access,
+          // non-physical copies may depend on any physical file
+          clearCache(false);
+        }
+        else {
+          clearCache(isPhysical);
+        }
       }
 
       @Override
@@ -81,6 +120,52 @@ public class ResolveCache {
   public void clearCache(boolean isPhysical) {
     int startIndex = isPhysical ? 0 : 1;
     for (int i=startIndex;i<2;i++)for (int j=0;j<2;j++)for (int k=0;k<2;k++) myMaps[i*4+j*2+k].clear();
+    myClears++;
+  }
+
+  private boolean isScopedInvalidationEnabled() {
+    return myModificationTracker != null && myModificationTracker.areCodeBlockChangesTracked();
+  }
+
+  private void checkOutOfCodeBlockModifications() {
+    if (!isScopedInvalidationEnabled()) return;
+    //noinspection ConstantConditions
+    long count = myModificationTracker.getOutOfCodeBlockModificationCount();
+    if (count != myLastOutOfCodeBlockModificationCount) {
+      clearCache(true);
+      myLastOutOfCodeBlockModificationCount = count;
+    }
+  }
+
+  private static long getModificationStamp(@Nullable PsiFile file) {
+    if (file == null) return -1;
+    FileViewProvider viewProvider = file.getViewProvider();
+    if (viewProvider.getAllFiles().size() == 1) return file.getModificationStamp();
+    // references in one root of a multi-root file may depend on the other roots
+    long stamp = 0;
+    for (PsiFile root : viewProvider.getAllFiles()) {
+      stamp += root.getModificationStamp();
+    }
+    return stamp;
+  }
+
+  @Nullable
+  private <TResult> Getter<TResult> getValid(@NotNull ConcurrentMap<?, Getter<TResult>> map, @NotNull Object ref, long fileStamp) {
+    Getter<TResult> cached = map.get(ref);
+    if (cached instanceof StampedGetter && ((StampedGetter)cached).myFileStamp != fileStamp) {
+      map.remove(ref, cached);
+      myFileInvalidations++;
+      return null;
+    }
+    return cached;
+  }
+
+  /**
+   * @return hits, misses and invalidations counted since the cache was created, for diagnostic purposes
+   */
+  @NotNull
+  public String getStatistics() {
+    return "hits: " + myHits + ", misses: " + myMisses + ", invalidated by file changes: " + myFileInvalidations + ", clears: " + myClears;
   }
 
   @Nullable
@@ -89,16 +174,25 @@ public class ResolveCache {
                                                                boolean needToPreventRecursion,
                                                                final boolean incompleteCode,
                                                                boolean isPoly,
-                                                               boolean isPhysical) {
+                                                               boolean isPhysical,
+                                                               @Nullable PsiFile containingFile) {
     ProgressIndicatorProvider.checkCanceled();
     ApplicationManager.getApplication().assertReadAccessAllowed();
 
+    boolean scoped = isPhysical && isScopedInvalidationEnabled();
+    long fileStamp = -1;
+    if (scoped) {
+      checkOutOfCodeBlockModifications();
+      fileStamp = getModificationStamp(containingFile);
+    }
     ConcurrentMap<TRef, Getter<TResult>> map = getMap(isPhysical, incompleteCode, isPoly);
-    Getter<TResult> reference = map.get(ref);
+    Getter<TResult> reference = getValid(map, ref, fileStamp);
     TResult result = reference == null ? null : reference.get();
     if (result != null) {
+      myHits++;
       return result;
     }
+    myMisses++;
 
     RecursionGuard.StackStamp stamp = myGuard.markStack();
     result = needToPreventRecursion ? myGuard.doPreventingRecursion(Trinity.create(ref, incompleteCode, isPoly), true, new Computable<TResult>() {
@@ -111,7 +205,7 @@ public class ResolveCache {
     LOG.assertTrue(element == null || element.isValid(), result);
 
     if (stamp.mayCacheNow()) {
-      cache(ref, map, result, isPoly);
+      cache(ref, map, result, isPoly, scoped ? fileStamp : null);
     }
     return result;
   }
@@ -129,13 +223,18 @@ public class ResolveCache {
                                                                                 boolean needToPreventRecursion,
                                                                                 boolean incompleteCode,
                                                                                 @NotNull PsiFile containingFile) {
-    ResolveResult[] result = resolve(ref, resolver, needToPreventRecursion, incompleteCode, true, containingFile.isPhysical());
+    ResolveResult[] result = resolve(ref, resolver, needToPreventRecursion, incompleteCode, true, containingFile.isPhysical(), containingFile);
     return result == null ? ResolveResult.EMPTY_ARRAY : result;
   }
 
   public <T extends PsiPolyVariantReference> boolean isCached(@NotNull T ref, boolean physical, boolean incompleteCode, boolean isPoly) {
-    Map<T, Getter<ResolveResult[]>> map = getMap(physical, incompleteCode, isPoly);
-    Getter<ResolveResult[]> reference = map.get(ref);
+    long fileStamp = -1;
+    if (physical && isScopedInvalidationEnabled()) {
+      checkOutOfCodeBlockModifications();
+      fileStamp = getModificationStamp(ref.getElement().getContainingFile());
+    }
+    ConcurrentMap<T, Getter<ResolveResult[]>> map = getMap(physical, incompleteCode, isPoly);
+    Getter<ResolveResult[]> reference = getValid(map, ref, fileStamp);
     return reference != null && reference.get() != null;
   }
 
@@ -143,7 +242,8 @@ public class ResolveCache {
                                        @NotNull Resolver resolver,
                                        boolean needToPreventRecursion,
                                        boolean incompleteCode) {
-    return resolve(ref, resolver, needToPreventRecursion, incompleteCode, false, ref.getElement().isPhysical());
+    PsiElement element = ref.getElement();
+    return resolve(ref, resolver, needToPreventRecursion, incompleteCode, false, element.isPhysical(), element.getContainingFile());
   }
 
   @Nullable
@@ -151,7 +251,8 @@ public class ResolveCache {
                                        @NotNull AbstractResolver<TRef, TResult> resolver,
                                        boolean needToPreventRecursion,
                                        boolean incompleteCode) {
-    return resolve(ref, resolver, needToPreventRecursion, incompleteCode, false, ref.getElement().isPhysical());
+    PsiElement element = ref.getElement();
+    return resolve(ref, resolver, needToPreventRecursion, incompleteCode, false, element.isPhysical(), element.getContainingFile());
   }
 
   private <TRef extends PsiReference,TResult> ConcurrentMap<TRef, Getter<TResult>> getMap(boolean physical, boolean incompleteCode, boolean isPoly) {
@@ -164,15 +265,31 @@ public class ResolveCache {
       super(referent);
     }
   }
+  private static class StampedGetter<T> implements Getter<T> {
+    private final Getter<T> myDelegate;
+    private final long myFileStamp;
+
+    private StampedGetter(@NotNull Getter<T> delegate, long fileStamp) {
+      myDelegate = delegate;
+      myFileStamp = fileStamp;
+    }
+
+    @Override
+    public T get() {
+      return myDelegate.get();
+    }
+  }
   private static final Getter<ResolveResult[]> EMPTY_POLY_RESULT = new StaticGetter<ResolveResult[]>(ResolveResult.EMPTY_ARRAY);
   private static final Getter<Object> NULL_RESULT = new StaticGetter<Object>(null);
   private static <TRef extends PsiReference, TResult> void cache(@NotNull TRef ref,
                                                                  @NotNull ConcurrentMap<TRef, Getter<TResult>> map,
                                                                  TResult result,
-                                                                 boolean isPoly) {
+                                                                 boolean isPoly,
+                                                                 @Nullable Long fileStamp) {
     // optimization: less contention
     Getter<TResult> cached = map.get(ref);
-    if (cached != null && cached.get() == result) {
+    if (cached != null && cached.get() == result &&
+        (fileStamp == null || cached instanceof StampedGetter && ((StampedGetter)cached).myFileStamp == fileStamp.longValue())) {
       return;
     }
     if (result == null) {
@@ -188,6 +305,12 @@ public class ResolveCache {
     else {
       cached = new SoftGetter<TResult>(result);
     }
-    ConcurrencyUtil.cacheOrGet(map, ref, cached);
+    if (fileStamp != null) {
+      // replaces a result computed for a previous version of the file
+      map.put(ref, new StampedGetter<TResult>(cached, fileStamp));
+    }
+    else {
+      ConcurrencyUtil.cacheOrGet(map, ref, cached);
+    }
   }
 }
@@ -24,30 +24,33 @@ import com.intellij.notification.Notification;
 import com.intellij.notification.NotificationListener;
 import com.intellij.notification.NotificationType;
 import com.intellij.notification.Notifications;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.PathManager;
-import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.openapi.util.io.ByteSequence;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.newvfs.ManagingFS;
 import com.intellij.util.Consumer;
-import com.intellij.util.io.storage.AbstractStorage;
 import gnu.trove.TIntHashSet;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.event.HyperlinkEvent;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.MessageFormat;
 
 public class ChangeListStorageImpl implements ChangeListStorage {
-  private static final int VERSION = 5;
+  private static final int VERSION = 6;
   private static final String STORAGE_FILE = "changes";
 
   private final File myStorageDir;
-  private LocalHistoryStorage myStorage;
+  private SegmentedLocalHistoryStorage myStorage;
   private long myLastId;
+  private boolean myCompactionScheduled;
 
   private boolean isCompletelyBroken = false;
 
@@ -57,9 +60,7 @@ public class ChangeListStorageImpl implements ChangeListStorage {
   }
 
   private synchronized void initStorage(File storageDir) throws IOException {
-    String path = storageDir.getPath() + "/" + STORAGE_FILE;
-
-    LocalHistoryStorage result = new LocalHistoryStorage(path);
+    SegmentedLocalHistoryStorage result = new SegmentedLocalHistoryStorage(storageDir, STORAGE_FILE);
 
     long fsTimestamp = getVFSTimestamp();
 
@@ -76,13 +77,40 @@ public class ChangeListStorageImpl implements ChangeListStorage {
       if (!FileUtil.delete(storageDir)) {
         throw new IOException("cannot clear storage dir: " + storageDir);
       }
-      result = new LocalHistoryStorage(path);
+      result = new SegmentedLocalHistoryStorage(storageDir, STORAGE_FILE);
       result.setVersion(VERSION);
       result.setFSTimestamp(fsTimestamp);
     }
 
     myLastId = result.getLastId();
     myStorage = result;
+
+    compactIfNeeded();
+  }
+
+  /**
+   * Compaction becomes needed once a new segment is started or records are purged, it's checked after both
+   */
+  private void compactIfNeeded() {
+    if (myCompactionScheduled || !myStorage.isCompactionNeeded()) return;
+    myCompactionScheduled = true;
+    final SegmentedLocalHistoryStorage storage = myStorage;
+    ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          storage.compact();
+        }
+        catch (IOException e) {
+          LocalHistoryLog.LOG.warn("cannot compact local history", e);
+        }
+        finally {
+          synchronized (ChangeListStorageImpl.this) {
+            myCompactionScheduled = false;
+          }
+        }
+      }
+    });
   }
 
   private static long getVFSTimestamp() {
@@ -172,15 +200,13 @@ public class ChangeListStorageImpl implements ChangeListStorage {
       String message = null;
       if (prevId != 0) {
         try {
-          Pair<Long, Integer> prevOS = myStorage.getOffsetAndSize(prevId);
           long prevRecordTimestamp = myStorage.getTimestamp(prevId);
           int lastRecord = myStorage.getLastRecord();
-          Pair<Long, Integer> lastOS = myStorage.getOffsetAndSize(lastRecord);
           long lastRecordTimestamp = myStorage.getTimestamp(lastRecord);
 
-          message = "invalid record is: " + prevId + " offset: " + prevOS.first + " size: " + prevOS.second
+          message = "invalid record is: " + prevId + " " + myStorage.getRecordInfo(prevId)
                     + " (created " + DateFormat.getDateTimeInstance().format(prevRecordTimestamp) + ") "
-                    + "last record is: " + lastRecord + " offset: " + lastOS.first + " size: " + lastOS.second
+                    + "last record is: " + lastRecord + " " + myStorage.getRecordInfo(lastRecord)
                     + " (created " + DateFormat.getDateTimeInstance().format(lastRecordTimestamp) + ")";
         }
         catch (Exception e1) {
@@ -208,15 +234,17 @@ public class ChangeListStorageImpl implements ChangeListStorage {
     if (isCompletelyBroken) return;
 
     try {
-      AbstractStorage.StorageDataOutput out = myStorage.writeStream(myStorage.createNextRecord(), true);
+      BufferExposingByteArrayOutputStream bytes = new BufferExposingByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
       try {
         changeSet.write(out);
       }
       finally {
         out.close();
       }
+      myStorage.appendRecord(new ByteSequence(bytes.getInternalBuffer(), 0, bytes.size()));
       myStorage.setLastId(myLastId);
-      myStorage.force();
+      compactIfNeeded();
     }
     catch (IOException e) {
       handleError(e, null);
@@ -240,6 +268,7 @@ public class ChangeListStorageImpl implements ChangeListStorage {
       }
       myStorage.deleteRecordsUpTo(firstObsoleteId);
       myStorage.force();
+      compactIfNeeded();
     }
     catch (IOException e) {
       handleError(e, null);
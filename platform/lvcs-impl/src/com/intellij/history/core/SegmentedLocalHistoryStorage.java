@@ -0,0 +1,588 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.history.core;
+
+import com.intellij.history.utils.LocalHistoryLog;
+import com.intellij.openapi.util.Clock;
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.openapi.util.io.ByteSequence;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.UnsyncByteArrayInputStream;
+import gnu.trove.TLongArrayList;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Append-only log of records split into segment files of limited size.
+ * <p/>
+ * Records are numbered consecutively and written deflated, together with their creation time. The first live record is
+ * kept in the meta file, so deleting old records only moves it and removes the segments left without live records,
+ * nothing is rewritten. The dead records at the start of the first segment are dropped by {@link #compact()}, which
+ * copies the live ones without holding the lock, since segments are not written once the next one is started.
+ * <p/>
+ * Records are written to the files directly; {@link #force()} only makes them durable. A segment is forced when the next
+ * one is started, the others on {@link #force()} and {@link #dispose()}.
+ */
+public class SegmentedLocalHistoryStorage {
+  private static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+  private static final String META_EXTENSION = ".meta";
+  private static final String SEGMENT_EXTENSION = ".segment";
+  private static final String TEMP_EXTENSION = ".tmp";
+
+  private static final int VERSION_OFFSET = 0;
+  private static final int FS_TIMESTAMP_OFFSET = VERSION_OFFSET + 4;
+  private static final int LAST_ID_OFFSET = FS_TIMESTAMP_OFFSET + 8;
+  private static final int FIRST_RECORD_OFFSET = LAST_ID_OFFSET + 8;
+  private static final int META_SIZE = FIRST_RECORD_OFFSET + 4;
+
+  // record id, timestamp and size of the deflated data
+  private static final int RECORD_HEADER_SIZE = 4 + 8 + 4;
+
+  private final Object myLock = new Object();
+  private final File myDir;
+  private final String myName;
+  private final int mySegmentSize;
+  private final RandomAccessFile myMeta;
+  // ordered by the first record, the last one is being written
+  private final List<Segment> mySegments = new ArrayList<Segment>();
+  private int myFirstRecord;
+  @Nullable private RandomAccessFile myWriter;
+  @Nullable private Segment myReaderSegment;
+  @Nullable private RandomAccessFile myReader;
+  private boolean myDisposed;
+
+  public SegmentedLocalHistoryStorage(File dir, String name) throws IOException {
+    this(dir, name, DEFAULT_SEGMENT_SIZE);
+  }
+
+  public SegmentedLocalHistoryStorage(File dir, String name, int segmentSize) throws IOException {
+    myDir = dir;
+    myName = name;
+    mySegmentSize = segmentSize;
+    if (!myDir.isDirectory() && !myDir.mkdirs()) {
+      throw new IOException("cannot create storage dir: " + myDir);
+    }
+
+    myMeta = new RandomAccessFile(new File(myDir, myName + META_EXTENSION), "rw");
+    try {
+      if (myMeta.length() < META_SIZE) {
+        myMeta.setLength(META_SIZE);
+      }
+      myMeta.seek(FIRST_RECORD_OFFSET);
+      myFirstRecord = Math.max(1, myMeta.readInt());
+      loadSegments();
+    }
+    catch (IOException e) {
+      closeFiles();
+      throw e;
+    }
+  }
+
+  private void loadSegments() throws IOException {
+    final TreeMap<Integer, File> files = new TreeMap<Integer, File>();
+    final File[] children = myDir.listFiles();
+    if (children != null) {
+      for (File each : children) {
+        final String fileName = each.getName();
+        if (!fileName.startsWith(myName + ".")) continue;
+        if (fileName.endsWith(TEMP_EXTENSION)) {
+          FileUtil.delete(each);
+          continue;
+        }
+        if (!fileName.endsWith(SEGMENT_EXTENSION)) continue;
+        try {
+          files.put(Integer.parseInt(fileName.substring(myName.length() + 1, fileName.length() - SEGMENT_EXTENSION.length())), each);
+        }
+        catch (NumberFormatException e) {
+          FileUtil.delete(each);
+        }
+      }
+    }
+
+    // the first live record is in the last of the segments starting before it, the others are obsolete,
+    // or were replaced by their compacted copy
+    final Integer start = files.floorKey(myFirstRecord);
+    if (start == null && !files.isEmpty()) {
+      myFirstRecord = files.firstKey();
+    }
+    for (Map.Entry<Integer, File> each : files.entrySet()) {
+      final int firstRecord = each.getKey();
+      final File file = each.getValue();
+      if (start != null && firstRecord < start) {
+        FileUtil.delete(file);
+        continue;
+      }
+      final Segment last = getLastSegment();
+      if (last != null && (last.myLength < last.myFile.length() || firstRecord != last.getLastRecord() + 1)) {
+        LocalHistoryLog.LOG.info("Local history segments " + last.myFile.getName() + " and " + file.getName() +
+                                 " are not consecutive, dropping the latter records");
+        FileUtil.delete(file);
+        continue;
+      }
+      mySegments.add(loadSegment(file, firstRecord));
+    }
+    deleteObsoleteSegments();
+
+    final Segment last = getLastSegment();
+    if (last != null) {
+      myWriter = new RandomAccessFile(last.myFile, "rw");
+      // drops the incomplete record written on a crash, if any
+      myWriter.setLength(last.myLength);
+    }
+  }
+
+  private static Segment loadSegment(File file, int firstRecord) throws IOException {
+    final Segment result = new Segment(file, firstRecord);
+    final long length = file.length();
+    final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      long offset = 0;
+      while (offset + RECORD_HEADER_SIZE <= length) {
+        final int record = in.readInt();
+        final long timestamp = in.readLong();
+        final int size = in.readInt();
+        if (record != result.getLastRecord() + 1 || size < 0 || offset + RECORD_HEADER_SIZE + size > length) break;
+        if (in.skipBytes(size) != size) break;
+        result.add(offset, timestamp);
+        offset += RECORD_HEADER_SIZE + size;
+      }
+      result.myLength = offset;
+    }
+    finally {
+      in.close();
+    }
+    return result;
+  }
+
+  public int getVersion() throws IOException {
+    synchronized (myLock) {
+      myMeta.seek(VERSION_OFFSET);
+      return myMeta.readInt();
+    }
+  }
+
+  public void setVersion(int version) throws IOException {
+    synchronized (myLock) {
+      myMeta.seek(VERSION_OFFSET);
+      myMeta.writeInt(version);
+    }
+  }
+
+  public long getFSTimestamp() throws IOException {
+    synchronized (myLock) {
+      myMeta.seek(FS_TIMESTAMP_OFFSET);
+      return myMeta.readLong();
+    }
+  }
+
+  public void setFSTimestamp(long timestamp) throws IOException {
+    synchronized (myLock) {
+      myMeta.seek(FS_TIMESTAMP_OFFSET);
+      myMeta.writeLong(timestamp);
+    }
+  }
+
+  public long getLastId() throws IOException {
+    synchronized (myLock) {
+      myMeta.seek(LAST_ID_OFFSET);
+      return myMeta.readLong();
+    }
+  }
+
+  public void setLastId(long lastId) throws IOException {
+    synchronized (myLock) {
+      myMeta.seek(LAST_ID_OFFSET);
+      myMeta.writeLong(lastId);
+    }
+  }
+
+  public int getFirstRecord() {
+    synchronized (myLock) {
+      return getLastRecord() == 0 ? 0 : myFirstRecord;
+    }
+  }
+
+  public int getLastRecord() {
+    synchronized (myLock) {
+      final Segment last = getLastSegment();
+      return last == null || last.getLastRecord() < myFirstRecord ? 0 : last.getLastRecord();
+    }
+  }
+
+  public int getPrevRecord(int record) {
+    synchronized (myLock) {
+      return record > myFirstRecord && record <= getLastRecord() ? record - 1 : 0;
+    }
+  }
+
+  public int getNextRecord(int record) {
+    synchronized (myLock) {
+      return record >= myFirstRecord && record < getLastRecord() ? record + 1 : 0;
+    }
+  }
+
+  public long getTimestamp(int record) throws IOException {
+    synchronized (myLock) {
+      final Segment segment = getSegment(record);
+      return segment.myTimestamps.get(record - segment.myFirstRecord);
+    }
+  }
+
+  /**
+   * @return description of the place of the record, for diagnostics
+   */
+  public String getRecordInfo(int record) {
+    synchronized (myLock) {
+      final Segment segment = findSegment(record);
+      if (segment == null) return "record " + record + " is not stored";
+      final int index = record - segment.myFirstRecord;
+      final long next = index + 1 < segment.myOffsets.size() ? segment.myOffsets.get(index + 1) : segment.myLength;
+      return "segment: " + segment.myFile.getName() + " offset: " + segment.myOffsets.get(index) +
+             " size: " + (next - segment.myOffsets.get(index));
+    }
+  }
+
+  /**
+   * @return size of all the segment files
+   */
+  public long getStorageSize() {
+    synchronized (myLock) {
+      long result = 0;
+      for (Segment each : mySegments) {
+        result += each.myLength;
+      }
+      return result;
+    }
+  }
+
+  public DataInputStream readStream(int record) throws IOException {
+    synchronized (myLock) {
+      final Segment segment = getSegment(record);
+      final RandomAccessFile file = getFileToRead(segment);
+      file.seek(segment.myOffsets.get(record - segment.myFirstRecord));
+      if (file.readInt() != record) throw new IOException("record " + record + " is broken in " + segment.myFile.getName());
+      file.readLong();
+      final byte[] bytes = new byte[file.readInt()];
+      file.readFully(bytes);
+      return new DataInputStream(new UnsyncByteArrayInputStream(inflate(bytes)));
+    }
+  }
+
+  /**
+   * @return id of the new record
+   */
+  public int appendRecord(ByteSequence bytes) throws IOException {
+    final byte[] data = deflate(bytes);
+    synchronized (myLock) {
+      if (myDisposed) throw new IOException("storage is disposed");
+
+      Segment segment = getLastSegment();
+      if (segment == null) {
+        segment = startSegment(myFirstRecord);
+      }
+      else if (segment.myLength > 0 && segment.myLength + RECORD_HEADER_SIZE + data.length > mySegmentSize) {
+        segment = startSegment(segment.getLastRecord() + 1);
+      }
+
+      final int record = segment.getLastRecord() + 1;
+      final long timestamp = Clock.getTime();
+      final BufferExposingByteArrayOutputStream buffer = new BufferExposingByteArrayOutputStream(RECORD_HEADER_SIZE + data.length);
+      final DataOutputStream out = new DataOutputStream(buffer);
+      out.writeInt(record);
+      out.writeLong(timestamp);
+      out.writeInt(data.length);
+      out.write(data);
+      out.close();
+
+      assert myWriter != null;
+      myWriter.seek(segment.myLength);
+      myWriter.write(buffer.getInternalBuffer(), 0, buffer.size());
+      segment.add(segment.myLength, timestamp);
+      segment.myLength += buffer.size();
+      return record;
+    }
+  }
+
+  /**
+   * Makes the records up to the given one inaccessible, and deletes the segments containing only such records.
+   */
+  public void deleteRecordsUpTo(int idInclusively) throws IOException {
+    synchronized (myLock) {
+      if (idInclusively < myFirstRecord) return;
+      myFirstRecord = idInclusively + 1;
+      myMeta.seek(FIRST_RECORD_OFFSET);
+      myMeta.writeInt(myFirstRecord);
+      deleteObsoleteSegments();
+    }
+  }
+
+  private void deleteObsoleteSegments() throws IOException {
+    while (!mySegments.isEmpty() && mySegments.get(0).getLastRecord() < myFirstRecord) {
+      final Segment segment = mySegments.remove(0);
+      if (segment == myReaderSegment) {
+        closeReader();
+      }
+      if (mySegments.isEmpty() && myWriter != null) {
+        myWriter.close();
+        myWriter = null;
+      }
+      FileUtil.delete(segment.myFile);
+    }
+  }
+
+  /**
+   * @return true if more than a half of the first segment is taken by deleted records
+   */
+  public boolean isCompactionNeeded() {
+    synchronized (myLock) {
+      if (mySegments.size() < 2) return false;
+      final Segment first = mySegments.get(0);
+      return first.myOffsets.get(myFirstRecord - first.myFirstRecord) * 2 > first.myLength;
+    }
+  }
+
+  /**
+   * Replaces the first segment with the copy of its live records, if it's not the one being written.
+   */
+  public void compact() throws IOException {
+    final Segment segment;
+    final int firstRecord;
+    synchronized (myLock) {
+      if (myDisposed || !isCompactionNeeded()) return;
+      segment = mySegments.get(0);
+      firstRecord = myFirstRecord;
+    }
+
+    final File target = getSegmentFile(firstRecord);
+    final File temp = new File(target.getPath() + TEMP_EXTENSION);
+    final Segment compacted = new Segment(target, firstRecord);
+    final long start = segment.myOffsets.get(firstRecord - segment.myFirstRecord);
+    final byte[] live = new byte[(int)(segment.myLength - start)];
+    final RandomAccessFile in = new RandomAccessFile(segment.myFile, "r");
+    try {
+      in.seek(start);
+      in.readFully(live);
+    }
+    finally {
+      in.close();
+    }
+    writeFully(temp, live);
+    for (int i = firstRecord - segment.myFirstRecord; i < segment.myOffsets.size(); i++) {
+      compacted.add(segment.myOffsets.get(i) - start, segment.myTimestamps.get(i));
+    }
+    compacted.myLength = segment.myLength - start;
+
+    synchronized (myLock) {
+      if (myDisposed || mySegments.isEmpty() || mySegments.get(0) != segment) {
+        FileUtil.delete(temp);
+        return;
+      }
+      if (segment == myReaderSegment) {
+        closeReader();
+      }
+      // until the old segment is deleted, it's the compacted one which is taken on loading, since it starts at the first live record
+      if (!temp.renameTo(target)) {
+        FileUtil.delete(temp);
+        throw new IOException("cannot rename " + temp + " to " + target);
+      }
+      FileUtil.delete(segment.myFile);
+      mySegments.set(0, compacted);
+    }
+    LocalHistoryLog.LOG.info("Local history segment " + segment.myFile.getName() + " compacted to " + target.getName() +
+                             ", " + start + " bytes freed");
+  }
+
+  /**
+   * Writes the segment being appended and the meta file through to the disk.
+   */
+  public void force() throws IOException {
+    synchronized (myLock) {
+      if (myDisposed) return;
+      doForce();
+    }
+  }
+
+  private void doForce() throws IOException {
+    if (myWriter != null) {
+      myWriter.getChannel().force(false);
+    }
+    myMeta.getChannel().force(false);
+  }
+
+  public void dispose() {
+    synchronized (myLock) {
+      if (myDisposed) return;
+      myDisposed = true;
+      try {
+        doForce();
+      }
+      catch (IOException e) {
+        LocalHistoryLog.LOG.warn(e);
+      }
+      closeFiles();
+    }
+  }
+
+  private void closeFiles() {
+    try {
+      closeReader();
+      if (myWriter != null) {
+        myWriter.close();
+        myWriter = null;
+      }
+      myMeta.close();
+    }
+    catch (IOException e) {
+      LocalHistoryLog.LOG.warn(e);
+    }
+  }
+
+  private Segment startSegment(int firstRecord) throws IOException {
+    if (myWriter != null) {
+      // the segment is complete, it's never written again
+      myWriter.getChannel().force(false);
+      myWriter.close();
+    }
+    final Segment result = new Segment(getSegmentFile(firstRecord), firstRecord);
+    myWriter = new RandomAccessFile(result.myFile, "rw");
+    myWriter.setLength(0);
+    mySegments.add(result);
+    return result;
+  }
+
+  private static void writeFully(File file, byte[] bytes) throws IOException {
+    final FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(bytes);
+      // the copy must be on the disk before the original segment is deleted
+      out.getFD().sync();
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  private File getSegmentFile(int firstRecord) {
+    return new File(myDir, myName + "." + firstRecord + SEGMENT_EXTENSION);
+  }
+
+  @Nullable
+  private Segment getLastSegment() {
+    return mySegments.isEmpty() ? null : mySegments.get(mySegments.size() - 1);
+  }
+
+  private Segment getSegment(int record) throws IOException {
+    final Segment result = findSegment(record);
+    if (result == null) throw new IOException("record " + record + " is not stored");
+    return result;
+  }
+
+  @Nullable
+  private Segment findSegment(int record) {
+    if (record < myFirstRecord) return null;
+    int low = 0;
+    int high = mySegments.size() - 1;
+    while (low <= high) {
+      final int middle = (low + high) >>> 1;
+      final Segment segment = mySegments.get(middle);
+      if (record < segment.myFirstRecord) {
+        high = middle - 1;
+      }
+      else if (record > segment.getLastRecord()) {
+        low = middle + 1;
+      }
+      else {
+        return segment;
+      }
+    }
+    return null;
+  }
+
+  private RandomAccessFile getFileToRead(Segment segment) throws IOException {
+    if (segment == getLastSegment()) {
+      assert myWriter != null;
+      return myWriter;
+    }
+    if (segment != myReaderSegment) {
+      closeReader();
+      myReader = new RandomAccessFile(segment.myFile, "r");
+      myReaderSegment = segment;
+    }
+    assert myReader != null;
+    return myReader;
+  }
+
+  private void closeReader() throws IOException {
+    if (myReader != null) {
+      myReader.close();
+      myReader = null;
+      myReaderSegment = null;
+    }
+  }
+
+  private static byte[] deflate(ByteSequence bytes) throws IOException {
+    final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      final BufferExposingByteArrayOutputStream result = new BufferExposingByteArrayOutputStream(bytes.getLength() / 2 + 16);
+      final DeflaterOutputStream out = new DeflaterOutputStream(result, deflater);
+      out.write(bytes.getBytes(), bytes.getOffset(), bytes.getLength());
+      out.close();
+      return result.toByteArray();
+    }
+    finally {
+      deflater.end();
+    }
+  }
+
+  private static byte[] inflate(byte[] bytes) throws IOException {
+    final Inflater inflater = new Inflater();
+    try {
+      return FileUtil.loadBytes(new InflaterInputStream(new UnsyncByteArrayInputStream(bytes), inflater));
+    }
+    finally {
+      inflater.end();
+    }
+  }
+
+  private static class Segment {
+    private final File myFile;
+    private final int myFirstRecord;
+    private final TLongArrayList myOffsets = new TLongArrayList();
+    private final TLongArrayList myTimestamps = new TLongArrayList();
+    private long myLength;
+
+    private Segment(File file, int firstRecord) {
+      myFile = file;
+      myFirstRecord = firstRecord;
+    }
+
+    private int getLastRecord() {
+      return myFirstRecord + myOffsets.size() - 1;
+    }
+
+    private void add(long offset, long timestamp) {
+      myOffsets.add(offset);
+      myTimestamps.add(timestamp);
+    }
+  }
+}
@@ -27,6 +27,8 @@ import java.io.IOException;
 
 public class StoredContent extends Content {
   private static final int UNAVAILABLE = 0;
+  // content was not recorded by the rules, only the change itself
+  private static final int EXCLUDED = -1;
 
   private int myContentId;
 
@@ -38,6 +40,10 @@ public class StoredContent extends Content {
     return new StoredContent(getFS().acquireContent(f));
   }
 
+  public static StoredContent excludedContent() {
+    return new StoredContent(EXCLUDED);
+  }
+
   public static StoredContent transientContent(VirtualFile f) {
     return new StoredContent(getFS().getCurrentContentId(f)) {
       @Override
@@ -71,7 +77,7 @@ public class StoredContent extends Content {
     //todo handle unavailable content 
     //if (!isAvailable()) throw new RuntimeException("content is not available");
     try {
-      if (myContentId == UNAVAILABLE) return ArrayUtil.EMPTY_BYTE_ARRAY;
+      if (myContentId == UNAVAILABLE || myContentId == EXCLUDED) return ArrayUtil.EMPTY_BYTE_ARRAY;
       return getFS().contentsToByteArray(myContentId);
     }
     catch (IOException e) {
@@ -82,7 +88,7 @@ public class StoredContent extends Content {
   @Override
   public boolean isAvailable() {
     //return myContentId != UNAVAILABLE;
-    return true;
+    return myContentId != EXCLUDED;
   }
 
   private static PersistentFS getFS() {
@@ -95,7 +101,7 @@ public class StoredContent extends Content {
 
   @Override
   public void release() {
-    if (myContentId == UNAVAILABLE) return;
+    if (myContentId == UNAVAILABLE || myContentId == EXCLUDED) return;
     getFS().releaseContent(myContentId);
     myContentId = UNAVAILABLE;
   }
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.history.integration;
+
+import com.intellij.openapi.fileTypes.FileTypeManager;
+import com.intellij.openapi.util.Comparing;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Decides whether local history records the content of a changed file, or only the change itself.
+ * <p/>
+ * Content is not recorded for files larger than <code>localHistory.maxContentSizeKb</code>, files matching one of the ant-style
+ * path patterns of <code>localHistory.excludedPaths</code>, and files of the types listed in
+ * <code>localHistory.excludedFileTypes</code>. The rules are read from the registry on each check, so that they can be tuned
+ * without restart, looking at {@link RecordedContentStatistics}.
+ */
+public class ContentRecordingRules {
+  private String myPathsValue;
+  private List<Pattern> myPathPatterns = Collections.emptyList();
+  private String myFileTypesValue;
+  private Set<String> myFileTypes = Collections.emptySet();
+
+  public boolean isContentRecorded(@NotNull VirtualFile f, long length) {
+    int maxSizeKb = Registry.intValue("localHistory.maxContentSizeKb");
+    if (maxSizeKb > 0 && length > maxSizeKb * 1024L) return false;
+
+    Set<String> fileTypes = getExcludedFileTypes();
+    if (!fileTypes.isEmpty() && fileTypes.contains(FileTypeManager.getInstance().getFileTypeByFileName(f.getName()).getName())) {
+      return false;
+    }
+
+    List<Pattern> patterns = getExcludedPathPatterns();
+    if (!patterns.isEmpty()) {
+      String path = StringUtil.trimStart(f.getPath(), "/");
+      for (Pattern each : patterns) {
+        if (each.matcher(path).matches()) return false;
+      }
+    }
+    return true;
+  }
+
+  @NotNull
+  private synchronized List<Pattern> getExcludedPathPatterns() {
+    String value = Registry.stringValue("localHistory.excludedPaths");
+    if (!Comparing.equal(value, myPathsValue)) {
+      List<Pattern> patterns = new ArrayList<Pattern>();
+      for (String each : StringUtil.split(value, ";")) {
+        if (StringUtil.isEmptyOrSpaces(each)) continue;
+        patterns.add(Pattern.compile(FileUtil.convertAntToRegexp(FileUtil.toSystemIndependentName(each.trim()))));
+      }
+      myPathPatterns = patterns;
+      myPathsValue = value;
+    }
+    return myPathPatterns;
+  }
+
+  @NotNull
+  private synchronized Set<String> getExcludedFileTypes() {
+    String value = Registry.stringValue("localHistory.excludedFileTypes");
+    if (!Comparing.equal(value, myFileTypesValue)) {
+      Set<String> fileTypes = new HashSet<String>();
+      for (String each : StringUtil.split(value, ";")) {
+        if (StringUtil.isEmptyOrSpaces(each)) continue;
+        fileTypes.add(each.trim());
+      }
+      myFileTypes = fileTypes;
+      myFileTypesValue = value;
+    }
+    return myFileTypes;
+  }
+}
@@ -53,6 +53,9 @@ public class IdeaGateway {
   private static final Key<ContentAndTimestamps> SAVED_DOCUMENT_CONTENT_AND_STAMP_KEY
     = Key.create("LocalHistory.SAVED_DOCUMENT_CONTENT_AND_STAMP_KEY");
 
+  private final ContentRecordingRules myContentRules = new ContentRecordingRules();
+  private final RecordedContentStatistics myContentStatistics = new RecordedContentStatistics();
+
   public boolean isVersioned(@NotNull VirtualFile f) {
     if (!f.isInLocalFileSystem()) return false;
 
@@ -268,7 +271,7 @@ public class IdeaGateway {
     ContentAndTimestamps contentAndStamp = f.getUserData(SAVED_DOCUMENT_CONTENT_AND_STAMP_KEY);
     if (contentAndStamp == null) {
       if (d != null) saveDocumentContent(f, d);
-      return Pair.create(StoredContent.acquireContent(f), f.getTimeStamp());
+      return Pair.create(acquireContent(f), f.getTimeStamp());
     }
 
     // if no need to save current document content when simply return and clear stored one
@@ -285,10 +288,10 @@ public class IdeaGateway {
     return Pair.create(contentAndStamp.content, contentAndStamp.registeredTimestamp);
   }
 
-  private static void saveDocumentContent(@NotNull VirtualFile f, @NotNull Document d) {
+  private void saveDocumentContent(@NotNull VirtualFile f, @NotNull Document d) {
     f.putUserData(SAVED_DOCUMENT_CONTENT_AND_STAMP_KEY,
                   new ContentAndTimestamps(Clock.getTime(),
-                                           StoredContent.acquireContent(bytesFromDocument(d)),
+                                           acquireContent(f, bytesFromDocument(d)),
                                            d.getModificationStamp()));
   }
 
@@ -311,10 +314,36 @@ public class IdeaGateway {
 
     // take document's content if any
     if (d != null) {
-      return Pair.create(StoredContent.acquireContent(bytesFromDocument(d)), Clock.getTime());
+      return Pair.create(acquireContent(f, bytesFromDocument(d)), Clock.getTime());
+    }
+
+    return Pair.create(acquireContent(f), f.getTimeStamp());
+  }
+
+  @NotNull
+  private StoredContent acquireContent(@NotNull VirtualFile f) {
+    long length = f.getLength();
+    if (!myContentRules.isContentRecorded(f, length)) {
+      myContentStatistics.contentExcluded(f, length);
+      return StoredContent.excludedContent();
     }
+    myContentStatistics.contentRecorded(f, length);
+    return StoredContent.acquireContent(f);
+  }
+
+  @NotNull
+  private StoredContent acquireContent(@NotNull VirtualFile f, @NotNull byte[] bytes) {
+    if (!myContentRules.isContentRecorded(f, bytes.length)) {
+      myContentStatistics.contentExcluded(f, bytes.length);
+      return StoredContent.excludedContent();
+    }
+    myContentStatistics.contentRecorded(f, bytes.length);
+    return StoredContent.acquireContent(bytes);
+  }
 
-    return Pair.create(StoredContent.acquireContent(f), f.getTimeStamp());
+  @NotNull
+  public RecordedContentStatistics getContentStatistics() {
+    return myContentStatistics;
   }
 
   @NotNull
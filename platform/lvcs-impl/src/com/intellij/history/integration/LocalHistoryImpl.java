@@ -144,6 +144,11 @@ public class LocalHistoryImpl extends LocalHistory implements ApplicationCompone
     myChangeList.close();
     LocalHistoryLog.LOG.info("Local history storage successfully closed.");
 
+    String contentReport = myGateway.getContentStatistics().getReport(20);
+    if (!contentReport.isEmpty()) {
+      LocalHistoryLog.LOG.info("Directories with the most content recorded by local history:\n" + contentReport);
+    }
+
     ShutDownTracker.getInstance().unregisterShutdownTask(myShutdownTask);
   }
 
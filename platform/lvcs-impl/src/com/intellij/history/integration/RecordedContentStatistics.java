@@ -0,0 +1,129 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.history.integration;
+
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Bytes of content recorded and skipped by local history during the session, by directory of the changed files.
+ */
+public class RecordedContentStatistics {
+  private final Map<String, DirectoryStatistics> myDirectories = new HashMap<String, DirectoryStatistics>();
+
+  public synchronized void contentRecorded(@NotNull VirtualFile f, long bytes) {
+    DirectoryStatistics stats = getStatistics(f);
+    stats.myRecordedBytes += bytes;
+    stats.myRecordedFiles++;
+  }
+
+  public synchronized void contentExcluded(@NotNull VirtualFile f, long bytes) {
+    DirectoryStatistics stats = getStatistics(f);
+    stats.myExcludedBytes += bytes;
+    stats.myExcludedFiles++;
+  }
+
+  @NotNull
+  private DirectoryStatistics getStatistics(@NotNull VirtualFile f) {
+    VirtualFile parent = f.getParent();
+    String path = parent == null ? "" : parent.getPath();
+    DirectoryStatistics result = myDirectories.get(path);
+    if (result == null) {
+      result = new DirectoryStatistics(path);
+      myDirectories.put(path, result);
+    }
+    return result;
+  }
+
+  /**
+   * @return directories with the most bytes recorded, in descending order
+   */
+  @NotNull
+  public synchronized List<DirectoryStatistics> getTopDirectories(int count) {
+    List<DirectoryStatistics> result = new ArrayList<DirectoryStatistics>();
+    for (DirectoryStatistics each : myDirectories.values()) {
+      result.add(each.copy());
+    }
+    Collections.sort(result, new Comparator<DirectoryStatistics>() {
+      @Override
+      public int compare(DirectoryStatistics o1, DirectoryStatistics o2) {
+        return o1.myRecordedBytes < o2.myRecordedBytes ? 1 : o1.myRecordedBytes == o2.myRecordedBytes ? 0 : -1;
+      }
+    });
+    return result.size() > count ? result.subList(0, count) : result;
+  }
+
+  @NotNull
+  public String getReport(int count) {
+    StringBuilder result = new StringBuilder();
+    for (DirectoryStatistics each : getTopDirectories(count)) {
+      if (result.length() > 0) result.append('\n');
+      result.append(each);
+    }
+    return result.toString();
+  }
+
+  public static class DirectoryStatistics {
+    private final String myPath;
+    private long myRecordedBytes;
+    private int myRecordedFiles;
+    private long myExcludedBytes;
+    private int myExcludedFiles;
+
+    private DirectoryStatistics(String path) {
+      myPath = path;
+    }
+
+    private DirectoryStatistics copy() {
+      DirectoryStatistics result = new DirectoryStatistics(myPath);
+      result.myRecordedBytes = myRecordedBytes;
+      result.myRecordedFiles = myRecordedFiles;
+      result.myExcludedBytes = myExcludedBytes;
+      result.myExcludedFiles = myExcludedFiles;
+      return result;
+    }
+
+    @NotNull
+    public String getPath() {
+      return myPath;
+    }
+
+    public long getRecordedBytes() {
+      return myRecordedBytes;
+    }
+
+    public int getRecordedFiles() {
+      return myRecordedFiles;
+    }
+
+    public long getExcludedBytes() {
+      return myExcludedBytes;
+    }
+
+    public int getExcludedFiles() {
+      return myExcludedFiles;
+    }
+
+    @Override
+    public String toString() {
+      return myPath + ": " + StringUtil.formatFileSize(myRecordedBytes) + " in " + myRecordedFiles + " contents recorded, " +
+             StringUtil.formatFileSize(myExcludedBytes) + " in " + myExcludedFiles + " excluded";
+    }
+  }
+}
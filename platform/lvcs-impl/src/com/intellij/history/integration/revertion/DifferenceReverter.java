@@ -23,6 +23,7 @@ import com.intellij.history.core.revisions.Difference;
 import com.intellij.history.core.revisions.Revision;
 import com.intellij.history.core.tree.Entry;
 import com.intellij.history.integration.IdeaGateway;
+import com.intellij.history.integration.LocalHistoryBundle;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.containers.ContainerUtil;
@@ -30,6 +31,7 @@ import gnu.trove.THashSet;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
@@ -51,6 +53,23 @@ public class DifferenceReverter extends Reverter {
     return myLeftRevision;
   }
 
+  @Override
+  public List<String> askUserForProceeding() throws IOException {
+    List<Entry> entriesWithUnavailableContent = new ArrayList<Entry>();
+    for (Difference each : myDiffs) {
+      Entry l = each.getLeft();
+      if (l != null) l.hasUnavailableContent(entriesWithUnavailableContent);
+    }
+    if (entriesWithUnavailableContent.isEmpty()) return Collections.emptyList();
+
+    StringBuilder paths = new StringBuilder();
+    for (Entry each : entriesWithUnavailableContent) {
+      if (paths.length() > 0) paths.append('\n');
+      paths.append(each.getPath());
+    }
+    return Collections.singletonList(LocalHistoryBundle.message("revert.message.some.files.have.unversioned.content", paths));
+  }
+
   @Override
   protected List<VirtualFile> getFilesToClearROStatus() throws IOException {
     LinkedHashSet<VirtualFile> files = new LinkedHashSet<VirtualFile>();
@@ -106,6 +125,8 @@ public class DifferenceReverter extends Reverter {
   }
 
   private void revertDeletion(Entry l) throws IOException {
+    // without the content the file would be restored empty
+    if (!l.isDirectory() && !l.getContent().isAvailable()) return;
     VirtualFile f = myGateway.findOrCreateFileSafely(l.getPath(), l.isDirectory());
     if (l.isDirectory()) return;
     setContent(l, f);
@@ -160,6 +160,8 @@ public class UndoChangeRevertingVisitor extends ChangeVisitor {
   }
 
   private void revertDeletion(VirtualFile parent, Entry e) throws IOException {
+    // content which was not recorded can't be restored, and the file is not recreated empty instead
+    if (!e.isDirectory() && !e.getContent().isAvailable()) return;
     VirtualFile f = myGateway.findOrCreateFileSafely(parent, e.getName(), e.isDirectory());
     if (e.isDirectory()) {
       for (Entry child : e.getChildren()) revertDeletion(f, child);
@@ -20,6 +20,7 @@ import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.vfs.InvalidVirtualFileAccessException;
 import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -29,9 +30,11 @@ import org.jetbrains.annotations.Nullable;
 import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
 * @author peter
@@ -42,6 +45,7 @@ public class FileContentQueue {
   private static final long SIZE_THRESHOLD = 1024*1024;
   private static final long TAKEN_FILES_THRESHOLD = 1024*1024*3;
   private static final long LARGE_SIZE_REQUEST_THRESHOLD = TAKEN_FILES_THRESHOLD - 1024 * 300; // 300k for other threads
+  private static final int PROC_COUNT = Runtime.getRuntime().availableProcessors();
 
   private long myTotalSize;
   private long myTakenSize;
@@ -50,23 +54,23 @@ public class FileContentQueue {
   private final ArrayBlockingQueue<FileContent> myQueue = new ArrayBlockingQueue<FileContent>(256);
   private final Queue<FileContent> myPushbackBuffer = new ArrayDeque<FileContent>();
   private volatile boolean myContentLoadingThreadTerminated = false;
+  private volatile boolean myContentLoadingCanceled = false;
 
   public void queue(final Collection<VirtualFile> files, @NotNull final ProgressIndicator indicator) {
+    // several loaders take files from the same iterator, so that jar entries are read and inflated in parallel
+    final Iterator<VirtualFile> iterator = files.iterator();
+    final int loadersCount = Math.max(1, Math.min(getLoadersCount(), files.size()));
+    final AtomicInteger activeLoaders = new AtomicInteger(loadersCount);
     final Runnable contentLoadingRunnable = new Runnable() {
       public void run() {
+        boolean loaded = false;
         try {
-          for (VirtualFile file : files) {
+          VirtualFile file;
+          while ((file = nextFile(iterator)) != null) {
             indicator.checkCanceled();
             addLast(file, indicator);
           }
-
-          // put end-of-queue marker only if not canceled
-          try {
-            myQueue.put(new FileContent(null));
-          }
-          catch (InterruptedException e) {
-            LOG.error(e);
-          }
+          loaded = true;
         }
         catch (ProcessCanceledException e) {
           // Do nothing, exit the thread.
@@ -75,12 +79,40 @@ public class FileContentQueue {
           LOG.error(e);
         }
         finally {
-          myContentLoadingThreadTerminated = true;
+          if (!loaded) {
+            myContentLoadingCanceled = true;
+          }
+          if (activeLoaders.decrementAndGet() == 0) {
+            // put end-of-queue marker only if not canceled
+            if (!myContentLoadingCanceled) {
+              try {
+                myQueue.put(new FileContent(null));
+              }
+              catch (InterruptedException e) {
+                LOG.error(e);
+              }
+            }
+            myContentLoadingThreadTerminated = true;
+          }
         }
       }
     };
 
-    ApplicationManager.getApplication().executeOnPooledThread(contentLoadingRunnable);
+    for (int i = 0; i < loadersCount; i++) {
+      ApplicationManager.getApplication().executeOnPooledThread(contentLoadingRunnable);
+    }
+  }
+
+  private static int getLoadersCount() {
+    final int count = Registry.intValue("caches.contentLoaderThreadsCount");
+    return count > 0 ? count : Math.min(PROC_COUNT, 2);
+  }
+
+  @Nullable
+  private static VirtualFile nextFile(@NotNull Iterator<VirtualFile> files) {
+    synchronized (files) {
+      return files.hasNext() ? files.next() : null;
+    }
   }
 
   private void addLast(VirtualFile file, @NotNull final ProgressIndicator indicator) throws InterruptedException {
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.history.integration;
+
+import com.intellij.history.core.revisions.Revision;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+
+import java.util.List;
+
+public class ContentRecordingRulesTest extends IntegrationTestCase {
+  @Override
+  protected void tearDown() throws Exception {
+    Registry.get("localHistory.maxContentSizeKb").resetToDefault();
+    Registry.get("localHistory.excludedPaths").resetToDefault();
+    Registry.get("localHistory.excludedFileTypes").resetToDefault();
+    super.tearDown();
+  }
+
+  public void testExcludedPaths() throws Exception {
+    Registry.get("localHistory.excludedPaths").setValue("**/generated/**");
+
+    createDirectory("generated");
+    VirtualFile excluded = createFile("generated/file.txt", "old");
+    VirtualFile recorded = createFile("file.txt", "old");
+    setContent(excluded, "new");
+    setContent(recorded, "new");
+
+    List<Revision> rr = getRevisionsFor(excluded);
+    assertEquals(3, rr.size());
+    assertContent("new", rr.get(0).findEntry());
+    assertFalse(rr.get(1).findEntry().getContent().isAvailable());
+
+    rr = getRevisionsFor(recorded);
+    assertEquals(3, rr.size());
+    assertContent("old", rr.get(1).findEntry());
+  }
+
+  public void testExcludedFileTypes() throws Exception {
+    Registry.get("localHistory.excludedFileTypes").setValue("PLAIN_TEXT");
+
+    VirtualFile f = createFile("file.txt", "old");
+    setContent(f, "new");
+
+    List<Revision> rr = getRevisionsFor(f);
+    assertEquals(3, rr.size());
+    assertFalse(rr.get(1).findEntry().getContent().isAvailable());
+  }
+
+  public void testLargeContent() throws Exception {
+    Registry.get("localHistory.maxContentSizeKb").setValue(1);
+
+    VirtualFile f = createFile("file.txt", StringUtil.repeat("a", 2000));
+    setContent(f, "small");
+    setContent(f, "new");
+
+    List<Revision> rr = getRevisionsFor(f);
+    assertEquals(4, rr.size());
+    assertContent("small", rr.get(1).findEntry());
+    assertFalse(rr.get(2).findEntry().getContent().isAvailable());
+  }
+
+  public void testStatistics() throws Exception {
+    Registry.get("localHistory.maxContentSizeKb").setValue(1);
+    RecordedContentStatistics stats = LocalHistoryImpl.getInstanceImpl().getGateway().getContentStatistics();
+
+    createDirectory("dir");
+    VirtualFile f = createFile("dir/file.txt", StringUtil.repeat("a", 2000));
+    setContent(f, "small");
+    setContent(f, "new");
+
+    RecordedContentStatistics.DirectoryStatistics dirStats = null;
+    for (RecordedContentStatistics.DirectoryStatistics each : stats.getTopDirectories(Integer.MAX_VALUE)) {
+      if (each.getPath().equals(f.getParent().getPath())) dirStats = each;
+    }
+    assertNotNull(dirStats);
+    assertEquals(1, dirStats.getRecordedFiles());
+    assertEquals(5, dirStats.getRecordedBytes());
+    assertEquals(1, dirStats.getExcludedFiles());
+    assertEquals(2000, dirStats.getExcludedBytes());
+  }
+}
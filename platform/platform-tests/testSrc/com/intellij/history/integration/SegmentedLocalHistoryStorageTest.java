@@ -0,0 +1,243 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.history.integration;
+
+import com.intellij.history.core.SegmentedLocalHistoryStorage;
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.openapi.util.io.ByteSequence;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class SegmentedLocalHistoryStorageTest extends IntegrationTestCase {
+  // five records in a segment
+  private static final int SEGMENT_SIZE = 16 * 1024;
+
+  private File myDir;
+  private SegmentedLocalHistoryStorage myStorage;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    myDir = new File(myRoot.getPath(), "storage");
+    myStorage = new SegmentedLocalHistoryStorage(myDir, "changes", SEGMENT_SIZE);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myStorage.dispose();
+    super.tearDown();
+  }
+
+  public void testBasic() throws Exception {
+    assertFirstAndLast(0, 0);
+
+    int r1 = createRecord();
+    int r2 = createRecord();
+
+    assertFirstAndLast(r1, r2);
+    assertRecord(r2, r1, 0);
+    assertRecord(r1, 0, r2);
+  }
+
+  public void testWritingAfterClose() throws Exception {
+    createRecord();
+    myStorage.dispose();
+
+    try {
+      createRecord();
+    }
+    catch (IOException e) {
+      return;
+    }
+    fail("should have thrown exception");
+  }
+
+  public void testTrimmingDeletesSegments() throws Exception {
+    int first = createRecord();
+    int last = first;
+    for (int i = 0; i < 20; i++) {
+      last = createRecord();
+    }
+    int segments = countSegments();
+    assertTrue(segments > 2);
+
+    myStorage.deleteRecordsUpTo(last - 1);
+
+    assertFirstAndLast(last, last);
+    assertRecord(last, 0, 0);
+    assertEquals(1, countSegments());
+
+    myStorage.deleteRecordsUpTo(last);
+
+    assertFirstAndLast(0, 0);
+    assertEquals(0, countSegments());
+
+    int next = createRecord();
+    assertEquals(last + 1, next);
+    assertFirstAndLast(next, next);
+  }
+
+  public void testReopening() throws Exception {
+    int r1 = createRecord();
+    int r2 = createRecord();
+    int r3 = createRecord();
+    int r4 = createRecord();
+
+    myStorage.deleteRecordsUpTo(r2);
+    myStorage.setLastId(123);
+    reopen();
+
+    assertFirstAndLast(r3, r4);
+    assertRecord(r3, 0, r4);
+    assertRecord(r4, r3, 0);
+    assertEquals(123, myStorage.getLastId());
+
+    myStorage.deleteRecordsUpTo(r4);
+    reopen();
+
+    assertFirstAndLast(0, 0);
+
+    int r5 = createRecord();
+    reopen();
+
+    assertFirstAndLast(r5, r5);
+    assertRecord(r5, 0, 0);
+  }
+
+  public void testIncompleteRecordIsDropped() throws Exception {
+    int r1 = createRecord();
+    int r2 = createRecord();
+    myStorage.dispose();
+
+    File segment = new File(myDir, "changes." + r1 + ".segment");
+    RandomAccessFile file = new RandomAccessFile(segment, "rw");
+    try {
+      file.setLength(file.length() - 10);
+    }
+    finally {
+      file.close();
+    }
+    myStorage = new SegmentedLocalHistoryStorage(myDir, "changes", SEGMENT_SIZE);
+
+    assertFirstAndLast(r1, r1);
+    assertEquals(r2, createRecord());
+    assertRecord(r1, 0, r2);
+    assertRecord(r2, r1, 0);
+  }
+
+  public void testCompaction() throws Exception {
+    int first = createRecord();
+    int last = first;
+    for (int i = 0; i < 10; i++) {
+      last = createRecord();
+    }
+    assertFalse(myStorage.isCompactionNeeded());
+
+    myStorage.deleteRecordsUpTo(first + 2);
+    assertTrue(myStorage.isCompactionNeeded());
+    long sizeBefore = myStorage.getStorageSize();
+
+    myStorage.compact();
+
+    assertFalse(myStorage.isCompactionNeeded());
+    assertTrue(myStorage.getStorageSize() < sizeBefore);
+    reopen();
+
+    assertFirstAndLast(first + 3, last);
+    for (int r = first + 3; r <= last; r++) {
+      assertRecord(r, r == first + 3 ? 0 : r - 1, r == last ? 0 : r + 1);
+    }
+  }
+
+  public void testCompactionIsNeededAfterRollover() throws Exception {
+    int first = createRecord();
+    createRecord();
+    createRecord();
+    createRecord();
+    myStorage.deleteRecordsUpTo(first + 2);
+    // dead records of the only segment are kept until it's complete
+    assertFalse(myStorage.isCompactionNeeded());
+
+    while (countSegments() < 2) {
+      createRecord();
+    }
+    assertTrue(myStorage.isCompactionNeeded());
+  }
+
+  public void testForce() throws Exception {
+    int r1 = createRecord();
+    int r2 = createRecord();
+    myStorage.setLastId(42);
+    myStorage.force();
+    reopen();
+
+    assertFirstAndLast(r1, r2);
+    assertRecord(r2, r1, 0);
+    assertEquals(42, myStorage.getLastId());
+
+    myStorage.dispose();
+    // forcing a disposed storage does nothing
+    myStorage.force();
+    myStorage = new SegmentedLocalHistoryStorage(myDir, "changes", SEGMENT_SIZE);
+  }
+
+  private void reopen() throws IOException {
+    myStorage.dispose();
+    myStorage = new SegmentedLocalHistoryStorage(myDir, "changes", SEGMENT_SIZE);
+  }
+
+  private int countSegments() {
+    int result = 0;
+    for (String each : myDir.list()) {
+      if (each.endsWith(".segment")) result++;
+    }
+    return result;
+  }
+
+  private int createRecord() throws IOException {
+    BufferExposingByteArrayOutputStream bytes = new BufferExposingByteArrayOutputStream();
+    DataOutputStream s = new DataOutputStream(bytes);
+    // different values, so that records are not deflated to nothing
+    for (int i = 0; i < 1000; i++) {
+      s.writeInt(i * i);
+    }
+    s.close();
+    return myStorage.appendRecord(new ByteSequence(bytes.getInternalBuffer(), 0, bytes.size()));
+  }
+
+  private void assertFirstAndLast(int first, int last) {
+    assertEquals(first, myStorage.getFirstRecord());
+    assertEquals(last, myStorage.getLastRecord());
+  }
+
+  private void assertRecord(int id, int prev, int next) throws IOException {
+    assertEquals(prev, myStorage.getPrevRecord(id));
+    assertEquals(next, myStorage.getNextRecord(id));
+    DataInputStream s = myStorage.readStream(id);
+    try {
+      for (int i = 0; i < 1000; i++) {
+        assertEquals(i * i, s.readInt());
+      }
+    }
+    finally {
+      s.close();
+    }
+  }
+}
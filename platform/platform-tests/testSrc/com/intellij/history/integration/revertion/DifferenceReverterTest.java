@@ -19,6 +19,7 @@ package com.intellij.history.integration.revertion;
 import com.intellij.history.core.revisions.Difference;
 import com.intellij.history.core.revisions.Revision;
 import com.intellij.history.integration.IntegrationTestCase;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.vfs.VirtualFile;
 
 import java.io.IOException;
@@ -272,6 +273,48 @@ public class DifferenceReverterTest extends IntegrationTestCase {
     assertEquals(1000, f.getTimeStamp());
   }
 
+  public void testDeletedFileWithExcludedContent() throws Exception {
+    Registry.get("localHistory.maxContentSizeKb").setValue(1);
+    try {
+      VirtualFile f = myRoot.createChildData(this, "foo.txt");
+      f.setBinaryContent(new byte[2000], -1, 4000);
+      f.delete(this);
+
+      List<Revision> revs = getRevisionsFor(myRoot);
+      DifferenceReverter reverter = new DifferenceReverter(myProject, getVcs(), myGateway, revs.get(1).getDifferencesWith(revs.get(0)),
+                                                           revs.get(1));
+      assertEquals(1, reverter.askUserForProceeding().size());
+      reverter.revert();
+
+      assertNull(myRoot.findChild("foo.txt"));
+    }
+    finally {
+      Registry.get("localHistory.maxContentSizeKb").resetToDefault();
+    }
+  }
+
+  public void testContentChangeWithExcludedContent() throws Exception {
+    Registry.get("localHistory.maxContentSizeKb").setValue(1);
+    try {
+      VirtualFile f = myRoot.createChildData(this, "foo.txt");
+      f.setBinaryContent(new byte[2000], -1, 1000);
+      f.setBinaryContent(new byte[]{2}, -1, 2000);
+
+      List<Revision> revs = getRevisionsFor(myRoot);
+      DifferenceReverter reverter = new DifferenceReverter(myProject, getVcs(), myGateway, revs.get(1).getDifferencesWith(revs.get(0)),
+                                                           revs.get(1));
+      assertEquals(1, reverter.askUserForProceeding().size());
+      reverter.revert();
+
+      f = myRoot.findChild("foo.txt");
+      assertNotNull(f);
+      assertEquals(2, f.contentsToByteArray()[0]);
+    }
+    finally {
+      Registry.get("localHistory.maxContentSizeKb").resetToDefault();
+    }
+  }
+
   private void revertLastChange(int... diffsIndices) throws IOException {
     revertChange(0, diffsIndices);
   }
@@ -449,6 +449,38 @@ public class JBZipEntry implements Cloneable {
     setData(bytes, time);
   }
 
+  /**
+   * Writes the data of the given entry, which may belong to another archive, into this entry without recompressing it.
+   * The modification time of this entry is preserved if it has been set, otherwise it is taken from the source entry.
+   */
+  public void setDataFrom(JBZipEntry source) throws IOException {
+    if (source.csize == -1) throw new IOException("no data");
+
+    if (time == -1) {
+      time = source.time;
+    }
+    method = source.method;
+    crc = source.crc;
+    size = source.size;
+    csize = source.csize;
+    final InputStream stream = source.new BoundedInputStream(source.calcDataOffset(), source.csize);
+    try {
+      myFile.getOutputStream().putNextEntryRawContent(this, stream, csize);
+    }
+    finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * Writes the content read from the stream into this entry, compressing it on the fly if the method of the entry is DEFLATED.
+   * Unlike {@link #setData(byte[], long)}, the content is not loaded into memory.
+   */
+  public void setData(InputStream content, long timestamp) throws IOException {
+    time = timestamp;
+    myFile.getOutputStream().putNextEntryContent(this, content);
+  }
+
   public byte[] getData() throws IOException {
     if (size == -1) throw new IOException("no data");
 
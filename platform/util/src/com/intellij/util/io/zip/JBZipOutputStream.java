@@ -22,7 +22,9 @@ package com.intellij.util.io.zip;
 
 import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.util.List;
@@ -43,6 +45,13 @@ class JBZipOutputStream {
    */
   private String comment = "";
 
+  private static final int BUFFER_SIZE = 8192;
+
+  /**
+   * Offset of the checksum in the local file header, it is followed by the compressed and the uncompressed sizes.
+   */
+  private static final int LFH_CRC_OFFSET = 14;
+
   private int level = DEFAULT_COMPRESSION;
   private int method = ZipEntry.STORED;
 
@@ -383,6 +392,85 @@ class JBZipOutputStream {
     myBuffer.reset();
   }
 
+  void putNextEntryRawContent(JBZipEntry entry, InputStream rawContent, long length) throws IOException {
+    writeLocalFileHeader(entry);
+    final byte[] buffer = new byte[BUFFER_SIZE];
+    while (length > 0) {
+      final int read = rawContent.read(buffer, 0, (int)Math.min(buffer.length, length));
+      if (read < 0) throw new EOFException();
+      writeOut(buffer, 0, read);
+      length -= read;
+    }
+  }
+
+  /**
+   * Writes the entry reading its content from the stream, so that the content is never held in memory as a whole.
+   * The checksum and the sizes become known only after the content is written, so they are patched in the local file header.
+   */
+  void putNextEntryContent(JBZipEntry entry, InputStream content) throws IOException {
+    if (entry.getMethod() == -1) {
+      entry.setMethod(method);
+    }
+
+    if (entry.getTime() == -1) {
+      entry.setTime(System.currentTimeMillis());
+    }
+
+    entry.setCrc(0);
+    entry.setSize(0);
+    entry.setCompressedSize(0);
+    writeLocalFileHeader(entry);
+    final long dataOffset = written;
+
+    crc.reset();
+    long size = 0;
+    final byte[] buffer = new byte[BUFFER_SIZE];
+    if (entry.getMethod() == ZipEntry.DEFLATED) {
+      def.reset();
+      def.setLevel(level);
+      final byte[] deflated = new byte[BUFFER_SIZE];
+      int read;
+      while ((read = content.read(buffer)) > 0) {
+        crc.update(buffer, 0, read);
+        size += read;
+        def.setInput(buffer, 0, read);
+        while (!def.needsInput()) {
+          deflate(deflated);
+        }
+      }
+      def.finish();
+      while (!def.finished()) {
+        deflate(deflated);
+      }
+    }
+    else {
+      int read;
+      while ((read = content.read(buffer)) > 0) {
+        crc.update(buffer, 0, read);
+        size += read;
+        writeOut(buffer, 0, read);
+      }
+    }
+
+    entry.setCrc(crc.getValue());
+    entry.setSize(size);
+    entry.setCompressedSize(written - dataOffset);
+
+    flushBuffer();
+    raf.seek(entry.getHeaderOffset() + LFH_CRC_OFFSET);
+    raf.write(ZipLong.getBytes(entry.getCrc()));
+    raf.write(ZipLong.getBytes(entry.getCompressedSize()));
+    raf.write(ZipLong.getBytes(entry.getSize()));
+    raf.seek(written);
+  }
+
+  private void deflate(byte[] buffer) throws IOException {
+    final int length = def.deflate(buffer, 0, buffer.length);
+    if (length > 0) {
+      writeOut(buffer, 0, length);
+    }
+  }
+
   public void putNextEntryBytes(JBZipEntry entry, byte[] bytes) throws IOException {
     entry.setSize(bytes.length);
 
@@ -401,6 +489,7 @@ class JBZipOutputStream {
     final byte[] outputBytes;
     final int outputBytesLength;
     if (entry.getMethod() == ZipEntry.DEFLATED) {
+      def.reset();
       def.setLevel(level);
       final BufferExposingByteArrayOutputStream compressedBytesStream = new BufferExposingByteArrayOutputStream();
       final DeflaterOutputStream stream = new DeflaterOutputStream(compressedBytesStream, def);
@@ -23,6 +23,7 @@ import com.intellij.openapi.util.io.FileUtil;
 import junit.framework.TestCase;
 
 import java.io.*;
+import java.util.Arrays;
 import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -108,6 +109,63 @@ public class UpdateableZipTest extends TestCase {
     utilZip.close();
   }
   
+  public void testStreamEntries() throws Exception {
+    File zipFile = FileUtil.createTempFile("test", ".zip");
+    byte[] content = createContent(100000);
+
+    JBZipFile jbZip = new JBZipFile(zipFile);
+    for (int i = 0; i < 3; i++) {
+      JBZipEntry deflated = jbZip.getOrCreateEntry("/deflated" + i);
+      deflated.setMethod(ZipEntry.DEFLATED);
+      deflated.setData(new ByteArrayInputStream(content), 0);
+    }
+    JBZipEntry stored = jbZip.getOrCreateEntry("/stored");
+    stored.setMethod(ZipEntry.STORED);
+    stored.setData(new ByteArrayInputStream(content), 0);
+    jbZip.getOrCreateEntry("/bytes").setData("bytes".getBytes());
+    jbZip.close();
+
+    ZipFile utilZip = new ZipFile(zipFile);
+    for (int i = 0; i < 3; i++) {
+      ZipEntry entry = utilZip.getEntry("/deflated" + i);
+      assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+      assertTrue(entry.getCompressedSize() < content.length);
+      assertContent(utilZip, entry, content);
+    }
+    ZipEntry storedEntry = utilZip.getEntry("/stored");
+    assertEquals(ZipEntry.STORED, storedEntry.getMethod());
+    assertContent(utilZip, storedEntry, content);
+    assertContent(utilZip, utilZip.getEntry("/bytes"), "bytes".getBytes());
+    utilZip.close();
+    FileUtil.delete(zipFile);
+  }
+
+  public void testCopyEntryData() throws Exception {
+    File sourceFile = FileUtil.createTempFile("source", ".zip");
+    File targetFile = FileUtil.createTempFile("target", ".zip");
+    byte[] content = createContent(50000);
+
+    JBZipFile source = new JBZipFile(sourceFile);
+    JBZipEntry sourceEntry = source.getOrCreateEntry("/entry");
+    sourceEntry.setMethod(ZipEntry.DEFLATED);
+    sourceEntry.setData(content, 1000000);
+    source.close();
+
+    source = new JBZipFile(sourceFile);
+    JBZipFile target = new JBZipFile(targetFile);
+    target.getOrCreateEntry("/copy").setDataFrom(source.getEntry("/entry"));
+    target.close();
+    source.close();
+
+    ZipFile utilZip = new ZipFile(targetFile);
+    ZipEntry copy = utilZip.getEntry("/copy");
+    assertEquals(ZipEntry.DEFLATED, copy.getMethod());
+    assertContent(utilZip, copy, content);
+    utilZip.close();
+    FileUtil.delete(sourceFile);
+    FileUtil.delete(targetFile);
+  }
+
   /*
   public void testAppendToIdeaJar() throws Exception {
     //ProfilingUtil.startCPUProfiling();
@@ -139,6 +197,23 @@ public class UpdateableZipTest extends TestCase {
     return zipFile;
   }
 
+  private static byte[] createContent(int length) {
+    byte[] content = new byte[length];
+    for (int i = 0; i < length; i++) {
+      content[i] = (byte)('a' + i % 7 + i / 1000 % 5);
+    }
+    return content;
+  }
+
+  private static void assertContent(ZipFile zipFile, ZipEntry entry, byte[] content) throws IOException {
+    assertNotNull(entry);
+    assertEquals(content.length, entry.getSize());
+    CRC32 crc = new CRC32();
+    crc.update(content);
+    assertEquals(crc.getValue(), entry.getCrc());
+    assertTrue(Arrays.equals(content, FileUtil.loadBytes(zipFile.getInputStream(entry))));
+  }
+
   private static void assertEntryWithContentExists(JBZipFile jbZip, String entryName, String content) throws IOException {
     JBZipEntry entry = jbZip.getEntry(entryName);
     assertNotNull(entry);
@@ -31,6 +31,7 @@ import com.intellij.openapi.ui.MessageType;
 import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.util.*;
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vcs.*;
 import com.intellij.openapi.vcs.changes.conflicts.ChangelistConflictTracker;
@@ -45,6 +46,7 @@ import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.ui.EditorNotifications;
 import com.intellij.util.*;
+import com.intellij.util.concurrency.BoundedTaskExecutor;
 import com.intellij.util.concurrency.Semaphore;
 import com.intellij.util.containers.MultiMap;
 import com.intellij.util.continuation.ContinuationPause;
@@ -56,10 +58,14 @@ import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
+import org.jetbrains.ide.PooledThreadExecutor;
 
 import javax.swing.*;
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicReference;
@@ -587,29 +593,195 @@ public class ChangeListManagerImpl extends ChangeListManagerEx implements Projec
     final UpdatingChangeListBuilder builder = new UpdatingChangeListBuilder(dataHolder.getChangeListWorker(),
       dataHolder.getComposite(), myUpdater.getIsStoppedGetter(), myIgnoredIdeaLevel, gate);
 
-    for (final VcsDirtyScope scope : scopes) {
-      if (DEBUG) {
-        ChangeListManagerImpl.log("ChangeListManagerImpl.iterateScopes: scope = " + scope);
+    if (Registry.is("vcs.parallel.change.update")) {
+      iterateScopesConcurrently(dataHolder, scopes, wasEverythingDirty, builder, gate);
+    }
+    else {
+      for (final VcsDirtyScope scope : scopes) {
+        if (DEBUG) {
+          ChangeListManagerImpl.log("ChangeListManagerImpl.iterateScopes: scope = " + scope);
+        }
+        myUpdateChangesProgressIndicator.checkCanceled();
+
+        final AbstractVcs vcs = scope.getVcs();
+        if (vcs == null) continue;
+        scope.setWasEverythingDirty(wasEverythingDirty);
+        final VcsModifiableDirtyScope adjustedScope = vcs.adjustDirtyScope((VcsModifiableDirtyScope) scope);
+
+        myChangesViewManager.setBusy(true);
+        dataHolder.notifyStartProcessingChanges(adjustedScope);
+
+        actualUpdate(builder, adjustedScope, vcs, dataHolder, gate);
+
+        if (myUpdateException != null) break;
       }
-      myUpdateChangesProgressIndicator.checkCanceled();
+    }
+    synchronized (myDataLock) {
+      if (myAdditionalInfo == null) {
+        myAdditionalInfo = builder.getAdditionalInfo();
+      }
+    }
+  }
 
+  /**
+   * Splits the scopes by VCS roots and calls change providers for them on pooled threads, a bounded number at a time.
+   * What they report is passed to the builder afterwards, scope by scope, so the refresh takes as long as the slowest root does.
+   * All the scopes are started before the providers are called, for the scopes to be adjusted the same way as in the serial update.
+   */
+  private void iterateScopesConcurrently(final DataHolder dataHolder, final List<VcsDirtyScope> scopes, final boolean wasEverythingDirty,
+                                         final UpdatingChangeListBuilder builder, final ChangeListManagerGate gate) {
+    final List<VcsModifiableDirtyScope> rootScopes = new ArrayList<VcsModifiableDirtyScope>();
+    for (final VcsDirtyScope scope : scopes) {
+      myUpdateChangesProgressIndicator.checkCanceled();
       final AbstractVcs vcs = scope.getVcs();
       if (vcs == null) continue;
       scope.setWasEverythingDirty(wasEverythingDirty);
       final VcsModifiableDirtyScope adjustedScope = vcs.adjustDirtyScope((VcsModifiableDirtyScope) scope);
+      if (adjustedScope instanceof VcsDirtyScopeImpl) {
+        rootScopes.addAll(((VcsDirtyScopeImpl)adjustedScope).splitByRoots());
+      }
+      else {
+        rootScopes.add(adjustedScope);
+      }
+    }
+    myChangesViewManager.setBusy(true);
+    dataHolder.notifyStartProcessingScopes(rootScopes);
 
-      myChangesViewManager.setBusy(true);
-      dataHolder.notifyStartProcessingChanges(adjustedScope);
+    final ChangeListManagerGate synchronizedGate = new SynchronizedGate(gate);
+    final boolean reportChangesOutsideProject = builder.reportChangesOutsideProject();
+    final BoundedTaskExecutor executor = new BoundedTaskExecutor(new PooledThreadExecutor(),
+                                                                 Registry.intValue("vcs.parallel.change.update.threads"));
+    final List<Future<DeferredChangelistBuilder>> results = new ArrayList<Future<DeferredChangelistBuilder>>(rootScopes.size());
+    for (final VcsModifiableDirtyScope scope : rootScopes) {
+      results.add(executor.submit(new Callable<DeferredChangelistBuilder>() {
+        @Override
+        public DeferredChangelistBuilder call() throws VcsException {
+          final long start = System.currentTimeMillis();
+          final DeferredChangelistBuilder deferredBuilder = new DeferredChangelistBuilder(reportChangesOutsideProject);
+          final ChangeProvider changeProvider = scope.getVcs().getChangeProvider();
+          try {
+            if (changeProvider != null) {
+              changeProvider.getChanges(scope, deferredBuilder, myUpdateChangesProgressIndicator, synchronizedGate);
+            }
+          }
+          finally {
+            debugLogging("changes collected in " + (System.currentTimeMillis() - start) + " ms, " + deferredBuilder.getCallsCount() +
+                         " reported: " + scope);
+          }
+          return deferredBuilder;
+        }
+      }));
+    }
 
-      actualUpdate(builder, adjustedScope, vcs, dataHolder, gate);
+    // wait for all of them not to let providers use the gate after the update
+    final List<Object> collected = new ArrayList<Object>(results.size());
+    for (Future<DeferredChangelistBuilder> result : results) {
+      try {
+        collected.add(result.get());
+      }
+      catch (InterruptedException e) {
+        throw new RuntimeInterruptedException(e);
+      }
+      catch (ExecutionException e) {
+        collected.add(e.getCause());
+      }
+    }
 
-      if (myUpdateException != null) break;
+    // all the scopes have been started, so the results of all of them are replayed even if some root failed,
+    // otherwise the changes of the roots after the failed one would disappear
+    Throwable failure = null;
+    try {
+      for (int i = 0; i < rootScopes.size(); i++) {
+        final VcsModifiableDirtyScope scope = rootScopes.get(i);
+        final Object result = collected.get(i);
+        myUpdateChangesProgressIndicator.checkCanceled();
+        if (result instanceof ProcessCanceledException) break;
+        dataHolder.notifyVcsStarted(scope.getVcs());
+        builder.setCurrent(scope, new FoldersCutDownWorker());
+        if (result instanceof DeferredChangelistBuilder) {
+          ((DeferredChangelistBuilder)result).replay(builder);
+        }
+        else if (result instanceof VcsException) {
+          handleUpdateException((VcsException)result);
+        }
+        else if (failure == null) {
+          LOG.debug((Throwable)result);
+          failure = (Throwable)result;
+        }
+      }
     }
-    synchronized (myDataLock) {
-      if (myAdditionalInfo == null) {
-        myAdditionalInfo = builder.getAdditionalInfo();
+    finally {
+      if (!myUpdater.isStopped()) {
+        dataHolder.notifyDoneProcessingChanges();
       }
     }
+    if (failure != null) {
+      Rethrow.reThrowRuntime(failure);
+    }
+  }
+
+  private static class SynchronizedGate implements ChangeListManagerGate {
+    private final ChangeListManagerGate myGate;
+
+    private SynchronizedGate(ChangeListManagerGate gate) {
+      myGate = gate;
+    }
+
+    @Override
+    public synchronized List<LocalChangeList> getListsCopy() {
+      return myGate.getListsCopy();
+    }
+
+    @Nullable
+    @Override
+    public synchronized LocalChangeList findChangeList(String name) {
+      return myGate.findChangeList(name);
+    }
+
+    @Override
+    public synchronized LocalChangeList addChangeList(String name, String comment) {
+      return myGate.addChangeList(name, comment);
+    }
+
+    @Override
+    public synchronized LocalChangeList findOrCreateList(String name, String comment) {
+      return myGate.findOrCreateList(name, comment);
+    }
+
+    @Override
+    public synchronized void editComment(String name, String comment) {
+      myGate.editComment(name, comment);
+    }
+
+    @Override
+    public synchronized void editName(String oldName, String newName) {
+      myGate.editName(oldName, newName);
+    }
+
+    @Override
+    public synchronized void moveChanges(String toList, Collection<Change> changes) {
+      myGate.moveChanges(toList, changes);
+    }
+
+    @Override
+    public synchronized void setListsToDisappear(Collection<String> names) {
+      myGate.setListsToDisappear(names);
+    }
+
+    @Override
+    public synchronized FileStatus getStatus(VirtualFile file) {
+      return myGate.getStatus(file);
+    }
+
+    @Override
+    public synchronized FileStatus getStatus(File file) {
+      return myGate.getStatus(file);
+    }
+
+    @Override
+    public synchronized void setDefaultChangeList(@NotNull String list) {
+      myGate.setDefaultChangeList(list);
+    }
   }
 
   private void clearCurrentRevisionsCache(final VcsInvalidated invalidated) {
@@ -658,8 +830,21 @@ public class ChangeListManagerImpl extends ChangeListManagerEx implements Projec
         myChangeListWorker.notifyStartProcessingChanges(scope);
       }
 
-      myComposite.notifyVcsStarted(scope.getVcs());
-      myChangeListWorker.notifyVcsStarted(scope.getVcs());
+      notifyVcsStarted(scope.getVcs());
+    }
+
+    public void notifyStartProcessingScopes(@NotNull final List<VcsModifiableDirtyScope> scopes) {
+      if (! myWasEverythingDirty) {
+        for (VcsModifiableDirtyScope scope : scopes) {
+          myComposite.cleanAndAdjustScope(scope);
+        }
+        myChangeListWorker.notifyStartProcessingScopes(scopes);
+      }
+    }
+
+    public void notifyVcsStarted(final AbstractVcs vcs) {
+      myComposite.notifyVcsStarted(vcs);
+      myChangeListWorker.notifyVcsStarted(vcs);
     }
 
     public void notifyDoneProcessingChanges() {
@@ -372,6 +372,34 @@ public class ChangeListWorker implements ChangeListsWriteOperations {
     mySwitchedHolder.cleanAndAdjustScope(scope);
   }
 
+  /**
+   * Starts processing of several scopes whose changes are collected together, before any of them is reported.
+   * The changes before the update are remembered once, so {@link #notifyDoneProcessingChanges} is called once for all of the scopes.
+   */
+  public void notifyStartProcessingScopes(final List<VcsModifiableDirtyScope> scopes) {
+    final Collection<Change> oldChanges = new ArrayList<Change>();
+    for (LocalChangeList list : myMap.values()) {
+      oldChanges.addAll(((LocalChangeListImpl)list).startProcessingScopes(myProject, scopes));
+    }
+    for (Change change : oldChanges) {
+      myIdx.changeRemoved(change);
+    }
+    for (VcsModifiableDirtyScope scope : scopes) {
+      final Collection<Change> scopeChanges = new ArrayList<Change>();
+      for (Change change : oldChanges) {
+        final ContentRevision before = change.getBeforeRevision();
+        final ContentRevision after = change.getAfterRevision();
+        if (before != null && scope.belongsTo(before.getFile()) || after != null && scope.belongsTo(after.getFile())) {
+          scopeChanges.add(change);
+        }
+      }
+      correctScopeForMoves(scope, scopeChanges);
+
+      myLocallyDeleted.cleanAndAdjustScope(scope);
+      mySwitchedHolder.cleanAndAdjustScope(scope);
+    }
+  }
+
   private void correctScopeForMoves(final VcsModifiableDirtyScope scope, final Collection<Change> changes) {
     if (scope == null) return;
     for (Change change : changes) {
@@ -466,36 +494,13 @@ public class ChangeListWorker implements ChangeListsWriteOperations {
   }
 
   public LocalChangeList getListCopy(@NotNull final VirtualFile file) {
-    for (LocalChangeList list : myMap.values()) {
-      for (Change change : list.getChanges()) {
-        if (change.getAfterRevision() != null &&
-            Comparing.equal(change.getAfterRevision().getFile().getVirtualFile(), file)) {
-          return list.copy();
-        }
-        if (change.getBeforeRevision() != null &&
-            Comparing.equal(change.getBeforeRevision().getFile().getVirtualFile(), file)) {
-          return list.copy();
-        }
-      }
-    }
-    return null;
+    final Change change = myIdx.getChange(file);
+    return change == null ? null : listForChange(change);
   }
 
   @Nullable
   public Change getChangeForPath(final FilePath file) {
-    for (LocalChangeList list : myMap.values()) {
-      for (Change change : list.getChanges()) {
-        final ContentRevision afterRevision = change.getAfterRevision();
-        if (afterRevision != null && afterRevision.getFile().equals(file)) {
-          return change;
-        }
-        final ContentRevision beforeRevision = change.getBeforeRevision();
-        if (beforeRevision != null && beforeRevision.getFile().equals(file)) {
-          return change;
-        }
-      }
-    }
-    return null;
+    return myIdx.getChange(file);
   }
 
   public FileStatus getStatus(final VirtualFile file) {
@@ -669,8 +674,9 @@ public class ChangeListWorker implements ChangeListsWriteOperations {
 
   @Nullable
   public LocalChangeList listForChange(final Change change) {
+    // a hash lookup in each of the few lists, the copy shares the changes of the list until either modifies them
     for (LocalChangeList list : myMap.values()) {
-      if (list.getChanges().contains(change)) return list.copy();
+      if (((LocalChangeListImpl)list).containsChange(change)) return ((LocalChangeListImpl)list).copyForReading();
     }
     return null;
   }
@@ -701,8 +707,11 @@ public class ChangeListWorker implements ChangeListsWriteOperations {
 
   public ThreeState haveChangesUnder(final VirtualFile vf) {
     final String absolutePath = new File(vf.getPath()).getAbsolutePath();
-    final SortedSet<String> tailSet = myIdx.getAffectedPaths().tailSet(absolutePath);
-    for (String path : tailSet) {
+    if (myIdx.getAffectedPaths().contains(absolutePath)) {
+      return ThreeState.YES;
+    }
+    // not a tail set of all paths: paths of siblings like "dir-1" would be between "dir" and "dir/file"
+    for (String path : myIdx.getAffectedPathsUnder(absolutePath)) {
       return FileUtil.isAncestorThreeState(absolutePath, path, false);
     }
     return ThreeState.NO;
@@ -710,22 +719,7 @@ public class ChangeListWorker implements ChangeListsWriteOperations {
 
   @NotNull
   public Collection<Change> getChangesIn(final FilePath dirPath) {
-    List<Change> changes = new ArrayList<Change>();
-    for (ChangeList list : myMap.values()) {
-      for (Change change : list.getChanges()) {
-        final ContentRevision afterRevision = change.getAfterRevision();
-        if (afterRevision != null && afterRevision.getFile().isUnder(dirPath, false)) {
-          changes.add(change);
-          continue;
-        }
-
-        final ContentRevision beforeRevision = change.getBeforeRevision();
-        if (beforeRevision != null && beforeRevision.getFile().isUnder(dirPath, false)) {
-          changes.add(change);
-        }
-      }
-    }
-    return changes;
+    return new ArrayList<Change>(myIdx.getChangesUnder(dirPath));
   }
 
   void setListsToDisappear(final Collection<String> names) {
@@ -32,15 +32,19 @@ import java.util.*;
 public class ChangeListsIndexes {
   private final TreeMap<String, FileStatus> myFileToStatus;
   private final Map<String, Pair<VcsKey, VcsRevisionNumber>> myFileToVcs;
+  // both before and after paths of changes
+  private final Map<String, Change> myFileToChange;
 
   ChangeListsIndexes() {
     myFileToStatus = new TreeMap<String, FileStatus>();
     myFileToVcs = new HashMap<String, Pair<VcsKey, VcsRevisionNumber>>();
+    myFileToChange = new HashMap<String, Change>();
   }
 
   ChangeListsIndexes(final ChangeListsIndexes idx) {
     myFileToStatus = new TreeMap<String, FileStatus>(idx.myFileToStatus);
     myFileToVcs = new HashMap<String, Pair<VcsKey, VcsRevisionNumber>>(idx.myFileToVcs);
+    myFileToChange = new HashMap<String, Change>(idx.myFileToChange);
   }
 
   void add(final FilePath file, final FileStatus status, final VcsKey key, VcsRevisionNumber number) {
@@ -55,6 +59,41 @@ public class ChangeListsIndexes {
     myFileToVcs.remove(fileKey);
   }
 
+  @Nullable
+  public Change getChange(final FilePath file) {
+    return myFileToChange.get(file.getIOFile().getAbsolutePath());
+  }
+
+  @Nullable
+  public Change getChange(final VirtualFile file) {
+    return myFileToChange.get(new File(file.getPath()).getAbsolutePath());
+  }
+
+  /**
+   * @return changes which before or after path is the given path or is under it, in the order of paths
+   */
+  public Collection<Change> getChangesUnder(final FilePath path) {
+    final String pathKey = path.getIOFile().getAbsolutePath();
+    final Set<Change> result = new LinkedHashSet<Change>();
+    final Change change = myFileToChange.get(pathKey);
+    if (change != null) {
+      result.add(change);
+    }
+    for (String fileKey : getAffectedPathsUnder(pathKey)) {
+      result.add(myFileToChange.get(fileKey));
+    }
+    result.remove(null);
+    return result;
+  }
+
+  /**
+   * @return paths of changed files under the given one, excluding the path itself
+   */
+  public SortedSet<String> getAffectedPathsUnder(final String pathKey) {
+    final String prefix = pathKey.endsWith(File.separator) ? pathKey : pathKey + File.separator;
+    return getAffectedPaths().subSet(prefix, prefix + Character.MAX_VALUE);
+  }
+
   public FileStatus getStatus(final VirtualFile file) {
     return myFileToStatus.get(new File(file.getPath()).getAbsolutePath());
   }
@@ -73,9 +112,19 @@ public class ChangeListsIndexes {
 
     if (afterRevision != null) {
       remove(afterRevision.getFile());
+      removeChange(afterRevision.getFile(), change);
     }
     if (beforeRevision != null) {
       remove(beforeRevision.getFile());
+      removeChange(beforeRevision.getFile(), change);
+    }
+  }
+
+  private void removeChange(final FilePath file, final Change change) {
+    final String fileKey = file.getIOFile().getAbsolutePath();
+    // the path could have been taken by another change since
+    if (change.equals(myFileToChange.get(fileKey))) {
+      myFileToChange.remove(fileKey);
     }
   }
 
@@ -100,14 +149,17 @@ public class ChangeListsIndexes {
     final ContentRevision beforeRevision = change.getBeforeRevision();
     if (afterRevision != null) {
       add(afterRevision.getFile(), change.getFileStatus(), key, beforeRevision == null ? VcsRevisionNumber.NULL : beforeRevision.getRevisionNumber());
+      myFileToChange.put(afterRevision.getFile().getIOFile().getAbsolutePath(), change);
     }
     if (beforeRevision != null) {
       if (afterRevision != null) {
         if (! Comparing.equal(beforeRevision.getFile(), afterRevision.getFile())) {
           add(beforeRevision.getFile(), FileStatus.DELETED, key, beforeRevision.getRevisionNumber());
+          myFileToChange.put(beforeRevision.getFile().getIOFile().getAbsolutePath(), change);
         }
       } else {
         add(beforeRevision.getFile(), change.getFileStatus(), key, beforeRevision.getRevisionNumber());
+        myFileToChange.put(beforeRevision.getFile().getIOFile().getAbsolutePath(), change);
       }
     }
   }
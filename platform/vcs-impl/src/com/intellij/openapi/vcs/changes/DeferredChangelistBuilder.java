@@ -0,0 +1,206 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vcs.changes;
+
+import com.intellij.openapi.util.Factory;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.VcsKey;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.Consumer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Remembers everything reported by a {@link ChangeProvider} running on a pooled thread,
+ * to pass it to the {@link UpdatingChangeListBuilder} later, on the update thread, in the order it was reported.
+ */
+class DeferredChangelistBuilder implements ChangelistBuilder {
+  private final boolean myReportChangesOutsideProject;
+  private final List<Consumer<ChangelistBuilder>> myCalls = new ArrayList<Consumer<ChangelistBuilder>>();
+
+  DeferredChangelistBuilder(boolean reportChangesOutsideProject) {
+    myReportChangesOutsideProject = reportChangesOutsideProject;
+  }
+
+  void replay(@NotNull ChangelistBuilder builder) {
+    for (Consumer<ChangelistBuilder> call : myCalls) {
+      call.consume(builder);
+    }
+  }
+
+  int getCallsCount() {
+    return myCalls.size();
+  }
+
+  @Override
+  public void processChange(final Change change, final VcsKey vcsKey) {
+    myCalls.add(new Consumer<ChangelistBuilder>() {
+      @Override
+      public void consume(ChangelistBuilder builder) {
+        builder.processChange(change, vcsKey);
+      }
+    });
+  }
+
+  @Override
+  public void processChangeInList(final Change change, @Nullable final ChangeList changeList, final VcsKey vcsKey) {
+    myCalls.add(new Consumer<ChangelistBuilder>() {
+      @Override
+      public void consume(ChangelistBuilder builder) {
+        builder.processChangeInList(change, changeList, vcsKey);
+      }
+    });
+  }
+
+  @Override
+  public void processChangeInList(final Change change, final String changeListName, final VcsKey vcsKey) {
+    myCalls.add(new Consumer<ChangelistBuilder>() {
+      @Override
+      public void consume(ChangelistBuilder builder) {
+        builder.processChangeInList(change, changeListName, vcsKey);
+      }
+    });
+  }
+
+  @Override
+  public void removeRegisteredChangeFor(final FilePath path) {
+    myCalls.add(new Consumer<ChangelistBuilder>() {
+      @Override
+      public void consume(ChangelistBuilder builder) {
+        builder.removeRegisteredChangeFor(path);
+      }
+    });
+  }
+
+  @Override
+  public void processUnversionedFile(final VirtualFile file) {
+    myCalls.add(new Consumer<ChangelistBuilder>() {
+      @Override
+      public void consume(ChangelistBuilder builder) {
+        builder.processUnversionedFile(file);
+      }
+    });
+  }
+
+  @Override
+  public void processLocallyDeletedFile(final FilePath file) {
+    myCalls.add(new Consumer<ChangelistBuilder>() {
+      @Override
+      public void consume(ChangelistBuilder builder) {
+        builder.processLocallyDeletedFile(file);
+      }
+    });
+  }
+
+  @Override
+  public void processLocallyDeletedFile(final LocallyDeletedChange locallyDeletedChange) {
+    myCalls.add(new Consumer<ChangelistBuilder>() {
+      @Override
+      public void consume(ChangelistBuilder builder) {
+        builder.processLocallyDeletedFile(locallyDeletedChange);
+      }
+    });
+  }
+
+  @Override
+  public void processModifiedWithoutCheckout(final VirtualFile file) {
+    myCalls.add(new Consumer<ChangelistBuilder>() {
+      @Override
+      public void consume(ChangelistBuilder builder) {
+        builder.processModifiedWithoutCheckout(file);
+      }
+    });
+  }
+
+  @Override
+  public void processIgnoredFile(final VirtualFile file) {
+    myCalls.add(new Consumer<ChangelistBuilder>() {
+      @Override
+      public void consume(ChangelistBuilder builder) {
+        builder.processIgnoredFile(file);
+      }
+    });
+  }
+
+  @Override
+  public void processLockedFolder(final VirtualFile file) {
+    myCalls.add(new Consumer<ChangelistBuilder>() {
+      @Override
+      public void consume(ChangelistBuilder builder) {
+        builder.processLockedFolder(file);
+      }
+    });
+  }
+
+  @Override
+  public void processLogicallyLockedFolder(final VirtualFile file, final LogicalLock logicalLock) {
+    myCalls.add(new Consumer<ChangelistBuilder>() {
+      @Override
+      public void consume(ChangelistBuilder builder) {
+        builder.processLogicallyLockedFolder(file, logicalLock);
+      }
+    });
+  }
+
+  @Override
+  public void processSwitchedFile(final VirtualFile file, final String branch, final boolean recursive) {
+    myCalls.add(new Consumer<ChangelistBuilder>() {
+      @Override
+      public void consume(ChangelistBuilder builder) {
+        builder.processSwitchedFile(file, branch, recursive);
+      }
+    });
+  }
+
+  @Override
+  public void processRootSwitch(final VirtualFile file, final String branch) {
+    myCalls.add(new Consumer<ChangelistBuilder>() {
+      @Override
+      public void consume(ChangelistBuilder builder) {
+        builder.processRootSwitch(file, branch);
+      }
+    });
+  }
+
+  @Override
+  public boolean reportChangesOutsideProject() {
+    return myReportChangesOutsideProject;
+  }
+
+  @Override
+  public void reportAdditionalInfo(final String text) {
+    myCalls.add(new Consumer<ChangelistBuilder>() {
+      @Override
+      public void consume(ChangelistBuilder builder) {
+        builder.reportAdditionalInfo(text);
+      }
+    });
+  }
+
+  @Override
+  public void reportAdditionalInfo(final Factory<JComponent> infoComponent) {
+    myCalls.add(new Consumer<ChangelistBuilder>() {
+      @Override
+      public void consume(ChangelistBuilder builder) {
+        builder.reportAdditionalInfo(infoComponent);
+      }
+    });
+  }
+}
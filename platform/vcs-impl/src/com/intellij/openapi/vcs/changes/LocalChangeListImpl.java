@@ -9,6 +9,7 @@ import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.history.VcsRevisionNumber;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.containers.OpenTHashSet;
@@ -24,8 +25,10 @@ public class LocalChangeListImpl extends LocalChangeList {
   private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.vcs.changes.ChangeList");
 
   private final Project myProject;
-  private Collection<Change> myChanges = new HashSet<Change>();
+  private OpenTHashSet<Change> myChanges = new OpenTHashSet<Change>();
   private Collection<Change> myReadChangesCache = null;
+  // the changes are shared with copies handed out to readers, the first modification of either copies them
+  private boolean myChangesShared = false;
   private String myId;
   @NotNull private String myName;
   private String myComment = "";
@@ -131,8 +134,7 @@ public class LocalChangeListImpl extends LocalChangeList {
     if (ChangeListManagerImpl.DEBUG) {
       ChangeListManagerImpl.log("LocalChangeListImpl.addChange: this = " + this + ", change = " + change);
     }
-    myReadChangesCache = null;
-    myChanges.add(change);
+    getChangesForWrite().add(change);
   }
 
   Change removeChange(Change change) {
@@ -140,37 +142,48 @@ public class LocalChangeListImpl extends LocalChangeList {
       ChangeListManagerImpl.log("LocalChangeListImpl.removeChange: this = " + this + ", change = " + change);
       ChangeListManagerImpl.log("myChanges.size() = " + myChanges.size());
     }
-    for (Change localChange : myChanges) {
-      if (localChange.equals(change)) {
-        myChanges.remove(localChange);
-        myReadChangesCache = null;
-        return localChange;
-      }
+    final Change localChange = myChanges.get(change);
+    if (localChange != null) {
+      getChangesForWrite().remove(localChange);
     }
-    return null;
+    return localChange;
   }
 
   Collection<Change> startProcessingChanges(final Project project, @Nullable final VcsDirtyScope scope) {
+    return startProcessingScopes(project, scope == null ? null : Collections.singletonList(scope));
+  }
+
+  /**
+   * Same as {@link #startProcessingChanges}, but for several scopes updated together: the changes under all of them are compared
+   * with the same state before the update in {@link #doneProcessingChanges}.
+   */
+  Collection<Change> startProcessingScopes(final Project project, @Nullable final List<? extends VcsDirtyScope> scopes) {
     createReadChangesCache();
     final Collection<Change> result = new ArrayList<Change>();
-    myChangesBeforeUpdate = new OpenTHashSet<Change>(myChanges);
+    myChangesBeforeUpdate = new OpenTHashSet<Change>((Collection<Change>)myChanges);
     final FileIndexFacade fileIndex = PeriodicalTasksCloser.getInstance().safeGetService(project, FileIndexFacade.class);
     for (Change oldBoy : myChangesBeforeUpdate) {
       final ContentRevision before = oldBoy.getBeforeRevision();
       final ContentRevision after = oldBoy.getAfterRevision();
-      if (scope == null || before != null && scope.belongsTo(before.getFile()) || after != null && scope.belongsTo(after.getFile())
+      if (scopes == null || before != null && belongsTo(scopes, before.getFile()) || after != null && belongsTo(scopes, after.getFile())
         || isIgnoredChange(oldBoy, fileIndex)) {
         result.add(oldBoy);
         if (ChangeListManagerImpl.DEBUG) {
           ChangeListManagerImpl.log("LocalChangeListImpl.startProcessingChanges, remove old change: this = " + this + ", change = " + oldBoy);
         }
-        myChanges.remove(oldBoy);
-        myReadChangesCache = null;
+        getChangesForWrite().remove(oldBoy);
       }
     }
     return result;
   }
 
+  private static boolean belongsTo(final List<? extends VcsDirtyScope> scopes, final FilePath path) {
+    for (VcsDirtyScope scope : scopes) {
+      if (scope.belongsTo(path)) return true;
+    }
+    return false;
+  }
+
   private static boolean isIgnoredChange(final Change change, final FileIndexFacade fileIndex) {
     boolean beforeRevIgnored = change.getBeforeRevision() == null || isIgnoredRevision(change.getBeforeRevision(), fileIndex);
     boolean afterRevIgnored = change.getAfterRevision() == null || isIgnoredRevision(change.getAfterRevision(), fileIndex);
@@ -196,12 +209,11 @@ public class LocalChangeListImpl extends LocalChangeList {
       return true;
     }
 
-    for (Change oldChange : myChangesBeforeUpdate) {
-      if (Comparing.equal(oldChange, change)) {
-        LOG.debug("[process change] adding bacuae equal to old: " + ChangesUtil.getFilePath(oldChange).getPath());
-        addChange(change);
-        return true;
-      }
+    final Change oldChange = myChangesBeforeUpdate.get(change);
+    if (oldChange != null) {
+      LOG.debug("[process change] adding bacuae equal to old: " + ChangesUtil.getFilePath(oldChange).getPath());
+      addChange(change);
+      return true;
     }
     LOG.debug("[process change] not found");
     return false;
@@ -266,6 +278,39 @@ public class LocalChangeListImpl extends LocalChangeList {
     return myName.trim();
   }
 
+  boolean containsChange(final Change change) {
+    return myChanges.contains(change);
+  }
+
+  private OpenTHashSet<Change> getChangesForWrite() {
+    if (myChangesShared) {
+      myChanges = new OpenTHashSet<Change>((Collection<Change>)myChanges);
+      myChangesShared = false;
+    }
+    myReadChangesCache = null;
+    return myChanges;
+  }
+
+  /**
+   * @return a new copy for callers which only read it, the changes are not copied until this list or the copy modifies them
+   */
+  LocalChangeList copyForReading() {
+    createReadChangesCache();
+    final LocalChangeListImpl copy = new LocalChangeListImpl(this);
+    copy.myComment = myComment;
+    copy.myIsDefault = myIsDefault;
+    copy.myIsReadOnly = myIsReadOnly;
+    copy.myData = myData;
+
+    myChangesShared = true;
+    copy.myChanges = myChanges;
+    copy.myChangesShared = true;
+    // neither of these collections is ever modified
+    copy.myReadChangesCache = myReadChangesCache;
+    copy.myChangesBeforeUpdate = myChangesBeforeUpdate;
+    return copy;
+  }
+
   public LocalChangeList copy() {
     final LocalChangeListImpl copy = new LocalChangeListImpl(this);
     copy.myComment = myComment;
@@ -274,7 +319,7 @@ public class LocalChangeListImpl extends LocalChangeList {
     copy.myData = myData;
 
     if (myChanges != null) {
-      copy.myChanges = new HashSet<Change>(myChanges);
+      copy.myChanges = new OpenTHashSet<Change>((Collection<Change>)myChanges);
     }
 
     if (myChangesBeforeUpdate != null) {
@@ -126,6 +126,36 @@ public class VcsDirtyScopeImpl extends VcsModifiableDirtyScope {
     return myAffectedContentRoots;
   }
 
+  /**
+   * @return scopes of dirty files and directories of this scope under each of its VCS roots, or this scope if it has only one root
+   */
+  public List<VcsDirtyScopeImpl> splitByRoots() {
+    final Set<VirtualFile> roots = new HashSet<VirtualFile>(myDirtyFiles.keySet());
+    roots.addAll(myDirtyDirectoriesRecursively.keySet());
+    if (roots.size() <= 1 || roots.contains(null)) {
+      return Collections.singletonList(this);
+    }
+    final List<VcsDirtyScopeImpl> result = new ArrayList<VcsDirtyScopeImpl>(roots.size());
+    for (VirtualFile root : roots) {
+      final VcsDirtyScopeImpl scope = new VcsDirtyScopeImpl(myVcs, myProject);
+      scope.myAffectedContentRoots.add(root);
+      copyPaths(myDirtyFiles, scope.myDirtyFiles, root);
+      copyPaths(myDirtyDirectoriesRecursively, scope.myDirtyDirectoriesRecursively, root);
+      scope.myWasEverythingDirty = myWasEverythingDirty;
+      result.add(scope);
+    }
+    return result;
+  }
+
+  private static void copyPaths(Map<VirtualFile, THashSet<FilePath>> from, Map<VirtualFile, THashSet<FilePath>> to, VirtualFile root) {
+    final THashSet<FilePath> paths = from.get(root);
+    if (paths != null) {
+      final THashSet<FilePath> copy = new THashSet<FilePath>();
+      copy.addAll(paths);
+      to.put(root, copy);
+    }
+  }
+
   @Override
   public Project getProject() {
     return myProject;
@@ -30,8 +30,10 @@ import com.intellij.openapi.vcs.versionBrowser.ChangeBrowserSettings;
 import com.intellij.openapi.vcs.versionBrowser.CommittedChangeList;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.containers.FactoryMap;
+import gnu.trove.TIntArrayList;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
 
 import java.io.*;
 import java.util.*;
@@ -61,6 +63,7 @@ public class ChangesCacheFile {
   private int myIncomingCount;
   private boolean myHaveCompleteHistory;
   private boolean myHeaderLoaded;
+  private final ChangesCacheIndex myCacheIndex;
   @NonNls private static final String INDEX_EXTENSION = ".index";
   private static final int INDEX_ENTRY_SIZE = 3*8+2;
   private static final int HEADER_SIZE = 46;
@@ -71,6 +74,7 @@ public class ChangesCacheFile {
     myProject = project;
     myPath = path;
     myIndexPath = new File(myPath.toString() + INDEX_EXTENSION);
+    myCacheIndex = new ChangesCacheIndex(myPath);
     myVcs = vcs;
     myChangesProvider = (CachingCommittedChangesProvider) vcs.getCommittedChangesProvider();
     myVcsManager = ProjectLevelVcsManager.getInstance(project);
@@ -109,11 +113,13 @@ public class ChangesCacheFile {
     catch(VersionMismatchException ex) {
       myPath.delete();
       myIndexPath.delete();
+      myCacheIndex.delete();
       return true;
     }
     catch(EOFException ex) {
       myPath.delete();
       myIndexPath.delete();
+      myCacheIndex.delete();
       return true;
     }
 
@@ -129,6 +135,7 @@ public class ChangesCacheFile {
     catch (IOException e) {
       //
     }
+    myCacheIndex.delete();
   }
 
   public List<CommittedChangeList> writeChanges(final List<CommittedChangeList> changes) throws IOException {
@@ -152,6 +159,7 @@ public class ChangesCacheFile {
         myHeaderLoaded = true;
         writeHeader();
       }
+      openCacheIndex();
       myStream.seek(myStream.length());
       IndexEntry[] entries = readLastIndexEntries(0, changes.size());
 
@@ -174,11 +182,18 @@ public class ChangesCacheFile {
         //noinspection unchecked
         myChangesProvider.writeChangeList(myStream, list);
         updateCachedRange(list);
+        final int ordinal = (int)(myIndexStream.getFilePointer() / INDEX_ENTRY_SIZE);
         writeIndexEntry(list.getNumber(), list.getCommitDate().getTime(), position, present == null ? false : iterator.next());
         myIncomingCount++;
+        if (myCacheIndex.isOpen()) {
+          myCacheIndex.add(ordinal, list);
+        }
       }
       writeHeader();
       myHeaderLoaded = true;
+      if (myCacheIndex.isOpen()) {
+        myCacheIndex.flush();
+      }
     }
     finally {
       closeStreams();
@@ -186,6 +201,122 @@ public class ChangesCacheFile {
     return result;
   }
 
+  /**
+   * Opens the path index of the cache and indexes the changelists missing in it, the streams should be open.
+   * If the index can't be opened, the queries fall back to reading the cache sequentially.
+   */
+  private void openCacheIndex() {
+    try {
+      myCacheIndex.open();
+      final long totalCount = myIndexStream.length() / INDEX_ENTRY_SIZE;
+      if (myCacheIndex.getIndexedCount() > totalCount) {
+        debug("Cache index of " + myLocation + " is ahead of the cache, rebuilding");
+        myCacheIndex.close();
+        myCacheIndex.delete();
+        myCacheIndex.open();
+      }
+      if (myCacheIndex.getIndexedCount() < totalCount) {
+        debug("Indexing " + (totalCount - myCacheIndex.getIndexedCount()) + " changelists of " + myLocation);
+        final long position = myIndexStream.getFilePointer();
+        for (int i = myCacheIndex.getIndexedCount(); i < totalCount; i++) {
+          myCacheIndex.add(i, loadChangeListAt(getIndexEntry(i).offset));
+        }
+        myCacheIndex.flush();
+        myIndexStream.seek(position);
+      }
+    }
+    catch (IOException e) {
+      LOG.info(e);
+      try {
+        myCacheIndex.close();
+      }
+      catch (IOException ignored) {
+      }
+      myCacheIndex.delete();
+    }
+  }
+
+  private IndexEntry getIndexEntry(final long ordinal) throws IOException {
+    myIndexStream.seek(ordinal * INDEX_ENTRY_SIZE);
+    final IndexEntry result = new IndexEntry();
+    readIndexEntry(result);
+    return result;
+  }
+
+  /**
+   * @return ordinal of the first changelist committed at or after the given date, or the number of changelists if there is none;
+   * the dates should grow along with the cache
+   */
+  private long findFirstEntryAtOrAfter(final long date, final long totalCount) throws IOException {
+    long low = 0;
+    long high = totalCount;
+    while (low < high) {
+      final long middle = (low + high) >>> 1;
+      if (getIndexEntry(middle).date < date) {
+        low = middle + 1;
+      }
+      else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return ordinal of the first changelist with a number not less than the given one, the numbers should grow along with the dates
+   */
+  private long findFirstEntryWithNumberAtLeast(final long number, final long totalCount) throws IOException {
+    long low = 0;
+    long high = totalCount;
+    while (low < high) {
+      final long middle = (low + high) >>> 1;
+      if (getIndexEntry(middle).number < number) {
+        low = middle + 1;
+      }
+      else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return [first, last) ordinals of the changelists which may pass the date and number filters of the settings; the filters
+   * on dates or numbers which don't grow along with the cache select all changelists
+   */
+  private long[] getFilteredRange(final ChangeBrowserSettings settings, final boolean datesAscending, final boolean numbersAscending)
+    throws IOException {
+    final long totalCount = myIndexStream.length() / INDEX_ENTRY_SIZE;
+    long first = 0;
+    long last = totalCount;
+    if (datesAscending) {
+      final Date dateAfter = settings.USE_DATE_AFTER_FILTER ? settings.getDateAfter() : null;
+      if (dateAfter != null) {
+        first = Math.max(first, findFirstEntryAtOrAfter(dateAfter.getTime(), totalCount));
+      }
+      final Date dateBefore = settings.USE_DATE_BEFORE_FILTER ? settings.getDateBefore() : null;
+      if (dateBefore != null) {
+        last = Math.min(last, findFirstEntryAtOrAfter(dateBefore.getTime(), totalCount));
+      }
+    }
+    if (numbersAscending) {
+      try {
+        final Long changeAfter = settings.getChangeAfterFilter();
+        if (changeAfter != null) {
+          first = Math.max(first, findFirstEntryWithNumberAtLeast(changeAfter.longValue(), totalCount));
+        }
+        final Long changeBefore = settings.getChangeBeforeFilter();
+        if (changeBefore != null && changeBefore.longValue() < Long.MAX_VALUE) {
+          last = Math.min(last, findFirstEntryWithNumberAtLeast(changeBefore.longValue() + 1, totalCount));
+        }
+      }
+      catch (NumberFormatException e) {
+        // ignored by the filter as well
+      }
+    }
+    return new long[] {first, Math.max(first, last)};
+  }
+
   private static void debug(@NonNls String message) {
     LOG.debug(message);
   }
@@ -226,8 +357,15 @@ public class ChangesCacheFile {
       }
     }
     finally {
-      if (myIndexStream != null) {
-        myIndexStream.close();
+      try {
+        if (myIndexStream != null) {
+          myIndexStream.close();
+        }
+      }
+      finally {
+        if (myCacheIndex.isOpen()) {
+          myCacheIndex.close();
+        }
       }
     }
   }
@@ -456,34 +594,47 @@ public class ChangesCacheFile {
     final ChangeBrowserSettings.Filter filter = settings.createFilter();
     openStreams();
     try {
-      if (maxCount == 0) {
-        myStream.seek(HEADER_SIZE);  // skip header
-        while(myStream.getFilePointer() < myStream.length()) {
-          CommittedChangeList changeList = myChangesProvider.readChangeList(myLocation, myStream);
-          if (filter.accepts(changeList)) {
-            result.add(changeList);
+      if (!settings.isAnyFilterSpecified()) {
+        if (maxCount == 0) {
+          myStream.seek(HEADER_SIZE);  // skip header
+          while(myStream.getFilePointer() < myStream.length()) {
+            result.add(myChangesProvider.readChangeList(myLocation, myStream));
           }
         }
-      }
-      else if (!settings.isAnyFilterSpecified()) {
-        IndexEntry[] entries = readLastIndexEntries(0, maxCount);
-        for(IndexEntry entry: entries) {
-          myStream.seek(entry.offset);
-          result.add(myChangesProvider.readChangeList(myLocation, myStream));
+        else {
+          IndexEntry[] entries = readLastIndexEntries(0, maxCount);
+          for(IndexEntry entry: entries) {
+            myStream.seek(entry.offset);
+            result.add(myChangesProvider.readChangeList(myLocation, myStream));
+          }
         }
       }
       else {
-        int offset = 0;
-        while(result.size() < maxCount) {
-          IndexEntry[] entries = readLastIndexEntries(offset, 1);
-          if (entries.length == 0) {
-            break;
+        // only the changelists in the range of the date and number filters are read
+        boolean datesAscending = false;
+        boolean numbersAscending = false;
+        if (settings.USE_DATE_AFTER_FILTER || settings.USE_DATE_BEFORE_FILTER ||
+            settings.USE_CHANGE_AFTER_FILTER || settings.USE_CHANGE_BEFORE_FILTER) {
+          openCacheIndex();
+          datesAscending = myCacheIndex.isOpen() && myCacheIndex.isDatesAscending();
+          numbersAscending = myCacheIndex.isOpen() && myCacheIndex.isNumbersAscending();
+        }
+        final long[] range = getFilteredRange(settings, datesAscending, numbersAscending);
+        if (maxCount == 0) {
+          for (long i = range[0]; i < range[1]; i++) {
+            CommittedChangeList changeList = loadChangeListAt(getIndexEntry(i).offset);
+            if (filter.accepts(changeList)) {
+              result.add(changeList);
+            }
           }
-          CommittedChangeList changeList = loadChangeListAt(entries [0].offset);
-          if (filter.accepts(changeList)) {
-            result.add(0, changeList);
+        }
+        else {
+          for (long i = range[1] - 1; i >= range[0] && result.size() < maxCount; i--) {
+            CommittedChangeList changeList = loadChangeListAt(getIndexEntry(i).offset);
+            if (filter.accepts(changeList)) {
+              result.add(0, changeList);
+            }
           }
-          offset++;
         }
       }
       return result;
@@ -774,6 +925,18 @@ public class ChangesCacheFile {
     return myVcs;
   }
 
+  @TestOnly
+  boolean wasSubsequentlyDeleted(final FilePath file, final int ordinal) throws IOException {
+    openStreams();
+    try {
+      openCacheIndex();
+      return new RefreshIncomingChangesOperation().wasSubsequentlyDeleted(file, (long)ordinal * INDEX_ENTRY_SIZE);
+    }
+    finally {
+      closeStreams();
+    }
+  }
+
   public FilePath getRootPath() {
     return myRootPath;
   }
@@ -803,6 +966,7 @@ public class ChangesCacheFile {
       myAnyChanges = false;
       openStreams();
       loadHeader();
+      openCacheIndex();
       myCurrentRevisions = new FactoryMap<VirtualFile, VcsRevisionNumber>() {
         protected VcsRevisionNumber create(final VirtualFile key) {
           return diffProvider.getCurrentRevision(key);
@@ -1007,29 +1171,23 @@ public class ChangesCacheFile {
     // subsequent committed changelists, regardless of whether they are in "incoming" status.
     private boolean wasSubsequentlyDeleted(final FilePath file, long indexOffset) {
       try {
+        if (myCacheIndex.isOpen()) {
+          // only the changelists changing the file or its parents may delete it
+          final TIntArrayList ordinals = myCacheIndex.getChangeListsOfPathOrParents(file);
+          for (int i = 0; i < ordinals.size(); i++) {
+            final long offset = (long)ordinals.get(i) * INDEX_ENTRY_SIZE;
+            if (offset > indexOffset && isDeletedIn(file, getChangeListAtOffset(getIndexEntryAtOffset(offset).offset))) {
+              return true;
+            }
+          }
+          return false;
+        }
         indexOffset += INDEX_ENTRY_SIZE;
         while(indexOffset < myIndexStream.length()) {
           IndexEntry e = getIndexEntryAtOffset(indexOffset);
 
-          final CommittedChangeList changeList = getChangeListAtOffset(e.offset);
-          for(Change c: changeList.getChanges()) {
-            final ContentRevision beforeRevision = c.getBeforeRevision();
-            if ((beforeRevision != null) && (c.getAfterRevision() == null)) {
-              if (file.getIOFile().getAbsolutePath().equals(beforeRevision.getFile().getIOFile().getAbsolutePath()) ||
-                  file.isUnder(beforeRevision.getFile(), false)) {
-                debug("Found subsequent deletion for file " + file);
-                return true;
-              }
-            } else if ((beforeRevision != null) && (c.getAfterRevision() != null)) {
-              boolean underBefore = file.isUnder(beforeRevision.getFile(), false);
-              if (underBefore && c.isIsReplaced() && (! file.equals(beforeRevision.getFile()))) {
-                debug("For " + file + "some of parents is replaced: " + beforeRevision.getFile());
-                return true;
-              } else if (underBefore && (c.isMoved() || c.isRenamed())) {
-                debug("For " + file + "some of parents was renamed/moved: " + beforeRevision.getFile());
-                return true;
-              }
-            }
+          if (isDeletedIn(file, getChangeListAtOffset(e.offset))) {
+            return true;
           }
           indexOffset += INDEX_ENTRY_SIZE;
         }
@@ -1040,6 +1198,29 @@ public class ChangesCacheFile {
       return false;
     }
 
+    private boolean isDeletedIn(final FilePath file, final CommittedChangeList changeList) {
+      for(Change c: changeList.getChanges()) {
+        final ContentRevision beforeRevision = c.getBeforeRevision();
+        if ((beforeRevision != null) && (c.getAfterRevision() == null)) {
+          if (file.getIOFile().getAbsolutePath().equals(beforeRevision.getFile().getIOFile().getAbsolutePath()) ||
+              file.isUnder(beforeRevision.getFile(), false)) {
+            debug("Found subsequent deletion for file " + file);
+            return true;
+          }
+        } else if ((beforeRevision != null) && (c.getAfterRevision() != null)) {
+          boolean underBefore = file.isUnder(beforeRevision.getFile(), false);
+          if (underBefore && c.isIsReplaced() && (! file.equals(beforeRevision.getFile()))) {
+            debug("For " + file + "some of parents is replaced: " + beforeRevision.getFile());
+            return true;
+          } else if (underBefore && (c.isMoved() || c.isRenamed())) {
+            debug("For " + file + "some of parents was renamed/moved: " + beforeRevision.getFile());
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+
     private IndexEntry getIndexEntryAtOffset(final long indexOffset) throws IOException {
       IndexEntry e = myIndexEntryCache.get(indexOffset);
       if (e == null) {
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vcs.changes.committed;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.changes.Change;
+import com.intellij.openapi.vcs.changes.ContentRevision;
+import com.intellij.openapi.vcs.changes.FilePathsHelper;
+import com.intellij.openapi.vcs.versionBrowser.CommittedChangeList;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.PersistentHashMap;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntHashSet;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Persistent index of the changelists of a {@link ChangesCacheFile} by the paths changed in them, so that the changelists
+ * touching a path are found without reading the whole cache. Changelists are identified by their ordinal in the cache index,
+ * and are indexed in the order they are appended to the cache.
+ * <p/>
+ * The number of indexed changelists is stored separately, so that the index catches up with the cache if it was not
+ * updated after the last write, or was not there at all. Whether the dates and the numbers of the changelists grow along
+ * with the cache is stored there as well: the cache is usually ordered by date, but it is not guaranteed when changelists
+ * are written in several batches, and the numbers may be ordered differently.
+ */
+class ChangesCacheIndex {
+  private static final int STATE_VERSION = -2;
+  private final File myPathsFile;
+  private final File myStateFile;
+  private PersistentHashMap<String, TIntArrayList> myPaths;
+  private int myIndexedCount;
+  private long myLastNumber;
+  private long myLastDate;
+  private boolean myNumbersAscending;
+  private boolean myDatesAscending;
+  private boolean myDirty;
+
+  ChangesCacheIndex(@NotNull File cachePath) {
+    myPathsFile = new File(cachePath.getPath() + ".paths");
+    myStateFile = new File(cachePath.getPath() + ".paths.state");
+  }
+
+  void open() throws IOException {
+    try {
+      readState();
+      myPaths = new PersistentHashMap<String, TIntArrayList>(myPathsFile, new EnumeratorStringDescriptor(), new OrdinalsExternalizer());
+    }
+    catch (IOException e) {
+      close();
+      delete();
+      throw e;
+    }
+  }
+
+  boolean isOpen() {
+    return myPaths != null;
+  }
+
+  void close() throws IOException {
+    try {
+      if (myPaths != null) {
+        myPaths.close();
+      }
+    }
+    finally {
+      myPaths = null;
+    }
+  }
+
+  void delete() {
+    PersistentHashMap.deleteFilesStartingWith(myPathsFile);
+    FileUtil.delete(myStateFile);
+    myIndexedCount = 0;
+    myLastNumber = Long.MIN_VALUE;
+    myLastDate = Long.MIN_VALUE;
+    myNumbersAscending = true;
+    myDatesAscending = true;
+    myDirty = false;
+  }
+
+  /**
+   * @return the number of leading changelists of the cache which are indexed
+   */
+  int getIndexedCount() {
+    return myIndexedCount;
+  }
+
+  boolean isNumbersAscending() {
+    return myNumbersAscending;
+  }
+
+  boolean isDatesAscending() {
+    return myDatesAscending;
+  }
+
+  void add(int ordinal, @NotNull CommittedChangeList changeList) throws IOException {
+    assert ordinal == myIndexedCount : "Changelist " + ordinal + " indexed out of order, " + myIndexedCount + " already indexed";
+    if (!myDirty) {
+      // an interrupted update leaves the index inconsistent, and it should be rebuilt then
+      FileUtil.delete(myStateFile);
+      myDirty = true;
+    }
+
+    final Set<String> paths = new HashSet<String>();
+    for (Change change : changeList.getChanges()) {
+      addPath(change.getBeforeRevision(), paths);
+      addPath(change.getAfterRevision(), paths);
+    }
+    for (String path : paths) {
+      appendOrdinal(myPaths, path, ordinal);
+    }
+
+    if (changeList.getNumber() <= myLastNumber) {
+      myNumbersAscending = false;
+    }
+    myLastNumber = changeList.getNumber();
+    final long date = changeList.getCommitDate().getTime();
+    if (date < myLastDate) {
+      myDatesAscending = false;
+    }
+    myLastDate = date;
+    myIndexedCount++;
+  }
+
+  void flush() throws IOException {
+    if (!myDirty) return;
+    myPaths.force();
+    final DataOutputStream stream = new DataOutputStream(new FileOutputStream(myStateFile));
+    try {
+      stream.writeInt(STATE_VERSION);
+      stream.writeInt(myIndexedCount);
+      stream.writeLong(myLastNumber);
+      stream.writeLong(myLastDate);
+      stream.writeBoolean(myNumbersAscending);
+      stream.writeBoolean(myDatesAscending);
+    }
+    finally {
+      stream.close();
+    }
+    myDirty = false;
+  }
+
+  /**
+   * @return ordinals of the changelists changing the given path itself or one of its parent directories, in ascending order
+   */
+  @NotNull
+  TIntArrayList getChangeListsOfPathOrParents(@NotNull FilePath path) throws IOException {
+    final TIntHashSet ordinals = new TIntHashSet();
+    String key = getKey(path);
+    while (true) {
+      final TIntArrayList changeLists = myPaths.get(key);
+      if (changeLists != null) {
+        ordinals.addAll(changeLists.toNativeArray());
+      }
+      final int separator = key.lastIndexOf('/');
+      if (separator <= 0) break;
+      key = key.substring(0, separator);
+    }
+    return toSortedList(ordinals);
+  }
+
+  private static TIntArrayList toSortedList(final TIntHashSet ordinals) {
+    final TIntArrayList result = new TIntArrayList(ordinals.toArray());
+    result.sort();
+    return result;
+  }
+
+  private static void addPath(final ContentRevision revision, final Set<String> paths) {
+    if (revision != null) {
+      paths.add(getKey(revision.getFile()));
+    }
+  }
+
+  private static String getKey(final FilePath path) {
+    final String result = FilePathsHelper.convertPath(path);
+    return result.length() > 1 && result.endsWith("/") ? result.substring(0, result.length() - 1) : result;
+  }
+
+  private static void appendOrdinal(final PersistentHashMap<String, TIntArrayList> map, final String key, final int ordinal)
+    throws IOException {
+    map.appendData(key, new PersistentHashMap.ValueDataAppender() {
+      @Override
+      public void append(DataOutput out) throws IOException {
+        DataInputOutputUtil.writeINT(out, ordinal);
+      }
+    });
+  }
+
+  private void readState() throws IOException {
+    if (!myStateFile.exists()) {
+      // nothing or something unknown indexed, start over
+      delete();
+      return;
+    }
+    final DataInputStream stream = new DataInputStream(new FileInputStream(myStateFile));
+    try {
+      if (stream.readInt() != STATE_VERSION) {
+        stream.close();
+        delete();
+        return;
+      }
+      myIndexedCount = stream.readInt();
+      myLastNumber = stream.readLong();
+      myLastDate = stream.readLong();
+      myNumbersAscending = stream.readBoolean();
+      myDatesAscending = stream.readBoolean();
+      myDirty = false;
+    }
+    finally {
+      stream.close();
+    }
+  }
+
+  // lists of ordinals are only appended to
+  private static class OrdinalsExternalizer implements DataExternalizer<TIntArrayList> {
+    @Override
+    public void save(DataOutput out, TIntArrayList value) throws IOException {
+      for (int i = 0; i < value.size(); i++) {
+        DataInputOutputUtil.writeINT(out, value.get(i));
+      }
+    }
+
+    @Override
+    public TIntArrayList read(DataInput in) throws IOException {
+      final DataInputStream stream = (DataInputStream)in;
+      final TIntArrayList result = new TIntArrayList();
+      while (stream.available() > 0) {
+        result.add(DataInputOutputUtil.readINT(stream));
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vcs.changes;
+
+import com.intellij.openapi.vcs.BaseRevision;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.FilePathImpl;
+import com.intellij.openapi.vcs.FileStatus;
+import com.intellij.openapi.vcs.history.VcsRevisionNumber;
+import com.intellij.testFramework.LightPlatformTestCase;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.testFramework.vcs.MockContentRevision;
+import com.intellij.util.PlusMinusModify;
+import com.intellij.util.ThrowableRunnable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ChangeListWorkerPerformanceTest extends LightPlatformTestCase {
+  private static final int CHANGES = 100000;
+  private static final int FILES_IN_DIRECTORY = 100;
+
+  public void testRefreshAndLookupsOfHugeChangeSet() throws Exception {
+    final File root = new File(getTestName(true));
+    final List<Change> changes = new ArrayList<Change>(CHANGES);
+    for (int i = 0; i < CHANGES; i++) {
+      final FilePath path = new FilePathImpl(new File(root, "dir" + i / FILES_IN_DIRECTORY + "/File" + i + ".java"), false);
+      changes.add(new Change(new MockContentRevision(path, VcsRevisionNumber.NULL),
+                             new MockContentRevision(path, VcsRevisionNumber.NULL)));
+    }
+
+    final ChangeListWorker worker = new ChangeListWorker(getProject(), new PlusMinusModify<BaseRevision>() {
+      @Override
+      public void plus(BaseRevision baseRevision) {
+      }
+
+      @Override
+      public void minus(BaseRevision baseRevision) {
+      }
+
+      @Override
+      public void modify(BaseRevision was, BaseRevision become) {
+      }
+    });
+    worker.addChangeList("Default", null, null);
+    worker.setDefault("Default");
+    worker.addChangeList("Other", null, null);
+    // changes stay in the not default list on refresh if they were there before it
+    worker.notifyStartProcessingChanges(null);
+    for (int i = 0; i < CHANGES; i += 2) {
+      worker.addChangeToList("Other", changes.get(i), null);
+    }
+    worker.notifyDoneProcessingChanges(new ChangeListAdapter());
+
+    PlatformTestUtil.startPerformanceTest("refresh and lookups of " + CHANGES + " changes", 10000, new ThrowableRunnable() {
+      @Override
+      public void run() throws Exception {
+        worker.notifyStartProcessingChanges(null);
+        for (Change change : changes) {
+          worker.addChangeToCorrespondingList(change, null);
+        }
+        worker.notifyDoneProcessingChanges(new ChangeListAdapter());
+
+        for (int i = 0; i < CHANGES; i++) {
+          final Change change = changes.get(i);
+          final FilePath path = ChangesUtil.getFilePath(change);
+          assertSame(change, worker.getChangeForPath(path));
+          assertEquals(FileStatus.MODIFIED, worker.getStatus(path.getIOFile()));
+          assertEquals(i % 2 == 0 ? "Other" : "Default", worker.listForChange(change).getName());
+        }
+        for (int i = 0; i < CHANGES; i += FILES_IN_DIRECTORY) {
+          final FilePath dir = ChangesUtil.getFilePath(changes.get(i)).getParentPath();
+          assertEquals(FILES_IN_DIRECTORY, worker.getChangesIn(dir).size());
+        }
+      }
+    }).cpuBound().assertTiming();
+  }
+}
@@ -0,0 +1,431 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vcs.changes.committed;
+
+import com.intellij.openapi.options.Configurable;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vcs.*;
+import com.intellij.openapi.vcs.changes.Change;
+import com.intellij.openapi.vcs.changes.ContentRevision;
+import com.intellij.openapi.vcs.history.VcsRevisionNumber;
+import com.intellij.openapi.vcs.versionBrowser.ChangeBrowserSettings;
+import com.intellij.openapi.vcs.versionBrowser.ChangesBrowserSettingsEditor;
+import com.intellij.openapi.vcs.versionBrowser.CommittedChangeList;
+import com.intellij.openapi.vcs.versionBrowser.CommittedChangeListImpl;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.LightPlatformTestCase;
+import com.intellij.testFramework.vcs.MockContentRevision;
+import com.intellij.util.AsynchConsumer;
+import com.intellij.util.io.PersistentHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+public class ChangesCacheFileTest extends LightPlatformTestCase {
+  private static final long START = 1357041600000L;
+  private static final long MINUTE = 60 * 1000L;
+
+  private File myRoot;
+  private File myCachePath;
+  private ChangesCacheFile myCacheFile;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myRoot = FileUtil.createTempDirectory("changes", "root");
+    myCachePath = new File(FileUtil.createTempDirectory("changes", "cache"), "cache");
+    myCacheFile = createCacheFile();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myCacheFile.delete();
+    FileUtil.delete(myRoot);
+    FileUtil.delete(myCachePath.getParentFile());
+    super.tearDown();
+  }
+
+  public void testDateFilter() throws Exception {
+    final List<CommittedChangeList> lists = new ArrayList<CommittedChangeList>();
+    for (int i = 0; i < 10; i++) {
+      lists.add(changeList(i, i, add("file" + i)));
+    }
+    myCacheFile.writeChanges(new ArrayList<CommittedChangeList>(lists));
+
+    assertFiltered(lists, dateSettings(3, 7), 0);
+    assertFiltered(lists, dateSettings(3, 7), 2);
+    assertFiltered(lists, dateSettings(-1, 20), 0);
+  }
+
+  public void testDateFilterOfCacheWrittenOutOfOrder() throws Exception {
+    final List<CommittedChangeList> newer = new ArrayList<CommittedChangeList>();
+    for (int i = 0; i < 5; i++) {
+      newer.add(changeList(i, 10 + i, add("new" + i)));
+    }
+    final List<CommittedChangeList> older = new ArrayList<CommittedChangeList>();
+    for (int i = 0; i < 5; i++) {
+      older.add(changeList(10 + i, i, add("old" + i)));
+    }
+    myCacheFile.writeChanges(new ArrayList<CommittedChangeList>(newer));
+    myCacheFile.writeChanges(new ArrayList<CommittedChangeList>(older));
+
+    final List<CommittedChangeList> all = new ArrayList<CommittedChangeList>(newer);
+    all.addAll(older);
+    assertFiltered(all, dateSettings(2, 12), 0);
+    assertFiltered(all, dateSettings(-1, 3), 0);
+    assertFiltered(all, dateSettings(11, 20), 1);
+  }
+
+  public void testNumberFilterWithDescendingNumbers() throws Exception {
+    final List<CommittedChangeList> lists = new ArrayList<CommittedChangeList>();
+    for (int i = 0; i < 10; i++) {
+      lists.add(changeList(100 - i, i, add("file" + i)));
+    }
+    myCacheFile.writeChanges(new ArrayList<CommittedChangeList>(lists));
+
+    final ChangeBrowserSettings settings = new ChangeBrowserSettings();
+    settings.USE_CHANGE_AFTER_FILTER = true;
+    settings.CHANGE_AFTER = "93";
+    settings.USE_CHANGE_BEFORE_FILTER = true;
+    settings.CHANGE_BEFORE = "97";
+    assertFiltered(lists, settings, 0);
+  }
+
+  public void testSubsequentDeletion() throws Exception {
+    final List<CommittedChangeList> lists = new ArrayList<CommittedChangeList>();
+    lists.add(changeList(1, 0, add("a.txt"), add("dir/b.txt"), add("renamed/c.txt"), add("d.txt")));
+    lists.add(changeList(2, 1, modify("a.txt"), modify("d.txt")));
+    lists.add(changeList(3, 2, delete("dir", true)));
+    lists.add(changeList(4, 3, delete("a.txt", false)));
+    lists.add(changeList(5, 4, rename("renamed", "other")));
+    myCacheFile.writeChanges(lists);
+
+    assertTrue(myCacheFile.wasSubsequentlyDeleted(path("a.txt", false), 0));
+    assertTrue(myCacheFile.wasSubsequentlyDeleted(path("a.txt", false), 1));
+    assertFalse(myCacheFile.wasSubsequentlyDeleted(path("a.txt", false), 3));
+    assertTrue(myCacheFile.wasSubsequentlyDeleted(path("dir/b.txt", false), 0));
+    assertFalse(myCacheFile.wasSubsequentlyDeleted(path("dir/b.txt", false), 2));
+    assertTrue(myCacheFile.wasSubsequentlyDeleted(path("renamed/c.txt", false), 0));
+    assertFalse(myCacheFile.wasSubsequentlyDeleted(path("d.txt", false), 0));
+  }
+
+  public void testExistingCacheIsIndexed() throws Exception {
+    myCacheFile.writeChanges(new ArrayList<CommittedChangeList>(Arrays.asList(changeList(1, 0, add("a.txt")))));
+    myCacheFile.writeChanges(new ArrayList<CommittedChangeList>(Arrays.asList(changeList(2, 1, delete("a.txt", false)))));
+    // as it was before the index was introduced
+    deleteIndex();
+
+    myCacheFile = createCacheFile();
+    assertTrue(myCacheFile.wasSubsequentlyDeleted(path("a.txt", false), 0));
+    assertTrue(getIndexStateFile().exists());
+  }
+
+  public void testIndexCatchesUpWithCache() throws Exception {
+    myCacheFile.writeChanges(new ArrayList<CommittedChangeList>(Arrays.asList(changeList(1, 0, add("a.txt")))));
+    final File savedIndex = FileUtil.createTempDirectory("changes", "index");
+    try {
+      copyIndex(myCachePath.getParentFile(), savedIndex);
+      myCacheFile.writeChanges(new ArrayList<CommittedChangeList>(Arrays.asList(changeList(2, 1, delete("a.txt", false)))));
+      // the index misses the last changelist of the cache
+      copyIndex(savedIndex, myCachePath.getParentFile());
+    }
+    finally {
+      FileUtil.delete(savedIndex);
+    }
+
+    myCacheFile = createCacheFile();
+    assertTrue(myCacheFile.wasSubsequentlyDeleted(path("a.txt", false), 0));
+  }
+
+  public void testInterruptedUpdateIsRebuilt() throws Exception {
+    myCacheFile.writeChanges(new ArrayList<CommittedChangeList>(Arrays.asList(changeList(1, 0, add("a.txt")),
+                                                                              changeList(2, 1, modify("a.txt")))));
+    // an update which didn't reach the flush of the index leaves no state
+    assertTrue(getIndexStateFile().delete());
+    myCacheFile.writeChanges(new ArrayList<CommittedChangeList>(Arrays.asList(changeList(3, 2, delete("a.txt", false)))));
+
+    myCacheFile = createCacheFile();
+    assertTrue(myCacheFile.wasSubsequentlyDeleted(path("a.txt", false), 1));
+    assertFalse(myCacheFile.wasSubsequentlyDeleted(path("a.txt", false), 2));
+  }
+
+  private void assertFiltered(final List<CommittedChangeList> all, final ChangeBrowserSettings settings, final int maxCount)
+    throws IOException {
+    final List<CommittedChangeList> expected = new ArrayList<CommittedChangeList>();
+    final ChangeBrowserSettings.Filter filter = settings.createFilter();
+    for (CommittedChangeList list : all) {
+      if (filter.accepts(list)) {
+        expected.add(list);
+      }
+    }
+    if (maxCount > 0 && expected.size() > maxCount) {
+      expected.subList(0, expected.size() - maxCount).clear();
+    }
+    assertEquals(numbers(expected), numbers(myCacheFile.readChanges(settings, maxCount)));
+  }
+
+  private static List<Long> numbers(final List<CommittedChangeList> lists) {
+    final List<Long> result = new ArrayList<Long>();
+    for (CommittedChangeList list : lists) {
+      result.add(list.getNumber());
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+  private static ChangeBrowserSettings dateSettings(final int afterMinute, final int beforeMinute) {
+    final ChangeBrowserSettings settings = new ChangeBrowserSettings();
+    settings.USE_DATE_AFTER_FILTER = true;
+    // between the changelists, the filter is strict
+    settings.setDateAfter(new Date(START + afterMinute * MINUTE + MINUTE / 2));
+    settings.USE_DATE_BEFORE_FILTER = true;
+    settings.setDateBefore(new Date(START + beforeMinute * MINUTE + MINUTE / 2));
+    return settings;
+  }
+
+  private ChangesCacheFile createCacheFile() {
+    final VirtualFile root = getSourceRoot();
+    return new ChangesCacheFile(getProject(), myCachePath, new TestVcs(getProject()), root, new DefaultRepositoryLocation("test"));
+  }
+
+  private File getIndexStateFile() {
+    return new File(myCachePath.getPath() + ".paths.state");
+  }
+
+  private void deleteIndex() {
+    PersistentHashMap.deleteFilesStartingWith(new File(myCachePath.getPath() + ".paths"));
+  }
+
+  private void copyIndex(final File from, final File to) throws IOException {
+    final String prefix = myCachePath.getName() + ".paths";
+    for (File file : to.listFiles()) {
+      if (file.getName().startsWith(prefix)) {
+        FileUtil.delete(file);
+      }
+    }
+    for (File file : from.listFiles()) {
+      if (file.getName().startsWith(prefix)) {
+        FileUtil.copy(file, new File(to, file.getName()));
+      }
+    }
+  }
+
+  private FilePath path(final String relativePath, final boolean isDirectory) {
+    return new FilePathImpl(new File(myRoot, relativePath), isDirectory);
+  }
+
+  private static CommittedChangeList changeList(final long number, final int minute, final Change... changes) {
+    return new CommittedChangeListImpl("#" + number, "", "user", number, new Date(START + minute * MINUTE), Arrays.asList(changes));
+  }
+
+  private Change add(final String relativePath) {
+    return new Change(null, revision(relativePath, false));
+  }
+
+  private Change modify(final String relativePath) {
+    return new Change(revision(relativePath, false), revision(relativePath, false));
+  }
+
+  private Change delete(final String relativePath, final boolean isDirectory) {
+    return new Change(revision(relativePath, isDirectory), null);
+  }
+
+  private Change rename(final String relativePath, final String newRelativePath) {
+    return new Change(revision(relativePath, true), revision(newRelativePath, true));
+  }
+
+  private ContentRevision revision(final String relativePath, final boolean isDirectory) {
+    return new MockContentRevision(path(relativePath, isDirectory), VcsRevisionNumber.NULL);
+  }
+
+  private static class TestVcs extends AbstractVcs {
+    private final TestCommittedChangesProvider myProvider = new TestCommittedChangesProvider();
+
+    private TestVcs(final Project project) {
+      super(project, "Test");
+    }
+
+    @Override
+    public String getDisplayName() {
+      return "Test";
+    }
+
+    @Override
+    public Configurable getConfigurable() {
+      return null;
+    }
+
+    @Override
+    public CommittedChangesProvider getCommittedChangesProvider() {
+      return myProvider;
+    }
+  }
+
+  private static class TestCommittedChangesProvider
+    implements CachingCommittedChangesProvider<CommittedChangeList, ChangeBrowserSettings> {
+    @Override
+    public int getFormatVersion() {
+      return 1;
+    }
+
+    @Override
+    public void writeChangeList(final DataOutput stream, final CommittedChangeList list) throws IOException {
+      stream.writeLong(list.getNumber());
+      stream.writeLong(list.getCommitDate().getTime());
+      stream.writeInt(list.getChanges().size());
+      for (Change change : list.getChanges()) {
+        writeRevision(stream, change.getBeforeRevision());
+        writeRevision(stream, change.getAfterRevision());
+      }
+    }
+
+    private static void writeRevision(final DataOutput stream, final ContentRevision revision) throws IOException {
+      stream.writeBoolean(revision != null);
+      if (revision != null) {
+        stream.writeUTF(revision.getFile().getPath());
+        stream.writeBoolean(revision.getFile().isDirectory());
+      }
+    }
+
+    @Override
+    public CommittedChangeList readChangeList(final RepositoryLocation location, final DataInput stream) throws IOException {
+      final long number = stream.readLong();
+      final Date date = new Date(stream.readLong());
+      final int count = stream.readInt();
+      final List<Change> changes = new ArrayList<Change>(count);
+      for (int i = 0; i < count; i++) {
+        final ContentRevision before = readRevision(stream);
+        changes.add(new Change(before, readRevision(stream)));
+      }
+      return new CommittedChangeListImpl("#" + number, "", "user", number, date, changes);
+    }
+
+    private static ContentRevision readRevision(final DataInput stream) throws IOException {
+      if (!stream.readBoolean()) return null;
+      final String path = stream.readUTF();
+      return new MockContentRevision(new FilePathImpl(new File(path), stream.readBoolean()), VcsRevisionNumber.NULL);
+    }
+
+    @Override
+    public boolean isMaxCountSupported() {
+      return true;
+    }
+
+    @Override
+    public Collection<FilePath> getIncomingFiles(final RepositoryLocation location) {
+      return null;
+    }
+
+    @Override
+    public boolean refreshCacheByNumber() {
+      return true;
+    }
+
+    @Override
+    public String getChangelistTitle() {
+      return null;
+    }
+
+    @Override
+    public boolean isChangeLocallyAvailable(FilePath filePath,
+                                            @Nullable VcsRevisionNumber localRevision,
+                                            VcsRevisionNumber changeRevision,
+                                            CommittedChangeList changeList) {
+      return false;
+    }
+
+    @Override
+    public boolean refreshIncomingWithCommitted() {
+      return false;
+    }
+
+    @NotNull
+    @Override
+    public ChangeBrowserSettings createDefaultSettings() {
+      return new ChangeBrowserSettings();
+    }
+
+    @Override
+    public ChangesBrowserSettingsEditor<ChangeBrowserSettings> createFilterUI(final boolean showDateFilter) {
+      return null;
+    }
+
+    @Override
+    public RepositoryLocation getLocationFor(FilePath root) {
+      return null;
+    }
+
+    @Override
+    public RepositoryLocation getLocationFor(final FilePath root, final String repositoryPath) {
+      return null;
+    }
+
+    @Override
+    public VcsCommittedListsZipper getZipper() {
+      return null;
+    }
+
+    @Override
+    public List<CommittedChangeList> getCommittedChanges(ChangeBrowserSettings settings, RepositoryLocation location, final int maxCount) {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public void loadCommittedChanges(ChangeBrowserSettings settings,
+                                     RepositoryLocation location,
+                                     final int maxCount,
+                                     final AsynchConsumer<CommittedChangeList> consumer) {
+      consumer.finished();
+    }
+
+    @Override
+    public ChangeListColumn[] getColumns() {
+      return new ChangeListColumn[0];
+    }
+
+    @Override
+    public VcsCommittedViewAuxiliary createActions(final DecoratorManager manager, final RepositoryLocation location) {
+      return null;
+    }
+
+    @Override
+    public int getUnlimitedCountValue() {
+      return 0;
+    }
+
+    @Override
+    public Pair<CommittedChangeList, FilePath> getOneList(final VirtualFile file, final VcsRevisionNumber number) {
+      return null;
+    }
+
+    @Override
+    public RepositoryLocation getForNonLocal(final VirtualFile file) {
+      return null;
+    }
+
+    @Override
+    public boolean supportsIncomingChanges() {
+      return true;
+    }
+  }
+}
@@ -15,11 +15,13 @@
  */
 package git4idea.annotate;
 
+import com.intellij.execution.process.ProcessOutputTypes;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.FilePathImpl;
@@ -29,22 +31,29 @@ import com.intellij.openapi.vcs.history.VcsAbstractHistorySession;
 import com.intellij.openapi.vcs.history.VcsFileRevision;
 import com.intellij.openapi.vcs.history.VcsRevisionNumber;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.concurrency.Semaphore;
+import com.intellij.vcsUtil.VcsFileUtil;
 import com.intellij.vcsUtil.VcsUtil;
 import git4idea.GitFileRevision;
 import git4idea.GitRevisionNumber;
 import git4idea.GitUtil;
 import git4idea.commands.GitCommand;
+import git4idea.commands.GitLineHandler;
+import git4idea.commands.GitLineHandlerAdapter;
 import git4idea.commands.GitSimpleHandler;
+import git4idea.config.GitConfigUtil;
+import git4idea.util.GitFileUtils;
 import git4idea.util.StringScanner;
 import git4idea.history.GitHistoryUtils;
 import git4idea.i18n.GitBundle;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.Date;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Git annotation provider implementation.
@@ -64,6 +73,13 @@ public class GitAnnotationProvider implements AnnotationProvider, VcsCacheableAn
    * The committer time key for annotations
    */
   @NonNls private static final String COMMITTER_TIME_KEY = "committer-time";
+  /**
+   * The key ending a group of lines in the incremental output
+   */
+  @NonNls private static final String FILENAME_KEY = "filename";
+  private static final Pattern HUNK_HEADER = Pattern.compile("@@ -(\\d+)(?:,(\\d+))? \\+(\\d+)(?:,(\\d+))? @@.*");
+  // annotations are computed by incremental blame, and cached persistently
+  private static final boolean ourUseBlameCache = !Boolean.getBoolean("git.annotate.no.cache");
   private static final Logger LOG = Logger.getInstance(GitAnnotationProvider.class);
 
   /**
@@ -146,6 +162,273 @@ public class GitAnnotationProvider implements AnnotationProvider, VcsCacheableAn
                                      final VcsFileRevision revision,
                                      final List<VcsFileRevision> revisions,
                                      final VirtualFile file) throws VcsException {
+    if (!ourUseBlameCache) {
+      return annotateWithPorcelainBlame(repositoryFilePath, revision, revisions, file);
+    }
+    final VirtualFile root = GitUtil.getGitRoot(repositoryFilePath);
+    final String relativePath = VcsFileUtil.relativePath(root, repositoryFilePath);
+    final String hash = GitRevisionNumber.resolve(myProject, root, revision == null ? "HEAD" : revision.getRevisionNumber().asString())
+      .asString();
+    final GitBlameCache cache = GitBlameCache.getInstance();
+    final GitBlameCache.Blame cached = cache.get(root, relativePath, hash);
+    final List<String> lines;
+    final List<GitBlameCache.Commit> blame;
+    if (cached != null) {
+      // the content is cached with the blame, git is not called at all
+      lines = splitLines(new String(cached.getContent(), file.getCharset()));
+      blame = cached.getLines();
+    }
+    else {
+      final byte[] content = GitFileUtils.getFileContent(myProject, root, hash, relativePath);
+      lines = splitLines(new String(content, file.getCharset()));
+      List<GitBlameCache.Commit> computed = null;
+      final String lastHash = cache.getLastRevision(root, relativePath);
+      if (lastHash != null && !lastHash.equals(hash)) {
+        final GitBlameCache.Blame lastBlame = cache.get(root, relativePath, lastHash);
+        if (lastBlame != null) {
+          computed = updateBlame(root, relativePath, lastHash, lastBlame.getLines(), hash, lines.size());
+        }
+      }
+      if (computed == null) {
+        final GitBlameCache.Commit[] commits = new GitBlameCache.Commit[lines.size()];
+        if (!blame(root, relativePath, hash, commits, 0, commits.length - 1)) {
+          LOG.info("Incremental blame of " + relativePath + " is incomplete, running porcelain blame");
+          return annotateWithPorcelainBlame(repositoryFilePath, revision, revisions, file);
+        }
+        computed = Arrays.asList(commits);
+      }
+      blame = computed;
+      cache.put(root, relativePath, hash, content, blame, revision == null);
+    }
+    if (blame.size() != lines.size()) {
+      LOG.info("Cached blame of " + relativePath + " doesn't match its content, running porcelain blame");
+      return annotateWithPorcelainBlame(repositoryFilePath, revision, revisions, file);
+    }
+
+    final GitFileAnnotation annotation =
+      new GitFileAnnotation(myProject, file, revision == null, revision == null ? null : revision.getRevisionNumber());
+    final Map<GitBlameCache.Commit, GitRevisionNumber> revisionNumbers = new IdentityHashMap<GitBlameCache.Commit, GitRevisionNumber>();
+    for (int i = 0; i < lines.size(); i++) {
+      final GitBlameCache.Commit commit = blame.get(i);
+      GitRevisionNumber revisionNumber = revisionNumbers.get(commit);
+      if (revisionNumber == null) {
+        revisionNumber = new GitRevisionNumber(commit.getHash(), commit.getDate());
+        revisionNumbers.put(commit, revisionNumber);
+      }
+      annotation.appendLineInfo(commit.getDate(), revisionNumber, commit.getAuthor(), lines.get(i), i + 1);
+    }
+    annotation.addLogEntries(revisions);
+    return annotation;
+  }
+
+  /**
+   * Computes the blame of the file in the new revision from its blame in an older one, if the file is changed by a single
+   * commit between them: the lines not changed by it keep their commits, and only the changed region is blamed.
+   * As git blame, the diff ignores whitespace changes.
+   *
+   * @return null if the blame should be computed from scratch
+   */
+  @Nullable
+  private List<GitBlameCache.Commit> updateBlame(final VirtualFile root,
+                                                 final String relativePath,
+                                                 final String oldHash,
+                                                 final List<GitBlameCache.Commit> oldBlame,
+                                                 final String newHash,
+                                                 final int linesCount) throws VcsException {
+    // the commits of unchanged lines may be kept only if the new revision descends from the old one
+    final GitSimpleHandler ancestry = new GitSimpleHandler(myProject, root, GitCommand.REV_LIST);
+    ancestry.setSilent(true);
+    ancestry.addParameters("--max-count=1", oldHash, "^" + newHash);
+    ancestry.endOptions();
+    if (!StringUtil.isEmptyOrSpaces(ancestry.run())) return null;
+
+    // a line changed and then changed back within the range is blamed by git to the later commit, but the diff between
+    // the ends of the range doesn't show it, so the commits of the lines are kept only if a single commit touches the file
+    final GitSimpleHandler touching = new GitSimpleHandler(myProject, root, GitCommand.REV_LIST);
+    touching.setSilent(true);
+    touching.addParameters("--max-count=2", newHash, "^" + oldHash);
+    touching.endOptions();
+    touching.addParameters(relativePath);
+    if (StringUtil.splitByLines(touching.run()).length > 1) return null;
+
+    final GitSimpleHandler diff = new GitSimpleHandler(myProject, root, GitCommand.DIFF);
+    diff.setSilent(true);
+    diff.setStdoutSuppressed(true);
+    diff.addParameters("-U0", "-w", "--no-color", "--no-ext-diff", oldHash, newHash);
+    diff.endOptions();
+    diff.addParameters(relativePath);
+    final String output = diff.run();
+
+    final GitBlameCache.Commit[] commits = new GitBlameCache.Commit[linesCount];
+    int oldLine = 0;
+    int newLine = 0;
+    int changedFrom = -1;
+    int changedTo = -1;
+    for (String line : StringUtil.splitByLines(output)) {
+      final Matcher matcher = HUNK_HEADER.matcher(line);
+      if (!matcher.matches()) continue;
+      final int oldCount = matcher.group(2) == null ? 1 : Integer.parseInt(matcher.group(2));
+      final int newCount = matcher.group(4) == null ? 1 : Integer.parseInt(matcher.group(4));
+      // for an empty side the start is the line before the hunk
+      final int oldFirst = Integer.parseInt(matcher.group(1)) - (oldCount == 0 ? 0 : 1);
+      final int newFirst = Integer.parseInt(matcher.group(3)) - (newCount == 0 ? 0 : 1);
+      if (oldFirst - oldLine != newFirst - newLine || oldFirst + oldCount > oldBlame.size() || newFirst + newCount > linesCount) {
+        return null;
+      }
+      while (newLine < newFirst) {
+        commits[newLine++] = oldBlame.get(oldLine++);
+      }
+      if (newCount > 0) {
+        if (changedFrom < 0) {
+          changedFrom = newFirst;
+        }
+        changedTo = newFirst + newCount - 1;
+      }
+      oldLine += oldCount;
+      newLine += newCount;
+    }
+    if (oldBlame.size() - oldLine != linesCount - newLine) return null;
+    while (newLine < linesCount) {
+      commits[newLine++] = oldBlame.get(oldLine++);
+    }
+
+    // one range is blamed, since older versions of git don't accept several of them
+    if (changedFrom >= 0) {
+      if ((changedTo - changedFrom + 1) * 2 > linesCount) return null;
+      if (!blame(root, relativePath, newHash, commits, changedFrom, changedTo)) return null;
+    }
+    return Arrays.asList(commits);
+  }
+
+  /**
+   * Runs git blame --incremental for the given range of lines, and puts the commits of the lines into the array as they are
+   * reported, showing the share of lines blamed so far in the progress indicator.
+   *
+   * @return false if git didn't report some of the lines
+   */
+  private boolean blame(final VirtualFile root,
+                        final String relativePath,
+                        final String hash,
+                        final GitBlameCache.Commit[] commits,
+                        final int from,
+                        final int to) throws VcsException {
+    if (to < from) return true;
+    final ProgressIndicator progress = ProgressManager.getInstance().getProgressIndicator();
+    final GitLineHandler h = new GitLineHandler(myProject, root, GitCommand.BLAME);
+    h.setSilent(true);
+    h.setStdoutSuppressed(true);
+    // the incremental output has no content, only the commit details, which are reencoded as the log output
+    h.setCharset(Charset.forName(GitConfigUtil.getLogEncoding(myProject, root)));
+    h.addParameters("--incremental", "-w");
+    if (from > 0 || to < commits.length - 1) {
+      h.addParameters("-L", (from + 1) + "," + (to + 1));
+    }
+    h.addParameters(hash);
+    h.endOptions();
+    h.addParameters(relativePath);
+
+    final Semaphore semaphore = new Semaphore();
+    final Map<String, GitBlameCache.Commit> known = new HashMap<String, GitBlameCache.Commit>();
+    final int[] blamed = new int[1];
+    h.addLineListener(new GitLineHandlerAdapter() {
+      private String myHash;
+      private int myFirstLine;
+      private int myLinesCount;
+      private String myAuthor;
+      private Date myDate;
+
+      @Override
+      public void onLineAvailable(String line, Key outputType) {
+        if (!ProcessOutputTypes.STDOUT.equals(outputType)) return;
+        if (progress != null && progress.isCanceled()) {
+          h.cancel();
+          return;
+        }
+        if (myHash == null) {
+          // <hash> <line in the original file> <line in the final file> <lines in the group>
+          final List<String> header = StringUtil.split(line, " ");
+          if (header.size() < 4) return;
+          myHash = header.get(0);
+          myFirstLine = Integer.parseInt(header.get(2)) - 1;
+          myLinesCount = Integer.parseInt(header.get(3));
+          myAuthor = null;
+          myDate = null;
+        }
+        else if (line.startsWith(AUTHOR_KEY + " ")) {
+          myAuthor = line.substring(AUTHOR_KEY.length() + 1);
+        }
+        else if (line.startsWith(COMMITTER_TIME_KEY + " ")) {
+          myDate = GitUtil.parseTimestampWithNFEReport(line.substring(COMMITTER_TIME_KEY.length() + 1), h, line);
+        }
+        else if (line.startsWith(FILENAME_KEY + " ")) {
+          // the details of a commit are reported in its first group only, the group is ended by the file name
+          GitBlameCache.Commit commit = known.get(myHash);
+          if (commit == null) {
+            commit = new GitBlameCache.Commit(myHash, myDate == null ? new Date(0) : myDate, myAuthor == null ? "" : myAuthor);
+            known.put(myHash, commit);
+          }
+          for (int i = myFirstLine; i < myFirstLine + myLinesCount && i < commits.length; i++) {
+            if (i >= from && i <= to && commits[i] == null) {
+              commits[i] = commit;
+              blamed[0]++;
+            }
+          }
+          if (progress != null) {
+            progress.setFraction((double)blamed[0] / (to - from + 1));
+          }
+          myHash = null;
+        }
+      }
+
+      @Override
+      public void processTerminated(int exitCode) {
+        semaphore.up();
+      }
+
+      @Override
+      public void startFailed(Throwable exception) {
+        semaphore.up();
+      }
+    });
+    // lines of the range are filled again
+    Arrays.fill(commits, from, to + 1, null);
+    semaphore.down();
+    h.start();
+    semaphore.waitFor();
+    if (progress != null) {
+      progress.checkCanceled();
+    }
+    if (!h.errors().isEmpty()) {
+      throw h.errors().get(0);
+    }
+    return blamed[0] == to - from + 1;
+  }
+
+  /**
+   * Splits the text into lines as git counts them, keeping the line separators.
+   */
+  private static List<String> splitLines(final String text) {
+    final List<String> result = new ArrayList<String>();
+    int start = 0;
+    while (start < text.length()) {
+      final int end = text.indexOf('\n', start);
+      if (end < 0) {
+        result.add(text.substring(start));
+        break;
+      }
+      result.add(text.substring(start, end + 1));
+      start = end + 1;
+    }
+    return result;
+  }
+
+  /**
+   * Calculate annotations with the porcelain output of git blame, without caching them
+   */
+  private GitFileAnnotation annotateWithPorcelainBlame(final FilePath repositoryFilePath,
+                                                       final VcsFileRevision revision,
+                                                       final List<VcsFileRevision> revisions,
+                                                       final VirtualFile file) throws VcsException {
     GitSimpleHandler h = new GitSimpleHandler(myProject, GitUtil.getGitRoot(repositoryFilePath), GitCommand.BLAME);
     h.setStdoutSuppressed(true);
     h.setCharset(file.getCharset());
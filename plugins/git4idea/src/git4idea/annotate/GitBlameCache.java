@@ -0,0 +1,444 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.annotate;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vcs.changes.FilePathsHelper;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.CompressionUtil;
+import com.intellij.util.io.*;
+import gnu.trove.TIntObjectHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.io.DataOutputStream;
+import java.util.*;
+
+/**
+ * !! application-level
+ *
+ * Persistent cache of git blame results: for a file path relative to the root and a commit hash, the content of the file
+ * in that commit and the commit of each of its lines are stored, commit hashes and authors being enumerated.
+ * For each path the commit of the last annotation of the current revision is remembered too, so that the next annotation
+ * of the current revision can be computed from it, by blaming only the lines changed since then.
+ * <p/>
+ * At most {@link #MAX_BLAMES} blames are kept for a root, the least recently used ones are dropped.
+ */
+public class GitBlameCache implements Disposable {
+  private static final Logger LOG = Logger.getInstance("#git4idea.annotate.GitBlameCache");
+  private static final int ourVersion = 2;
+  static final int MAX_BLAMES = 300;
+
+  private final Object myLock;
+  private final File myDir;
+  private final int myMaxBlames;
+  // root path -> opened storage
+  private final Map<String, RootBlames> myBlames;
+
+  public static GitBlameCache getInstance() {
+    return ServiceManager.getService(GitBlameCache.class);
+  }
+
+  public GitBlameCache() {
+    this(new File(new File(PathManager.getSystemPath(), "vcs"), "git_blame"), MAX_BLAMES);
+  }
+
+  GitBlameCache(final File dir, final int maxBlames) {
+    myLock = new Object();
+    myDir = dir;
+    myMaxBlames = maxBlames;
+    myBlames = new HashMap<String, RootBlames>();
+  }
+
+  /**
+   * @param path     path relative to the root
+   * @param revision full commit hash
+   * @return content and commits of the lines of the file in the revision, or null if the blame is not cached
+   */
+  @Nullable
+  public Blame get(final VirtualFile root, final String path, final String revision) {
+    synchronized (myLock) {
+      try {
+        return getBlames(root).get(path, revision);
+      }
+      catch (IOException e) {
+        LOG.info(e);
+        recreateBlamesQuietly(root);
+        return null;
+      }
+    }
+  }
+
+  /**
+   * @return commit of the last cached annotation of the current revision of the path
+   */
+  @Nullable
+  public String getLastRevision(final VirtualFile root, final String path) {
+    synchronized (myLock) {
+      try {
+        return getBlames(root).myLastRevisions.get(path);
+      }
+      catch (IOException e) {
+        LOG.info(e);
+        recreateBlamesQuietly(root);
+        return null;
+      }
+    }
+  }
+
+  /**
+   * @param last true if the revision is the current one; the previously cached blame of the current revision is dropped then,
+   *             since the new one supersedes it
+   */
+  public void put(final VirtualFile root,
+                  final String path,
+                  final String revision,
+                  final byte[] content,
+                  final List<Commit> lines,
+                  final boolean last) {
+    synchronized (myLock) {
+      try {
+        final RootBlames blames = getBlames(root);
+        blames.put(path, revision, content, lines);
+        if (last) {
+          final String previous = blames.myLastRevisions.get(path);
+          if (previous != null && !previous.equals(revision)) {
+            blames.remove(key(path, previous));
+          }
+          blames.myLastRevisions.put(path, revision);
+        }
+        blames.evict(myMaxBlames);
+      }
+      catch (IOException e) {
+        LOG.info(e);
+        recreateBlamesQuietly(root);
+      }
+    }
+  }
+
+  @Override
+  public void dispose() {
+    synchronized (myLock) {
+      for (RootBlames blames : myBlames.values()) {
+        blames.close();
+      }
+      myBlames.clear();
+    }
+  }
+
+  private RootBlames getBlames(final VirtualFile root) throws IOException {
+    final String key = FilePathsHelper.convertPath(root);
+    RootBlames blames = myBlames.get(key);
+    if (blames == null) {
+      final File base = getBaseFile(key, root);
+      try {
+        blames = new RootBlames(base);
+      }
+      catch (IOException e) {
+        LOG.info(e);
+        PersistentHashMap.deleteFilesStartingWith(base);
+        blames = new RootBlames(base);
+      }
+      myBlames.put(key, blames);
+    }
+    return blames;
+  }
+
+  private void recreateBlamesQuietly(final VirtualFile root) {
+    final String key = FilePathsHelper.convertPath(root);
+    final RootBlames blames = myBlames.remove(key);
+    if (blames != null) {
+      blames.close();
+    }
+    PersistentHashMap.deleteFilesStartingWith(getBaseFile(key, root));
+  }
+
+  private File getBaseFile(final String key, final VirtualFile root) {
+    final File dir = new File(myDir, FileUtil.sanitizeFileName(root.getName()) + "_" + Integer.toHexString(key.hashCode()));
+    dir.mkdirs();
+    PersistentHashMap.deleteFilesStartingWith(new File(dir, "blame" + (ourVersion - 1)));
+    return new File(dir, "blame" + ourVersion);
+  }
+
+  private static String key(final String path, final String revision) {
+    return revision + ":" + path;
+  }
+
+  /**
+   * The content of a file in a revision, and the commits of its lines.
+   */
+  public static class Blame {
+    @NotNull private final byte[] myContent;
+    @NotNull private final List<Commit> myLines;
+
+    public Blame(@NotNull byte[] content, @NotNull List<Commit> lines) {
+      myContent = content;
+      myLines = lines;
+    }
+
+    @NotNull
+    public byte[] getContent() {
+      return myContent;
+    }
+
+    @NotNull
+    public List<Commit> getLines() {
+      return myLines;
+    }
+  }
+
+  /**
+   * The commit a line of a file comes from.
+   */
+  public static class Commit {
+    @NotNull private final String myHash;
+    @NotNull private final Date myDate;
+    @NotNull private final String myAuthor;
+
+    public Commit(@NotNull String hash, @NotNull Date date, @NotNull String author) {
+      myHash = hash;
+      myDate = date;
+      myAuthor = author;
+    }
+
+    @NotNull
+    public String getHash() {
+      return myHash;
+    }
+
+    @NotNull
+    public Date getDate() {
+      return myDate;
+    }
+
+    @NotNull
+    public String getAuthor() {
+      return myAuthor;
+    }
+  }
+
+  private static class CommitRecord {
+    private final long myTime;
+    private final int myAuthor;
+
+    private CommitRecord(long time, int author) {
+      myTime = time;
+      myAuthor = author;
+    }
+  }
+
+  private static class CommitRecordExternalizer implements DataExternalizer<CommitRecord> {
+    @Override
+    public void save(DataOutput out, CommitRecord value) throws IOException {
+      // times are whole seconds
+      DataInputOutputUtil.writeINT(out, (int)(value.myTime / 1000));
+      DataInputOutputUtil.writeINT(out, value.myAuthor);
+    }
+
+    @Override
+    public CommitRecord read(DataInput in) throws IOException {
+      final long time = ((long)DataInputOutputUtil.readINT(in)) * 1000;
+      return new CommitRecord(time, DataInputOutputUtil.readINT(in));
+    }
+  }
+
+  private static class BlameRecord {
+    private final byte[] myContent;
+    private final int[] myLines;
+
+    private BlameRecord(byte[] content, int[] lines) {
+      myContent = content;
+      myLines = lines;
+    }
+  }
+
+  private static class BlameRecordExternalizer implements DataExternalizer<BlameRecord> {
+    @Override
+    public void save(DataOutput out, BlameRecord value) throws IOException {
+      CompressionUtil.writeCompressed(out, value.myContent, value.myContent.length);
+      DataInputOutputUtil.writeINT(out, value.myLines.length);
+      for (int id : value.myLines) {
+        DataInputOutputUtil.writeINT(out, id);
+      }
+    }
+
+    @Override
+    public BlameRecord read(DataInput in) throws IOException {
+      final byte[] content = CompressionUtil.readCompressed(in);
+      final int[] lines = new int[DataInputOutputUtil.readINT(in)];
+      for (int i = 0; i < lines.length; i++) {
+        lines[i] = DataInputOutputUtil.readINT(in);
+      }
+      return new BlameRecord(content, lines);
+    }
+  }
+
+  private static class RootBlames {
+    private final PersistentStringEnumerator myHashes;
+    private final PersistentStringEnumerator myAuthors;
+    // hash id -> commit
+    private final PersistentHashMap<Integer, CommitRecord> myCommits;
+    // revision:path -> content and hash id of each line
+    private final PersistentHashMap<String, BlameRecord> myLines;
+    // path -> revision of the last annotation of the current revision
+    private final PersistentHashMap<String, String> myLastRevisions;
+    // revision:path of the cached blames, the least recently used first; saved on close
+    private final LinkedHashMap<String, Boolean> myUsage;
+    private final File myUsageFile;
+
+    private RootBlames(final File base) throws IOException {
+      myHashes = new PersistentStringEnumerator(new File(base.getPath() + ".hashes"));
+      myAuthors = new PersistentStringEnumerator(new File(base.getPath() + ".authors"));
+      myCommits = new PersistentHashMap<Integer, CommitRecord>(new File(base.getPath() + ".commits"), EnumeratorIntegerDescriptor.INSTANCE,
+                                                               new CommitRecordExternalizer());
+      myLines = new PersistentHashMap<String, BlameRecord>(new File(base.getPath() + ".lines"), new EnumeratorStringDescriptor(),
+                                                           new BlameRecordExternalizer());
+      myLastRevisions = new PersistentHashMap<String, String>(new File(base.getPath() + ".last"), new EnumeratorStringDescriptor(),
+                                                              new EnumeratorStringDescriptor());
+      myUsage = new LinkedHashMap<String, Boolean>(16, 0.75f, true);
+      myUsageFile = new File(base.getPath() + ".usage");
+      loadUsage();
+    }
+
+    private void loadUsage() throws IOException {
+      final Set<String> keys = new HashSet<String>(myLines.getAllKeysWithExistingMapping());
+      final List<String> used = new ArrayList<String>();
+      if (myUsageFile.exists()) {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(myUsageFile)));
+        try {
+          for (int i = DataInputOutputUtil.readINT(in); i > 0; i--) {
+            final String key = IOUtil.readString(in);
+            if (keys.remove(key)) {
+              used.add(key);
+            }
+          }
+        }
+        finally {
+          in.close();
+        }
+      }
+      // the blames missing in the usage file, if it wasn't saved, go first
+      for (String key : keys) {
+        myUsage.put(key, Boolean.TRUE);
+      }
+      for (String key : used) {
+        myUsage.put(key, Boolean.TRUE);
+      }
+    }
+
+    private void saveUsage() throws IOException {
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myUsageFile)));
+      try {
+        DataInputOutputUtil.writeINT(out, myUsage.size());
+        for (String key : myUsage.keySet()) {
+          IOUtil.writeString(key, out);
+        }
+      }
+      finally {
+        out.close();
+      }
+    }
+
+    @Nullable
+    private Blame get(final String path, final String revision) throws IOException {
+      final String key = key(path, revision);
+      final BlameRecord blame = myLines.get(key);
+      if (blame == null) return null;
+      myUsage.get(key);
+      final TIntObjectHashMap<Commit> commits = new TIntObjectHashMap<Commit>();
+      final List<Commit> result = new ArrayList<Commit>(blame.myLines.length);
+      for (int id : blame.myLines) {
+        Commit commit = commits.get(id);
+        if (commit == null) {
+          final CommitRecord record = myCommits.get(id);
+          final String hash = myHashes.valueOf(id);
+          if (record == null || hash == null) return null;
+          final String author = myAuthors.valueOf(record.myAuthor);
+          commit = new Commit(hash, new Date(record.myTime), author == null ? "" : author);
+          commits.put(id, commit);
+        }
+        result.add(commit);
+      }
+      return new Blame(blame.myContent, result);
+    }
+
+    private void put(final String path, final String revision, final byte[] content, final List<Commit> lines) throws IOException {
+      final Map<Commit, Integer> ids = new IdentityHashMap<Commit, Integer>();
+      final int[] lineIds = new int[lines.size()];
+      for (int i = 0; i < lineIds.length; i++) {
+        final Commit commit = lines.get(i);
+        Integer id = ids.get(commit);
+        if (id == null) {
+          id = myHashes.enumerate(commit.getHash());
+          if (!myCommits.containsMapping(id)) {
+            myCommits.put(id, new CommitRecord(commit.getDate().getTime(), myAuthors.enumerate(commit.getAuthor())));
+          }
+          ids.put(commit, id);
+        }
+        lineIds[i] = id;
+      }
+      final String key = key(path, revision);
+      myLines.put(key, new BlameRecord(content, lineIds));
+      myUsage.put(key, Boolean.TRUE);
+    }
+
+    private void remove(final String key) throws IOException {
+      myLines.remove(key);
+      myUsage.remove(key);
+    }
+
+    /**
+     * Drops the least recently used blames over the limit, commits and authors are left enumerated.
+     */
+    private void evict(final int maxBlames) throws IOException {
+      final Iterator<String> iterator = myUsage.keySet().iterator();
+      while (myUsage.size() > maxBlames && iterator.hasNext()) {
+        final String key = iterator.next();
+        iterator.remove();
+        myLines.remove(key);
+        final int separator = key.indexOf(':');
+        final String path = key.substring(separator + 1);
+        if (key.substring(0, separator).equals(myLastRevisions.get(path))) {
+          myLastRevisions.remove(path);
+        }
+      }
+    }
+
+    private void close() {
+      try {
+        saveUsage();
+      }
+      catch (IOException e) {
+        LOG.info(e);
+      }
+      try {
+        myLines.close();
+        myLastRevisions.close();
+        myCommits.close();
+        myHashes.close();
+        myAuthors.close();
+      }
+      catch (IOException e) {
+        LOG.info(e);
+      }
+    }
+  }
+}
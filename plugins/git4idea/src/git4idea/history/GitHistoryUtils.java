@@ -50,6 +50,7 @@ import git4idea.history.browser.SymbolicRefs;
 import git4idea.history.browser.SymbolicRefsI;
 import git4idea.history.wholeTree.AbstractHash;
 import git4idea.history.wholeTree.CommitHashPlusParents;
+import git4idea.history.wholeTree.CommitTextAndPaths;
 import git4idea.history.wholeTree.GitCommitsSequentialIndex;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -857,6 +858,111 @@ public class GitHistoryUtils {
     return logRecord.getAuthorTimeStamp() * 1000;
   }
 
+  /**
+   * @return full and abbreviated hashes of commits HEAD, branches, remote branches and tags point to
+   */
+  public static List<Pair<String, String>> refHeadsHashes(Project project, VirtualFile root) throws VcsException {
+    GitSimpleHandler h = new GitSimpleHandler(project, root, GitCommand.LOG);
+    h.setSilent(true);
+    h.addParameters("--no-walk", "--pretty=format:%H %h", "HEAD", "--branches", "--remotes", "--tags");
+    h.endOptions();
+    final List<Pair<String, String>> result = new ArrayList<Pair<String, String>>();
+    for (String line : StringUtil.splitByLines(h.run())) {
+      final String trimmed = line.trim();
+      final int space = trimmed.indexOf(' ');
+      if (space > 0) {
+        result.add(Pair.create(trimmed.substring(0, space), trimmed.substring(space + 1)));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Streams messages, committers and changed paths of the commits selected by the parameters.
+   */
+  public static void textAndPaths(Project project, VirtualFile root, final AsynchConsumer<CommitTextAndPaths> consumer,
+                                  final Getter<Boolean> isCanceled, final String... parameters) throws VcsException {
+    final GitLineHandler h = new GitLineHandler(project, root, GitCommand.LOG);
+    final GitLogParser parser = new GitLogParser(project, GitLogParser.NameStatus.NAME, HASH, COMMITTER_NAME, COMMITTER_EMAIL, SUBJECT, BODY,
+                                                 RAW_BODY);
+    h.setStdoutSuppressed(true);
+    h.addParameters(parameters);
+    h.addParameters("--name-only", parser.getPretty(), "--encoding=UTF-8", "--full-history", "--sparse");
+    h.endOptions();
+
+    final MyTokenAccumulator accumulator = new MyTokenAccumulator(parser);
+    final VcsException[] exc = new VcsException[1];
+    final Semaphore semaphore = new Semaphore();
+    h.addLineListener(new GitLineHandlerListener() {
+      @Override
+      public void onLineAvailable(final String line, final Key outputType) {
+        try {
+          if (ProcessOutputTypes.STDOUT.equals(outputType)) {
+            if (isCanceled != null && isCanceled.get()) {
+              h.cancel();
+              return;
+            }
+            final GitLogRecord record = accumulator.acceptLine(line);
+            if (record != null) {
+              consumer.consume(toTextAndPaths(record));
+            }
+          }
+        } catch (ProcessCanceledException e) {
+          h.cancel();
+          semaphore.up();
+        }
+      }
+
+      @Override
+      public void processTerminated(int exitCode) {
+        try {
+          if (exitCode != 0) {
+            exc[0] = createLogFailure(h, exitCode);
+          }
+          else if (isCanceled == null || ! isCanceled.get()) {
+            final GitLogRecord record = accumulator.processLast();
+            if (record != null) {
+              consumer.consume(toTextAndPaths(record));
+            }
+          }
+        } catch (ProcessCanceledException e) {
+          // the consumer has been stopped
+        } finally {
+          semaphore.up();
+        }
+      }
+
+      @Override
+      public void startFailed(Throwable exception) {
+        exc[0] = new VcsException(exception);
+        semaphore.up();
+      }
+    });
+    semaphore.down();
+    h.start();
+    semaphore.waitFor();
+    if (exc[0] != null) {
+      throw exc[0];
+    }
+    consumer.finished();
+  }
+
+  private static CommitTextAndPaths toTextAndPaths(final GitLogRecord record) {
+    final List<String> paths = new ArrayList<String>();
+    for (String path : record.getPaths()) {
+      try {
+        paths.add(GitUtil.unescapePath(path));
+      }
+      catch (VcsException e) {
+        LOG.info(e);
+        paths.add(path);
+      }
+    }
+    // the committer is matched the same way git matches --committer
+    final String committer = record.getCommitterName() + " <" + record.getCommitterEmail() + ">";
+    return new CommitTextAndPaths(record.getHash(), committer, record.getFullMessage(), paths);
+  }
+
   public static void hashesWithParents(Project project, FilePath path, final AsynchConsumer<CommitHashPlusParents> consumer,
                                        final Getter<Boolean> isCanceled,
                                        Collection<VirtualFile> paths, final String... parameters) throws VcsException {
@@ -915,6 +1021,68 @@ public class GitHistoryUtils {
     consumer.finished();
   }
 
+  /**
+   * Same as {@link #hashesWithParents} over the whole root, but with full hashes of commits and parents, which don't change
+   * as the repository grows, unlike abbreviated ones.
+   * Nothing is passed to the consumer if git fails.
+   */
+  public static void hashesWithFullParents(Project project, VirtualFile root, final AsynchConsumer<CommitHashPlusParents> consumer,
+                                           final String... parameters) throws VcsException {
+    final GitLineHandler h = new GitLineHandler(project, root, GitCommand.LOG);
+    final GitLogParser parser = new GitLogParser(project, HASH, COMMIT_TIME, PARENTS, AUTHOR_NAME, AUTHOR_EMAIL);
+    h.setStdoutSuppressed(true);
+    h.addParameters(parameters);
+    h.addParameters(parser.getPretty(), "--encoding=UTF-8", "--full-history", "--sparse");
+    h.endOptions();
+
+    // the output is kept until git exits successfully, so that a failed run doesn't leave a part of the history behind
+    final List<CommitHashPlusParents> commits = new ArrayList<CommitHashPlusParents>();
+    final VcsException[] exc = new VcsException[1];
+    final Semaphore semaphore = new Semaphore();
+    h.addLineListener(new GitLineHandlerListener() {
+      @Override
+      public void onLineAvailable(final String line, final Key outputType) {
+        if (ProcessOutputTypes.STDOUT.equals(outputType)) {
+          GitLogRecord record = parser.parseOneRecord(line);
+          commits.add(new CommitHashPlusParents(record.getHash(), record.getParentsHashes(), record.getLongTimeStamp() * 1000,
+                                                record.getAuthorName(), record.getAuthorEmail()));
+        }
+      }
+
+      @Override
+      public void processTerminated(int exitCode) {
+        if (exitCode != 0) {
+          exc[0] = createLogFailure(h, exitCode);
+        }
+        semaphore.up();
+      }
+
+      @Override
+      public void startFailed(Throwable exception) {
+        exc[0] = new VcsException(exception);
+        semaphore.up();
+      }
+    });
+    semaphore.down();
+    h.start();
+    semaphore.waitFor();
+    if (exc[0] != null) {
+      throw exc[0];
+    }
+    for (CommitHashPlusParents commit : commits) {
+      consumer.consume(commit);
+    }
+    consumer.finished();
+  }
+
+  private static VcsException createLogFailure(final GitHandler h, final int exitCode) {
+    final List<VcsException> errors = h.errors();
+    if (! errors.isEmpty()) {
+      return errors.get(0);
+    }
+    return new VcsException("git log exited with code " + exitCode + ": " + StringUtil.join(h.getLastOutput(), "\n"));
+  }
+
   /**
    * Get name of the file in the last commit. If file was renamed, returns the previous name.
    *
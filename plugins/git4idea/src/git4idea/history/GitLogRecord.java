@@ -59,7 +59,7 @@ class GitLogRecord {
     mySupportsRawBody = supportsRawBody;
   }
 
-  private List<String> getPaths() {
+  List<String> getPaths() {
     return myPaths;
   }
 
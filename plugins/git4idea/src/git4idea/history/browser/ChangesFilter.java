@@ -133,6 +133,10 @@ public class ChangesFilter {
     public CommandParametersFilter getCommandParametersFilter() {
       return myCommandParametersFilter;
     }
+
+    public Filter[] getFilters() {
+      return myFilters;
+    }
   }
 
   public static List<MemoryFilter> combineFilters(final Collection<Filter> filters) {
@@ -229,6 +233,10 @@ public class ChangesFilter {
     public CommandParametersFilter getCommandParametersFilter() {
       return myCommandParametersFilter;
     }
+
+    public long getTs() {
+      return myTs;
+    }
   }
 
   public static class AfterTime implements Filter {
@@ -267,6 +275,10 @@ public class ChangesFilter {
     public CommandParametersFilter getCommandParametersFilter() {
       return myCommandParametersFilter;
     }
+
+    public long getTs() {
+      return myTs;
+    }
   }
 
   public static class Author implements Filter {
@@ -303,6 +315,10 @@ public class ChangesFilter {
       return myMemoryFilter;
     }
 
+    public String getRegexp() {
+      return myRegexp;
+    }
+
     @Override
     public boolean equals(Object o) {
       if (this == o) return true;
@@ -355,6 +371,10 @@ public class ChangesFilter {
       return myMemoryFilter;
     }
 
+    public String getRegexp() {
+      return myRegexp;
+    }
+
     @Override
     public boolean equals(Object o) {
       if (this == o) return true;
@@ -550,6 +570,10 @@ public class ChangesFilter {
       return myMap.isEmpty();
     }
 
+    public Collection<VirtualFile> getFiles() {
+      return myMap.values();
+    }
+
     // can be applied only in memory
     public CommandParametersFilter getCommandParametersFilter() {
       return new CommandParametersFilter() {
@@ -572,12 +596,19 @@ public class ChangesFilter {
 
   public static class Comment implements Filter {
     private final String myRegexp;
+    // literal parts of the regexp, in lower case
+    private final List<String> myWords;
     private Pattern myPattern;
     private CommandParametersFilter myCommandParametersFilter;
     private MemoryFilter myMemoryFilter;
 
     public Comment(final String regexp) {
+      this(regexp, Collections.<String>emptyList());
+    }
+
+    public Comment(final String regexp, final List<String> words) {
       myRegexp = regexp;
+      myWords = words;
       myPattern = Pattern.compile(myRegexp);
       myCommandParametersFilter = new CommandParametersFilter() {
         public void applyToCommandLine(List<String> sink) {
@@ -606,6 +637,14 @@ public class ChangesFilter {
       return myMemoryFilter;
     }
 
+    public String getRegexp() {
+      return myRegexp;
+    }
+
+    public List<String> getWords() {
+      return myWords;
+    }
+
     @Override
     public boolean equals(Object o) {
       if (this == o) return true;
@@ -16,6 +16,7 @@
 package git4idea.history.wholeTree;
 
 import com.intellij.util.SmartList;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.List;
 
@@ -27,19 +28,26 @@ public class CommitHashPlusParents {
   private final long myTime;
   private final String[] myParents;
   private final String myAuthorName;
+  private final String myAuthorEmail;
 
   public CommitHashPlusParents(AbstractHash hash, String[] parents, long time, String authorName) {
     myHash = hash;
     myParents = parents;
     myTime = time;
     myAuthorName = authorName;
+    myAuthorEmail = null;
   }
 
   public CommitHashPlusParents(String hash, String[] parents, long time, String authorName) {
+    this(hash, parents, time, authorName, null);
+  }
+
+  public CommitHashPlusParents(String hash, String[] parents, long time, String authorName, @Nullable String authorEmail) {
     myHash = AbstractHash.create(hash);
     myParents = parents;
     myTime = time;
     myAuthorName = authorName;
+    myAuthorEmail = authorEmail;
   }
 
   public long getTime() {
@@ -66,6 +74,14 @@ public class CommitHashPlusParents {
     return myAuthorName;
   }
 
+  /**
+   * @return null if the email was not loaded
+   */
+  @Nullable
+  public String getAuthorEmail() {
+    return myAuthorEmail;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
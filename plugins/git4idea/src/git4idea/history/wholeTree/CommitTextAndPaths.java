@@ -0,0 +1,51 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.history.wholeTree;
+
+import java.util.List;
+
+/**
+ * Commit data the log is filtered by: message, committer as "name <email>" and paths (relative to the root) of the changed files
+ */
+public class CommitTextAndPaths {
+  private final String myHash;
+  private final String myCommitter;
+  private final String myMessage;
+  private final List<String> myPaths;
+
+  public CommitTextAndPaths(String hash, String committer, String message, List<String> paths) {
+    myHash = hash;
+    myCommitter = committer;
+    myMessage = message;
+    myPaths = paths;
+  }
+
+  public String getHash() {
+    return myHash;
+  }
+
+  public String getCommitter() {
+    return myCommitter;
+  }
+
+  public String getMessage() {
+    return myMessage;
+  }
+
+  public List<String> getPaths() {
+    return myPaths;
+  }
+}
@@ -0,0 +1,891 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.history.wholeTree;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Condition;
+import com.intellij.openapi.util.Getter;
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vcs.changes.FilePathsHelper;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.AsynchConsumer;
+import com.intellij.util.io.*;
+import git4idea.history.GitHistoryUtils;
+import git4idea.history.browser.ChangesFilter;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntIntHashMap;
+import gnu.trove.TIntObjectHashMap;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * !! application-level
+ *
+ * Persistent commit graph of a repository: full commit hashes are enumerated, and for each commit its time, author name and email and
+ * enumerated parents are stored. Abbreviated hashes are not stored, since git makes them longer as the repository grows;
+ * they are computed for the commits returned, as git log does it. The graph is updated incrementally, by asking git only for the commits not reachable
+ * from the heads seen at the previous update, so the whole tree log can be built without running git log over the
+ * full history each time it is opened.
+ *
+ * Messages, committers and changed paths are indexed in background the same incremental way (messages by trigrams,
+ * paths together with all their parent directories), so that text, user and structure filters of the log can be applied
+ * without running git.
+ */
+public class GitCommitGraphIndex implements Disposable {
+  private static final Logger LOG = Logger.getInstance("#git4idea.history.wholeTree.GitCommitGraphIndex");
+  private static final int ourVersion = 3;
+  private static final int ourDetailsBatchSize = 500;
+
+  private final Object myLock;
+  private final File myDir;
+  // root path -> opened storage
+  private final Map<String, RootGraph> myGraphs;
+  // roots whose details are being indexed
+  private final Set<String> myDetailsUpdates;
+
+  public static GitCommitGraphIndex getInstance() {
+    return ServiceManager.getService(GitCommitGraphIndex.class);
+  }
+
+  public GitCommitGraphIndex() {
+    myLock = new Object();
+    myDir = new File(new File(PathManager.getSystemPath(), "vcs"), "git_graph");
+    myGraphs = new HashMap<String, RootGraph>();
+    myDetailsUpdates = new HashSet<String>();
+  }
+
+  /**
+   * Brings the graph up to date with the current heads of the repository and returns all commits reachable from them,
+   * in the order of git log --date-order (children before parents, otherwise newer first).
+   *
+   * @return null if the graph couldn't be built and git should be asked directly
+   */
+  @Nullable
+  public List<CommitHashPlusParents> getDateOrderedCommits(final Project project, final VirtualFile root) throws VcsException {
+    synchronized (myLock) {
+      final List<Pair<String, String>> refs = GitHistoryUtils.refHeadsHashes(project, root);
+      if (refs.isEmpty()) return null;
+      final List<String> heads = new ArrayList<String>(refs.size());
+      int abbreviationLength = Integer.MAX_VALUE;
+      for (Pair<String, String> ref : refs) {
+        heads.add(ref.getFirst());
+        abbreviationLength = Math.min(abbreviationLength, ref.getSecond().length());
+      }
+      try {
+        RootGraph graph = getGraph(root);
+        if (!graph.update(project, root, heads, false)) {
+          LOG.info("Stored commit graph of " + root.getPath() + " is not consistent with the repository, rebuilding");
+          graph = recreateGraph(root);
+          if (!graph.update(project, root, heads, true)) return null;
+        }
+        List<CommitHashPlusParents> result = graph.dateOrder(heads, abbreviationLength);
+        if (result == null) {
+          LOG.info("Stored commit graph of " + root.getPath() + " misses reachable commits, rebuilding");
+          graph = recreateGraph(root);
+          if (!graph.update(project, root, heads, true)) return null;
+          result = graph.dateOrder(heads, abbreviationLength);
+          if (result == null) return null;
+        }
+        graph.myHeads = heads;
+        graph.myDateOrdered = result;
+        if (!graph.hasDetails(heads)) {
+          scheduleDetailsUpdate(project, root, heads);
+        }
+        return result;
+      }
+      catch (IOException e) {
+        LOG.info(e);
+        recreateGraphQuietly(root);
+        return null;
+      }
+    }
+  }
+
+  /**
+   * @param commits the commits last returned by {@link #getDateOrderedCommits}, they are matched by their abbreviated hashes
+   * @return condition selecting commits which match all the filters, or null if some of the filters can't be checked with the index,
+   * the commits are not the last returned ones, or messages and paths of the commits are needed and not indexed yet
+   */
+  @Nullable
+  public Condition<CommitHashPlusParents> getFilterCondition(final VirtualFile root,
+                                                             final List<CommitHashPlusParents> commits,
+                                                             final Collection<ChangesFilter.Filter> filters) {
+    synchronized (myLock) {
+      final RootGraph graph = myGraphs.get(FilePathsHelper.convertPath(root));
+      // abbreviations are different once new commits are added
+      if (graph == null || graph.myHeads == null || graph.myDateOrdered != commits) return null;
+      try {
+        final FilterConditionBuilder builder = new FilterConditionBuilder(graph, root, ignoresCase(filters));
+        for (ChangesFilter.Filter filter : filters) {
+          if (!builder.add(filter)) return null;
+        }
+        if (builder.myNeedsDetails && !graph.hasDetails(graph.myHeads)) return null;
+        return builder.build();
+      }
+      catch (IOException e) {
+        LOG.info(e);
+        return null;
+      }
+    }
+  }
+
+  /**
+   * The comment filter adds --regexp-ignore-case to the command line, which applies to author and committer patterns too.
+   */
+  private static boolean ignoresCase(final Collection<ChangesFilter.Filter> filters) {
+    for (ChangesFilter.Filter filter : filters) {
+      if (filter instanceof ChangesFilter.Comment) return true;
+      if (filter instanceof ChangesFilter.And && ignoresCase(Arrays.asList(((ChangesFilter.And)filter).getFilters()))) return true;
+    }
+    return false;
+  }
+
+  private void scheduleDetailsUpdate(final Project project, final VirtualFile root, final List<String> heads) {
+    final String key = FilePathsHelper.convertPath(root);
+    if (!myDetailsUpdates.add(key)) return;
+    ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (!updateDetails(project, root, heads, false)) {
+            updateDetails(project, root, heads, true);
+          }
+        }
+        catch (VcsException e) {
+          LOG.info(e);
+        }
+        catch (IOException e) {
+          LOG.info(e);
+        }
+        finally {
+          synchronized (myLock) {
+            myDetailsUpdates.remove(key);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Runs git without holding the lock, so that the log can be shown and filtered by the already indexed data meanwhile.
+   *
+   * @return false if some of the heads is still not indexed after the update
+   */
+  private boolean updateDetails(final Project project, final VirtualFile root, final List<String> heads, final boolean full)
+    throws VcsException, IOException {
+    final List<String> parameters = new ArrayList<String>(heads);
+    if (!full) {
+      final List<String> previousHeads;
+      synchronized (myLock) {
+        previousHeads = getGraph(root).readHeads(true);
+      }
+      if (!previousHeads.isEmpty()) {
+        parameters.add("--not");
+        parameters.addAll(previousHeads);
+      }
+    }
+
+    final IOException[] exception = new IOException[1];
+    final List<CommitTextAndPaths> batch = new ArrayList<CommitTextAndPaths>();
+    GitHistoryUtils.textAndPaths(project, root, new AsynchConsumer<CommitTextAndPaths>() {
+      @Override
+      public void consume(CommitTextAndPaths commit) {
+        batch.add(commit);
+        if (batch.size() >= ourDetailsBatchSize) {
+          flush();
+        }
+      }
+
+      @Override
+      public void finished() {
+        flush();
+      }
+
+      private void flush() {
+        if (exception[0] == null && !batch.isEmpty()) {
+          synchronized (myLock) {
+            try {
+              final RootGraph graph = getGraph(root);
+              for (CommitTextAndPaths commit : batch) {
+                graph.putDetails(commit);
+              }
+            }
+            catch (IOException e) {
+              exception[0] = e;
+            }
+          }
+        }
+        batch.clear();
+      }
+    }, new Getter<Boolean>() {
+      @Override
+      public Boolean get() {
+        return exception[0] != null || project.isDisposed();
+      }
+    }, ArrayUtil.toStringArray(parameters));
+    if (exception[0] != null) throw exception[0];
+
+    synchronized (myLock) {
+      final RootGraph graph = getGraph(root);
+      if (!graph.hasDetails(heads)) return false;
+      graph.writeHeads(heads, true);
+      graph.force();
+      return true;
+    }
+  }
+
+  @Override
+  public void dispose() {
+    synchronized (myLock) {
+      for (RootGraph graph : myGraphs.values()) {
+        graph.close();
+      }
+      myGraphs.clear();
+    }
+  }
+
+  private RootGraph getGraph(final VirtualFile root) throws IOException {
+    final String key = FilePathsHelper.convertPath(root);
+    RootGraph graph = myGraphs.get(key);
+    if (graph == null) {
+      final File base = getBaseFile(key, root);
+      // graphs of the previous version keep abbreviated hashes, which can't be used anymore
+      deleteFiles(new File(base.getParentFile(), "graph" + (ourVersion - 1)));
+      try {
+        graph = new RootGraph(base);
+      }
+      catch (IOException e) {
+        LOG.info(e);
+        deleteFiles(base);
+        graph = new RootGraph(base);
+      }
+      myGraphs.put(key, graph);
+    }
+    return graph;
+  }
+
+  private RootGraph recreateGraph(final VirtualFile root) throws IOException {
+    final String key = FilePathsHelper.convertPath(root);
+    final RootGraph graph = myGraphs.remove(key);
+    if (graph != null) {
+      graph.close();
+    }
+    deleteFiles(getBaseFile(key, root));
+    return getGraph(root);
+  }
+
+  private void recreateGraphQuietly(final VirtualFile root) {
+    try {
+      recreateGraph(root);
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
+  }
+
+  private File getBaseFile(final String key, final VirtualFile root) {
+    final File dir = new File(myDir, FileUtil.sanitizeFileName(root.getName()) + "_" + Integer.toHexString(key.hashCode()));
+    dir.mkdirs();
+    return new File(dir, "graph" + ourVersion);
+  }
+
+  private static void deleteFiles(final File base) {
+    PersistentHashMap.deleteFilesStartingWith(base);
+  }
+
+  private static class CommitRecord {
+    private final long myTime;
+    private final int myAuthor;
+    private final int myAuthorEmail;
+    private final int[] myParents;
+
+    private CommitRecord(long time, int author, int authorEmail, int[] parents) {
+      myTime = time;
+      myAuthor = author;
+      myAuthorEmail = authorEmail;
+      myParents = parents;
+    }
+  }
+
+  private static class CommitRecordExternalizer implements DataExternalizer<CommitRecord> {
+    @Override
+    public void save(DataOutput out, CommitRecord value) throws IOException {
+      // times are whole seconds
+      DataInputOutputUtil.writeINT(out, (int)(value.myTime / 1000));
+      DataInputOutputUtil.writeINT(out, value.myAuthor);
+      DataInputOutputUtil.writeINT(out, value.myAuthorEmail);
+      DataInputOutputUtil.writeINT(out, value.myParents.length);
+      for (int parent : value.myParents) {
+        DataInputOutputUtil.writeINT(out, parent);
+      }
+    }
+
+    @Override
+    public CommitRecord read(DataInput in) throws IOException {
+      final long time = ((long)DataInputOutputUtil.readINT(in)) * 1000;
+      final int author = DataInputOutputUtil.readINT(in);
+      final int authorEmail = DataInputOutputUtil.readINT(in);
+      final int[] parents = new int[DataInputOutputUtil.readINT(in)];
+      for (int i = 0; i < parents.length; i++) {
+        parents[i] = DataInputOutputUtil.readINT(in);
+      }
+      return new CommitRecord(time, author, authorEmail, parents);
+    }
+  }
+
+  private static class CommitText {
+    private final int myCommitter;
+    private final String myMessage;
+
+    private CommitText(int committer, String message) {
+      myCommitter = committer;
+      myMessage = message;
+    }
+  }
+
+  private static class CommitTextExternalizer implements DataExternalizer<CommitText> {
+    private final byte[] myBuffer = IOUtil.allocReadWriteUTFBuffer();
+
+    @Override
+    public void save(DataOutput out, CommitText value) throws IOException {
+      DataInputOutputUtil.writeINT(out, value.myCommitter);
+      IOUtil.writeUTFFast(myBuffer, out, value.myMessage);
+    }
+
+    @Override
+    public CommitText read(DataInput in) throws IOException {
+      final int committer = DataInputOutputUtil.readINT(in);
+      return new CommitText(committer, IOUtil.readUTFFast(myBuffer, in));
+    }
+  }
+
+  // lists of commit ids are only appended to
+  private static class CommitIdsExternalizer implements DataExternalizer<TIntArrayList> {
+    @Override
+    public void save(DataOutput out, TIntArrayList value) throws IOException {
+      for (int i = 0; i < value.size(); i++) {
+        DataInputOutputUtil.writeINT(out, value.get(i));
+      }
+    }
+
+    @Override
+    public TIntArrayList read(DataInput in) throws IOException {
+      final DataInputStream stream = (DataInputStream)in;
+      final TIntArrayList result = new TIntArrayList();
+      while (stream.available() > 0) {
+        result.add(DataInputOutputUtil.readINT(stream));
+      }
+      return result;
+    }
+  }
+
+  private static int trigram(final String text, final int offset) {
+    return (text.charAt(offset) * 31 + text.charAt(offset + 1)) * 31 + text.charAt(offset + 2);
+  }
+
+  private static TIntHashSet trigrams(final String lowerCaseText) {
+    final TIntHashSet result = new TIntHashSet();
+    for (int i = 0; i + 3 <= lowerCaseText.length(); i++) {
+      result.add(trigram(lowerCaseText, i));
+    }
+    return result;
+  }
+
+  private static class FilterConditionBuilder {
+    private final RootGraph myGraph;
+    private final VirtualFile myRoot;
+    private final int myPatternFlags;
+    // null if not restricted
+    private TIntHashSet myIds;
+    private final List<Condition<CommitHashPlusParents>> myConditions;
+    // messages, committers or paths are used
+    private boolean myNeedsDetails;
+
+    private FilterConditionBuilder(RootGraph graph, VirtualFile root, boolean ignoreCase) {
+      myGraph = graph;
+      myRoot = root;
+      myPatternFlags = ignoreCase ? Pattern.CASE_INSENSITIVE : 0;
+      myConditions = new ArrayList<Condition<CommitHashPlusParents>>();
+    }
+
+    /**
+     * @return false if the filter can't be checked with the index
+     */
+    private boolean add(final ChangesFilter.Filter filter) throws IOException {
+      if (filter instanceof ChangesFilter.And) {
+        for (ChangesFilter.Filter inner : ((ChangesFilter.And)filter).getFilters()) {
+          if (!add(inner)) return false;
+        }
+      }
+      else if (filter instanceof ChangesFilter.BeforeTime) {
+        final long ts = ((ChangesFilter.BeforeTime)filter).getTs();
+        myConditions.add(new Condition<CommitHashPlusParents>() {
+          @Override
+          public boolean value(CommitHashPlusParents commit) {
+            return commit.getTime() <= ts;
+          }
+        });
+      }
+      else if (filter instanceof ChangesFilter.AfterTime) {
+        final long ts = ((ChangesFilter.AfterTime)filter).getTs();
+        myConditions.add(new Condition<CommitHashPlusParents>() {
+          @Override
+          public boolean value(CommitHashPlusParents commit) {
+            return commit.getTime() >= ts;
+          }
+        });
+      }
+      else if (filter instanceof ChangesFilter.Author) {
+        // authors are kept in memory with the graph
+        final Pattern pattern = Pattern.compile(((ChangesFilter.Author)filter).getRegexp(), myPatternFlags);
+        myConditions.add(new Condition<CommitHashPlusParents>() {
+          @Override
+          public boolean value(CommitHashPlusParents commit) {
+            // git matches --author against "name <email>"
+            return commit.getAuthorName() != null &&
+                   pattern.matcher(commit.getAuthorName() + " <" + StringUtil.notNullize(commit.getAuthorEmail()) + ">").find();
+          }
+        });
+      }
+      else if (filter instanceof ChangesFilter.Committer) {
+        myNeedsDetails = true;
+        retain(myGraph.getCommittedBy(Pattern.compile(((ChangesFilter.Committer)filter).getRegexp(), myPatternFlags)));
+      }
+      else if (filter instanceof ChangesFilter.Comment) {
+        final ChangesFilter.Comment comment = (ChangesFilter.Comment)filter;
+        // without a trigram every message would be read and checked, git does it faster
+        if (!hasTrigrams(comment.getWords())) return false;
+        myNeedsDetails = true;
+        retain(myGraph.getMessageMatches(comment.getWords(), Pattern.compile(comment.getRegexp(), Pattern.CASE_INSENSITIVE)));
+      }
+      else if (filter instanceof ChangesFilter.StructureFilter) {
+        myNeedsDetails = true;
+        final TIntHashSet ids = new TIntHashSet();
+        for (VirtualFile file : ((ChangesFilter.StructureFilter)filter).getFiles()) {
+          final String path = VfsUtilCore.getRelativePath(file, myRoot, '/');
+          if (path != null) {
+            ids.addAll(myGraph.getCommitsUnder(path).toNativeArray());
+          }
+        }
+        retain(ids);
+      }
+      else {
+        return false;
+      }
+      return true;
+    }
+
+    private static boolean hasTrigrams(final List<String> words) {
+      for (String word : words) {
+        if (word.length() >= 3) return true;
+      }
+      return false;
+    }
+
+    private void retain(final TIntHashSet ids) {
+      if (myIds == null) {
+        myIds = ids;
+      }
+      else {
+        myIds.retainAll(ids.toArray());
+      }
+    }
+
+    private Condition<CommitHashPlusParents> build() {
+      final Set<String> hashes;
+      if (myIds == null) {
+        hashes = null;
+      }
+      else {
+        // the commits are matched by the same abbreviated hashes they were returned with
+        hashes = new HashSet<String>(myIds.size());
+        for (int id : myIds.toArray()) {
+          final String hash = myGraph.myAbbreviatedHashes.get(id);
+          if (hash != null) {
+            hashes.add(hash);
+          }
+        }
+      }
+      return new Condition<CommitHashPlusParents>() {
+        @Override
+        public boolean value(CommitHashPlusParents commit) {
+          if (hashes != null && !hashes.contains(commit.getHash())) return false;
+          for (Condition<CommitHashPlusParents> condition : myConditions) {
+            if (!condition.value(commit)) return false;
+          }
+          return true;
+        }
+      };
+    }
+  }
+
+  private static class RootGraph {
+    private final PersistentStringEnumerator myHashes;
+    private final PersistentStringEnumerator myAuthors;
+    // hash id -> commit
+    private final PersistentHashMap<Integer, CommitRecord> myCommits;
+    private final File myHeadsFile;
+    // hash id -> committer and message
+    private final PersistentHashMap<Integer, CommitText> myTexts;
+    // trigram of lower case message -> hash ids
+    private final PersistentHashMap<Integer, TIntArrayList> myTrigramCommits;
+    // committer id -> hash ids
+    private final PersistentHashMap<Integer, TIntArrayList> myCommitterCommits;
+    // changed file and all its parent directories, relative to the root -> hash ids
+    private final PersistentHashMap<String, TIntArrayList> myPathCommits;
+    private final File myDetailedHeadsFile;
+    // heads of the last update
+    private List<String> myHeads;
+    // hash id -> abbreviated hash, for the commits last returned by dateOrder()
+    private TIntObjectHashMap<String> myAbbreviatedHashes = new TIntObjectHashMap<String>();
+    // the commits last returned by getDateOrderedCommits()
+    private List<CommitHashPlusParents> myDateOrdered;
+
+    private RootGraph(final File base) throws IOException {
+      myHashes = new PersistentStringEnumerator(new File(base.getPath() + ".hashes"));
+      myAuthors = new PersistentStringEnumerator(new File(base.getPath() + ".authors"));
+      myCommits = new PersistentHashMap<Integer, CommitRecord>(new File(base.getPath() + ".commits"), EnumeratorIntegerDescriptor.INSTANCE,
+                                                               new CommitRecordExternalizer());
+      myHeadsFile = new File(base.getPath() + ".heads");
+      myTexts = new PersistentHashMap<Integer, CommitText>(new File(base.getPath() + ".texts"), EnumeratorIntegerDescriptor.INSTANCE,
+                                                           new CommitTextExternalizer());
+      myTrigramCommits = new PersistentHashMap<Integer, TIntArrayList>(new File(base.getPath() + ".trigrams"),
+                                                                       EnumeratorIntegerDescriptor.INSTANCE, new CommitIdsExternalizer());
+      myCommitterCommits = new PersistentHashMap<Integer, TIntArrayList>(new File(base.getPath() + ".committers"),
+                                                                         EnumeratorIntegerDescriptor.INSTANCE, new CommitIdsExternalizer());
+      myPathCommits = new PersistentHashMap<String, TIntArrayList>(new File(base.getPath() + ".paths"), new EnumeratorStringDescriptor(),
+                                                                   new CommitIdsExternalizer());
+      myDetailedHeadsFile = new File(base.getPath() + ".detailedHeads");
+    }
+
+    /**
+     * @return false if some of the heads is still unknown after the update
+     */
+    private boolean update(final Project project, final VirtualFile root, final List<String> heads, final boolean full)
+      throws IOException, VcsException {
+      final List<String> unknownHeads = new ArrayList<String>();
+      for (String head : heads) {
+        if (!isKnown(head)) {
+          unknownHeads.add(head);
+        }
+      }
+      if (unknownHeads.isEmpty()) return true;
+
+      final List<String> parameters = new ArrayList<String>(unknownHeads);
+      final List<String> previousHeads = full ? Collections.<String>emptyList() : readHeads(false);
+      if (!previousHeads.isEmpty()) {
+        parameters.add("--not");
+        parameters.addAll(previousHeads);
+      }
+      parameters.add("--date-order");
+
+      // nothing is passed to the consumer if git fails, so a part of the history is never stored as if it were complete
+      final IOException[] exception = new IOException[1];
+      GitHistoryUtils.hashesWithFullParents(project, root, new AsynchConsumer<CommitHashPlusParents>() {
+        @Override
+        public void consume(CommitHashPlusParents commit) {
+          if (exception[0] != null) return;
+          try {
+            put(commit);
+          }
+          catch (IOException e) {
+            exception[0] = e;
+          }
+        }
+
+        @Override
+        public void finished() {
+        }
+      }, ArrayUtil.toStringArray(parameters));
+      if (exception[0] != null) throw exception[0];
+
+      for (String head : unknownHeads) {
+        if (!isKnown(head)) return false;
+      }
+      writeHeads(heads, false);
+      force();
+      return true;
+    }
+
+    private boolean hasDetails(final List<String> heads) throws IOException {
+      for (String head : heads) {
+        final int id = myHashes.tryEnumerate(head);
+        if (id == 0 || !myTexts.containsMapping(id)) return false;
+      }
+      return true;
+    }
+
+    private void putDetails(final CommitTextAndPaths commit) throws IOException {
+      final int id = myHashes.enumerate(commit.getHash());
+      if (myTexts.containsMapping(id)) return;
+      final int committer = myAuthors.enumerate(commit.getCommitter() == null ? "" : commit.getCommitter());
+      final String message = commit.getMessage() == null ? "" : commit.getMessage();
+      myTexts.put(id, new CommitText(committer, message));
+      appendId(myCommitterCommits, committer, id);
+      for (int trigram : trigrams(message.toLowerCase()).toArray()) {
+        appendId(myTrigramCommits, trigram, id);
+      }
+
+      final Set<String> paths = new HashSet<String>();
+      paths.add("");
+      for (String path : commit.getPaths()) {
+        String current = path;
+        while (current.length() > 0 && paths.add(current)) {
+          current = current.substring(0, Math.max(0, current.lastIndexOf('/')));
+        }
+      }
+      for (String path : paths) {
+        appendId(myPathCommits, path, id);
+      }
+    }
+
+    private static <T> void appendId(final PersistentHashMap<T, TIntArrayList> map, final T key, final int id) throws IOException {
+      map.appendData(key, new PersistentHashMap.ValueDataAppender() {
+        @Override
+        public void append(DataOutput out) throws IOException {
+          DataInputOutputUtil.writeINT(out, id);
+        }
+      });
+    }
+
+    private TIntHashSet getCommittedBy(final Pattern pattern) throws IOException {
+      final TIntHashSet result = new TIntHashSet();
+      for (Integer committer : myCommitterCommits.getAllKeysWithExistingMapping()) {
+        if (pattern.matcher(myAuthors.valueOf(committer)).find()) {
+          final TIntArrayList ids = myCommitterCommits.get(committer);
+          if (ids != null) {
+            result.addAll(ids.toNativeArray());
+          }
+        }
+      }
+      return result;
+    }
+
+    /**
+     * Candidates are the commits having all trigrams of the words in their messages, they are checked with the pattern
+     * the same way git log --grep does it, i.e. line by line. At least one of the words is expected to have three characters.
+     */
+    private TIntHashSet getMessageMatches(final List<String> words, final Pattern pattern) throws IOException {
+      TIntHashSet candidates = null;
+      for (String word : words) {
+        final String lowerCaseWord = word.toLowerCase();
+        for (int i = 0; i + 3 <= lowerCaseWord.length(); i++) {
+          final TIntArrayList ids = myTrigramCommits.get(trigram(lowerCaseWord, i));
+          if (ids == null) return new TIntHashSet();
+          if (candidates == null) {
+            candidates = new TIntHashSet(ids.toNativeArray());
+          }
+          else {
+            candidates.retainAll(ids.toNativeArray());
+          }
+        }
+      }
+      if (candidates == null) return new TIntHashSet();
+
+      final TIntHashSet result = new TIntHashSet();
+      for (int id : candidates.toArray()) {
+        final CommitText text = myTexts.get(id);
+        if (text != null && pattern.matcher(text.myMessage).find()) {
+          result.add(id);
+        }
+      }
+      return result;
+    }
+
+    private TIntArrayList getCommitsUnder(final String path) throws IOException {
+      final TIntArrayList ids = myPathCommits.get(path);
+      return ids == null ? new TIntArrayList() : ids;
+    }
+
+    private void force() {
+      myHashes.force();
+      myAuthors.force();
+      myCommits.force();
+      myTexts.force();
+      myTrigramCommits.force();
+      myCommitterCommits.force();
+      myPathCommits.force();
+    }
+
+    private boolean isKnown(final String hash) throws IOException {
+      final int id = myHashes.tryEnumerate(hash);
+      return id != 0 && myCommits.containsMapping(id);
+    }
+
+    private void put(final CommitHashPlusParents commit) throws IOException {
+      final List<AbstractHash> parents = commit.getParents();
+      final int[] parentIds = new int[parents.size()];
+      for (int i = 0; i < parentIds.length; i++) {
+        parentIds[i] = myHashes.enumerate(parents.get(i).getString());
+      }
+      final int author = myAuthors.enumerate(commit.getAuthorName() == null ? "" : commit.getAuthorName());
+      final int authorEmail = myAuthors.enumerate(commit.getAuthorEmail() == null ? "" : commit.getAuthorEmail());
+      myCommits.put(myHashes.enumerate(commit.getHash()), new CommitRecord(commit.getTime(), author, authorEmail, parentIds));
+    }
+
+    /**
+     * @return null if some of the reachable commits is missing in the graph
+     */
+    @Nullable
+    private List<CommitHashPlusParents> dateOrder(final List<String> heads, final int abbreviationLength) throws IOException {
+      final TIntObjectHashMap<CommitRecord> records = new TIntObjectHashMap<CommitRecord>();
+      final TIntIntHashMap childrenCount = new TIntIntHashMap();
+      final TIntHashSet headIds = new TIntHashSet();
+      final TIntArrayList stack = new TIntArrayList();
+      for (String head : heads) {
+        final int id = myHashes.tryEnumerate(head);
+        if (id == 0) return null;
+        if (headIds.add(id)) {
+          stack.add(id);
+        }
+      }
+      while (!stack.isEmpty()) {
+        final int id = stack.remove(stack.size() - 1);
+        if (records.containsKey(id)) continue;
+        final CommitRecord record = myCommits.get(id);
+        if (record == null) return null;
+        records.put(id, record);
+        for (int parent : record.myParents) {
+          childrenCount.put(parent, childrenCount.get(parent) + 1);
+          if (!records.containsKey(parent)) {
+            stack.add(parent);
+          }
+        }
+      }
+
+      final TIntObjectHashMap<String> abbreviated = abbreviate(records.keys(), abbreviationLength);
+      final PriorityQueue<Integer> ready = new PriorityQueue<Integer>(Math.max(1, headIds.size()), new Comparator<Integer>() {
+        @Override
+        public int compare(Integer o1, Integer o2) {
+          final long t1 = records.get(o1).myTime;
+          final long t2 = records.get(o2).myTime;
+          return t1 == t2 ? 0 : (t1 > t2 ? -1 : 1);
+        }
+      });
+      for (int id : headIds.toArray()) {
+        if (!childrenCount.containsKey(id)) {
+          ready.add(id);
+        }
+      }
+
+      final List<CommitHashPlusParents> result = new ArrayList<CommitHashPlusParents>(records.size());
+      while (!ready.isEmpty()) {
+        final int id = ready.poll();
+        final CommitRecord record = records.get(id);
+        final String[] parents = new String[record.myParents.length];
+        for (int i = 0; i < parents.length; i++) {
+          final int parent = record.myParents[i];
+          parents[i] = abbreviated.get(parent);
+          final int remainingChildren = childrenCount.get(parent) - 1;
+          childrenCount.put(parent, remainingChildren);
+          if (remainingChildren == 0) {
+            ready.add(parent);
+          }
+        }
+        result.add(new CommitHashPlusParents(abbreviated.get(id), parents, record.myTime, myAuthors.valueOf(record.myAuthor),
+                                             myAuthors.valueOf(record.myAuthorEmail)));
+      }
+      myAbbreviatedHashes = abbreviated;
+      return result;
+    }
+
+    /**
+     * Abbreviates the hashes of the commits the way git does it: to the current abbreviation length of the repository,
+     * or longer where it is needed to tell the commits apart. Other objects of the repository are not known here,
+     * so in case of a clash with one of them the abbreviation may be shorter than git's, but it is still unique among the commits.
+     */
+    private TIntObjectHashMap<String> abbreviate(final int[] ids, final int abbreviationLength) throws IOException {
+      final String[] hashes = new String[ids.length];
+      final Map<String, Integer> idsByHash = new HashMap<String, Integer>(ids.length);
+      for (int i = 0; i < ids.length; i++) {
+        hashes[i] = myHashes.valueOf(ids[i]);
+        idsByHash.put(hashes[i], ids[i]);
+      }
+      Arrays.sort(hashes);
+
+      final TIntObjectHashMap<String> result = new TIntObjectHashMap<String>(ids.length);
+      for (int i = 0; i < hashes.length; i++) {
+        int length = abbreviationLength;
+        if (i > 0) {
+          length = Math.max(length, commonPrefixLength(hashes[i - 1], hashes[i]) + 1);
+        }
+        if (i + 1 < hashes.length) {
+          length = Math.max(length, commonPrefixLength(hashes[i], hashes[i + 1]) + 1);
+        }
+        result.put(idsByHash.get(hashes[i]), hashes[i].substring(0, Math.min(length, hashes[i].length())));
+      }
+      return result;
+    }
+
+    private static int commonPrefixLength(final String s1, final String s2) {
+      final int max = Math.min(s1.length(), s2.length());
+      int i = 0;
+      while (i < max && s1.charAt(i) == s2.charAt(i)) {
+        i++;
+      }
+      return i;
+    }
+
+    private List<String> readHeads(final boolean detailed) {
+      final File file = detailed ? myDetailedHeadsFile : myHeadsFile;
+      if (!file.exists()) return Collections.emptyList();
+      try {
+        return Arrays.asList(StringUtil.splitByLines(FileUtil.loadFile(file)));
+      }
+      catch (IOException e) {
+        LOG.info(e);
+        return Collections.emptyList();
+      }
+    }
+
+    private void writeHeads(final List<String> heads, final boolean detailed) throws IOException {
+      final StringBuilder sb = new StringBuilder();
+      for (String head : heads) {
+        sb.append(head).append('\n');
+      }
+      FileUtil.writeToFile(detailed ? myDetailedHeadsFile : myHeadsFile, sb.toString());
+    }
+
+    private void close() {
+      try {
+        myCommits.close();
+        myTexts.close();
+        myTrigramCommits.close();
+        myCommitterCommits.close();
+        myPathCommits.close();
+        myHashes.close();
+        myAuthors.close();
+      }
+      catch (IOException e) {
+        LOG.info(e);
+      }
+    }
+  }
+}
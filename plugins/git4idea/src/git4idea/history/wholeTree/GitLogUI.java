@@ -1694,7 +1694,13 @@ public class GitLogUI implements Disposable {
       ChangesFilter.Comment comment = null;
       if (! commentFilterEmpty) {
         final String commentFilter = myCommentSearchContext.preparse(myPreviousFilter);
-        comment = new ChangesFilter.Comment(commentFilter);
+        final List<String> words = new ArrayList<String>();
+        for (String word : myPreviousFilter.split("[\\s]")) {
+          if (word.length() > 0) {
+            words.add(word.toLowerCase());
+          }
+        }
+        comment = new ChangesFilter.Comment(commentFilter, words);
       }
       Set<ChangesFilter.Filter> userFilters = null;
       if (myUserFilterI.myFilter != null) {
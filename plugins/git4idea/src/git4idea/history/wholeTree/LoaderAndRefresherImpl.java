@@ -14,6 +14,7 @@ package git4idea.history.wholeTree;
 
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Condition;
 import com.intellij.openapi.util.Getter;
 import com.intellij.openapi.vcs.ObjectsConvertor;
 import com.intellij.openapi.vcs.VcsException;
@@ -28,6 +29,7 @@ import git4idea.history.browser.GitCommit;
 import git4idea.history.browser.LowLevelAccessImpl;
 import git4idea.history.browser.SymbolicRefsI;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
 
@@ -37,6 +39,7 @@ import java.util.*;
 public class LoaderAndRefresherImpl implements LoaderAndRefresher<CommitHashPlusParents> {
   private final static int ourFirstLoadCount = 15;
   private final static int ourPreload = (! parameterCheck(Integer.getInteger("git.log.preload.size"))) ? 100 : Integer.getInteger("git.log.preload.size");
+  private final static boolean ourUseGraphIndex = ! Boolean.getBoolean("git.log.no.graph.index");
 
   private final Collection<String> myStartingPoints;
   private final Ticket myTicket;
@@ -60,6 +63,11 @@ public class LoaderAndRefresherImpl implements LoaderAndRefresher<CommitHashPlus
   @NotNull
   private volatile StepType myStepType;
   private final boolean myTopoOrder;
+  // all commits of the root in date order, taken from the commit graph index on the first short load
+  private List<CommitHashPlusParents> myIndexedCommits;
+  private boolean myIndexedCommitsRequested;
+  // the filters checked over the indexed commits, computed once they can be
+  private Condition<CommitHashPlusParents> myIndexCondition;
 
   private static boolean parameterCheck(final Integer i) {
     return i != null && i > 0;
@@ -192,6 +200,14 @@ public class LoaderAndRefresherImpl implements LoaderAndRefresher<CommitHashPlus
   }
 
   private void step(final int count, final boolean shouldFull, final long continuation) {
+    // full loads fill the details cache, which the index can't do
+    if (! shouldFull && canUseGraphIndex()) {
+      final Condition<CommitHashPlusParents> condition = getIndexCondition();
+      if (condition != null) {
+        loadFromIndex(myIndexedCommits, condition, continuation, count);
+        return;
+      }
+    }
     if (shouldFull) {
       loadFull(count, continuation);
     } else {
@@ -292,6 +308,57 @@ public class LoaderAndRefresherImpl implements LoaderAndRefresher<CommitHashPlus
     }
   }
 
+  private boolean canUseGraphIndex() {
+    // the index keeps the whole graph only, so starting points and topological order are left to git
+    return ourUseGraphIndex && myStartingPoints.isEmpty() && ! myTopoOrder;
+  }
+
+  @Nullable
+  private List<CommitHashPlusParents> getIndexedCommits() {
+    if (! myIndexedCommitsRequested) {
+      myIndexedCommitsRequested = true;
+      try {
+        myIndexedCommits = GitCommitGraphIndex.getInstance().getDateOrderedCommits(myProject, myRootHolder.getRoot());
+      }
+      catch (VcsException e) {
+        myMediator.acceptException(e);
+      }
+    }
+    return myIndexedCommits;
+  }
+
+  /**
+   * The indexed commits keep the abbreviations git gives them, so they can be mixed with commits loaded by git
+   */
+  @Nullable
+  private Condition<CommitHashPlusParents> getIndexCondition() {
+    final List<CommitHashPlusParents> indexed = getIndexedCommits();
+    if (indexed == null) return null;
+    if (myIndexCondition == null) {
+      myIndexCondition = GitCommitGraphIndex.getInstance().getFilterCondition(myRootHolder.getRoot(), indexed, myFilters);
+    }
+    return myIndexCondition;
+  }
+
+  // same as git log --before=continuation --max-count=maxCount with the filters over the indexed commits
+  private void loadFromIndex(final List<CommitHashPlusParents> indexed, final Condition<CommitHashPlusParents> condition,
+                             final long continuation, final int maxCount) {
+    int cnt = 0;
+    try {
+      for (CommitHashPlusParents commit : indexed) {
+        if (cnt >= maxCount || isInterrupted()) break;
+        if (continuation > 0 && commit.getTime() > continuation) continue;
+        if (! condition.value(commit)) continue;
+        myRepeatingLoadConsumer.consume(commit);
+        ++ cnt;
+      }
+    }
+    catch (ProcessCanceledException e) {
+      // the project is closed
+    }
+    myRepeatingLoadConsumer.finished();
+  }
+
   interface MyRootHolder {
     VirtualFile getRoot();
     CommitI decorateByRoot(final CommitI commitI);
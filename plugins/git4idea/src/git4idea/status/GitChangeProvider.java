@@ -35,7 +35,10 @@ import git4idea.commands.Git;
 import git4idea.config.GitVersion;
 import git4idea.config.GitVersionSpecialty;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -44,12 +47,15 @@ import java.util.*;
 public class GitChangeProvider implements ChangeProvider {
 
   private static final Logger PROFILE_LOG = Logger.getInstance("#GitStatus");
+  private static final boolean ourUseIndexFile = Boolean.getBoolean("git.status.from.index");
 
   @NotNull private final Project myProject;
   @NotNull private final Git myGit;
   @NotNull private final ChangeListManager myChangeListManager;
   @NotNull private final FileDocumentManager myFileDocumentManager;
   @NotNull private final ProjectLevelVcsManager myVcsManager;
+  // parsed .git/index files by roots, reread when changed
+  private final Map<VirtualFile, GitIndexFile> myIndexFiles = new HashMap<VirtualFile, GitIndexFile>();
 
   public GitChangeProvider(@NotNull Project project, @NotNull Git git, ChangeListManager changeListManager,
                            @NotNull FileDocumentManager fileDocumentManager, @NotNull ProjectLevelVcsManager vcsManager) {
@@ -83,7 +89,7 @@ public class GitChangeProvider implements ChangeProvider {
         debug("checking root: " + root.getPath());
         GitChangesCollector collector = isNewGitChangeProviderAvailable()
                                         ? GitNewChangesCollector.collect(myProject, myGit, myChangeListManager, myVcsManager,
-                                                                         vcs, dirtyScope, root)
+                                                                         vcs, dirtyScope, root, getIndexFile(root))
                                         : GitOldChangesCollector.collect(myProject, myChangeListManager, myVcsManager,
                                                                          vcs, dirtyScope, root);
         final Collection<Change> changes = collector.getChanges();
@@ -147,6 +153,36 @@ public class GitChangeProvider implements ChangeProvider {
     );
   }
 
+  @Nullable
+  private GitIndexFile getIndexFile(@NotNull VirtualFile root) {
+    if (!ourUseIndexFile) {
+      return null;
+    }
+    VirtualFile gitDir = GitUtil.findGitDir(root);
+    if (gitDir == null) {
+      return null;
+    }
+    File file = new File(gitDir.getPath(), "index");
+    synchronized (myIndexFiles) {
+      GitIndexFile indexFile = myIndexFiles.get(root);
+      if (indexFile == null || indexFile.isOutdated(file)) {
+        myIndexFiles.remove(root);
+        long start = System.currentTimeMillis();
+        try {
+          indexFile = GitIndexFile.read(file);
+        }
+        catch (IOException e) {
+          // e.g. there is no index in a fresh repository => 'git status' will be called on everything
+          debug("couldn't read " + file + ": " + e);
+          return null;
+        }
+        myIndexFiles.put(root, indexFile);
+        debug("read " + indexFile.getEntriesCount() + " entries of " + file + " in " + (System.currentTimeMillis() - start) + " ms");
+      }
+      return indexFile;
+    }
+  }
+
   private boolean isNewGitChangeProviderAvailable() {
     GitVcs vcs = GitVcs.getInstance(myProject);
     if (vcs == null) {
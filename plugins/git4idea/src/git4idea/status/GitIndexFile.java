@@ -0,0 +1,275 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.status;
+
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.vfs.CharsetToolkit;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * <p>
+ *   Entries of the {@code .git/index} file with their stat data, as they were when the file was read.
+ *   Versions 2, 3 and 4 of the index format are supported, extensions are ignored.
+ * </p>
+ * <p>
+ *   Stat data allows to tell that a file is not modified in the working tree, or that it surely is, without reading it
+ *   the same way git does it. Everything else (conflicts, racily clean entries, special file types) is left to git.
+ * </p>
+ */
+class GitIndexFile {
+
+  enum StatStatus { CLEAN, MODIFIED, AMBIGUOUS }
+
+  private static final int SIGNATURE = 0x44495243; // "DIRC"
+  private static final int ASSUME_UNCHANGED_FLAG = 0x8000;
+  private static final int STAGE_MASK = 0x3000;
+  private static final int EXTENDED_FLAG = 0x4000;
+  private static final int NAME_MASK = 0xFFF;
+  private static final int SKIP_WORKTREE_OR_INTENT_TO_ADD = 0x6000;
+  private static final int REGULAR_FILE_TYPE = 0100000;
+  private static final int TYPE_MASK = 0170000;
+  private static final int EXECUTABLE_BY_OWNER = 0100;
+
+  private final long myTimeStamp;
+  private final long myLength;
+  // entries sorted by path
+  private final Entry[] myEntries;
+
+  static class Entry {
+    @NotNull final String path;
+    final int mtimeSeconds;
+    final int mtimeNanoSeconds;
+    final int mode;
+    // lower 32 bits of the file size
+    final int size;
+    final int flags;
+    final int extendedFlags;
+
+    private Entry(@NotNull String path, int mtimeSeconds, int mtimeNanoSeconds, int mode, int size, int flags, int extendedFlags) {
+      this.path = path;
+      this.mtimeSeconds = mtimeSeconds;
+      this.mtimeNanoSeconds = mtimeNanoSeconds;
+      this.mode = mode;
+      this.size = size;
+      this.flags = flags;
+      this.extendedFlags = extendedFlags;
+    }
+
+    int getStage() {
+      return (flags & STAGE_MASK) >> 12;
+    }
+  }
+
+  private GitIndexFile(long timeStamp, long length, @NotNull Entry[] entries) {
+    myTimeStamp = timeStamp;
+    myLength = length;
+    myEntries = entries;
+  }
+
+  /**
+   * @return true if the index file was changed after it had been read
+   */
+  boolean isOutdated(@NotNull File indexFile) {
+    return indexFile.lastModified() != myTimeStamp || indexFile.length() != myLength;
+  }
+
+  int getEntriesCount() {
+    return myEntries.length;
+  }
+
+  /**
+   * @param relativePath path relative to the root, with '/' separators, empty for the root itself
+   * @return the entry for the path itself (all stages of it) and entries for all files under it, if it's a directory
+   */
+  @NotNull
+  List<Entry> getEntriesUnder(@NotNull String relativePath) {
+    if (relativePath.length() == 0) {
+      return Arrays.asList(myEntries);
+    }
+    final List<Entry> result = new ArrayList<Entry>();
+    addEntriesStartingWith(relativePath, true, result);
+    addEntriesStartingWith(relativePath + "/", false, result);
+    return result;
+  }
+
+  private void addEntriesStartingWith(@NotNull String prefix, boolean exact, @NotNull List<Entry> result) {
+    int low = 0;
+    int high = myEntries.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (myEntries[mid].path.compareTo(prefix) < 0) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    for (int i = low; i < myEntries.length; i++) {
+      final String path = myEntries[i].path;
+      if (exact ? !path.equals(prefix) : !path.startsWith(prefix)) break;
+      result.add(myEntries[i]);
+    }
+  }
+
+  /**
+   * Compares stat data of the entry with the length and the timestamp of the file in the VFS.
+   */
+  @NotNull
+  StatStatus checkStat(@NotNull Entry entry, @Nullable VirtualFile file) {
+    if (file == null || file.isDirectory() || !file.isValid()) {
+      return StatStatus.AMBIGUOUS;
+    }
+    return checkStat(entry, file.getLength(), file.getTimeStamp(), new File(file.getPath()));
+  }
+
+  @NotNull
+  StatStatus checkStat(@NotNull Entry entry, long length, long timeStamp, @NotNull File file) {
+    // git doesn't look at assume-unchanged files at all, it's up to it what to report for them
+    if (entry.getStage() != 0 || (entry.flags & ASSUME_UNCHANGED_FLAG) != 0 ||
+        (entry.extendedFlags & SKIP_WORKTREE_OR_INTENT_TO_ADD) != 0 || (entry.mode & TYPE_MASK) != REGULAR_FILE_TYPE) {
+      return StatStatus.AMBIGUOUS;
+    }
+    // git writes zero size for smudged racily clean entries and after read-tree or update-index --cacheinfo,
+    // and then compares the content, so the size of such an entry tells nothing
+    if (entry.size == 0) {
+      return StatStatus.AMBIGUOUS;
+    }
+    if ((length & 0xFFFFFFFFL) != (entry.size & 0xFFFFFFFFL)) {
+      return StatStatus.MODIFIED;
+    }
+    if (timeStamp / 1000 != entry.mtimeSeconds) {
+      return StatStatus.AMBIGUOUS;
+    }
+    // timestamps may have millisecond or only second precision, depending on the platform
+    final int millis = (int)(timeStamp % 1000);
+    if (millis != 0 && entry.mtimeNanoSeconds != 0 && millis != entry.mtimeNanoSeconds / 1000000) {
+      return StatStatus.AMBIGUOUS;
+    }
+    // "racily clean" entry: the file could have been modified after the index was written within the same second
+    if (entry.mtimeSeconds >= myTimeStamp / 1000) {
+      return StatStatus.AMBIGUOUS;
+    }
+    // a changed executable bit is a modification unless core.fileMode is off, which is left to git
+    if (!SystemInfo.isWindows && ((entry.mode & EXECUTABLE_BY_OWNER) != 0) != file.canExecute()) {
+      return StatStatus.AMBIGUOUS;
+    }
+    return StatStatus.CLEAN;
+  }
+
+  @NotNull
+  static GitIndexFile read(@NotNull File indexFile) throws IOException {
+    final long timeStamp = indexFile.lastModified();
+    final long length = indexFile.length();
+    final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+    try {
+      if (in.readInt() != SIGNATURE) {
+        throw new IOException("Not an index file: " + indexFile);
+      }
+      final int version = in.readInt();
+      if (version < 2 || version > 4) {
+        throw new IOException("Unsupported index version " + version + ": " + indexFile);
+      }
+      final int count = in.readInt();
+      final Entry[] entries = new Entry[count];
+      final ByteArrayOutputStream name = new ByteArrayOutputStream();
+      byte[] previousName = new byte[0];
+      for (int i = 0; i < count; i++) {
+        skip(in, 8); // ctime
+        final int mtimeSeconds = in.readInt();
+        final int mtimeNanoSeconds = in.readInt();
+        skip(in, 8); // dev, ino
+        final int mode = in.readInt();
+        skip(in, 8); // uid, gid
+        final int size = in.readInt();
+        skip(in, 20); // sha-1
+        final int flags = in.readUnsignedShort();
+        int entryLength = 62;
+        int extendedFlags = 0;
+        if (version >= 3 && (flags & EXTENDED_FLAG) != 0) {
+          extendedFlags = in.readUnsignedShort();
+          entryLength += 2;
+        }
+
+        name.reset();
+        if (version == 4) {
+          // the name is compressed: the number of bytes to remove from the end of the previous name, then the rest of it
+          final int toRemove = readOffset(in);
+          name.write(previousName, 0, previousName.length - toRemove);
+          readUntilZero(in, name);
+        }
+        else {
+          final int nameLength = flags & NAME_MASK;
+          if (nameLength < NAME_MASK) {
+            final byte[] bytes = new byte[nameLength];
+            in.readFully(bytes);
+            name.write(bytes);
+          }
+          else {
+            readUntilZero(in, name);
+          }
+          // entries are padded with 1-8 zeros to the multiple of 8 bytes
+          final int totalLength = (entryLength + name.size() + 8) & ~7;
+          skip(in, totalLength - entryLength - name.size() - (nameLength < NAME_MASK ? 0 : 1));
+        }
+        previousName = name.toByteArray();
+        entries[i] = new Entry(new String(previousName, CharsetToolkit.UTF8_CHARSET), mtimeSeconds, mtimeNanoSeconds, mode, size, flags,
+                               extendedFlags);
+      }
+
+      // git sorts entries by bytes of the path, binary search needs the order of strings
+      Arrays.sort(entries, new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+          final int byPath = e1.path.compareTo(e2.path);
+          return byPath != 0 ? byPath : e1.getStage() - e2.getStage();
+        }
+      });
+      return new GitIndexFile(timeStamp, length, entries);
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  private static void skip(@NotNull DataInputStream in, int bytes) throws IOException {
+    if (in.skipBytes(bytes) != bytes) {
+      throw new EOFException();
+    }
+  }
+
+  private static void readUntilZero(@NotNull DataInputStream in, @NotNull ByteArrayOutputStream out) throws IOException {
+    int b;
+    while ((b = in.readUnsignedByte()) != 0) {
+      out.write(b);
+    }
+  }
+
+  // offset encoding of the version 4
+  private static int readOffset(@NotNull DataInputStream in) throws IOException {
+    int b = in.readUnsignedByte();
+    int value = b & 0x7F;
+    while ((b & 0x80) != 0) {
+      b = in.readUnsignedByte();
+      value = ((value + 1) << 7) | (b & 0x7F);
+    }
+    return value;
+  }
+}
@@ -17,6 +17,7 @@ package git4idea.status;
 
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vcs.*;
 import com.intellij.openapi.vcs.changes.Change;
@@ -24,6 +25,7 @@ import com.intellij.openapi.vcs.changes.ChangeListManager;
 import com.intellij.openapi.vcs.changes.ContentRevision;
 import com.intellij.openapi.vcs.changes.VcsDirtyScope;
 import com.intellij.openapi.vcs.history.VcsRevisionNumber;
+import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
 import git4idea.GitContentRevision;
 import git4idea.GitFormatException;
@@ -37,10 +39,10 @@ import git4idea.commands.GitSimpleHandler;
 import git4idea.repo.GitRepository;
 import git4idea.repo.GitUntrackedFilesHolder;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
+import java.io.File;
+import java.util.*;
 
 /**
  * <p>
@@ -49,6 +51,10 @@ import java.util.Set;
  *   Works only on Git 1.7.0 and later.
  * </p>
  * <p>
+ *   If the parsed {@code .git/index} is given, files which stat data tells to be unchanged or surely modified are classified without git,
+ *   and {@code 'git status'} is called only for the rest of them.
+ * </p>
+ * <p>
  *   The class is immutable: collect changes and get the instance from where they can be retrieved by {@link #collect}.
  * </p>
  *
@@ -60,6 +66,8 @@ class GitNewChangesCollector extends GitChangesCollector {
   private final GitRepository myRepository;
   private final Collection<Change> myChanges = new HashSet<Change>();
   private final Set<VirtualFile> myUnversionedFiles = new HashSet<VirtualFile>();
+  // paths relative to the root which are already found clean or modified by the stat data in the index
+  private final Set<String> myClassifiedPaths = new HashSet<String>();
   @NotNull private final Git myGit;
 
   /**
@@ -69,8 +77,9 @@ class GitNewChangesCollector extends GitChangesCollector {
   @NotNull
   static GitNewChangesCollector collect(@NotNull Project project, @NotNull Git git, @NotNull ChangeListManager changeListManager,
                                         @NotNull ProjectLevelVcsManager vcsManager, @NotNull AbstractVcs vcs,
-                                        @NotNull VcsDirtyScope dirtyScope, @NotNull VirtualFile vcsRoot) throws VcsException {
-    return new GitNewChangesCollector(project, git, changeListManager, vcsManager, vcs, dirtyScope, vcsRoot);
+                                        @NotNull VcsDirtyScope dirtyScope, @NotNull VirtualFile vcsRoot,
+                                        @Nullable GitIndexFile indexFile) throws VcsException {
+    return new GitNewChangesCollector(project, git, changeListManager, vcsManager, vcs, dirtyScope, vcsRoot, indexFile);
   }
 
   @Override
@@ -87,7 +96,8 @@ class GitNewChangesCollector extends GitChangesCollector {
 
   private GitNewChangesCollector(@NotNull Project project, @NotNull Git git, @NotNull ChangeListManager changeListManager,
                                  @NotNull ProjectLevelVcsManager vcsManager, @NotNull AbstractVcs vcs,
-                                 @NotNull VcsDirtyScope dirtyScope, @NotNull VirtualFile vcsRoot) throws VcsException
+                                 @NotNull VcsDirtyScope dirtyScope, @NotNull VirtualFile vcsRoot,
+                                 @Nullable GitIndexFile indexFile) throws VcsException
   {
     super(project, changeListManager, vcsManager, vcs, dirtyScope, vcsRoot);
     myGit = git;
@@ -95,16 +105,113 @@ class GitNewChangesCollector extends GitChangesCollector {
 
     Collection<FilePath> dirtyPaths = dirtyPaths(true);
     if (!dirtyPaths.isEmpty()) {
-      collectChanges(dirtyPaths);
+      VcsRevisionNumber head = getHead();
+      Collection<FilePath> pathsForStatus = null;
+      if (indexFile != null && head != VcsRevisionNumber.NULL) {
+        pathsForStatus = classifyByIndex(indexFile, dirtyPaths, head);
+      }
+      if (pathsForStatus == null) {
+        collectChanges(dirtyPaths, head);
+      }
+      else if (!pathsForStatus.isEmpty()) {
+        long start = System.currentTimeMillis();
+        collectChanges(pathsForStatus, head);
+        GitChangeProvider.debug("git status on " + pathsForStatus.size() + " paths: " + (System.currentTimeMillis() - start) + " ms");
+      }
       collectUnversionedFiles();
     }
   }
 
   // calls 'git status' and parses the output, feeding myChanges.
-  private void collectChanges(Collection<FilePath> dirtyPaths) throws VcsException {
+  private void collectChanges(Collection<FilePath> dirtyPaths, VcsRevisionNumber head) throws VcsException {
     GitSimpleHandler handler = statusHandler(dirtyPaths);
     String output = handler.run();
-    parseOutput(output, handler);
+    parseOutput(output, handler, head);
+  }
+
+  /**
+   * Reports files which stat data in the index tells to be modified, and skips ones which are unchanged.
+   * Staged state can't be derived from the stat data, so staged paths are taken from a single {@code 'git diff --cached'},
+   * which compares the index with HEAD and doesn't touch the working tree.
+   *
+   * @return paths which are left for {@code 'git status'}, or null if the index can't be used for the given paths
+   */
+  @Nullable
+  private Collection<FilePath> classifyByIndex(@NotNull GitIndexFile indexFile, @NotNull Collection<FilePath> dirtyPaths,
+                                               @NotNull VcsRevisionNumber head) throws VcsException {
+    long start = System.currentTimeMillis();
+    String rootPath = myVcsRoot.getPath();
+    List<String> relativeDirtyPaths = new ArrayList<String>(dirtyPaths.size());
+    for (FilePath path : dirtyPaths) {
+      String relativePath = FileUtil.getRelativePath(rootPath, path.getPath(), '/');
+      if (relativePath == null || relativePath.startsWith("../")) {
+        return null;
+      }
+      relativeDirtyPaths.add(".".equals(relativePath) ? "" : relativePath);
+    }
+
+    Set<String> staged = stagedPaths();
+    long stagedTime = System.currentTimeMillis() - start;
+    Set<String> pathsForStatus = new TreeSet<String>();
+    for (String stagedPath : staged) {
+      for (String dirtyPath : relativeDirtyPaths) {
+        if (dirtyPath.length() == 0 || stagedPath.equals(dirtyPath) || stagedPath.startsWith(dirtyPath + "/")) {
+          pathsForStatus.add(stagedPath);
+          break;
+        }
+      }
+    }
+
+    LocalFileSystem lfs = LocalFileSystem.getInstance();
+    int clean = 0;
+    int modified = 0;
+    for (String dirtyPath : relativeDirtyPaths) {
+      for (GitIndexFile.Entry entry : indexFile.getEntriesUnder(dirtyPath)) {
+        if (staged.contains(entry.path)) {
+          continue; // already left for git status
+        }
+        VirtualFile file = lfs.findFileByPath(rootPath + "/" + entry.path);
+        switch (indexFile.checkStat(entry, file)) {
+          case CLEAN:
+            clean++;
+            myClassifiedPaths.add(entry.path);
+            break;
+          case MODIFIED:
+            modified++;
+            myClassifiedPaths.add(entry.path);
+            reportModified(entry.path, head);
+            break;
+          default:
+            pathsForStatus.add(entry.path);
+        }
+      }
+    }
+
+    List<FilePath> result = new ArrayList<FilePath>(pathsForStatus.size());
+    for (String path : pathsForStatus) {
+      result.add(new FilePathImpl(new File(rootPath, path), false));
+    }
+    GitChangeProvider.debug(String.format("index of %s: %d clean, %d modified, %d left for git status; " +
+                                          "diff --cached: %d ms, total: %d ms",
+                                          rootPath, clean, modified, result.size(), stagedTime, System.currentTimeMillis() - start));
+    return result;
+  }
+
+  // paths which differ between HEAD and the index, relative to the root
+  @NotNull
+  private Set<String> stagedPaths() throws VcsException {
+    GitSimpleHandler handler = new GitSimpleHandler(myProject, myVcsRoot, GitCommand.DIFF);
+    handler.addParameters("--cached", "--name-only", "-z", "--no-renames", "HEAD");
+    handler.setSilent(true);
+    handler.setStdoutSuppressed(true);
+    handler.endOptions();
+    Set<String> paths = new HashSet<String>();
+    for (String path : handler.run().split("\u0000")) {
+      if (!StringUtil.isEmptyOrSpaces(path)) {
+        paths.add(path);
+      }
+    }
+    return paths;
   }
 
   private void collectUnversionedFiles() throws VcsException {
@@ -141,9 +248,7 @@ class GitNewChangesCollector extends GitChangesCollector {
    * See <a href=http://www.kernel.org/pub/software/scm/git/docs/git-status.html#_output">Git man</a> for details.
    */
   // handler is here for debugging purposes in the case of parse error
-  private void parseOutput(@NotNull String output, @NotNull GitHandler handler) throws VcsException {
-    VcsRevisionNumber head = getHead();
-
+  private void parseOutput(@NotNull String output, @NotNull GitHandler handler, @NotNull VcsRevisionNumber head) throws VcsException {
     final String[] split = output.split("\u0000");
 
     for (int pos = 0; pos < split.length; pos++) {
@@ -160,6 +265,11 @@ class GitNewChangesCollector extends GitChangesCollector {
       final String filepath = line.substring(3); // skipping the space
       final char xStatus = xyStatus.charAt(0);
       final char yStatus = xyStatus.charAt(1);
+      // the status of the whole root is taken when the paths don't fit the command line;
+      // paths classified by the index are not staged, so they may only come with an unmodified index column
+      if (xStatus == ' ' && myClassifiedPaths.contains(filepath)) {
+        continue;
+      }
 
       switch (xStatus) {
         case ' ':
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.annotate;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import git4idea.test.GitTest;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class GitBlameCacheTest extends GitTest {
+  private static final String OLD_HASH = "1111111111111111111111111111111111111111";
+  private static final String NEW_HASH = "2222222222222222222222222222222222222222";
+
+  private VirtualFile myRoot;
+  private File myDir;
+  private GitBlameCache myCache;
+
+  @BeforeMethod
+  @Override
+  public void setUp(Method testMethod) throws Exception {
+    super.setUp(testMethod);
+    myRoot = myRepo.getVFRootDir();
+    myDir = FileUtil.createTempDirectory("git", "blame");
+    myCache = new GitBlameCache(myDir, 3);
+  }
+
+  @AfterMethod
+  @Override
+  protected void tearDown() throws Exception {
+    myCache.dispose();
+    FileUtil.delete(myDir);
+    super.tearDown();
+  }
+
+  @Test
+  public void testContentAndLinesAreCached() {
+    final GitBlameCache.Commit first = new GitBlameCache.Commit(OLD_HASH, new Date(1000000), "first author");
+    final GitBlameCache.Commit second = new GitBlameCache.Commit(NEW_HASH, new Date(2000000), "second author");
+    myCache.put(myRoot, "a.txt", NEW_HASH, "a\nb\nc\n".getBytes(), Arrays.asList(first, second, first), true);
+
+    reopen();
+    final GitBlameCache.Blame blame = myCache.get(myRoot, "a.txt", NEW_HASH);
+    assertNotNull(blame);
+    assertEquals(new String(blame.getContent()), "a\nb\nc\n");
+    final List<GitBlameCache.Commit> lines = blame.getLines();
+    assertEquals(lines.size(), 3);
+    assertCommit(lines.get(0), OLD_HASH, 1000000, "first author");
+    assertCommit(lines.get(1), NEW_HASH, 2000000, "second author");
+    assertSame(lines.get(2), lines.get(0));
+    assertEquals(myCache.getLastRevision(myRoot, "a.txt"), NEW_HASH);
+    assertNull(myCache.get(myRoot, "a.txt", OLD_HASH));
+  }
+
+  @Test
+  public void testPreviousLastRevisionIsDropped() {
+    put("a.txt", OLD_HASH, true);
+    put("a.txt", NEW_HASH, true);
+    assertNull(myCache.get(myRoot, "a.txt", OLD_HASH));
+    assertNotNull(myCache.get(myRoot, "a.txt", NEW_HASH));
+    assertEquals(myCache.getLastRevision(myRoot, "a.txt"), NEW_HASH);
+  }
+
+  @Test
+  public void testLeastRecentlyUsedBlameIsEvicted() {
+    put("a.txt", OLD_HASH, true);
+    put("b.txt", OLD_HASH, false);
+    put("c.txt", OLD_HASH, false);
+    // a.txt is used again, b.txt becomes the least recently used
+    assertNotNull(myCache.get(myRoot, "a.txt", OLD_HASH));
+    put("a.txt", NEW_HASH, false);
+
+    assertNull(myCache.get(myRoot, "b.txt", OLD_HASH));
+    assertNotNull(myCache.get(myRoot, "a.txt", OLD_HASH));
+    assertNotNull(myCache.get(myRoot, "a.txt", NEW_HASH));
+    assertNotNull(myCache.get(myRoot, "c.txt", OLD_HASH));
+  }
+
+  @Test
+  public void testLastRevisionIsForgottenWithItsBlame() {
+    put("a.txt", OLD_HASH, true);
+    put("b.txt", OLD_HASH, false);
+    put("c.txt", OLD_HASH, false);
+    put("d.txt", OLD_HASH, false);
+
+    assertNull(myCache.get(myRoot, "a.txt", OLD_HASH));
+    assertNull(myCache.getLastRevision(myRoot, "a.txt"));
+  }
+
+  @Test
+  public void testUsageSurvivesReopening() {
+    put("a.txt", OLD_HASH, false);
+    put("b.txt", OLD_HASH, false);
+    put("c.txt", OLD_HASH, false);
+    assertNotNull(myCache.get(myRoot, "a.txt", OLD_HASH));
+
+    reopen();
+    put("d.txt", OLD_HASH, false);
+    assertNull(myCache.get(myRoot, "b.txt", OLD_HASH));
+    assertNotNull(myCache.get(myRoot, "a.txt", OLD_HASH));
+  }
+
+  private void reopen() {
+    myCache.dispose();
+    myCache = new GitBlameCache(myDir, 3);
+  }
+
+  private void put(String path, String hash, boolean last) {
+    final GitBlameCache.Commit commit = new GitBlameCache.Commit(hash, new Date(1000000), "author");
+    myCache.put(myRoot, path, hash, "a\n".getBytes(), Arrays.asList(commit), last);
+  }
+
+  private static void assertCommit(GitBlameCache.Commit commit, String hash, long time, String author) {
+    assertEquals(commit.getHash(), hash);
+    assertEquals(commit.getDate().getTime(), time);
+    assertEquals(commit.getAuthor(), author);
+  }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.history.wholeTree;
+
+import com.intellij.openapi.util.Condition;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.util.AsynchConsumer;
+import git4idea.history.GitHistoryUtils;
+import git4idea.history.browser.ChangesFilter;
+import git4idea.test.GitTest;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.lang.reflect.Method;
+import java.util.*;
+
+import static org.testng.Assert.*;
+
+public class GitCommitGraphIndexTest extends GitTest {
+  private GitCommitGraphIndex myIndex;
+
+  @BeforeMethod
+  @Override
+  public void setUp(Method testMethod) throws Exception {
+    super.setUp(testMethod);
+    myIndex = new GitCommitGraphIndex();
+  }
+
+  @AfterMethod
+  @Override
+  protected void tearDown() throws Exception {
+    Disposer.dispose(myIndex);
+    super.tearDown();
+  }
+
+  @Test
+  public void testCommitsOfAllBranches() throws Exception {
+    myRepo.createAddCommit();
+    myRepo.createBranch("feature");
+    myRepo.createAddCommit();
+    myRepo.createAddCommit();
+    myRepo.checkout("master");
+    myRepo.createAddCommit();
+    myRepo.merge("feature");
+
+    assertSameAsGit(myIndex.getDateOrderedCommits(myProject, myRepo.getVFRootDir()));
+  }
+
+  @Test
+  public void testNewCommitsAreAdded() throws Exception {
+    myRepo.createAddCommit();
+    assertSameAsGit(myIndex.getDateOrderedCommits(myProject, myRepo.getVFRootDir()));
+
+    myRepo.createBranch("feature");
+    myRepo.createAddCommit();
+    myRepo.checkout("master");
+    myRepo.createAddCommit();
+    assertSameAsGit(myIndex.getDateOrderedCommits(myProject, myRepo.getVFRootDir()));
+  }
+
+  @Test
+  public void testLongerAbbreviations() throws Exception {
+    myRepo.createAddCommit();
+    assertSameAsGit(myIndex.getDateOrderedCommits(myProject, myRepo.getVFRootDir()));
+
+    // same as git does it when the repository grows
+    myRepo.config("core.abbrev", "12");
+    final List<CommitHashPlusParents> commits = myIndex.getDateOrderedCommits(myProject, myRepo.getVFRootDir());
+    assertSameAsGit(commits);
+    assertEquals(commits.get(0).getHash().length(), 12);
+  }
+
+  @Test
+  public void testNothingIsPassedIfGitFails() throws Exception {
+    myRepo.createAddCommit();
+    final List<CommitHashPlusParents> commits = new ArrayList<CommitHashPlusParents>();
+    try {
+      GitHistoryUtils.hashesWithFullParents(myProject, myRepo.getVFRootDir(), new AsynchConsumer<CommitHashPlusParents>() {
+        @Override
+        public void consume(CommitHashPlusParents commit) {
+          commits.add(commit);
+        }
+
+        @Override
+        public void finished() {
+        }
+      }, "HEAD", "no-such-revision");
+      fail("Failure of git log is not reported");
+    }
+    catch (VcsException e) {
+      // expected
+    }
+    assertTrue(commits.isEmpty());
+  }
+
+  @Test
+  public void testCommentFilter() throws Exception {
+    commit("Fix parser crash");
+    commit("Add lexer");
+    final String fix = commit("Fix lexer");
+    final List<CommitHashPlusParents> commits = myIndex.getDateOrderedCommits(myProject, myRepo.getVFRootDir());
+
+    assertMatches(commits, waitForCondition(commits, comment("fix", "lexer")), fix);
+  }
+
+  @Test
+  public void testShortWordsAreLeftToGit() throws Exception {
+    final String fix = commit("Fix a bug");
+    final List<CommitHashPlusParents> commits = myIndex.getDateOrderedCommits(myProject, myRepo.getVFRootDir());
+    assertMatches(commits, waitForCondition(commits, comment("bug")), fix);
+
+    // no trigram to look up, all messages would be read
+    assertNull(myIndex.getFilterCondition(myRepo.getVFRootDir(), commits, Arrays.<ChangesFilter.Filter>asList(comment("a"))));
+  }
+
+  @Test
+  public void testAuthorCaseIsIgnoredWithComment() throws Exception {
+    myRepo.setName("John Smith", "smith@example.com");
+    final String fix = commit("Fix lexer");
+    commit("Add lexer");
+    final List<CommitHashPlusParents> commits = myIndex.getDateOrderedCommits(myProject, myRepo.getVFRootDir());
+
+    final ChangesFilter.Author author = new ChangesFilter.Author("john");
+    assertMatches(commits, waitForCondition(commits, author));
+    // same as git, which applies --regexp-ignore-case to --author
+    assertMatches(commits, waitForCondition(commits, author, comment("fix")), fix);
+  }
+
+  @Test
+  public void testAuthorEmailIsMatched() throws Exception {
+    myRepo.setName("John Smith", "smith@example.com");
+    final String fix = commit("Fix lexer");
+    final List<CommitHashPlusParents> commits = myIndex.getDateOrderedCommits(myProject, myRepo.getVFRootDir());
+
+    // same as git, which matches --author against "name <email>"
+    assertMatches(commits, waitForCondition(commits, new ChangesFilter.Author("Smith <smith@")), fix);
+    assertMatches(commits, waitForCondition(commits, new ChangesFilter.Author("^John Smith <smith@example\\.com>$")), fix);
+  }
+
+  @Test
+  public void testUnfilteredCommitsDontNeedDetails() throws Exception {
+    myRepo.createAddCommit();
+    final List<CommitHashPlusParents> commits = myIndex.getDateOrderedCommits(myProject, myRepo.getVFRootDir());
+    final Condition<CommitHashPlusParents> condition =
+      myIndex.getFilterCondition(myRepo.getVFRootDir(), commits, Collections.<ChangesFilter.Filter>emptyList());
+    assertNotNull(condition);
+    assertTrue(condition.value(commits.get(0)));
+  }
+
+  @Test
+  public void testOutdatedCommitsAreNotFiltered() throws Exception {
+    myRepo.createAddCommit();
+    final List<CommitHashPlusParents> outdated = myIndex.getDateOrderedCommits(myProject, myRepo.getVFRootDir());
+    myRepo.createAddCommit();
+    final List<CommitHashPlusParents> commits = myIndex.getDateOrderedCommits(myProject, myRepo.getVFRootDir());
+
+    // abbreviations of the outdated commits may be different
+    final List<ChangesFilter.Filter> filters = Collections.emptyList();
+    assertNull(myIndex.getFilterCondition(myRepo.getVFRootDir(), outdated, filters));
+    assertNotNull(myIndex.getFilterCondition(myRepo.getVFRootDir(), commits, filters));
+  }
+
+  private String commit(String message) throws Exception {
+    myRepo.createFile("file" + Math.random() + ".txt", "Some content " + Math.random());
+    return myRepo.addCommit(message);
+  }
+
+  // same as GitLogUI creates it
+  private static ChangesFilter.Comment comment(String... words) {
+    final StringBuilder regexp = new StringBuilder();
+    for (String word : words) {
+      regexp.append(StringUtil.escapeToRegexp(word)).append(".*");
+    }
+    return new ChangesFilter.Comment(regexp.toString(), Arrays.asList(words));
+  }
+
+  /**
+   * Messages are indexed in background
+   */
+  private Condition<CommitHashPlusParents> waitForCondition(List<CommitHashPlusParents> commits, ChangesFilter.Filter... filters)
+    throws InterruptedException {
+    for (int i = 0; i < 300; i++) {
+      final Condition<CommitHashPlusParents> condition = myIndex.getFilterCondition(myRepo.getVFRootDir(), commits, Arrays.asList(filters));
+      if (condition != null) return condition;
+      Thread.sleep(100);
+    }
+    fail("Commit details are not indexed");
+    return null;
+  }
+
+  private static void assertMatches(List<CommitHashPlusParents> commits, Condition<CommitHashPlusParents> condition, String... fullHashes) {
+    final Set<String> actual = new HashSet<String>();
+    for (CommitHashPlusParents commit : commits) {
+      if (condition.value(commit)) {
+        actual.add(commit.getHash());
+      }
+    }
+    final Set<String> expected = new HashSet<String>();
+    for (String hash : fullHashes) {
+      for (CommitHashPlusParents commit : commits) {
+        if (hash.startsWith(commit.getHash())) {
+          expected.add(commit.getHash());
+        }
+      }
+    }
+    assertEquals(expected.size(), fullHashes.length);
+    assertEquals(actual, expected);
+  }
+
+  /**
+   * Commits are created within a second, so their order can't be compared with git log directly: the same commits
+   * with the same parents are expected, and children before parents.
+   */
+  private void assertSameAsGit(final List<CommitHashPlusParents> commits) throws Exception {
+    assertNotNull(commits);
+    final String output = myRepo.log("--pretty=format:%h %p", "HEAD", "--branches", "--tags");
+    final Set<String> expected = new HashSet<String>();
+    for (String line : StringUtil.splitByLines(output)) {
+      expected.add(line.trim());
+    }
+
+    final Set<String> actual = new HashSet<String>();
+    final Set<String> seen = new HashSet<String>();
+    for (CommitHashPlusParents commit : commits) {
+      final StringBuilder sb = new StringBuilder(commit.getHash());
+      for (AbstractHash parent : commit.getParents()) {
+        assertFalse(seen.contains(parent.getString()), "Parent " + parent.getString() + " goes before its child " + commit.getHash());
+        sb.append(' ').append(parent.getString());
+      }
+      seen.add(commit.getHash());
+      actual.add(sb.toString().trim());
+    }
+    assertEquals(actual, expected);
+  }
+}
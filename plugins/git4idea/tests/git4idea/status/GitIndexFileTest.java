@@ -0,0 +1,176 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.status;
+
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.io.FileUtil;
+import git4idea.test.GitTestUtil;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * The index files are written by git 2.39 for the same working tree: a.txt is assume-unchanged, dir/sub/c.sh is executable,
+ * and new.txt, which is missing in the version 2, is added with --intent-to-add.
+ */
+public class GitIndexFileTest {
+  private static final int FILE_MODE = 0100644;
+  private static final int EXECUTABLE_MODE = 0100755;
+
+  private File myTempDir;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    myTempDir = FileUtil.createTempDirectory("git", "index");
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    FileUtil.delete(myTempDir);
+  }
+
+  @Test
+  public void testVersion2() throws IOException {
+    final GitIndexFile index = read("v2");
+    assertPaths(index.getEntriesUnder(""), "a.txt", "dir/b.txt", "dir/sub/c.sh", "dir/sub/d.txt");
+    assertEntry(entry(index, "a.txt"), FILE_MODE, 2);
+    assertEntry(entry(index, "dir/b.txt"), FILE_MODE, 3);
+    assertEntry(entry(index, "dir/sub/c.sh"), EXECUTABLE_MODE, 10);
+    assertEntry(entry(index, "dir/sub/d.txt"), FILE_MODE, 5);
+  }
+
+  @Test
+  public void testVersion3() throws IOException {
+    final GitIndexFile index = read("v3");
+    assertPaths(index.getEntriesUnder(""), "a.txt", "dir/b.txt", "dir/sub/c.sh", "dir/sub/d.txt", "new.txt");
+    assertEntry(entry(index, "dir/sub/c.sh"), EXECUTABLE_MODE, 10);
+    assertEntry(entry(index, "new.txt"), FILE_MODE, 0);
+  }
+
+  @Test
+  public void testVersion4() throws IOException {
+    // names are prefix-compressed
+    final GitIndexFile index = read("v4");
+    assertPaths(index.getEntriesUnder(""), "a.txt", "dir/b.txt", "dir/sub/c.sh", "dir/sub/d.txt", "new.txt");
+    assertEntry(entry(index, "dir/b.txt"), FILE_MODE, 3);
+    assertEntry(entry(index, "dir/sub/d.txt"), FILE_MODE, 5);
+    assertEntry(entry(index, "new.txt"), FILE_MODE, 0);
+  }
+
+  @Test
+  public void testEntriesUnder() throws IOException {
+    final GitIndexFile index = read("v4");
+    assertPaths(index.getEntriesUnder("dir"), "dir/b.txt", "dir/sub/c.sh", "dir/sub/d.txt");
+    assertPaths(index.getEntriesUnder("dir/sub"), "dir/sub/c.sh", "dir/sub/d.txt");
+    assertPaths(index.getEntriesUnder("dir/sub/c.sh"), "dir/sub/c.sh");
+    assertPaths(index.getEntriesUnder("di"));
+  }
+
+  @Test
+  public void testCleanAndModified() throws IOException {
+    final GitIndexFile index = read("v3");
+    final GitIndexFile.Entry entry = entry(index, "dir/sub/d.txt");
+    final File file = new File(myTempDir, "d.txt");
+    FileUtil.writeToFile(file, "");
+    assertEquals(index.checkStat(entry, 5, mtime(entry), file), GitIndexFile.StatStatus.CLEAN);
+    assertEquals(index.checkStat(entry, 6, mtime(entry), file), GitIndexFile.StatStatus.MODIFIED);
+    assertEquals(index.checkStat(entry, 5, mtime(entry) + 1000, file), GitIndexFile.StatStatus.AMBIGUOUS);
+  }
+
+  @Test
+  public void testZeroSizeIsLeftToGit() throws IOException {
+    // written by 'git update-index --cacheinfo' for dir/b.txt, which is 3 bytes long, the stat data is all zeroes
+    final GitIndexFile index = read("cacheinfo");
+    final GitIndexFile.Entry entry = entry(index, "dir/b.txt");
+    assertEntry(entry, FILE_MODE, 0);
+    final File file = new File(myTempDir, "b.txt");
+    FileUtil.writeToFile(file, "abc");
+    assertEquals(index.checkStat(entry, 3, mtime(entry), file), GitIndexFile.StatStatus.AMBIGUOUS);
+  }
+
+  @Test
+  public void testAssumeUnchangedIsLeftToGit() throws IOException {
+    final GitIndexFile index = read("v2");
+    final GitIndexFile.Entry entry = entry(index, "a.txt");
+    final File file = new File(myTempDir, "a.txt");
+    FileUtil.writeToFile(file, "");
+    assertEquals(index.checkStat(entry, 2, mtime(entry), file), GitIndexFile.StatStatus.AMBIGUOUS);
+    assertEquals(index.checkStat(entry, 100, mtime(entry), file), GitIndexFile.StatStatus.AMBIGUOUS);
+  }
+
+  @Test
+  public void testIntentToAddIsLeftToGit() throws IOException {
+    final GitIndexFile index = read("v4");
+    final GitIndexFile.Entry entry = entry(index, "new.txt");
+    final File file = new File(myTempDir, "new.txt");
+    FileUtil.writeToFile(file, "");
+    assertEquals(index.checkStat(entry, 0, mtime(entry), file), GitIndexFile.StatStatus.AMBIGUOUS);
+  }
+
+  @Test
+  public void testChangedExecutableBitIsLeftToGit() throws IOException {
+    if (SystemInfo.isWindows) return;
+    final GitIndexFile index = read("v3");
+    final GitIndexFile.Entry entry = entry(index, "dir/sub/c.sh");
+    final File file = new File(myTempDir, "c.sh");
+    FileUtil.writeToFile(file, "");
+    assertTrue(file.setExecutable(false));
+    assertEquals(index.checkStat(entry, 10, mtime(entry), file), GitIndexFile.StatStatus.AMBIGUOUS);
+    assertTrue(file.setExecutable(true));
+    assertEquals(index.checkStat(entry, 10, mtime(entry), file), GitIndexFile.StatStatus.CLEAN);
+  }
+
+  private GitIndexFile read(String name) throws IOException {
+    final File indexFile = new File(myTempDir, name);
+    FileUtil.copy(new File(new File(GitTestUtil.getTestDataFolder(), "index"), name), indexFile);
+    // the index is written long after its entries, so that none of them is racily clean
+    assertTrue(indexFile.setLastModified(System.currentTimeMillis() + 24 * 60 * 60 * 1000L));
+    return GitIndexFile.read(indexFile);
+  }
+
+  private static long mtime(GitIndexFile.Entry entry) {
+    return entry.mtimeSeconds * 1000L + entry.mtimeNanoSeconds / 1000000;
+  }
+
+  private static GitIndexFile.Entry entry(GitIndexFile index, String path) {
+    final List<GitIndexFile.Entry> entries = index.getEntriesUnder(path);
+    assertEquals(entries.size(), 1);
+    return entries.get(0);
+  }
+
+  private static void assertEntry(GitIndexFile.Entry entry, int mode, int size) {
+    assertEquals(entry.getStage(), 0);
+    assertEquals(entry.mode, mode);
+    assertEquals(entry.size, size);
+  }
+
+  private static void assertPaths(List<GitIndexFile.Entry> entries, String... paths) {
+    final List<String> actual = new ArrayList<String>();
+    for (GitIndexFile.Entry entry : entries) {
+      actual.add(entry.path);
+    }
+    assertEquals(actual, Arrays.asList(paths));
+  }
+}
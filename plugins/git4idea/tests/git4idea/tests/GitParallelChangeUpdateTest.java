@@ -0,0 +1,145 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.tests;
+
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.ProjectLevelVcsManager;
+import com.intellij.openapi.vcs.VcsDirectoryMapping;
+import com.intellij.openapi.vcs.changes.*;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import git4idea.GitVcs;
+import git4idea.test.GitTest;
+import git4idea.test.GitTestRepository;
+import git4idea.test.GitTestUtil;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.*;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Updates the same changes with vcs.parallel.change.update turned on and off, and checks that the results are the same.
+ */
+public class GitParallelChangeUpdateTest extends GitTest {
+  private static final String PARALLEL_KEY = "vcs.parallel.change.update";
+
+  private GitTestRepository myChildRepo;
+  private Map<String, VirtualFile> myFiles;
+  private Map<String, VirtualFile> myChildFiles;
+  private ChangeListManagerImpl myChangeListManager;
+  private VcsDirtyScopeManager myDirtyScopeManager;
+
+  @BeforeMethod
+  @Override
+  protected void setUp(Method testMethod) throws Exception {
+    super.setUp(testMethod);
+    myFiles = GitTestUtil.createFileStructure(myProject, myRepo, "a.txt", "b.txt", "dir/c.txt");
+    myRepo.addCommit();
+    myRepo.refresh();
+
+    final File childDir = new File(myRepo.getRootDir(), "child");
+    assertTrue(childDir.mkdir());
+    myChildRepo = GitTestRepository.init(childDir);
+    myChildRepo.setName(MAIN_USER_NAME, MAIN_USER_EMAIL);
+    LocalFileSystem.getInstance().refreshAndFindFileByIoFile(childDir);
+    myChildRepo.refresh();
+    myChildFiles = GitTestUtil.createFileStructure(myProject, myChildRepo, "in1.txt", "in2.txt", "dir/in3.txt");
+    myChildRepo.addCommit();
+    myChildRepo.refresh();
+
+    ProjectLevelVcsManager.getInstance(myProject).setDirectoryMappings(
+      Arrays.asList(new VcsDirectoryMapping(myRepo.getRootDir().getPath(), GitVcs.getKey().getName()),
+                    new VcsDirectoryMapping(myChildRepo.getRootDir().getPath(), GitVcs.getKey().getName())));
+    myChangeListManager = ChangeListManagerImpl.getInstanceImpl(myProject);
+    myDirtyScopeManager = VcsDirtyScopeManager.getInstance(myProject);
+  }
+
+  @AfterMethod
+  @Override
+  protected void tearDown() throws Exception {
+    Registry.get(PARALLEL_KEY).resetToDefault();
+    super.tearDown();
+  }
+
+  @Test
+  public void testEverythingDirty() throws Exception {
+    editFileInCommand(myProject, myFiles.get("a.txt"), "new a");
+    editFileInCommand(myProject, myChildFiles.get("in1.txt"), "new in1");
+    deleteFileInCommand(myProject, myChildFiles.get("dir/in3.txt"));
+    createFileInCommand("unversioned.txt", "");
+    createFileInCommand(myChildRepo.getVFRootDir(), "unversioned.txt", "");
+
+    final List<String> serial = update(false, true);
+    assertEquals(update(true, true), serial);
+    assertTrue(serial.contains("DELETED " + LocalChangeList.DEFAULT_NAME + " " + myChildRepo.getRootDir().getPath() + "/dir/in3.txt"), serial.toString());
+  }
+
+  @Test
+  public void testDirtyFiles() throws Exception {
+    editFileInCommand(myProject, myFiles.get("a.txt"), "new a");
+    editFileInCommand(myProject, myChildFiles.get("in1.txt"), "new in1");
+    editFileInCommand(myProject, myChildFiles.get("in2.txt"), "new in2");
+    final VirtualFile unversioned = createFileInCommand(myChildRepo.getVFRootDir(), "unversioned.txt", "");
+    update(false, true);
+
+    final LocalChangeList list = myChangeListManager.addChangeList("other", null);
+    myChangeListManager.moveChangesTo(list, myChangeListManager.getChange(myChildFiles.get("in2.txt")));
+    myChangeListManager.ensureUpToDate(false);
+
+    // a change disappears, an unversioned file is dropped, and a new change appears in each of the roots
+    editFileInCommand(myProject, myFiles.get("a.txt"), "a.txt");
+    editFileInCommand(myProject, myFiles.get("b.txt"), "new b");
+    editFileInCommand(myProject, myChildFiles.get("in2.txt"), "newer in2");
+    deleteFileInCommand(myProject, unversioned);
+    final List<String> parallel = update(true, false);
+
+    assertEquals(update(false, true), parallel);
+    assertTrue(parallel.contains("MODIFIED other " + myChildFiles.get("in2.txt").getPath()), parallel.toString());
+  }
+
+  /**
+   * Refreshes the changes, either for the files which became dirty since the last update or for the whole project,
+   * and returns what ChangeListManager knows about them.
+   */
+  private List<String> update(boolean parallel, boolean everything) {
+    Registry.get(PARALLEL_KEY).setValue(parallel);
+    if (everything) {
+      myDirtyScopeManager.markEverythingDirty();
+    }
+    myChangeListManager.ensureUpToDate(false);
+
+    final List<String> result = new ArrayList<String>();
+    for (LocalChangeList list : myChangeListManager.getChangeLists()) {
+      for (Change change : list.getChanges()) {
+        final ContentRevision revision = change.getAfterRevision() == null ? change.getBeforeRevision() : change.getAfterRevision();
+        final FilePath path = revision.getFile();
+        result.add(change.getFileStatus().getId() + " " + list.getName() + " " + path.getPath());
+      }
+    }
+    for (VirtualFile file : myChangeListManager.getUnversionedFiles()) {
+      result.add("UNVERSIONED " + file.getPath());
+    }
+    Collections.sort(result);
+    return result;
+  }
+}
@@ -15,7 +15,9 @@
  */
 package org.jetbrains.idea.svn;
 
+import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.Nullable;
 import org.tmatesoft.svn.core.wc.SVNStatusClient;
 
 public interface StatusWalkerPartner {
@@ -23,4 +25,6 @@ public interface StatusWalkerPartner {
   void checkCanceled();
   boolean isExcluded(final VirtualFile vFile);
   boolean isIgnoredIdeaLevel(final VirtualFile vFile);
+  @Nullable
+  ProgressIndicator getProgressIndicator();
 }
@@ -23,6 +23,7 @@ import com.intellij.openapi.roots.FileIndexFacade;
 import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.vcs.changes.ChangeListManager;
 import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.Nullable;
 import org.tmatesoft.svn.core.SVNCancelException;
 import org.tmatesoft.svn.core.SVNException;
 import org.tmatesoft.svn.core.wc.ISVNEventHandler;
@@ -84,4 +85,9 @@ public class StatusWalkerPartnerImpl implements StatusWalkerPartner {
   public boolean isIgnoredIdeaLevel(VirtualFile vFile) {
     return myClManager.isIgnoredFile(vFile);
   }
+
+  @Nullable
+  public ProgressIndicator getProgressIndicator() {
+    return myIndicator;
+  }
 }
@@ -87,14 +87,14 @@ public class SvnChangeProvider implements ChangeProvider {
 
       final SvnRecursiveStatusWalker walker = new SvnRecursiveStatusWalker(myVcs.getProject(), statusReceiver.getMulticaster(), partner);
 
-      for (FilePath path : zipper.getRecursiveDirs()) {
-        walker.go(path, SVNDepth.INFINITY);
-      }
+      walker.go(zipper.getRecursiveDirs(), SVNDepth.INFINITY);
 
       partner.setFileProvider(fileProvider);
+      final List<FilePath> nonRecursiveDirs = new ArrayList<FilePath>(nonRecursiveMap.size());
       for (SvnScopeZipper.MyDirNonRecursive item : nonRecursiveMap.values()) {
-        walker.go(item.getDir(), SVNDepth.IMMEDIATES);
+        nonRecursiveDirs.add(item.getDir());
       }
+      walker.go(nonRecursiveDirs, SVNDepth.IMMEDIATES);
 
       // they are taken under non recursive: ENTRIES file is read anyway, so we get to know parent status also for free
       /*for (FilePath path : zipper.getSingleFiles()) {
@@ -18,18 +18,22 @@ package org.jetbrains.idea.svn;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.FilePathImpl;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.Processor;
+import com.intellij.util.concurrency.BoundedTaskExecutor;
 import com.intellij.vcsUtil.VcsUtil;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.ide.PooledThreadExecutor;
 import org.jetbrains.idea.svn.commandLine.SvnCommandLineStatusClient;
 import org.jetbrains.idea.svn.portable.JavaHLSvnStatusClient;
 import org.jetbrains.idea.svn.portable.SvnStatusClientI;
@@ -38,61 +42,98 @@ import org.tmatesoft.svn.core.SVNDepth;
 import org.tmatesoft.svn.core.SVNErrorCode;
 import org.tmatesoft.svn.core.SVNException;
 import org.tmatesoft.svn.core.SVNNodeKind;
+import org.tmatesoft.svn.core.SVNURL;
 import org.tmatesoft.svn.core.internal.wc.SVNFileUtil;
 import org.tmatesoft.svn.core.wc.*;
 
 import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 
+/**
+ * Walks the working copies under the given paths issuing status calls for each of them, and for unversioned directories
+ * which may contain working copies.
+ * <p/>
+ * With the <code>svn.parallel.status</code> registry key on, the walked roots, nested working copies and unversioned
+ * directories are processed concurrently on pooled threads, <code>svn.parallel.status.threads</code> at a time.
+ * The receiver is called by one thread at a time then.
+ */
 public class SvnRecursiveStatusWalker {
   private static final Logger LOG = Logger.getInstance("#org.jetbrains.idea.svn.SvnRecursiveStatusWalker");
   private final StatusWalkerPartner myPartner;
   private final Project myProject;
   private final StatusReceiver myReceiver;
-  private final LinkedList<MyItem> myQueue;
-  private final MyHandler myHandler;
+  private final int myThreads;
 
   public SvnRecursiveStatusWalker(final Project project, final StatusReceiver receiver, final StatusWalkerPartner partner) {
     myProject = project;
-    myReceiver = receiver;
     myPartner = partner;
-    myQueue = new LinkedList<MyItem>();
-    myHandler = new MyHandler();
+    myThreads = Registry.is("svn.parallel.status") ? Registry.intValue("svn.parallel.status.threads") : 1;
+    myReceiver = myThreads > 1 ? new SynchronizedReceiver(receiver) : receiver;
   }
 
   public void go(final FilePath rootPath, final SVNDepth depth) throws SVNException {
-    final MyItem root = new MyItem(myProject, rootPath, depth, myPartner.createStatusClient(), false);
-    myQueue.add(root);
+    go(Collections.singletonList(rootPath), depth);
+  }
+
+  public void go(final Collection<FilePath> rootPaths, final SVNDepth depth) throws SVNException {
+    final LinkedList<MyItem> queue = new LinkedList<MyItem>();
+    for (FilePath rootPath : rootPaths) {
+      queue.add(new MyItem(myProject, rootPath, depth, myPartner.createStatusClient(), false));
+    }
+    if (myThreads > 1 && !queue.isEmpty()) {
+      new ConcurrentWalk(myThreads).run(queue);
+      return;
+    }
 
-    while (! myQueue.isEmpty()) {
+    final MyHandler handler = new MyHandler(queue);
+    int processed = 0;
+    while (! queue.isEmpty()) {
       myPartner.checkCanceled();
 
-      final MyItem item = myQueue.removeFirst();
-      final FilePath path = item.getPath();
-      final File ioFile = path.getIOFile();
+      final MyItem item = queue.removeFirst();
+      reportProgress(item, processed, processed + 1 + queue.size());
+      processItem(item, handler);
+      processed++;
+    }
+  }
+
+  /**
+   * Working copies and directories found while processing the item are added to the queue of the handler.
+   */
+  private void processItem(final MyItem item, final MyHandler handler) throws SVNException {
+    final FilePath path = item.getPath();
+    final File ioFile = path.getIOFile();
 
-      if (path.isDirectory()) {
-        myHandler.setCurrentItem(item);
-        try {
-          final SvnStatusClientI client = item.getClient(ioFile);
-          client.doStatus(ioFile, SVNRevision.WORKING, item.getDepth(), false, false, true, true, myHandler, null);
-          myHandler.checkIfCopyRootWasReported(null, ioFile);
-        }
-        catch (SVNException e) {
-          handleStatusException(item, path, e);
-        }
-      } else {
-        try {
-          final SVNStatus status = item.getClient().doStatus(ioFile, false, false);
-          myReceiver.process(path, status);
-        } catch (SVNException e) {
-          handleStatusException(item, path, e);
-        }
+    if (path.isDirectory()) {
+      handler.setCurrentItem(item);
+      try {
+        final SvnStatusClientI client = item.getClient(ioFile);
+        client.doStatus(ioFile, SVNRevision.WORKING, item.getDepth(), false, false, true, true, handler, null);
+        handler.checkIfCopyRootWasReported(null, ioFile);
+      }
+      catch (SVNException e) {
+        handleStatusException(item, path, e, handler.myQueue);
+      }
+    } else {
+      try {
+        final SVNStatus status = item.getClient().doStatus(ioFile, false, false);
+        myReceiver.process(path, status);
+      } catch (SVNException e) {
+        handleStatusException(item, path, e, handler.myQueue);
       }
     }
   }
 
-  private void handleStatusException(MyItem item, FilePath path, SVNException e) throws SVNException {
+  private void reportProgress(final MyItem item, final int processedBefore, final int total) {
+    final ProgressIndicator indicator = myPartner.getProgressIndicator();
+    if (indicator != null) {
+      indicator.setText2(SvnBundle.message("progress.text2.checking.status", item.getPath().getPresentableUrl(), processedBefore + 1, total));
+    }
+  }
+
+  private void handleStatusException(MyItem item, FilePath path, SVNException e, final LinkedList<MyItem> queue) throws SVNException {
     final SVNErrorCode errorCode = e.getErrorMessage().getErrorCode();
     if (SVNErrorCode.WC_NOT_DIRECTORY.equals(errorCode) || SVNErrorCode.WC_NOT_FILE.equals(errorCode)) {
       final VirtualFile virtualFile = path.getVirtualFile();
@@ -102,7 +143,7 @@ public class SvnRecursiveStatusWalker {
           myReceiver.processUnversioned(virtualFile);
 
           if (virtualFile.isDirectory()) {
-            processRecursively(virtualFile, item.getDepth());
+            processRecursively(virtualFile, item.getDepth(), queue);
           }
         }
       }
@@ -161,7 +202,7 @@ public class SvnRecursiveStatusWalker {
     }
   }
 
-  private void processRecursively(final VirtualFile vFile, final SVNDepth prevDepth) {
+  private void processRecursively(final VirtualFile vFile, final SVNDepth prevDepth, final LinkedList<MyItem> queue) {
     if (SVNDepth.EMPTY.equals(prevDepth)) return;
     if (myPartner.isIgnoredIdeaLevel(vFile)) {
       myReceiver.processIgnored(vFile);
@@ -187,7 +228,7 @@ public class SvnRecursiveStatusWalker {
         }
         if (file.isDirectory() && new File(file, SVNFileUtil.getAdminDirectoryName()).exists()) {
           final MyItem childItem = new MyItem(myProject, path, newDepth, myPartner.createStatusClient(), true);
-          myQueue.add(childItem);
+          queue.add(childItem);
         } else if (vf != null) {
           myReceiver.processUnversioned(vf);
         }
@@ -210,7 +251,7 @@ public class SvnRecursiveStatusWalker {
       directoryFilter = new Processor<File>() {
         @Override
         public boolean process(File file) {
-          return ! Comparing.equal(lastIgnored, file) && (myQueue.isEmpty() || ! FileUtil.filesEqual(myQueue.getLast().getPath().getIOFile(), file));
+          return ! Comparing.equal(lastIgnored, file) && (queue.isEmpty() || ! FileUtil.filesEqual(queue.getLast().getPath().getIOFile(), file));
         }
       };
       processor = checkDirProcessor;
@@ -219,9 +260,14 @@ public class SvnRecursiveStatusWalker {
   }
 
   private class MyHandler implements ISVNStatusHandler {
+    private final LinkedList<MyItem> myQueue;
     private MyItem myCurrentItem;
     private boolean myMetCurrentItem;
 
+    private MyHandler(final LinkedList<MyItem> queue) {
+      myQueue = queue;
+    }
+
     public void setCurrentItem(MyItem currentItem) {
       myCurrentItem = currentItem;
       myMetCurrentItem = false;
@@ -252,7 +298,7 @@ public class SvnRecursiveStatusWalker {
         if (SVNStatusType.STATUS_UNVERSIONED.equals(status) || SVNStatusType.UNKNOWN.equals(status)) {
           if (vf != null) {
             myReceiver.processUnversioned(vf);
-            processRecursively(vf, myCurrentItem.getDepth());
+            processRecursively(vf, myCurrentItem.getDepth(), myQueue);
           }
           return;
         }
@@ -308,6 +354,128 @@ public class SvnRecursiveStatusWalker {
     }
   }
 
+  /**
+   * Processes each item on a pooled thread, and schedules the items found while processing it the same way.
+   * The first error stops scheduling, and is rethrown after the running items are processed.
+   */
+  private class ConcurrentWalk {
+    private final BoundedTaskExecutor myExecutor;
+    private final Object myLock = new Object();
+    private int myScheduled;
+    private int myFinished;
+    private Throwable myError;
+
+    private ConcurrentWalk(final int threads) {
+      myExecutor = new BoundedTaskExecutor(new PooledThreadExecutor(), threads);
+    }
+
+    private void run(final Collection<MyItem> roots) throws SVNException {
+      for (MyItem root : roots) {
+        schedule(root);
+      }
+      synchronized (myLock) {
+        while (myFinished < myScheduled) {
+          try {
+            myLock.wait(100);
+          }
+          catch (InterruptedException e) {
+            setError(new ProcessCanceledException(e));
+          }
+          if (myError == null) {
+            try {
+              myPartner.checkCanceled();
+            }
+            catch (ProcessCanceledException e) {
+              setError(e);
+            }
+          }
+        }
+      }
+      if (myError instanceof SVNException) throw (SVNException)myError;
+      if (myError instanceof RuntimeException) throw (RuntimeException)myError;
+      if (myError instanceof Error) throw (Error)myError;
+    }
+
+    private void schedule(final MyItem item) {
+      synchronized (myLock) {
+        if (myError != null) return;
+        myScheduled++;
+      }
+      myExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            final int finished;
+            final int scheduled;
+            synchronized (myLock) {
+              if (myError != null) return;
+              finished = myFinished;
+              scheduled = myScheduled;
+            }
+            myPartner.checkCanceled();
+            reportProgress(item, finished, scheduled);
+
+            final LinkedList<MyItem> found = new LinkedList<MyItem>();
+            processItem(item, new MyHandler(found));
+            for (MyItem each : found) {
+              schedule(each);
+            }
+          }
+          catch (Throwable e) {
+            synchronized (myLock) {
+              setError(e);
+            }
+          }
+          finally {
+            synchronized (myLock) {
+              myFinished++;
+              myLock.notifyAll();
+            }
+          }
+        }
+      });
+    }
+
+    private void setError(final Throwable e) {
+      if (myError == null) {
+        myError = e;
+      }
+    }
+  }
+
+  private static class SynchronizedReceiver implements StatusReceiver {
+    private final StatusReceiver myDelegate;
+
+    private SynchronizedReceiver(final StatusReceiver delegate) {
+      myDelegate = delegate;
+    }
+
+    @Override
+    public synchronized void process(FilePath path, SVNStatus status) throws SVNException {
+      myDelegate.process(path, status);
+    }
+
+    @Override
+    public synchronized void processIgnored(VirtualFile vFile) {
+      myDelegate.processIgnored(vFile);
+    }
+
+    @Override
+    public synchronized void processUnversioned(VirtualFile vFile) {
+      myDelegate.processUnversioned(vFile);
+    }
+
+    @Override
+    public synchronized void processCopyRoot(VirtualFile file, SVNURL url, WorkingCopyFormat format, SVNURL rootURL) {
+      myDelegate.processCopyRoot(file, url, format, rootURL);
+    }
+
+    @Override
+    public synchronized void bewareRoot(VirtualFile vf, SVNURL url, WorkingCopyFormat copyFormat) {
+      myDelegate.bewareRoot(vf, url, copyFormat);
+    }
+  }
+
   private VirtualFile getVirtualFile(File ioFile) {
     final LocalFileSystem lfs = LocalFileSystem.getInstance();
     VirtualFile vFile = lfs.findFileByIoFile(ioFile);
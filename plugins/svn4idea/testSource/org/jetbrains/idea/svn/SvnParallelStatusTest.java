@@ -0,0 +1,109 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.idea.svn;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vcs.FileStatus;
+import com.intellij.openapi.vcs.changes.Change;
+import com.intellij.openapi.vcs.changes.ChangeListManager;
+import com.intellij.openapi.vcs.changes.ChangeListManagerImpl;
+import com.intellij.openapi.vcs.changes.VcsDirtyScopeManager;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class SvnParallelStatusTest extends Svn17TestCase {
+  private ChangeListManagerImpl clManager;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    Registry.get("svn.parallel.status").setValue(true);
+    Registry.get("svn.parallel.status.threads").setValue(2);
+
+    clManager = (ChangeListManagerImpl) ChangeListManager.getInstance(myProject);
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    Registry.get("svn.parallel.status").resetToDefault();
+    Registry.get("svn.parallel.status.threads").resetToDefault();
+    super.tearDown();
+  }
+
+  @Test
+  public void testChangesInNestedCopies() throws Exception {
+    prepareInnerCopy(false);
+
+    final File sourceDir = new File(myWorkingCopyDir.getPath(), "source");
+    final VirtualFile outerFile = LocalFileSystem.getInstance().refreshAndFindFileByIoFile(new File(sourceDir, "s1.txt"));
+    final VirtualFile innerFile = LocalFileSystem.getInstance().refreshAndFindFileByIoFile(new File(sourceDir, "inner1/inner2/inner/t11.txt"));
+    Assert.assertNotNull(outerFile);
+    Assert.assertNotNull(innerFile);
+    editFileInCommand(outerFile, "outer changed");
+    editFileInCommand(innerFile, "inner changed");
+
+    VcsDirtyScopeManager.getInstance(myProject).markEverythingDirty();
+    clManager.ensureUpToDate(false);
+
+    final Change outerChange = clManager.getChange(outerFile);
+    final Change innerChange = clManager.getChange(innerFile);
+    Assert.assertNotNull(outerChange);
+    Assert.assertNotNull(innerChange);
+    Assert.assertEquals(FileStatus.MODIFIED, outerChange.getFileStatus());
+    Assert.assertEquals(FileStatus.MODIFIED, innerChange.getFileStatus());
+
+    final List<RootUrlInfo> infos = SvnVcs.getInstance(myProject).getSvnFileUrlMapping().getAllWcInfos();
+    Assert.assertEquals(2, infos.size());
+    final Set<String> expectedUrls = new HashSet<String>();
+    expectedUrls.add(StringUtil.toLowerCase(myRepoUrl + "/root/source"));
+    expectedUrls.add(StringUtil.toLowerCase(myRepoUrl + "/root/target"));
+    for (RootUrlInfo info : infos) {
+      expectedUrls.remove(StringUtil.toLowerCase(info.getAbsoluteUrl()));
+    }
+    Assert.assertTrue(expectedUrls.isEmpty());
+  }
+
+  @Test
+  public void testUnversionedDirectoryWithCopyInside() throws Exception {
+    prepareInnerCopy(false);
+
+    final File sourceDir = new File(myWorkingCopyDir.getPath(), "source");
+    final File unversionedIoFile = new File(sourceDir, "inner1/inner2/unversioned.txt");
+    FileUtil.writeToFile(unversionedIoFile, "text");
+    final VirtualFile unversionedFile = LocalFileSystem.getInstance().refreshAndFindFileByIoFile(unversionedIoFile);
+    Assert.assertNotNull(unversionedFile);
+    final VirtualFile innerFile = LocalFileSystem.getInstance().refreshAndFindFileByIoFile(new File(sourceDir, "inner1/inner2/inner/t12.txt"));
+    Assert.assertNotNull(innerFile);
+    editFileInCommand(innerFile, "inner changed");
+
+    VcsDirtyScopeManager.getInstance(myProject).markEverythingDirty();
+    clManager.ensureUpToDate(false);
+
+    Assert.assertTrue(clManager.isUnversioned(unversionedFile));
+    final Change innerChange = clManager.getChange(innerFile);
+    Assert.assertNotNull(innerChange);
+    Assert.assertEquals(FileStatus.MODIFIED, innerChange.getFileStatus());
+  }
+}